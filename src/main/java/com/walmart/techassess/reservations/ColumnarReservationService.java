@@ -0,0 +1,468 @@
+package com.walmart.techassess.reservations;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.walmart.techassess.stadium.RowFragment;
+
+/**
+ * A reservation service that keeps the active holds in {@link HoldColumns} instead of a {@link SeatHold} each
+ *
+ * An on-sale makes a lot of holds that don't live long. With {@link ReservationServiceImpl} every one of them is a
+ * SeatHold, a Reservation, a TreeSet and it's entries, plus the entries in the maps.. all of which the GC has to
+ * trace while the hold is active. Here a hold is a slot in the columns, and the customers are interned, so the
+ * email of a customer is kept once no matter how many holds the customer has
+ *
+ * The SeatHolds handed out are copies of the columns, made when they are asked for. They die young, which is
+ * cheap for the GC. The fragments in them are the live ones, like the fragments of the holds of
+ * {@link ReservationServiceImpl}.. but a copy doesn't see fragments that are released after it was made, or a
+ * later extension. Look the hold up again for that
+ *
+ * The owners of the seats are kept in a {@link SeatOwnerIndex}, an entry per fragment, like in
+ * {@link ReservationServiceImpl}
+ *
+ * Expiry is a scan over the expiry column, instead of a priority queue. Reservations are kept on the heap,
+ * like in {@link ReservationServiceImpl}
+ *
+ * All the holds are behind one read write lock. The lookups share it, everything else takes it exclusively
+ *
+ */
+public class ColumnarReservationService implements ReservationService {
+
+	/**
+	 * An interned customer.. the holds are a chain in the columns, the reservations are kept here
+	 */
+	static class Customer {
+		final int id;
+		final String email;
+		int firstHold = HoldColumns.NONE;
+		int lastHold = HoldColumns.NONE;
+		final List<String> confirmationCodes = new ArrayList<String>(1);
+
+		Customer(int id, String email) {
+			this.id = id;
+			this.email = email;
+		}
+
+		boolean isEmpty() {
+			return firstHold==HoldColumns.NONE&&confirmationCodes.isEmpty();
+		}
+	}
+
+	final HoldColumns columns = new HoldColumns();
+	// the customers that have holds or reservations, by email and by ID
+	final Map<String, Customer> customers = new HashMap<String, Customer>();
+	Customer[] customersById = new Customer[1024];
+	// the IDs of customers that are gone, for new customers
+	int[] freeCustomerIds = new int[1024];
+	int numFreeCustomerIds;
+	int nextCustomerId;
+	// this map contains all the reservations keyed by reservation confirmation code
+	final Map<String, SeatHold> reservations = new ConcurrentHashMap<String, SeatHold>();
+	// the owners of the fragments of the holds and reservations
+	final SeatOwnerIndex owners = new SeatOwnerIndex();
+	// generates the hold IDs
+	int holdSequence;
+	// the earliest time at which a hold might expire.. lets the sweep check if there is anything to do without a lock
+	volatile long nextExpiry = Long.MAX_VALUE;
+	// the hold timeout in milliseconds
+	final int timeout;
+	// the maximum time by which a hold can be extended, in milliseconds
+	final long maxExtension;
+	// tells the time of the holds
+	final Clock clock;
+
+	final ReadWriteLock latch = new ReentrantReadWriteLock();
+	final Lock readLock = latch.readLock();
+	final Lock writeLock = latch.writeLock();
+
+	/**
+	 * Constructor.. holds can be extended by at most the timeout
+	 * @param timeout - the hold timeout in milliseconds
+	 */
+	public ColumnarReservationService(int timeout) {
+		this(timeout, timeout);
+	}
+
+	/**
+	 * Constructor
+	 * @param timeout - the hold timeout in milliseconds
+	 * @param maxExtension - the maximum time by which a hold can be extended, in milliseconds
+	 */
+	public ColumnarReservationService(int timeout, long maxExtension) {
+		this(timeout, maxExtension, Clock.systemUTC());
+	}
+
+	/**
+	 * Constructor
+	 * @param timeout - the hold timeout in milliseconds
+	 * @param maxExtension - the maximum time by which a hold can be extended, in milliseconds
+	 * @param clock - the time of the holds and their expiry
+	 */
+	public ColumnarReservationService(int timeout, long maxExtension, Clock clock) {
+		super();
+		assert maxExtension>=0;
+		if(clock==null) throw new IllegalArgumentException("Need a clock");
+		this.timeout = timeout;
+		this.maxExtension = maxExtension;
+		this.clock = clock;
+	}
+
+	@Override
+	public SeatHold addHold(SortedSet<RowFragment> rowsAllocated, String customerEmail) {
+		long timestampHold = clock.millis();
+		RowFragment[] fragments = rowsAllocated.toArray(new RowFragment[rowsAllocated.size()]);
+		writeLock.lock();
+		try
+		{
+			Customer customer = intern(customerEmail);
+			// a sequence never hands out the same ID twice
+			int slot = columns.add(++holdSequence, customer.id, fragments, timestampHold, timestampHold+timeout);
+			// the newest hold goes at the end of the customer's chain
+			columns.setPreviousOfCustomer(slot, customer.lastHold);
+			if(customer.lastHold==HoldColumns.NONE) customer.firstHold = slot;
+			else columns.setNextOfCustomer(customer.lastHold, slot);
+			customer.lastHold = slot;
+			owners.put(Arrays.asList(fragments), new SeatOwner(holdSequence, customerEmail, null));
+			if(timestampHold+timeout<nextExpiry) nextExpiry = timestampHold+timeout;
+			return toSeatHold(slot);
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public SeatHold findHold(int seatHoldId) {
+		readLock.lock();
+		try
+		{
+			int slot = columns.slotOf(seatHoldId);
+			return (slot==HoldColumns.NONE)?null:toSeatHold(slot);
+		}
+		finally
+		{
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public String reserve(int seatHoldId) {
+		writeLock.lock();
+		try
+		{
+			int slot = columns.slotOf(seatHoldId);
+			if(slot==HoldColumns.NONE)
+			{
+				throw new HoldExpiredException(seatHoldId);
+			}
+			// reservations live on the heap.. this is the last copy of the hold
+			SeatHold hold = toSeatHold(slot);
+			String confirmationCode = ReservationServiceImpl.randomConfirmationCode();
+			while(reservations.putIfAbsent(confirmationCode, hold)!=null)
+			{
+				// the rare collision with an existing code
+				confirmationCode = ReservationServiceImpl.randomConfirmationCode();
+			}
+			customersById[columns.customer(slot)].confirmationCodes.add(confirmationCode);
+			owners.put(hold.getReservation().getRowsReserved(), new SeatOwner(seatHoldId, hold.getCustomerEmailAddress(), confirmationCode));
+			removeHold(slot);
+			return confirmationCode;
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public SeatHold extendHold(int seatHoldId, long extraMillis) {
+		assert extraMillis>0;
+		writeLock.lock();
+		try
+		{
+			int slot = columns.slotOf(seatHoldId);
+			long now = clock.millis();
+			if(slot==HoldColumns.NONE||columns.timestampExpiry(slot)<now)
+			{
+				// too late.. the hold has expired, even if the sweep hasn't removed it yet
+				throw new HoldExpiredException(seatHoldId);
+			}
+			long timestampExpiry = columns.timestampExpiry(slot);
+			long latestExpiry = columns.timestampHold(slot)+timeout+maxExtension;
+			columns.setTimestampExpiry(slot, Math.max(timestampExpiry, Math.min(timestampExpiry+extraMillis, latestExpiry)));
+			return toSeatHold(slot);
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public SortedMap<RowFragment, Integer> releaseSeats(int seatHoldId, int numSeats) {
+		assert numSeats>0;
+		writeLock.lock();
+		try
+		{
+			int slot = columns.slotOf(seatHoldId);
+			if(slot==HoldColumns.NONE||columns.timestampExpiry(slot)<clock.millis())
+			{
+				throw new HoldExpiredException(seatHoldId);
+			}
+			RowFragment[] fragments = columns.seats(slot);
+			if(numSeats>=numSeats(fragments))
+			{
+				throw new IllegalArgumentException("Cannot release all the seats of a hold");
+			}
+			// the last fragments have the worst seats.. give those back first
+			SortedMap<RowFragment, Integer> result = new TreeMap<RowFragment, Integer>();
+			int numFragments = fragments.length;
+			while(numSeats>0)
+			{
+				RowFragment last = fragments[numFragments-1];
+				int seatsToRelease = Math.min(numSeats, last.getNumSeats());
+				result.put(last, seatsToRelease);
+				if(seatsToRelease==last.getNumSeats()) numFragments--;
+				numSeats-=seatsToRelease;
+			}
+			if(numFragments<fragments.length)
+			{
+				columns.setSeats(slot, Arrays.copyOf(fragments, numFragments));
+				owners.remove(Arrays.asList(fragments).subList(numFragments, fragments.length));
+			}
+			return result;
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public Reservation getReservation(String confirmationCode) {
+		SeatHold hold = reservations.get(confirmationCode);
+		return (hold==null)?null:hold.getReservation();
+	}
+
+	@Override
+	public ReservationSnapshot snapshotReservations() {
+		// reservations are made under the write lock
+		readLock.lock();
+		try
+		{
+			String[] confirmationCodes = new String[reservations.size()];
+			SeatHold[] reserved = new SeatHold[confirmationCodes.length];
+			int i = 0;
+			for(Map.Entry<String, SeatHold> entry: reservations.entrySet())
+			{
+				confirmationCodes[i] = entry.getKey();
+				reserved[i++] = entry.getValue();
+			}
+			return new ReservationSnapshot(confirmationCodes, reserved, null);
+		}
+		finally
+		{
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public SeatOwner findOwner(RowFragment fragment) {
+		return owners.find(fragment);
+	}
+
+	@Override
+	public boolean isValidHoldId(int seatHoldId) {
+		readLock.lock();
+		try
+		{
+			return columns.slotOf(seatHoldId)!=HoldColumns.NONE;
+		}
+		finally
+		{
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public List<SeatHold> findHolds(String customerEmail) {
+		readLock.lock();
+		try
+		{
+			Customer customer = customers.get(customerEmail);
+			if(customer==null) return Collections.emptyList();
+			List<SeatHold> result = new ArrayList<SeatHold>();
+			for(int slot=customer.firstHold; slot!=HoldColumns.NONE; slot=columns.nextOfCustomer(slot))
+			{
+				result.add(toSeatHold(slot));
+			}
+			return result;
+		}
+		finally
+		{
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public List<String> findConfirmationCodes(String customerEmail) {
+		readLock.lock();
+		try
+		{
+			Customer customer = customers.get(customerEmail);
+			if(customer==null) return Collections.emptyList();
+			return new ArrayList<String>(customer.confirmationCodes);
+		}
+		finally
+		{
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public int numSeatsHeld(String customerEmail) {
+		long now = clock.millis();
+		readLock.lock();
+		try
+		{
+			Customer customer = customers.get(customerEmail);
+			if(customer==null) return 0;
+			int result = 0;
+			for(int slot=customer.firstHold; slot!=HoldColumns.NONE; slot=columns.nextOfCustomer(slot))
+			{
+				if(columns.timestampExpiry(slot)>=now) result+=numSeats(columns.seats(slot));
+			}
+			return result;
+		}
+		finally
+		{
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public List<SeatHold> extractExpiredFragments() {
+		long now = clock.millis();
+		if(now<=nextExpiry)
+		{
+			// none of the holds have expired.. no op
+			return new ArrayList<SeatHold>();
+		}
+		writeLock.lock();
+		try
+		{
+			List<SeatHold> expired = new ArrayList<SeatHold>();
+			int[] slots = columns.findExpired(now);
+			if(slots!=null)
+			{
+				for(int slot: slots)
+				{
+					expired.add(toSeatHold(slot));
+					owners.remove(Arrays.asList(columns.seats(slot)));
+					removeHold(slot);
+				}
+			}
+			nextExpiry = columns.earliestExpiry();
+			return expired;
+		}
+		finally
+		{
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * the number of active holds
+	 * @return
+	 */
+	public int numHolds() {
+		readLock.lock();
+		try
+		{
+			return columns.size();
+		}
+		finally
+		{
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * copies a hold out of the columns
+	 * @param slot
+	 * @return
+	 */
+	private SeatHold toSeatHold(int slot) {
+		SortedSet<RowFragment> rowsAllocated = new TreeSet<RowFragment>(Arrays.asList(columns.seats(slot)));
+		return new SeatHold(columns.seatHoldId(slot), customersById[columns.customer(slot)].email, rowsAllocated,
+				columns.timestampHold(slot), columns.timestampExpiry(slot));
+	}
+
+	/**
+	 * takes the hold out of the customer's chain and frees it's slot
+	 * @param slot
+	 */
+	private void removeHold(int slot) {
+		Customer customer = customersById[columns.customer(slot)];
+		int previous = columns.previousOfCustomer(slot);
+		int next = columns.nextOfCustomer(slot);
+		if(previous==HoldColumns.NONE) customer.firstHold = next;
+		else columns.setNextOfCustomer(previous, next);
+		if(next==HoldColumns.NONE) customer.lastHold = previous;
+		else columns.setPreviousOfCustomer(next, previous);
+		columns.remove(slot);
+		if(customer.isEmpty())
+		{
+			// drop customers that have nothing left
+			customers.remove(customer.email);
+			customersById[customer.id] = null;
+			if(numFreeCustomerIds==freeCustomerIds.length) freeCustomerIds = Arrays.copyOf(freeCustomerIds, 2*numFreeCustomerIds);
+			freeCustomerIds[numFreeCustomerIds++] = customer.id;
+		}
+	}
+
+	/**
+	 * finds the customer, or adds one
+	 * @param customerEmail
+	 * @return
+	 */
+	private Customer intern(String customerEmail) {
+		Customer customer = customers.get(customerEmail);
+		if(customer!=null) return customer;
+		int id;
+		if(numFreeCustomerIds>0)
+		{
+			id = freeCustomerIds[--numFreeCustomerIds];
+		}
+		else
+		{
+			id = nextCustomerId++;
+			if(id==customersById.length) customersById = Arrays.copyOf(customersById, 2*id);
+		}
+		customer = new Customer(id, customerEmail);
+		customers.put(customerEmail, customer);
+		customersById[id] = customer;
+		return customer;
+	}
+
+	private static int numSeats(RowFragment[] fragments) {
+		int result = 0;
+		for(RowFragment fragment: fragments) result+=fragment.getNumSeats();
+		return result;
+	}
+}
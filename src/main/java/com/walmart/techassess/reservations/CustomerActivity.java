@@ -0,0 +1,81 @@
+package com.walmart.techassess.reservations;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The active holds and the reservations of a single customer
+ * This is the entry of the customer index kept by {@link ReservationServiceImpl}
+ *
+ * The index changes an entry only while it has the entry's key locked, so the methods that
+ * change the entry don't need to synchronize. The entry is still read by the account page lookups
+ * without that lock, so all the methods are synchronized to give the readers a consistent copy
+ *
+ */
+class CustomerActivity {
+
+	// active holds keyed by hold ID, in the order they were made
+	final Map<Integer, SeatHold> holds = new LinkedHashMap<Integer, SeatHold>();
+	// confirmation codes of the reservations, in the order they were made
+	final Set<String> confirmationCodes = new LinkedHashSet<String>();
+
+	synchronized void addHold(SeatHold hold) {
+		holds.put(hold.getSeatHoldId(), hold);
+	}
+
+	synchronized void removeHold(SeatHold hold) {
+		holds.remove(hold.getSeatHoldId());
+	}
+
+	/**
+	 * moves the hold into the reservations
+	 * @param hold
+	 * @param confirmationCode
+	 */
+	synchronized void reserve(SeatHold hold, String confirmationCode) {
+		holds.remove(hold.getSeatHoldId());
+		confirmationCodes.add(confirmationCode);
+	}
+
+	/**
+	 * forgets a reservation that was moved to the archive
+	 * @param confirmationCode
+	 */
+	synchronized void archive(String confirmationCode) {
+		confirmationCodes.remove(confirmationCode);
+	}
+
+	synchronized List<SeatHold> getHolds() {
+		return new ArrayList<SeatHold>(holds.values());
+	}
+
+	synchronized List<String> getConfirmationCodes() {
+		return new ArrayList<String>(confirmationCodes);
+	}
+
+	/**
+	 * the number of seats in the holds that haven't expired yet
+	 * @param now
+	 * @return
+	 */
+	synchronized int numSeatsHeld(long now) {
+		int result = 0;
+		for(SeatHold hold: holds.values())
+		{
+			if(!hold.isExpired(now)) result+=hold.getReservation().numSeats();
+		}
+		return result;
+	}
+
+	/**
+	 * An entry without holds and reservations is dropped from the index
+	 * @return
+	 */
+	synchronized boolean isEmpty() {
+		return holds.isEmpty()&&confirmationCodes.isEmpty();
+	}
+}
@@ -0,0 +1,263 @@
+package com.walmart.techassess.reservations;
+
+import java.util.Arrays;
+
+import com.walmart.techassess.stadium.RowFragment;
+
+/**
+ * The active holds, stored column by column
+ *
+ * Every hold gets a slot, and every field of the hold is a column.. an array with an element for every slot. The
+ * columns are cut into slabs of {@link #SLAB_SIZE} slots, so adding slots never copies the columns. The primitive
+ * columns are single objects without references, so the GC doesn't look at the holds in them one by one
+ * - ID of the hold, 0 for a free slot
+ * - interned ID of the customer
+ * - the time the hold was made, and the time it expires. Free slots never expire
+ * - the previous and the next hold of the customer, so the holds of a customer are a chain in the columns
+ * - the seats.. these are references to the fragments, because the rows shrink and shift their fragments in place
+ *
+ * The expiry sweep is a scan over the expiry column. Every slab remembers the earliest expiry in it, so the scan
+ * skips the slabs where nothing can have expired
+ *
+ * Not thread-safe.. the reservation service locks it
+ *
+ */
+class HoldColumns {
+
+	static final int SLAB_BITS = 12;
+	static final int SLAB_SIZE = 1<<SLAB_BITS;
+	static final int SLAB_MASK = SLAB_SIZE-1;
+	static final int NONE = -1;
+
+	int[][] ids = new int[0][];
+	int[][] customers = new int[0][];
+	long[][] timestampHolds = new long[0][];
+	long[][] timestampExpiries = new long[0][];
+	int[][] previousOfCustomer = new int[0][];
+	int[][] nextOfCustomer = new int[0][];
+	RowFragment[][][] seats = new RowFragment[0][][];
+	// a lower bound of the expiries in each slab
+	long[] earliestExpiries = new long[0];
+	int numSlabs;
+	// the free slots, the last one freed is used first
+	int[] freeSlots = new int[SLAB_SIZE];
+	int numFree;
+	int size;
+	// slots keyed by hold ID, open addressing.. an ID of 0 is an empty entry
+	int[] idKeys = new int[1024];
+	int[] idSlots = new int[1024];
+
+	/**
+	 * puts a hold in a free slot
+	 * @return the slot
+	 */
+	int add(int seatHoldId, int customer, RowFragment[] fragments, long timestampHold, long timestampExpiry) {
+		assert seatHoldId>0&&slotOf(seatHoldId)==NONE;
+		if(numFree==0) addSlab();
+		int slot = freeSlots[--numFree];
+		int slab = slot>>>SLAB_BITS, i = slot&SLAB_MASK;
+		ids[slab][i] = seatHoldId;
+		customers[slab][i] = customer;
+		timestampHolds[slab][i] = timestampHold;
+		timestampExpiries[slab][i] = timestampExpiry;
+		previousOfCustomer[slab][i] = NONE;
+		nextOfCustomer[slab][i] = NONE;
+		seats[slab][i] = fragments;
+		earliestExpiries[slab] = Math.min(earliestExpiries[slab], timestampExpiry);
+		putSlot(seatHoldId, slot);
+		size++;
+		return slot;
+	}
+
+	/**
+	 * frees the slot of a hold
+	 * @param slot
+	 */
+	void remove(int slot) {
+		int slab = slot>>>SLAB_BITS, i = slot&SLAB_MASK;
+		assert ids[slab][i]!=0;
+		removeSlot(ids[slab][i]);
+		ids[slab][i] = 0;
+		timestampExpiries[slab][i] = Long.MAX_VALUE;
+		// let go of the fragments
+		seats[slab][i] = null;
+		freeSlots[numFree++] = slot;
+		size--;
+	}
+
+	/**
+	 * @param seatHoldId
+	 * @return the slot of the hold, or NONE if the hold is not here
+	 */
+	int slotOf(int seatHoldId) {
+		int mask = idKeys.length-1;
+		for(int i=hash(seatHoldId)&mask; idKeys[i]!=0; i=(i+1)&mask)
+		{
+			if(idKeys[i]==seatHoldId) return idSlots[i];
+		}
+		return NONE;
+	}
+
+	/**
+	 * finds the holds that have expired
+	 * @param now
+	 * @return the slots of the holds that expired before now, null if there are none
+	 */
+	int[] findExpired(long now) {
+		int[] result = null;
+		int count = 0;
+		for(int slab=0; slab<numSlabs; slab++)
+		{
+			if(earliestExpiries[slab]>=now) continue;
+			long[] expiries = timestampExpiries[slab];
+			long earliest = Long.MAX_VALUE;
+			for(int i=0; i<SLAB_SIZE; i++)
+			{
+				long expiry = expiries[i];
+				if(expiry<now)
+				{
+					if(result==null) result = new int[16];
+					else if(count==result.length) result = Arrays.copyOf(result, 2*count);
+					result[count++] = (slab<<SLAB_BITS)|i;
+				}
+				else if(expiry<earliest)
+				{
+					earliest = expiry;
+				}
+			}
+			// the expired holds are about to be removed, so they don't count
+			earliestExpiries[slab] = earliest;
+		}
+		return (result==null)?null:Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * @return the earliest time at which a hold might expire
+	 */
+	long earliestExpiry() {
+		long result = Long.MAX_VALUE;
+		for(int slab=0; slab<numSlabs; slab++) result = Math.min(result, earliestExpiries[slab]);
+		return result;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int seatHoldId(int slot) {
+		return ids[slot>>>SLAB_BITS][slot&SLAB_MASK];
+	}
+
+	int customer(int slot) {
+		return customers[slot>>>SLAB_BITS][slot&SLAB_MASK];
+	}
+
+	long timestampHold(int slot) {
+		return timestampHolds[slot>>>SLAB_BITS][slot&SLAB_MASK];
+	}
+
+	long timestampExpiry(int slot) {
+		return timestampExpiries[slot>>>SLAB_BITS][slot&SLAB_MASK];
+	}
+
+	/**
+	 * moves the expiry of a hold out.. the earliest expiry of the slab is still a lower bound
+	 */
+	void setTimestampExpiry(int slot, long timestampExpiry) {
+		assert timestampExpiry>=timestampExpiry(slot);
+		timestampExpiries[slot>>>SLAB_BITS][slot&SLAB_MASK] = timestampExpiry;
+	}
+
+	RowFragment[] seats(int slot) {
+		return seats[slot>>>SLAB_BITS][slot&SLAB_MASK];
+	}
+
+	void setSeats(int slot, RowFragment[] fragments) {
+		seats[slot>>>SLAB_BITS][slot&SLAB_MASK] = fragments;
+	}
+
+	int previousOfCustomer(int slot) {
+		return previousOfCustomer[slot>>>SLAB_BITS][slot&SLAB_MASK];
+	}
+
+	void setPreviousOfCustomer(int slot, int previous) {
+		previousOfCustomer[slot>>>SLAB_BITS][slot&SLAB_MASK] = previous;
+	}
+
+	int nextOfCustomer(int slot) {
+		return nextOfCustomer[slot>>>SLAB_BITS][slot&SLAB_MASK];
+	}
+
+	void setNextOfCustomer(int slot, int next) {
+		nextOfCustomer[slot>>>SLAB_BITS][slot&SLAB_MASK] = next;
+	}
+
+	private void addSlab() {
+		int slab = numSlabs++;
+		ids = Arrays.copyOf(ids, numSlabs);
+		customers = Arrays.copyOf(customers, numSlabs);
+		timestampHolds = Arrays.copyOf(timestampHolds, numSlabs);
+		timestampExpiries = Arrays.copyOf(timestampExpiries, numSlabs);
+		previousOfCustomer = Arrays.copyOf(previousOfCustomer, numSlabs);
+		nextOfCustomer = Arrays.copyOf(nextOfCustomer, numSlabs);
+		seats = Arrays.copyOf(seats, numSlabs);
+		earliestExpiries = Arrays.copyOf(earliestExpiries, numSlabs);
+		ids[slab] = new int[SLAB_SIZE];
+		customers[slab] = new int[SLAB_SIZE];
+		timestampHolds[slab] = new long[SLAB_SIZE];
+		timestampExpiries[slab] = new long[SLAB_SIZE];
+		Arrays.fill(timestampExpiries[slab], Long.MAX_VALUE);
+		previousOfCustomer[slab] = new int[SLAB_SIZE];
+		nextOfCustomer[slab] = new int[SLAB_SIZE];
+		seats[slab] = new RowFragment[SLAB_SIZE][];
+		earliestExpiries[slab] = Long.MAX_VALUE;
+		// all the slots of the new slab are free.. the lowest one goes first
+		if(freeSlots.length<numFree+SLAB_SIZE) freeSlots = Arrays.copyOf(freeSlots, numFree+SLAB_SIZE);
+		for(int i=SLAB_SIZE-1; i>=0; i--) freeSlots[numFree++] = (slab<<SLAB_BITS)|i;
+	}
+
+	private static int hash(int seatHoldId) {
+		int h = seatHoldId*0x9E3779B9;
+		return h^(h>>>16);
+	}
+
+	private void putSlot(int seatHoldId, int slot) {
+		if(2*(size+1)>idKeys.length)
+		{
+			int[] oldKeys = idKeys, oldSlots = idSlots;
+			idKeys = new int[2*oldKeys.length];
+			idSlots = new int[2*oldKeys.length];
+			for(int i=0; i<oldKeys.length; i++)
+			{
+				if(oldKeys[i]!=0) insert(oldKeys[i], oldSlots[i]);
+			}
+		}
+		insert(seatHoldId, slot);
+	}
+
+	private void insert(int seatHoldId, int slot) {
+		int mask = idKeys.length-1;
+		int i = hash(seatHoldId)&mask;
+		while(idKeys[i]!=0) i = (i+1)&mask;
+		idKeys[i] = seatHoldId;
+		idSlots[i] = slot;
+	}
+
+	private void removeSlot(int seatHoldId) {
+		int mask = idKeys.length-1;
+		int i = hash(seatHoldId)&mask;
+		while(idKeys[i]!=seatHoldId) i = (i+1)&mask;
+		// shift back the entries after it that would not be found with a gap in front of them
+		for(int j=(i+1)&mask; idKeys[j]!=0; j=(j+1)&mask)
+		{
+			int home = hash(idKeys[j])&mask;
+			if(((j-home)&mask)>=((j-i)&mask))
+			{
+				idKeys[i] = idKeys[j];
+				idSlots[i] = idSlots[j];
+				i = j;
+			}
+		}
+		idKeys[i] = 0;
+	}
+}
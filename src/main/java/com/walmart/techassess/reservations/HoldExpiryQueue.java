@@ -0,0 +1,87 @@
+package com.walmart.techassess.reservations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps track of when holds expire, so that the expiry sweep doesn't have to look at every hold
+ *
+ * The queue is ordered by the expiry of the holds at the time they were queued. Extending a hold doesn't touch
+ * the queue at all.. the new expiry is written into the hold. When the old expiry of an extended hold comes up,
+ * the sweep notices that the hold has been extended and queues it again at it's new expiry. Holds that have been
+ * reserved are dropped when their expiry comes up. So
+ * - adding a hold is O(log n)
+ * - extending a hold is O(1)
+ * - a sweep is O(log n) for every hold that expired, was extended or was reserved since the last sweep
+ *
+ * Thread-safe
+ *
+ */
+class HoldExpiryQueue {
+
+	/**
+	 * a hold and the expiry it was queued at
+	 */
+	static class Entry implements Comparable<Entry> {
+		final long timestampExpiry;
+		final SeatHold hold;
+
+		Entry(long timestampExpiry, SeatHold hold) {
+			this.timestampExpiry = timestampExpiry;
+			this.hold = hold;
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			return Long.compare(timestampExpiry, o.timestampExpiry);
+		}
+	}
+
+	final PriorityQueue<Entry> entries = new PriorityQueue<Entry>();
+	// the earliest expiry in the queue.. lets callers check if there is anything to do without a lock
+	volatile long nextExpiry = Long.MAX_VALUE;
+
+	synchronized void add(SeatHold hold) {
+		entries.add(new Entry(hold.getTimestampExpiry(), hold));
+		nextExpiry = entries.peek().timestampExpiry;
+	}
+
+	/**
+	 * @return the earliest time at which a hold might expire
+	 */
+	long nextExpiry() {
+		return nextExpiry;
+	}
+
+	/**
+	 * removes and returns the holds that have expired
+	 * @param now
+	 * @param holds - the active holds, keyed by ID.. queued holds that are not in here anymore are dropped
+	 * @return
+	 */
+	synchronized List<SeatHold> pollExpired(long now, Map<Integer, SeatHold> holds) {
+		List<SeatHold> expired = new ArrayList<SeatHold>();
+		while(!entries.isEmpty()&&entries.peek().timestampExpiry<now)
+		{
+			SeatHold hold = entries.poll().hold;
+			if(holds.get(hold.getSeatHoldId())!=hold)
+			{
+				// reserved already
+				continue;
+			}
+			if(hold.isExpired(now))
+			{
+				expired.add(hold);
+			}
+			else
+			{
+				// extended.. queue it again at it's new expiry
+				entries.add(new Entry(hold.getTimestampExpiry(), hold));
+			}
+		}
+		nextExpiry = entries.isEmpty()?Long.MAX_VALUE:entries.peek().timestampExpiry;
+		return expired;
+	}
+}
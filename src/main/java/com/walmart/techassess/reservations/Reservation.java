@@ -21,6 +21,19 @@ public class Reservation {
 		return rowsReserved;
 	}
 
+	/**
+	 * the number of seats in this reservation
+	 * @return
+	 */
+	public int numSeats() {
+		int result = 0;
+		for(RowFragment reserved: rowsReserved)
+		{
+			result+=reserved.getNumSeats();
+		}
+		return result;
+	}
+
 
 	@Override
 	public String toString() {
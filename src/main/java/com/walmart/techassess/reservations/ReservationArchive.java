@@ -0,0 +1,509 @@
+package com.walmart.techassess.reservations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.walmart.techassess.stadium.RowFragment;
+
+/**
+ * An append only archive of reservations in a memory mapped file
+ *
+ * Reservations that are sold and settled don't change anymore, so they don't need to be on the heap. The archive
+ * keeps them in a file instead, and all that stays on the heap is 3 hash tables of file offsets
+ * - by confirmation code, to look up a reservation
+ * - by customer email, to find the customer's latest reservation. Every reservation points to the customer's
+ *   reservation before it, so the reservations of a customer are a chain in the file
+ * - by fragment, the level, row and serial of every fragment of a reservation, to find who sits in a seat
+ * The tables use open addressing and keep only the offsets, 8 bytes a slot. A lookup compares the key with the
+ * one in the file, so it touches the file once for every collision
+ *
+ * The file is a header followed by the records, and is mapped in segments, so it can grow without mapping it
+ * again. A record never spans segments.. the rest of a segment that can't hold the next record is left empty
+ * <pre>
+ * header : long magic | long end
+ * record : int length | long previousOfCustomer | int seatHoldId | long timestampHold
+ *          | short codeLength | code | short emailLength | email | int count
+ *          | count x (int level | int row | int startSeat | int endSeat | int serial)
+ * </pre>
+ * The seats are ints, so a venue of any size fits. Archives of the first versions, with seats as shorts or without
+ * serials, are not read
+ *
+ * The fragments of an archived reservation are still in the rows, and still move when seats before them are given
+ * back. So the seats in a record are only where the reservation was when it was archived.. the serial of the fragment
+ * is what finds it's seats now, with {@link com.walmart.techassess.stadium.StadiumService#findFragmentBySerial(int, int, int)}.
+ * The serials are of the stadium the reservations were made in
+ * The end in the header is written after the record, so a crash loses at most the record being written. When an
+ * existing archive is opened, the tables are rebuilt by reading the records up to the end
+ *
+ * Thread-safe
+ *
+ */
+public class ReservationArchive implements Closeable {
+
+	static final long MAGIC = 0x5449434b41524333L;// TICKARC3
+	static final int HEADER_SIZE = 16;
+	// the offset of the end in the header
+	static final int END_AT = 8;
+	static final int DEFAULT_SEGMENT_SIZE = 16*1024*1024;
+	// the offsets of the fields of a record
+	static final int PREVIOUS_AT = 4;
+	static final int SEAT_HOLD_ID_AT = 12;
+	static final int TIMESTAMP_HOLD_AT = 16;
+	static final int CODE_AT = 24;
+	// the bytes of a fragment in a record
+	static final int FRAGMENT_SIZE = 20;
+	static final long NONE = -1;
+
+	final FileChannel channel;
+	final int segmentSize;
+	final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	// where the next record goes
+	long end;
+	// record offsets plus 1 by confirmation code, 0 is an empty slot
+	long[] byCode = new long[1024];
+	// offsets plus 1 of the latest record of every customer, by email
+	long[] byCustomer = new long[1024];
+	// record offsets plus 1 by the level, row and serial of their fragments
+	long[] byFragment = new long[1024];
+	int size;
+	int numCustomers;
+	int numFragments;
+
+	/**
+	 * Constructor.. opens the archive, or creates it if the file doesn't exist
+	 * @param file
+	 * @throws IOException
+	 */
+	public ReservationArchive(Path file) throws IOException {
+		this(file, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Constructor.. opens the archive, or creates it if the file doesn't exist
+	 * @param file
+	 * @param segmentSize - the size of the segments the file is mapped in, the biggest record that fits
+	 * @throws IOException
+	 */
+	public ReservationArchive(Path file, int segmentSize) throws IOException {
+		assert segmentSize>HEADER_SIZE;
+		this.segmentSize = segmentSize;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		boolean created = channel.size()==0;
+		MappedByteBuffer first = segment(0);
+		if(created)
+		{
+			first.putLong(0, MAGIC);
+			first.putLong(END_AT, HEADER_SIZE);
+		}
+		else if(first.getLong(0)!=MAGIC)
+		{
+			channel.close();
+			throw new IOException(file+" is not a reservation archive");
+		}
+		long archivedEnd = first.getLong(END_AT);
+		segment((archivedEnd-1)/segmentSize);
+		// rebuild the tables
+		end = HEADER_SIZE;
+		while(end<archivedEnd)
+		{
+			// too close to the end of the segment for a length is the same as a length of 0
+			int length = (segmentSize-end%segmentSize<4)?0:getInt(end);
+			if(length==0)
+			{
+				// the empty rest of a segment
+				end = (end/segmentSize+1)*segmentSize;
+				continue;
+			}
+			index(end);
+			end+=length;
+		}
+	}
+
+	/**
+	 * adds a reservation to the archive
+	 * @param confirmationCode
+	 * @param hold - the hold that was reserved
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the reservation can't be put in a record.. it's too big for a segment, or
+	 * the code or the email are too long
+	 */
+	public synchronized void append(String confirmationCode, SeatHold hold) throws IOException {
+		byte[] code = confirmationCode.getBytes(StandardCharsets.UTF_8);
+		byte[] email = hold.getCustomerEmailAddress().getBytes(StandardCharsets.UTF_8);
+		SortedSet<RowFragment> seats = hold.getReservation().getRowsReserved();
+		if(code.length>Short.MAX_VALUE||email.length>Short.MAX_VALUE) throw new IllegalArgumentException("Reservation too big for the archive");
+		long length = CODE_AT+2+code.length+2+email.length+4+(long)FRAGMENT_SIZE*seats.size();
+		if(length>segmentSize) throw new IllegalArgumentException("Reservation too big for the archive");
+		if(end/segmentSize!=(end+length-1)/segmentSize)
+		{
+			// doesn't fit in what's left of the segment.. the rest stays 0, which marks it as empty
+			end = (end/segmentSize+1)*segmentSize;
+		}
+		MappedByteBuffer segment = segment(end/segmentSize);
+		int at = (int)(end%segmentSize);
+		int customerSlot = find(byCustomer, email, false);
+		segment.putInt(at, (int)length);
+		segment.putLong(at+PREVIOUS_AT, byCustomer[customerSlot]-1);
+		segment.putInt(at+SEAT_HOLD_ID_AT, hold.getSeatHoldId());
+		segment.putLong(at+TIMESTAMP_HOLD_AT, hold.getTimestampHold());
+		int position = at+CODE_AT;
+		position = putBytes(segment, position, code);
+		position = putBytes(segment, position, email);
+		segment.putInt(position, seats.size());
+		position+=4;
+		for(RowFragment fragment: seats)
+		{
+			segment.putInt(position, fragment.getLevel());
+			segment.putInt(position+4, fragment.getRowNum());
+			segment.putInt(position+8, fragment.getStartSeat());
+			segment.putInt(position+12, fragment.getEndSeat());
+			segment.putInt(position+16, fragment.getSerial());
+			position+=FRAGMENT_SIZE;
+		}
+		index(end);
+		end+=length;
+		// the record is complete.. now it counts
+		segments.get(0).putLong(END_AT, end);
+	}
+
+	/**
+	 * looks up a reservation
+	 * @param confirmationCode
+	 * @return null if the reservation is not in the archive.. the seats are where they were when it was archived
+	 */
+	public synchronized Reservation find(String confirmationCode) {
+		int slot = find(byCode, confirmationCode.getBytes(StandardCharsets.UTF_8), true);
+		if(byCode[slot]==0) return null;
+		long record = byCode[slot]-1;
+		return new Reservation(getSeats(record));
+	}
+
+	/**
+	 * the owner of a fragment of a reservation in the archive.. the fragment is found by it's serial, so it doesn't
+	 * matter where it has moved since
+	 * @param level
+	 * @param rowNum
+	 * @param serial - see {@link RowFragment#getSerial()}
+	 * @return null if the fragment isn't in the archive
+	 */
+	public synchronized SeatOwner findOwner(int level, int rowNum, int serial) {
+		long entry = byFragment[find(byFragment, level, rowNum, serial)];
+		if(entry==0) return null;
+		long record = entry-1;
+		return new SeatOwner(getInt(record+SEAT_HOLD_ID_AT), getString(customerAt(record)), getString(record+CODE_AT));
+	}
+
+	public synchronized boolean contains(String confirmationCode) {
+		return byCode[find(byCode, confirmationCode.getBytes(StandardCharsets.UTF_8), true)]!=0;
+	}
+
+	/**
+	 * the confirmation codes of a customer's reservations in the archive
+	 * @param customerEmail
+	 * @return oldest first
+	 */
+	public synchronized List<String> findConfirmationCodes(String customerEmail) {
+		List<String> result = new ArrayList<String>();
+		int slot = find(byCustomer, customerEmail.getBytes(StandardCharsets.UTF_8), false);
+		for(long record=byCustomer[slot]-1; record!=NONE; record=getLong(record+PREVIOUS_AT))
+		{
+			result.add(getString(record+CODE_AT));
+		}
+		Collections.reverse(result);
+		return result;
+	}
+
+	/**
+	 * where the next record goes.. the records before it are the reservations in the archive right now
+	 * @return
+	 */
+	public synchronized long end() {
+		return end;
+	}
+
+	/**
+	 * reads the reservations in a part of the archive, in the order they were archived
+	 * The holds are rebuilt from the records. They expire when they were made, and have the seats the reservation
+	 * had when it was archived.. look up where the seats are now by the serials of the fragments
+	 * @param from - where to start, the header size for the start of the archive, or what the last read returned
+	 * @param to - where to stop, see {@link #end()}
+	 * @param maxReservations - the most reservations to read
+	 * @param confirmationCodes - gets the confirmation codes of the reservations
+	 * @param holds - gets the reserved holds, in the same order
+	 * @return where to read from next, to if there is nothing left
+	 */
+	public synchronized long read(long from, long to, int maxReservations, List<String> confirmationCodes, List<SeatHold> holds) {
+		assert to<=end;
+		long record = Math.max(from, HEADER_SIZE);
+		for(int i=0; i<maxReservations&&record<to;)
+		{
+			// too close to the end of the segment for a length is the same as a length of 0
+			int length = (segmentSize-record%segmentSize<4)?0:getInt(record);
+			if(length==0)
+			{
+				// the empty rest of a segment
+				record = (record/segmentSize+1)*segmentSize;
+				continue;
+			}
+			confirmationCodes.add(getString(record+CODE_AT));
+			long timestampHold = getLong(record+TIMESTAMP_HOLD_AT);
+			holds.add(new SeatHold(getInt(record+SEAT_HOLD_ID_AT), getString(customerAt(record)), getSeats(record), timestampHold, timestampHold));
+			record+=length;
+			i++;
+		}
+		return Math.min(record, to);
+	}
+
+	/**
+	 * the number of reservations in the archive
+	 * @return
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * writes the archive to the disk, and closes it
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		for(MappedByteBuffer segment: segments) segment.force();
+		channel.close();
+	}
+
+	/**
+	 * puts a record in the tables
+	 * @param record
+	 */
+	private void index(long record) {
+		if(2*(size+1)>byCode.length) byCode = grow(byCode, true);
+		byCode[find(byCode, getBytes(record+CODE_AT), true)] = record+1;
+		size++;
+		int customerSlot = find(byCustomer, getBytes(customerAt(record)), false);
+		if(byCustomer[customerSlot]==0)
+		{
+			numCustomers++;
+			if(2*numCustomers>byCustomer.length)
+			{
+				byCustomer = grow(byCustomer, false);
+				customerSlot = find(byCustomer, getBytes(customerAt(record)), false);
+			}
+		}
+		// the latest reservation of the customer
+		byCustomer[customerSlot] = record+1;
+		indexFragments(record);
+	}
+
+	/**
+	 * puts the fragments of a record in the fragment table
+	 * @param record
+	 */
+	private void indexFragments(long record) {
+		long at = fragmentsAt(record);
+		int count = getInt(at);
+		at+=4;
+		for(int i=0; i<count; i++, at+=FRAGMENT_SIZE)
+		{
+			int slot = find(byFragment, getInt(at), getInt(at+4), getInt(at+16));
+			if(byFragment[slot]==0)
+			{
+				numFragments++;
+				if(2*numFragments>byFragment.length)
+				{
+					byFragment = growFragments(byFragment);
+					slot = find(byFragment, getInt(at), getInt(at+4), getInt(at+16));
+				}
+			}
+			byFragment[slot] = record+1;
+		}
+	}
+
+	/**
+	 * finds the slot of a key
+	 * @param table
+	 * @param key
+	 * @param byCode - true if the key is a confirmation code, false if it's an email
+	 * @return the slot that has the key, or the empty slot where it would go
+	 */
+	private int find(long[] table, byte[] key, boolean byCode) {
+		int mask = table.length-1;
+		int slot = hash(key)&mask;
+		while(table[slot]!=0)
+		{
+			long record = table[slot]-1;
+			if(equalBytes(byCode?record+CODE_AT:customerAt(record), key)) return slot;
+			slot = (slot+1)&mask;
+		}
+		return slot;
+	}
+
+	private long[] grow(long[] table, boolean byCode) {
+		long[] bigger = new long[table.length*2];
+		for(long entry: table)
+		{
+			if(entry==0) continue;
+			long record = entry-1;
+			bigger[find(bigger, getBytes(byCode?record+CODE_AT:customerAt(record)), byCode)] = entry;
+		}
+		return bigger;
+	}
+
+	/**
+	 * finds the slot of a fragment
+	 * @param table
+	 * @param level
+	 * @param rowNum
+	 * @param serial
+	 * @return the slot of the record that has the fragment, or the empty slot where it would go
+	 */
+	private int find(long[] table, int level, int rowNum, int serial) {
+		int mask = table.length-1;
+		int slot = hash(level, rowNum, serial)&mask;
+		while(table[slot]!=0)
+		{
+			if(hasFragment(table[slot]-1, level, rowNum, serial)) return slot;
+			slot = (slot+1)&mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * the slots only have the records, not which of their fragments they are for.. so every fragment of a record
+	 * goes in again, and the ones that are in already find their own slot
+	 */
+	private long[] growFragments(long[] table) {
+		long[] bigger = new long[table.length*2];
+		for(long entry: table)
+		{
+			if(entry==0) continue;
+			long at = fragmentsAt(entry-1);
+			int count = getInt(at);
+			at+=4;
+			for(int i=0; i<count; i++, at+=FRAGMENT_SIZE)
+			{
+				int slot = find(bigger, getInt(at), getInt(at+4), getInt(at+16));
+				// the fragment might be keyed to a newer record, of another stadium with the same serials
+				if(bigger[slot]==0&&table[find(table, getInt(at), getInt(at+4), getInt(at+16))]==entry) bigger[slot] = entry;
+			}
+		}
+		return bigger;
+	}
+
+	private boolean hasFragment(long record, int level, int rowNum, int serial) {
+		long at = fragmentsAt(record);
+		int count = getInt(at);
+		at+=4;
+		for(int i=0; i<count; i++, at+=FRAGMENT_SIZE)
+		{
+			if(getInt(at+16)==serial&&getInt(at+4)==rowNum&&getInt(at)==level) return true;
+		}
+		return false;
+	}
+
+	private static int hash(int level, int rowNum, int serial) {
+		int h = (31*level+rowNum)*31+serial;
+		h*=0x9E3779B9;
+		return h^(h>>>16);
+	}
+
+	private static int hash(byte[] key) {
+		int h = 0;
+		for(byte b: key) h = 31*h+b;
+		// spread the bits, the low ones pick the slot
+		return h^(h>>>16);
+	}
+
+	/**
+	 * where the email of a record is
+	 */
+	private long customerAt(long record) {
+		return record+CODE_AT+2+getShort(record+CODE_AT);
+	}
+
+	/**
+	 * where the count of the fragments of a record is
+	 */
+	private long fragmentsAt(long record) {
+		long at = customerAt(record);
+		return at+2+getShort(at);
+	}
+
+	private SortedSet<RowFragment> getSeats(long record) {
+		long at = fragmentsAt(record);
+		int count = getInt(at);
+		at+=4;
+		SortedSet<RowFragment> seats = new TreeSet<RowFragment>();
+		for(int i=0; i<count; i++)
+		{
+			seats.add(new RowFragment(getInt(at), getInt(at+4), getInt(at+8), getInt(at+12), getInt(at+16)));
+			at+=FRAGMENT_SIZE;
+		}
+		return seats;
+	}
+
+	private boolean equalBytes(long at, byte[] key) {
+		if(getShort(at)!=key.length) return false;
+		MappedByteBuffer segment = segments.get((int)(at/segmentSize));
+		int position = (int)(at%segmentSize)+2;
+		for(int i=0; i<key.length; i++)
+		{
+			if(segment.get(position+i)!=key[i]) return false;
+		}
+		return true;
+	}
+
+	private byte[] getBytes(long at) {
+		MappedByteBuffer segment = segments.get((int)(at/segmentSize));
+		int position = (int)(at%segmentSize);
+		byte[] bytes = new byte[segment.getShort(position)];
+		for(int i=0; i<bytes.length; i++) bytes[i] = segment.get(position+2+i);
+		return bytes;
+	}
+
+	private String getString(long at) {
+		return new String(getBytes(at), StandardCharsets.UTF_8);
+	}
+
+	private static int putBytes(MappedByteBuffer segment, int position, byte[] bytes) {
+		segment.putShort(position, (short)bytes.length);
+		for(int i=0; i<bytes.length; i++) segment.put(position+2+i, bytes[i]);
+		return position+2+bytes.length;
+	}
+
+	private int getInt(long at) {
+		return segments.get((int)(at/segmentSize)).getInt((int)(at%segmentSize));
+	}
+
+	private long getLong(long at) {
+		return segments.get((int)(at/segmentSize)).getLong((int)(at%segmentSize));
+	}
+
+	private int getShort(long at) {
+		return segments.get((int)(at/segmentSize)).getShort((int)(at%segmentSize));
+	}
+
+	/**
+	 * maps the segments up to the given one
+	 * @param index
+	 * @return the segment
+	 * @throws IOException
+	 */
+	private MappedByteBuffer segment(long index) throws IOException {
+		while(segments.size()<=index)
+		{
+			// mapping past the end grows the file
+			segments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long)segments.size()*segmentSize, segmentSize));
+		}
+		return segments.get((int)index);
+	}
+}
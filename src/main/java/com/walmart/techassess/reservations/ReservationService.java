@@ -1,6 +1,7 @@
 package com.walmart.techassess.reservations;
 
 import java.util.List;
+import java.util.SortedMap;
 import java.util.SortedSet;
 
 import com.walmart.techassess.stadium.RowFragment;
@@ -36,13 +37,51 @@ public interface ReservationService {
 	 */
 	String reserve(int seatHoldId);
 
+	/**
+	 * Extend the hold.. the hold will expire later
+	 * The total extension of a hold is capped. The hold is extended as far as the cap allows
+	 * @param seatHoldId
+	 * @param extraMillis - time to add to the hold
+	 * @return the extended hold
+	 * @throws HoldExpiredException if the hold has expired
+	 */
+	SeatHold extendHold(int seatHoldId, long extraMillis);
+
+	/**
+	 * Take seats off the hold. The last seats of the hold go first
+	 * Fragments that are released completely are removed from the hold right away. The fragment that is released
+	 * partially stays on the hold, and has to be shrunk by releasing the returned seats in the stadium
+	 * @param seatHoldId
+	 * @param numSeats - the number of seats to take off, less than the seats on the hold
+	 * @return the number of seats to release keyed by the fragment
+	 * @throws HoldExpiredException if the hold has expired
+	 */
+	SortedMap<RowFragment, Integer> releaseSeats(int seatHoldId, int numSeats);
+
 	/**
 	 * Get the details of the reservation 
+	 * The seats of an archived reservation are where they were when it was archived.. the fragments have the
+	 * serials to find where they are now
 	 * @param confirmationCode
-	 * @return
+	 * @return null if there is no reservation with the confirmation code
 	 */
 	Reservation getReservation(String confirmationCode);
 
+	/**
+	 * Takes a snapshot of the reservations, for reading them all
+	 * Reservations are held off while the reservations on the heap are copied, holds are not
+	 * @return
+	 */
+	ReservationSnapshot snapshotReservations();
+
+	/**
+	 * Finds who a fragment that was handed out by the stadium belongs to
+	 * The fragment is the live one, as looked up by it's seats in the stadium.. it can move, but it's owner doesn't change
+	 * @param fragment
+	 * @return null if the fragment is not on a hold or a reservation
+	 */
+	SeatOwner findOwner(RowFragment fragment);
+
 	/**
 	 * Checks if the seat hold id is valid
 	 * @param seatHoldId
@@ -50,6 +89,28 @@ public interface ReservationService {
 	 */
 	boolean isValidHoldId(int seatHoldId);
 
+	/**
+	 * find the active holds of the customer
+	 * @param customerEmail
+	 * @return the holds in the order they were made, empty if the customer has none
+	 */
+	List<SeatHold> findHolds(String customerEmail);
+
+	/**
+	 * find the confirmation codes of the customer's reservations
+	 * @param customerEmail
+	 * @return the confirmation codes in the order they were made, empty if the customer has none
+	 */
+	List<String> findConfirmationCodes(String customerEmail);
+
+	/**
+	 * the number of seats that the customer holds right now
+	 * holds that have expired, but haven't been removed yet, are not counted
+	 * @param customerEmail
+	 * @return
+	 */
+	int numSeatsHeld(String customerEmail);
+
 	/**
 	 * removes and returns the fragments whose hold has expired
 	 * @return
@@ -1,84 +1,174 @@
 package com.walmart.techassess.reservations;
 
-import java.awt.SystemColor;
+import java.io.IOException;
+import java.time.Clock;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.Random;
+import java.util.SortedMap;
+import java.util.Set;
 import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.function.BiConsumer;
-import java.util.function.LongUnaryOperator;
+import java.util.function.BiFunction;
 
 import com.walmart.techassess.stadium.RowFragment;
 
 /**
  * A memory based implementation of reservation service
+ *
+ * Besides the holds and reservations, this service keeps an index of the holds and reservations of each customer
+ * The index is changed together with the holds and reservations maps while the customer's key is locked in the index
+ * This means that a customer always sees a hold either as a hold or as a reservation, never as both or neither
+ * 
+ * Holds expire after a timeout. A customer can extend a hold, up to a maximum extension. The expiry of the holds is
+ * tracked by a {@link HoldExpiryQueue}, so neither the expiry sweep nor an extension has to look at all the holds
+ *
+ * The owner of every fragment of the holds and reservations is kept in a {@link SeatOwnerIndex}, so the owner of a
+ * seat is a lookup instead of a scan of all the holds and reservations. The owners of archived reservations are read
+ * from the archive
+ *
+ * With a {@link ReservationArchive}, reservations are moved off the heap once they have settled, ie. a while after
+ * they were made. The expiry sweep moves them, oldest first. A reservation is put in the archive before it's
+ * removed from the maps, so a lookup always finds it in one or the other
  * @author jlalwani
  *
  */
 public class ReservationServiceImpl implements ReservationService {
 	// this map contains all the holds keyed by hold ID
-	Map<Integer, SeatHold> holds = Collections.synchronizedMap(new HashMap<Integer, SeatHold>());
+	final Map<Integer, SeatHold> holds = new ConcurrentHashMap<Integer, SeatHold>();
 	// this map contains all the reservations keyed by reservation confirmation code
-	Map<String, SeatHold> reservations = Collections.synchronizedMap(new HashMap<String, SeatHold>());
-	// this keeps a time stamp of the oldest hold
-	final AtomicLong oldestHoldTimestamp = new AtomicLong(Long.MAX_VALUE);
+	final Map<String, SeatHold> reservations = new ConcurrentHashMap<String, SeatHold>();
+	// this map contains the active holds and reservations of each customer keyed by customer email
+	final ConcurrentHashMap<String, CustomerActivity> customers = new ConcurrentHashMap<String, CustomerActivity>();
+	// this keeps track of when the holds expire
+	final HoldExpiryQueue expiryQueue = new HoldExpiryQueue();
+	// the owners of the fragments of the holds and reservations
+	final SeatOwnerIndex owners = new SeatOwnerIndex();
+	// generates the hold IDs
+	final AtomicInteger holdSequence = new AtomicInteger();
 	// the hold timeout in milliseconds
 	final int timeout;
-	
+	// the maximum time by which a hold can be extended, in milliseconds
+	final long maxExtension;
+	// settled reservations are moved here, null keeps them all on the heap
+	final ReservationArchive archive;
+	// how long after it's made a reservation is moved to the archive, in milliseconds
+	final long settleMillis;
+	// the reservations that are still on the heap, oldest first
+	final ConcurrentLinkedQueue<Settlement> unsettled = new ConcurrentLinkedQueue<Settlement>();
+	// only one sweep moves reservations to the archive at a time
+	final Lock archiveLock = new ReentrantLock();
+	// tells the time of the holds and reservations.. a virtual clock lets a sale be replayed faster than it happened
+	final Clock clock;
+
 	//this latch is used to halt the reservations when a hold is being expired
 	// the assumption is that expirations will be less frequent than reservations
 	// however a expiry should halt all reservations whereas multiple reservations
 	// can go in parallel
 	// to enable this we use a ReadWriteLock.. Reservations will use the read lock and expirations will use a write lock
-		
+
 	final ReadWriteLock latch = new ReentrantReadWriteLock();
 	final Lock reserveLock = latch.readLock();
 	final Lock expireLock = latch.writeLock();
-		
-	
+
+
+	/**
+	 * Constructor.. holds can be extended by at most the timeout
+	 * @param timeout - the hold timeout in milliseconds
+	 */
 	public ReservationServiceImpl(int timeout) {
+		this(timeout, timeout);
+	}
+
+	/**
+	 * Constructor
+	 * @param timeout - the hold timeout in milliseconds
+	 * @param maxExtension - the maximum time by which a hold can be extended, in milliseconds
+	 */
+	public ReservationServiceImpl(int timeout, long maxExtension) {
+		this(timeout, maxExtension, null, 0);
+	}
+
+	/**
+	 * Constructor
+	 * @param timeout - the hold timeout in milliseconds
+	 * @param maxExtension - the maximum time by which a hold can be extended, in milliseconds
+	 * @param archive - where settled reservations are moved, null to keep them on the heap
+	 * @param settleMillis - how long after it's made a reservation is moved to the archive
+	 */
+	public ReservationServiceImpl(int timeout, long maxExtension, ReservationArchive archive, long settleMillis) {
+		this(timeout, maxExtension, archive, settleMillis, Clock.systemUTC());
+	}
+
+	/**
+	 * Constructor
+	 * @param timeout - the hold timeout in milliseconds
+	 * @param maxExtension - the maximum time by which a hold can be extended, in milliseconds
+	 * @param archive - where settled reservations are moved, null to keep them on the heap
+	 * @param settleMillis - how long after it's made a reservation is moved to the archive
+	 * @param clock - the time of the holds, their expiry and the settlement of the reservations
+	 */
+	public ReservationServiceImpl(int timeout, long maxExtension, ReservationArchive archive, long settleMillis, Clock clock) {
 		super();
+		assert maxExtension>=0;
+		if(clock==null) throw new IllegalArgumentException("Need a clock");
+		if(archive!=null&&settleMillis<0) throw new IllegalArgumentException("Settle time must not be negative");
 		this.timeout = timeout;
+		this.maxExtension = maxExtension;
+		this.archive = archive;
+		this.settleMillis = settleMillis;
+		this.clock = clock;
+	}
+
+	/**
+	 * A reservation waiting to be moved to the archive
+	 */
+	static class Settlement {
+		final String confirmationCode;
+		final long timestampReserved;
+
+		Settlement(String confirmationCode, long timestampReserved) {
+			this.confirmationCode = confirmationCode;
+			this.timestampReserved = timestampReserved;
+		}
 	}
 
 	@Override
 	public SeatHold addHold(SortedSet<RowFragment> rowsAllocated, String customerEmail) {
-		final long timestampHold = System.currentTimeMillis();
+		final long timestampHold = clock.millis();
 		// generate an ID and put it in holds
-		int seatHoldId = generateSeatHoldId(rowsAllocated, customerEmail);
-		SeatHold hold = new SeatHold(seatHoldId, customerEmail, rowsAllocated, timestampHold);
-		holds.put(seatHoldId, hold);
-		// update the time stamp of the earliest hold if required
-		oldestHoldTimestamp.getAndUpdate(new LongUnaryOperator() {
-			
+		int seatHoldId = generateSeatHoldId();
+		final SeatHold hold = new SeatHold(seatHoldId, customerEmail, rowsAllocated, timestampHold, timestampHold+timeout);
+		customers.compute(customerEmail, new BiFunction<String, CustomerActivity, CustomerActivity>() {
+
 			@Override
-			public long applyAsLong(long operand) {
-				return (operand>timestampHold)?timestampHold:operand;
+			public CustomerActivity apply(String customerEmail, CustomerActivity activity) {
+				if(activity==null) activity = new CustomerActivity();
+				owners.put(hold.getReservation().getRowsReserved(), new SeatOwner(hold.getSeatHoldId(), customerEmail, null));
+				holds.put(hold.getSeatHoldId(), hold);
+				activity.addHold(hold);
+				return activity;
 			}
 		});
+		// keep track of when it expires
+		expiryQueue.add(hold);
 		return hold;
 	}
 
-	private int generateSeatHoldId(SortedSet<RowFragment> rowsAllocated, String customerEmail) {
-
-		final int prime = 31;
-		int result = 1;
-		for(RowFragment rf: rowsAllocated)
-		{
-			result = prime * result + rf.hashCode();
-		}
-		result = prime *result+customerEmail.hashCode();
-		return result;
+	private int generateSeatHoldId() {
+		// a sequence never hands out the same ID twice.. a hash of the seats and the customer could
+		// collide, and the new hold would silently replace the old one
+		return holdSequence.incrementAndGet();
 	}
 
 	@Override
@@ -88,33 +178,74 @@ public class ReservationServiceImpl implements ReservationService {
 	}
 
 	@Override
-	public String reserve(int seatHoldId) {
+	public String reserve(final int seatHoldId) {
 
 		reserveLock.lock();
 		try
 		{
-			// remove the hold from holds
-			SeatHold hold = holds.remove(seatHoldId);
+			final SeatHold hold = holds.get(seatHoldId);
 			if(hold==null)
 			{
 				throw new HoldExpiredException(seatHoldId);
 			}
-			// put it in reservations
-			String confirmationCode = generateConfirmationCode();
-			reservations.put(confirmationCode, hold);
-			return confirmationCode;
+			final String[] confirmationCode = new String[1];
+			customers.compute(hold.getCustomerEmailAddress(), new BiFunction<String, CustomerActivity, CustomerActivity>() {
+
+				@Override
+				public CustomerActivity apply(String customerEmail, CustomerActivity activity) {
+					// the monitor of the hold keeps a release from taking seats off it while it's reserved
+					synchronized(hold)
+					{
+						// remove the hold from holds.. a concurrent reserve of the same hold might have beaten us to it
+						if(holds.remove(seatHoldId)==null)
+						{
+							throw new HoldExpiredException(seatHoldId);
+						}
+						// put it in reservations
+						confirmationCode[0] = generateConfirmationCode(hold);
+						owners.put(hold.getReservation().getRowsReserved(), new SeatOwner(seatHoldId, customerEmail, confirmationCode[0]));
+						activity.reserve(hold, confirmationCode[0]);
+						return activity;
+					}
+				}
+			});
+			if(archive!=null) unsettled.add(new Settlement(confirmationCode[0], clock.millis()));
+			return confirmationCode[0];
 		}
-		finally 
+		finally
 		{
 			reserveLock.unlock();
 		}
 	}
 
-	private String generateConfirmationCode() {
+	/**
+	 * generates a confirmation code and registers the reservation under it
+	 * @param hold
+	 * @return
+	 */
+	private String generateConfirmationCode(SeatHold hold) {
+		// retry on the rare collision with an existing code
+		while(true)
+		{
+			String confirmationCode = randomConfirmationCode();
+			if(reservations.putIfAbsent(confirmationCode, hold)==null)
+			{
+				if(archive==null||!archive.contains(confirmationCode)) return confirmationCode;
+				// taken by an archived reservation
+				reservations.remove(confirmationCode);
+			}
+		}
+	}
+
+	/**
+	 * a random confirmation code.. it's up to the caller to check that it's not taken
+	 * @return
+	 */
+	static String randomConfirmationCode() {
 		final int confCodeSize = 20;
 		final char[] charsForCOnfCode= "QWERTYUIOPASDFGHJKLZXCVBNM".toCharArray();
 		StringBuilder strBuilder = new StringBuilder();
-		Random rand = new Random(System.currentTimeMillis());
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
 		for(int i=0; i<confCodeSize; i++)
 		{
 			strBuilder.append(charsForCOnfCode[rand.nextInt(charsForCOnfCode.length)]);
@@ -122,10 +253,111 @@ public class ReservationServiceImpl implements ReservationService {
 		return strBuilder.toString();
 	}
 
+	@Override
+	public SeatHold extendHold(int seatHoldId, long extraMillis) {
+		assert extraMillis>0;
+		// the reserve lock keeps the expiry sweep out while the hold is being extended
+		reserveLock.lock();
+		try
+		{
+			SeatHold hold = holds.get(seatHoldId);
+			if(hold==null||hold.isExpired(clock.millis()))
+			{
+				// too late.. the hold has expired, even if the sweep hasn't removed it yet
+				throw new HoldExpiredException(seatHoldId);
+			}
+			// the expiry queue picks up the new expiry when the old one comes up, so there's nothing else to do
+			hold.extend(extraMillis, hold.getTimestampHold()+timeout+maxExtension);
+			return hold;
+		}
+		finally
+		{
+			reserveLock.unlock();
+		}
+	}
+
+	@Override
+	public SortedMap<RowFragment, Integer> releaseSeats(int seatHoldId, int numSeats) {
+		assert numSeats>0;
+		// the reserve lock keeps the expiry sweep from deallocating the hold while we are taking seats off it
+		reserveLock.lock();
+		try
+		{
+			SeatHold hold = holds.get(seatHoldId);
+			if(hold==null||hold.isExpired(clock.millis()))
+			{
+				throw new HoldExpiredException(seatHoldId);
+			}
+			synchronized(hold)
+			{
+				// reserved while we were waiting for it.. the seats of a reservation can't be given back
+				if(holds.get(seatHoldId)!=hold) throw new HoldExpiredException(seatHoldId);
+				SortedSet<RowFragment> rowsReserved = hold.getReservation().getRowsReserved();
+				if(numSeats>=hold.getReservation().numSeats())
+				{
+					throw new IllegalArgumentException("Cannot release all the seats of a hold");
+				}
+				// the last fragments have the worst seats.. give those back first
+				SortedMap<RowFragment, Integer> result = new TreeMap<RowFragment, Integer>();
+				while(numSeats>0)
+				{
+					RowFragment last = rowsReserved.last();
+					int seatsToRelease = Math.min(numSeats, last.getNumSeats());
+					result.put(last, seatsToRelease);
+					if(seatsToRelease==last.getNumSeats())
+					{
+						rowsReserved.remove(last);
+						owners.remove(last);
+					}
+					numSeats-=seatsToRelease;
+				}
+				return result;
+			}
+		}
+		finally
+		{
+			reserveLock.unlock();
+		}
+	}
+
 	@Override
 	public Reservation getReservation(String confirmationCode) {
-		
-		return reservations.get(confirmationCode).getReservation();
+
+		SeatHold hold = reservations.get(confirmationCode);
+		if(hold!=null) return hold.getReservation();
+		return (archive==null)?null:archive.find(confirmationCode);
+	}
+
+	@Override
+	public ReservationSnapshot snapshotReservations() {
+		// the expire lock keeps reservations from being made, and the archive lock keeps them from being moved
+		// to the archive, so the heap and the end of the archive are from the same instant
+		archiveLock.lock();
+		expireLock.lock();
+		try
+		{
+			String[] confirmationCodes = new String[reservations.size()];
+			SeatHold[] reserved = new SeatHold[confirmationCodes.length];
+			int i = 0;
+			for(Map.Entry<String, SeatHold> entry: reservations.entrySet())
+			{
+				confirmationCodes[i] = entry.getKey();
+				reserved[i++] = entry.getValue();
+			}
+			return new ReservationSnapshot(confirmationCodes, reserved, archive);
+		}
+		finally
+		{
+			expireLock.unlock();
+			archiveLock.unlock();
+		}
+	}
+
+	@Override
+	public SeatOwner findOwner(RowFragment fragment) {
+		SeatOwner owner = owners.find(fragment);
+		if(owner!=null||archive==null) return owner;
+		return archive.findOwner(fragment.getLevel(), fragment.getRowNum(), fragment.getSerial());
 	}
 
 	@Override
@@ -133,43 +365,120 @@ public class ReservationServiceImpl implements ReservationService {
 		return holds.containsKey(seatHoldId);
 	}
 
+	@Override
+	public List<SeatHold> findHolds(String customerEmail) {
+		CustomerActivity activity = customers.get(customerEmail);
+		if(activity==null) return Collections.emptyList();
+		return activity.getHolds();
+	}
+
+	@Override
+	public List<String> findConfirmationCodes(String customerEmail) {
+		CustomerActivity activity = customers.get(customerEmail);
+		List<String> onHeap = (activity==null)?Collections.<String>emptyList():activity.getConfirmationCodes();
+		if(archive==null) return onHeap;
+		// read the heap first.. a reservation archived in between is in both, but never in neither
+		Set<String> result = new LinkedHashSet<String>(archive.findConfirmationCodes(customerEmail));
+		result.addAll(onHeap);
+		return new ArrayList<String>(result);
+	}
+
+	@Override
+	public int numSeatsHeld(String customerEmail) {
+		CustomerActivity activity = customers.get(customerEmail);
+		if(activity==null) return 0;
+		return activity.numSeatsHeld(clock.millis());
+	}
+
 	@Override
 	public List<SeatHold> extractExpiredFragments() {
-		long expiryTime = System.currentTimeMillis() - timeout;
-		if(expiryTime<oldestHoldTimestamp.get())
+		long now = clock.millis();
+		if(archive!=null) archiveSettled(now);
+		if(now<=expiryQueue.nextExpiry())
 		{
 			// none of the holds have expired.. no op
 			return new ArrayList<SeatHold>();
 		}
-		long newOldestHoldTimestamp = Long.MAX_VALUE;
 		expireLock.lock();
 		try
 		{
-			List<SeatHold> expired = new ArrayList<SeatHold>();
-			for(SeatHold hold: holds.values())
+			// the queue hands out only the holds that have expired, no need to look at the others
+			List<SeatHold> expired = expiryQueue.pollExpired(now, holds);
+			for(SeatHold hold: expired) removeHold(hold);
+			return expired;
+		}
+		finally
+		{
+			expireLock.unlock();
+		}
+	}
+
+	/**
+	 * moves the reservations that have settled to the archive
+	 * @param now
+	 */
+	private void archiveSettled(long now) {
+		Settlement next = unsettled.peek();
+		if(next==null||next.timestampReserved+settleMillis>now) return;
+		// another sweep is at it already
+		if(!archiveLock.tryLock()) return;
+		try
+		{
+			while((next = unsettled.peek())!=null&&next.timestampReserved+settleMillis<=now)
 			{
-				if(hold.getTimestampHold()<expiryTime)
+				final String confirmationCode = next.confirmationCode;
+				SeatHold hold = reservations.get(confirmationCode);
+				try
 				{
-					expired.add(hold);
+					archive.append(confirmationCode, hold);
 				}
-				else
+				catch(IOException e)
 				{
-					if(newOldestHoldTimestamp>hold.getTimestampHold())
-					{
-						newOldestHoldTimestamp = hold.getTimestampHold();
-					}
+					// leave it on the heap, the next sweep tries again
+					return;
 				}
-			}
-			for(SeatHold hold: expired) holds.remove(hold.getSeatHoldId());
-			oldestHoldTimestamp.set(newOldestHoldTimestamp);
+				catch(IllegalArgumentException e)
+				{
+					// it will never fit.. it stays on the heap for good, and the sweep moves on to the next one
+					unsettled.poll();
+					continue;
+				}
+				customers.computeIfPresent(hold.getCustomerEmailAddress(), new BiFunction<String, CustomerActivity, CustomerActivity>() {
 
-			
-			return expired;
+					@Override
+					public CustomerActivity apply(String customerEmail, CustomerActivity activity) {
+						activity.archive(confirmationCode);
+						reservations.remove(confirmationCode);
+						// the archive has the owners now
+						owners.remove(hold.getReservation().getRowsReserved());
+						return activity.isEmpty()?null:activity;
+					}
+				});
+				unsettled.poll();
+			}
 		}
 		finally
 		{
-			expireLock.unlock();
+			archiveLock.unlock();
 		}
 	}
 
+	/**
+	 * removes the hold from the holds and from the customer index
+	 * @param hold
+	 */
+	private void removeHold(final SeatHold hold) {
+		customers.computeIfPresent(hold.getCustomerEmailAddress(), new BiFunction<String, CustomerActivity, CustomerActivity>() {
+
+			@Override
+			public CustomerActivity apply(String customerEmail, CustomerActivity activity) {
+				holds.remove(hold.getSeatHoldId());
+				owners.remove(hold.getReservation().getRowsReserved());
+				activity.removeHold(hold);
+				// drop customers that have nothing left
+				return activity.isEmpty()?null:activity;
+			}
+		});
+	}
+
 }
@@ -0,0 +1,90 @@
+package com.walmart.techassess.reservations;
+
+import java.util.List;
+
+/**
+ * The reservations that were made by one instant, for reading them all while new reservations are being made
+ *
+ * The reservations on the heap are copied when the snapshot is taken.. just the codes and the holds, not the seats.
+ * The archive is append only, so all a snapshot has to remember of it is where it ended, and the archived
+ * reservations are read from the file as the snapshot is read. Reservations made after the snapshot was taken
+ * are not in it, even if they are in the archive by the time it's read
+ *
+ * The seats of the reservations on the heap are the live fragments, which can move till they are copied.. copy
+ * them all in one go with {@link com.walmart.techassess.stadium.StadiumService#copySeats(List, int[])}. The archived
+ * reservations move too, but the seats read from the archive are where they were when they were archived.. find
+ * their live fragments by serial, and copy them in the same go. The archive can be read again for that, see
+ * {@link #rewindArchive()}
+ *
+ * Not thread-safe.. a snapshot is read by one thread
+ *
+ */
+public class ReservationSnapshot {
+
+	// the reservations on the heap
+	final String[] confirmationCodes;
+	final SeatHold[] holds;
+	// null if there is no archive
+	final ReservationArchive archive;
+	// where the archive ended
+	final long archiveEnd;
+	// where the next read of the archive starts
+	long nextInArchive = ReservationArchive.HEADER_SIZE;
+
+	ReservationSnapshot(String[] confirmationCodes, SeatHold[] holds, ReservationArchive archive) {
+		super();
+		assert confirmationCodes.length==holds.length;
+		this.confirmationCodes = confirmationCodes;
+		this.holds = holds;
+		this.archive = archive;
+		this.archiveEnd = (archive==null)?ReservationArchive.HEADER_SIZE:archive.end();
+	}
+
+	/**
+	 * the number of reservations that were on the heap
+	 * @return
+	 */
+	public int numOnHeap() {
+		return holds.length;
+	}
+
+	/**
+	 * the confirmation code of a reservation on the heap
+	 * @param index - between 0 and {@link #numOnHeap()}
+	 * @return
+	 */
+	public String getConfirmationCode(int index) {
+		return confirmationCodes[index];
+	}
+
+	/**
+	 * the reserved hold of a reservation on the heap
+	 * @param index - between 0 and {@link #numOnHeap()}
+	 * @return
+	 */
+	public SeatHold getHold(int index) {
+		return holds[index];
+	}
+
+	/**
+	 * reads the next reservations that were in the archive, oldest first
+	 * Their seats are where they were when they were archived, see above
+	 * @param maxReservations - the most reservations to read
+	 * @param confirmationCodes - gets the confirmation codes of the reservations
+	 * @param holds - gets the reserved holds, in the same order
+	 * @return false if there were no reservations left
+	 */
+	public boolean nextArchived(int maxReservations, List<String> confirmationCodes, List<SeatHold> holds) {
+		if(maxReservations<=0) throw new IllegalArgumentException("Need to read at least one reservation");
+		if(nextInArchive>=archiveEnd) return false;
+		nextInArchive = archive.read(nextInArchive, archiveEnd, maxReservations, confirmationCodes, holds);
+		return true;
+	}
+
+	/**
+	 * starts reading the archived reservations from the oldest again.. the same ones, in the same order
+	 */
+	public void rewindArchive() {
+		nextInArchive = ReservationArchive.HEADER_SIZE;
+	}
+}
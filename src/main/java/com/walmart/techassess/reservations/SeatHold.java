@@ -15,14 +15,17 @@ public class SeatHold {
 	final String customerEmailAddress;
 	final Reservation reservation;
 	final long timestampHold;// time at which the hold was made
+	volatile long timestampExpiry;// time at which the hold expires.. moves out when the hold is extended
 
-	public SeatHold(int seatHoldId, String customerEmailAddress, SortedSet<RowFragment> rowsAllocated, long timestampHold) {
+	public SeatHold(int seatHoldId, String customerEmailAddress, SortedSet<RowFragment> rowsAllocated, long timestampHold, long timestampExpiry) {
 		super();
 		assert customerEmailAddress!=null && customerEmailAddress.length()>0;
+		assert timestampExpiry>=timestampHold;
 		this.seatHoldId = seatHoldId;
 		this.customerEmailAddress = customerEmailAddress;
 		this.reservation = new Reservation(rowsAllocated);
 		this.timestampHold = timestampHold;
+		this.timestampExpiry = timestampExpiry;
 	}
 
 	public int getSeatHoldId() {
@@ -40,6 +43,29 @@ public class SeatHold {
 	public long getTimestampHold() {
 		return timestampHold;
 	}
-	
-	
+
+	public long getTimestampExpiry() {
+		return timestampExpiry;
+	}
+
+	/**
+	 * checks if the hold has expired at the given time
+	 * @param now
+	 * @return
+	 */
+	public boolean isExpired(long now) {
+		return timestampExpiry<now;
+	}
+
+	/**
+	 * moves the expiry of the hold out, but not past the latest expiry
+	 * @param extraMillis
+	 * @param latestExpiry
+	 * @return the new expiry
+	 */
+	synchronized long extend(long extraMillis, long latestExpiry) {
+		timestampExpiry = Math.max(timestampExpiry, Math.min(timestampExpiry+extraMillis, latestExpiry));
+		return timestampExpiry;
+	}
+
 }
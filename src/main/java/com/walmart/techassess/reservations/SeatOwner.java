@@ -0,0 +1,51 @@
+package com.walmart.techassess.reservations;
+
+/**
+ * Who a seat belongs to.. the hold it's on, and the reservation if the hold was reserved
+ *
+ * Immutable
+ *
+ */
+public class SeatOwner {
+
+	final int seatHoldId;
+	final String customerEmail;
+	// null while the seats are held
+	final String confirmationCode;
+
+	SeatOwner(int seatHoldId, String customerEmail, String confirmationCode) {
+		super();
+		this.seatHoldId = seatHoldId;
+		this.customerEmail = customerEmail;
+		this.confirmationCode = confirmationCode;
+	}
+
+	/**
+	 * the hold the seat was put on.. it's not a hold anymore once it's reserved
+	 * @return
+	 */
+	public int getSeatHoldId() {
+		return seatHoldId;
+	}
+
+	public String getCustomerEmail() {
+		return customerEmail;
+	}
+
+	/**
+	 * @return null if the seat is held, not reserved
+	 */
+	public String getConfirmationCode() {
+		return confirmationCode;
+	}
+
+	public boolean isReserved() {
+		return confirmationCode!=null;
+	}
+
+	@Override
+	public String toString() {
+		if(confirmationCode==null) return "hold "+seatHoldId+" of "+customerEmail;
+		return "reservation "+confirmationCode+" of "+customerEmail;
+	}
+}
@@ -0,0 +1,70 @@
+package com.walmart.techassess.reservations;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.walmart.techassess.stadium.RowFragment;
+
+/**
+ * The owners of the fragments that are on holds and reservations
+ *
+ * A seat is found by it's fragment, which the row looks up by seat. The fragments move in place when seats
+ * before them are given back, so they are keyed by identity, not by their seats.. an entry never has to change
+ * when a fragment moves, only when it's handed out, reserved or given back. Equal fragments can be different
+ * ones, and a fragment's hash would change as it moves
+ *
+ * The fragments of archived reservations are still in the rows, but their owners are in the archive, so they are
+ * taken out when a reservation is archived.. the archive finds them by the serials of the fragments
+ *
+ * Thread-safe
+ *
+ */
+class SeatOwnerIndex {
+
+	/**
+	 * a fragment, compared by identity
+	 */
+	static class Key {
+		final RowFragment fragment;
+
+		Key(RowFragment fragment) {
+			this.fragment = fragment;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(fragment);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof Key)&&((Key)obj).fragment==fragment;
+		}
+	}
+
+	final ConcurrentHashMap<Key, SeatOwner> owners = new ConcurrentHashMap<Key, SeatOwner>();
+
+	/**
+	 * gives fragments to an owner, or gives them a new one
+	 * @param fragments
+	 * @param owner
+	 */
+	void put(Iterable<RowFragment> fragments, SeatOwner owner) {
+		for(RowFragment fragment: fragments) owners.put(new Key(fragment), owner);
+	}
+
+	void remove(RowFragment fragment) {
+		owners.remove(new Key(fragment));
+	}
+
+	void remove(Iterable<RowFragment> fragments) {
+		for(RowFragment fragment: fragments) remove(fragment);
+	}
+
+	/**
+	 * @param fragment
+	 * @return null if the fragment isn't on a hold or a reservation, or the reservation is archived
+	 */
+	SeatOwner find(RowFragment fragment) {
+		return owners.get(new Key(fragment));
+	}
+}
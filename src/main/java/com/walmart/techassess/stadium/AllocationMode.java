@@ -0,0 +1,20 @@
+package com.walmart.techassess.stadium;
+
+/**
+ * How seats are picked for a party
+ *
+ */
+public enum AllocationMode {
+	/**
+	 * the best seats available, even if the party has to be split across rows
+	 */
+	BEST_AVAILABLE,
+	/**
+	 * seats next to each other.. in one row, or in consecutive rows if the party doesn't fit in a row
+	 */
+	KEEP_TOGETHER,
+	/**
+	 * seats in the best scoring rows.. the rows are scored when the stadium is created
+	 */
+	BEST_SCORE
+}
@@ -0,0 +1,55 @@
+package com.walmart.techassess.stadium;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for giving back the seats of an allocation that couldn't seat the whole party
+ *
+ */
+@Name(AllocationRollbackEvent.NAME)
+@Label("Allocation Rollback")
+@Category({"Ticketing", "Hold Pipeline"})
+@Description("Seats allocated for a party that couldn't be seated, given back to their rows")
+@StackTrace(false)
+class AllocationRollbackEvent extends Event {
+
+	static final String NAME = "com.walmart.techassess.AllocationRollback";
+
+	@Label("Seats Requested")
+	int seatsRequested;
+
+	@Label("Seats Rolled Back")
+	int seatsRolledBack;
+
+	@Label("Fragments")
+	int fragments;
+
+	/**
+	 * starts the event, call it right before the seats are given back
+	 * @param seatsRequested - the seats the party wanted
+	 * @param allocated - the seats it got
+	 * @return the event, or null if the flight recorder isn't up
+	 */
+	static AllocationRollbackEvent start(int seatsRequested, Iterable<RowFragment> allocated) {
+		if(!FlightRecorder.isInitialized()) return null;
+		AllocationRollbackEvent event = new AllocationRollbackEvent();
+		if(event.isEnabled())
+		{
+			// count the seats before the rows take the fragments back
+			event.seatsRequested = seatsRequested;
+			for(RowFragment fragment: allocated)
+			{
+				event.seatsRolledBack+=fragment.getNumSeats();
+				event.fragments++;
+			}
+		}
+		event.begin();
+		return event;
+	}
+}
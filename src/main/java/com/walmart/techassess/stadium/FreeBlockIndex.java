@@ -0,0 +1,287 @@
+package com.walmart.techassess.stadium;
+
+/**
+ * An index of the free seats in the rows of a level, used to find seats for parties that want to sit together
+ *
+ * The free seats of a row are always one block at the end of the row, because rows compact on deallocation.
+ * So a party fits in a row if the row has enough free seats, and a party that is bigger than a row fits in
+ * a run of consecutive empty rows
+ *
+ * The index is a segment tree over the rows in row order, or in any other order that the level wants the rows
+ * handed out in, like the quality of the rows. Every node keeps, for the rows under it
+ * - the most free seats in a single row, and the free seats of all the rows
+ * - the number of empty rows at the start, at the end, and the longest run of empty rows
+ * This makes finding the first row with k free seats, or the first run of k empty rows, or counting the
+ * free seats of a range of rows O(log n), and so is updating a row. Runs of empty rows are consecutive in the order of the index, so they are
+ * only useful when the index is in row order
+ *
+ * Rows that are checked out are kept in the index as full, so no one else tries to use them
+ *
+ * Thread-safe
+ *
+ */
+class FreeBlockIndex {
+
+	final int numRows;
+	final int seatsPerRow;
+	// the number of leaves.. the rows are padded up to a power of 2 with full rows
+	final int size;
+	// the row at each position of the index, and the position of each row
+	final int[] rowAt;
+	final int[] positionOf;
+	// the most free seats in a row under the node
+	int[] maxFree;
+	// the free seats of all the rows under the node
+	int[] sumFree;
+	// the number of empty rows at the start of the node
+	int[] emptyPrefix;
+	// the number of empty rows at the end of the node
+	int[] emptySuffix;
+	// the longest run of empty rows in the node
+	int[] emptyRun;
+	// true while the nodes are shared with the index this is a copy of.. they are copied on the first update
+	boolean shared;
+
+	/**
+	 * Constructor.. the rows are in row order, and all start empty
+	 * @param numRows
+	 * @param seatsPerRow
+	 */
+	FreeBlockIndex(int numRows, int seatsPerRow) {
+		this(numRows, seatsPerRow, rowOrder(numRows));
+	}
+
+	/**
+	 * Constructor.. all the rows start empty
+	 * @param numRows
+	 * @param seatsPerRow
+	 * @param rowOrder - the row numbers in the order the rows should be handed out
+	 */
+	FreeBlockIndex(int numRows, int seatsPerRow, int[] rowOrder) {
+		assert numRows>0;
+		assert seatsPerRow>0;
+		assert rowOrder.length==numRows;
+		this.numRows = numRows;
+		this.seatsPerRow = seatsPerRow;
+		this.rowAt = rowOrder.clone();
+		this.positionOf = new int[numRows];
+		for(int position=0; position<numRows; position++)
+		{
+			positionOf[rowAt[position]] = position;
+		}
+		int leaves = 1;
+		while(leaves<numRows) leaves*=2;
+		this.size = leaves;
+		maxFree = new int[2*size];
+		sumFree = new int[2*size];
+		emptyPrefix = new int[2*size];
+		emptySuffix = new int[2*size];
+		emptyRun = new int[2*size];
+		for(int rowNum=0; rowNum<numRows; rowNum++)
+		{
+			setLeaf(size+rowNum, seatsPerRow);
+		}
+		for(int node=size-1; node>0; node--)
+		{
+			// a node at depth d covers size/2^d rows
+			pull(node, size/Integer.highestOneBit(node));
+		}
+	}
+
+	/**
+	 * Constructor.. a copy of another index, which must never change
+	 * The row order never changes, so the copy shares it. The nodes are shared too, till the copy is first updated
+	 * @param other
+	 */
+	FreeBlockIndex(FreeBlockIndex other) {
+		this.numRows = other.numRows;
+		this.seatsPerRow = other.seatsPerRow;
+		this.size = other.size;
+		this.rowAt = other.rowAt;
+		this.positionOf = other.positionOf;
+		this.maxFree = other.maxFree;
+		this.sumFree = other.sumFree;
+		this.emptyPrefix = other.emptyPrefix;
+		this.emptySuffix = other.emptySuffix;
+		this.emptyRun = other.emptyRun;
+		this.shared = true;
+	}
+
+	/**
+	 * sets the number of free seats in a row
+	 * @param rowNum
+	 * @param numFree
+	 */
+	synchronized void update(int rowNum, int numFree) {
+		assert rowNum>=0&&rowNum<numRows;
+		assert numFree>=0&&numFree<=seatsPerRow;
+		if(shared)
+		{
+			// copy on write
+			maxFree = maxFree.clone();
+			sumFree = sumFree.clone();
+			emptyPrefix = emptyPrefix.clone();
+			emptySuffix = emptySuffix.clone();
+			emptyRun = emptyRun.clone();
+			shared = false;
+		}
+		int node = size+positionOf[rowNum];
+		setLeaf(node, numFree);
+		for(int len=2; node>1; len*=2)
+		{
+			node/=2;
+			pull(node, len);
+		}
+	}
+
+	/**
+	 * finds the first row that has at least the given number of free seats, and marks it as full
+	 * @param numSeats
+	 * @return the row number, or -1 if no row has enough free seats
+	 */
+	synchronized int checkOutRow(int numSeats) {
+		assert numSeats>0&&numSeats<=seatsPerRow;
+		if(maxFree[1]<numSeats) return -1;
+		int node = 1;
+		while(node<size)
+		{
+			node = (maxFree[2*node]>=numSeats)?2*node:2*node+1;
+		}
+		int rowNum = rowAt[node-size];
+		update(rowNum, 0);
+		return rowNum;
+	}
+
+	/**
+	 * finds the first row between the given positions of the index that has at least the given number of
+	 * free seats, and marks it as full
+	 * @param numSeats
+	 * @param fromPosition
+	 * @param toPosition - inclusive
+	 * @return the row number, or -1 if no row has enough free seats
+	 */
+	synchronized int checkOutRow(int numSeats, int fromPosition, int toPosition) {
+		assert numSeats>0&&numSeats<=seatsPerRow;
+		assert fromPosition>=0&&fromPosition<=toPosition&&toPosition<numRows;
+		int position = findRow(1, 0, size-1, fromPosition, toPosition, numSeats);
+		if(position<0) return -1;
+		int rowNum = rowAt[position];
+		update(rowNum, 0);
+		return rowNum;
+	}
+
+	/**
+	 * the free seats of the rows between the given positions of the index
+	 * @param fromPosition
+	 * @param toPosition - inclusive
+	 * @return
+	 */
+	synchronized int numFree(int fromPosition, int toPosition) {
+		assert fromPosition>=0&&fromPosition<=toPosition&&toPosition<numRows;
+		return sumFree(1, 0, size-1, fromPosition, toPosition);
+	}
+
+	/**
+	 * finds the first run of consecutive empty rows, and marks them as full
+	 * @param count - the number of rows
+	 * @return the number of the first row, or -1 if there is no such run
+	 */
+	synchronized int checkOutEmptyRows(int count) {
+		assert count>0;
+		if(emptyRun[1]<count) return -1;
+		int node = 1, len = size, offset = 0;
+		int position;
+		while(true)
+		{
+			if(node>=size)
+			{
+				// single row
+				position = offset;
+				break;
+			}
+			int half = len/2;
+			if(emptyRun[2*node]>=count)
+			{
+				// fits in the left half
+				node = 2*node;
+			}
+			else if(emptySuffix[2*node]+emptyPrefix[2*node+1]>=count)
+			{
+				// straddles the halves
+				position = offset+half-emptySuffix[2*node];
+				break;
+			}
+			else
+			{
+				node = 2*node+1;
+				offset+=half;
+			}
+			len = half;
+		}
+		for(int i=0; i<count; i++) update(rowAt[position+i], 0);
+		return rowAt[position];
+	}
+
+	/**
+	 * the number of free seats of a row, as far as the index knows
+	 * @param rowNum
+	 * @return
+	 */
+	synchronized int numFree(int rowNum) {
+		return maxFree[size+positionOf[rowNum]];
+	}
+
+	/**
+	 * counts the rows by their number of free seats, as far as the index knows
+	 * @return the number of rows with k free seats at k, for k from 0 to seatsPerRow.. checked out rows are full
+	 */
+	synchronized int[] countRowsByFreeSeats() {
+		int[] counts = new int[seatsPerRow+1];
+		for(int position=0; position<numRows; position++) counts[maxFree[size+position]]++;
+		return counts;
+	}
+
+	private static int[] rowOrder(int numRows) {
+		int[] rowOrder = new int[numRows];
+		for(int rowNum=0; rowNum<numRows; rowNum++) rowOrder[rowNum] = rowNum;
+		return rowOrder;
+	}
+
+	private int findRow(int node, int nodeFrom, int nodeTo, int fromPosition, int toPosition, int numSeats) {
+		if(nodeTo<fromPosition||nodeFrom>toPosition||maxFree[node]<numSeats) return -1;
+		if(node>=size) return nodeFrom;
+		int mid = (nodeFrom+nodeTo)/2;
+		int position = findRow(2*node, nodeFrom, mid, fromPosition, toPosition, numSeats);
+		return (position>=0)?position:findRow(2*node+1, mid+1, nodeTo, fromPosition, toPosition, numSeats);
+	}
+
+	private int sumFree(int node, int nodeFrom, int nodeTo, int fromPosition, int toPosition) {
+		if(nodeTo<fromPosition||nodeFrom>toPosition) return 0;
+		if(fromPosition<=nodeFrom&&nodeTo<=toPosition) return sumFree[node];
+		int mid = (nodeFrom+nodeTo)/2;
+		return sumFree(2*node, nodeFrom, mid, fromPosition, toPosition)+sumFree(2*node+1, mid+1, nodeTo, fromPosition, toPosition);
+	}
+
+	private void setLeaf(int node, int numFree) {
+		int empty = (numFree==seatsPerRow)?1:0;
+		maxFree[node] = numFree;
+		sumFree[node] = numFree;
+		emptyPrefix[node] = empty;
+		emptySuffix[node] = empty;
+		emptyRun[node] = empty;
+	}
+
+	/**
+	 * recomputes a node from it's children
+	 * @param node
+	 * @param len - the number of leaves under the node
+	 */
+	private void pull(int node, int len) {
+		int left = 2*node, right = 2*node+1, half = len/2;
+		maxFree[node] = Math.max(maxFree[left], maxFree[right]);
+		sumFree[node] = sumFree[left]+sumFree[right];
+		emptyPrefix[node] = (emptyPrefix[left]==half)?half+emptyPrefix[right]:emptyPrefix[left];
+		emptySuffix[node] = (emptySuffix[right]==half)?half+emptySuffix[left]:emptySuffix[right];
+		emptyRun[node] = Math.max(Math.max(emptyRun[left], emptyRun[right]), emptySuffix[left]+emptyPrefix[right]);
+	}
+}
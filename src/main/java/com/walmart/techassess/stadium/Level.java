@@ -1,15 +1,19 @@
 package com.walmart.techassess.stadium;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * This class contains the functionality for managing a level
@@ -29,39 +33,92 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * Since deallocation of seats requires compaction of rows, it cannot run concurrently with allocation
  * ALso, since deallocation occurs over multiple rows, this class freezes all allocations
  * when it deallocates seats
+ * 
+ * Parties that want to sit together are seated using a {@link FreeBlockIndex}, which keeps track of
+ * the free seats in each row. Rows are checked out of the index too, so it never hands out a row that
+ * is being allocated by someone else
+ * 
+ * Rows can be given a quality score when the level is created. A second index keeps the rows in the order
+ * of their score, so the best rows can be found without looking at all the rows
+ * 
+ * Allocation is on the hot path of every hold, so it doesn't create any garbage other than the fragments
+ * it hands out. The rows that are not checked out are kept in a {@link RowPool}, which checks rows out
+ * and in without allocating, and the checked out rows are tracked in an array that each thread reuses
+ *
+ * A row that has never been allocated is just an empty row in the pool and the indexes.. the Row itself is only
+ * made when the row is checked out for the first time. So setting up a big venue doesn't make every row up front,
+ * and levels that don't sell hardly take any memory
+ * 
+ * When every buyer wants the best seats, every allocation goes for the same front row of the same pool, and the
+ * lock of the pool is all the allocators wait on. So a big level splits it's pool into stripes.. row r is in
+ * stripe r%numStripes, and every stripe has it's own lock. The number of stripes is part of the configuration of the
+ * level, so the same venue lays out the same way on every machine. A buyer always tries the stripe with the best row
+ * first, and only if someone else has that stripe locked, it takes it's rows from it's home stripe, as long as
+ * that doesn't cost the buyer much
+ * - an empty row is taken from the first stripe, starting at the home stripe, whose front most empty row is no
+ *   more than numStripes rows behind the front most empty row of the level. So concurrent buyers get the front
+ *   rows of different stripes instead of queueing for the front row, and no buyer lands more than a round of
+ *   stripes behind the best row
+ * - a half filled row is taken from the first stripe, starting at the home stripe, that has a row with the fewest
+ *   free seats that fit. Those rows are all equally good, so this never costs the buyer anything
+ * So a buyer that has the level to itself gets the same rows as it would from a level that isn't striped
+ * The stripes are compared by the hints they publish without taking their locks, so the choice can be out of date.
+ * The stripe still checks the row out under it's lock, and when the rows we wanted are gone we take any row that
+ * fits, so the worst that can happen is a slightly worse row. The free block indexes are still shared by the stripes
+ * 
+ * Every allocation is a {@link LevelAllocationEvent} for the flight recorder, with the time spent waiting for the
+ * allocation lock and the rows that were checked out
+ * 
+ * Allocation never moves a fragment that has been handed out, only deallocation does. So deallocations also take
+ * the write lock of a {@link StampedLock}, which lets a reader copy the seats of handed out fragments without
+ * stopping anybody.. it reads them optimistically, and reads them again if a deallocation got in between.
+ * Allocations don't touch it at all
+ * 
+ * The level keeps {@link LevelStats}.. the free block sizes come from the index, and the allocations count the
+ * rows they got seats in, so a layout that decays over a sale shows up as more half filled rows and more
+ * parties that are split over rows
  * @author jlalwani
  *
  */
 public class Level {
 	
-	// all the rows in the level
-	final List<Row> allRows = Collections.synchronizedList(new ArrayList<Row>());
+	// all the rows in the level, by row number.. null for the rows that haven't been checked out yet
+	final AtomicReferenceArray<Row> rows;
 	
-	//the next few members contains the same row objects as in the list above
-	// we have split them according to their status. this makes it easy to find them
+	// the pools keep the rows of the list above by their status. this makes it easy to find them
 	// please note that this implementation was backed by a persistent store, we wouldn't need 
 	// to duplicate the data structures.. we would just use the search and indexing facility of the store
-	// Please note that the following elements will not contain the rows that are in the process of
-	// being held. When a row is checked out it dissapears from the following members
+	// Please note that the pools will not contain the rows that are in the process of
+	// being held. When a row is checked out it dissapears from it's pool
+	// row r is in pools[r%pools.length].. a level that isn't striped has one pool
+	final RowPool[] pools;
+	// the free seats in each row.. used to seat parties together
+	final FreeBlockIndex freeBlocks;
+	// the free seats in each row, best scoring row first.. the same as freeBlocks if the rows aren't scored
+	final FreeBlockIndex bestRows;
+	final int seatsPerRow;
+	final int level;
+	final int numRows;
 	
-	// all the empty rows sorted by their natural ordering 
-	final SortedSet<Row> emptyRows = Collections.synchronizedSortedSet(new TreeSet<Row>());
-	// the rows that are completely filled
-	final SortedSet<Row> filledRows = Collections.synchronizedSortedSet(new TreeSet<Row>());
-	// sthis set stores all the half filled rows sorted by number of unallocated seats
-	// makes it easy to find the seat of correct size
-	final SortedSet<Row> halfFilledRows = Collections.synchronizedSortedSet(new TreeSet<Row>(new Comparator<Row>() {
+	// a level needs this many rows per stripe to be striped
+	static final int MIN_ROWS_PER_STRIPE = 16;
+	// the most stripes a level gets when the stripes aren't given
+	public static final int DEFAULT_STRIPES = 8;
+	// what an allocation is for, for the flight recorder
+	static final String BEST_AVAILABLE = AllocationMode.BEST_AVAILABLE.name();
+	static final String KEEP_TOGETHER = AllocationMode.KEEP_TOGETHER.name();
+	static final String BEST_SCORE = AllocationMode.BEST_SCORE.name();
+	static final String IN_ROWS = "IN_ROWS";
+	static final String BLOCK = "BLOCK";
+	// hands out the home stripes of the threads, round robin
+	final AtomicInteger nextHomeStripe = new AtomicInteger();
+	final ThreadLocal<Integer> homeStripe = new ThreadLocal<Integer>() {
 
 		@Override
-		public int compare(Row arg0, Row arg1) {
-			if (arg0.numUnallocatedSeats()<arg1.numUnallocatedSeats()) return -1;
-			if (arg0.numUnallocatedSeats()>arg1.numUnallocatedSeats()) return 1;
-			return arg0.compareTo(arg1);
+		protected Integer initialValue() {
+			return nextHomeStripe.getAndIncrement()%pools.length;
 		}
-	}));
-	final int seatsPerRow;
-	final int level;
-	final int numRows;
+	};
 	
 
 	//this latch is used to halt the allocators when a fragment in the level is being deallocated
@@ -72,25 +129,150 @@ public class Level {
 	ReadWriteLock latch = new ReentrantReadWriteLock(true);
 	Lock allocationLock = latch.readLock();
 	Lock deallocationLock = latch.writeLock();
+	// taken for writing while fragments are moved.. readers of the seats of fragments validate against it
+	final StampedLock moves = new StampedLock();
+	
+	// the allocations that got seats, the ones of them that were split over rows, and the rows they got seats in
+	final LongAdder numAllocations = new LongAdder();
+	final LongAdder numSplitAllocations = new LongAdder();
+	final LongAdder numRowsAllocated = new LongAdder();
+	
+	// the rows checked out by an allocation.. each thread reuses it's own array
+	final ThreadLocal<Row[]> checkedOutRows = new ThreadLocal<Row[]>() {
+
+		@Override
+		protected Row[] initialValue() {
+			return new Row[numRows];
+		}
+	};
 	
 	/**
-	 * Constructor.. creates the required rows
+	 * Constructor
 	 * @param level
 	 * @param numRows
 	 * @param seatsPerRow
 	 */
 	public Level(int level, int numRows, int seatsPerRow)
+	{
+		this(level, numRows, seatsPerRow, null);
+	}
+
+	/**
+	 * Constructor.. the rows are made when they are first checked out
+	 * @param level
+	 * @param numRows
+	 * @param seatsPerRow
+	 * @param rowScores - the quality score of each row, higher is better.. null if the front rows are the best
+	 */
+	public Level(int level, int numRows, int seatsPerRow, final List<Integer> rowScores)
+	{
+		this(level, numRows, seatsPerRow, rowScores, stripes(numRows, DEFAULT_STRIPES));
+	}
+
+	/**
+	 * Constructor.. the rows are made when they are first checked out
+	 * @param level
+	 * @param numRows
+	 * @param seatsPerRow
+	 * @param rowScores - the quality score of each row, higher is better.. null if the front rows are the best
+	 * @param numStripes - the number of stripes of the pool, 1 for a pool that isn't striped.. see {@link #stripes(int, int)}
+	 */
+	public Level(int level, int numRows, int seatsPerRow, final List<Integer> rowScores, int numStripes)
 	{
 		assert numRows>0;
 		assert seatsPerRow > 0;
+		assert rowScores==null||rowScores.size()==numRows;
+		assert numStripes>0&&numStripes<=numRows;
 		this.level = level;
 		this.numRows = numRows;
 		this.seatsPerRow = seatsPerRow;
-		for(int i=0; i<numRows; i++)
+		this.rows = new AtomicReferenceArray<Row>(numRows);
+		this.freeBlocks = new FreeBlockIndex(numRows, seatsPerRow);
+		if(rowScores==null)
+		{
+			this.bestRows = freeBlocks;
+		}
+		else
+		{
+			// best score first.. front rows first among rows with the same score
+			List<Integer> rowOrder = new ArrayList<Integer>();
+			for(int i=0; i<numRows; i++) rowOrder.add(i);
+			Collections.sort(rowOrder, new Comparator<Integer>() {
+
+				@Override
+				public int compare(Integer arg0, Integer arg1) {
+					int result = Integer.compare(rowScores.get(arg1), rowScores.get(arg0));
+					return (result!=0)?result:Integer.compare(arg0, arg1);
+				}
+			});
+			int[] order = new int[numRows];
+			for(int i=0; i<numRows; i++) order[i] = rowOrder.get(i);
+			this.bestRows = new FreeBlockIndex(numRows, seatsPerRow, order);
+		}
+		this.pools = new RowPool[numStripes];
+		for(int stripe=0; stripe<numStripes; stripe++)
+		{
+			pools[stripe] = new RowPool(numRows, seatsPerRow, stripe, numStripes, freeBlocks, bestRows);
+			// all the rows start empty.. the indexes start that way too
+			pools[stripe].addAllEmpty();
+		}
+	}
+
+	/**
+	 * the number of stripes for a level.. as many as asked for, halved till the stripes have enough rows
+	 * @param numRows
+	 * @param maxStripes
+	 * @return
+	 */
+	public static int stripes(int numRows, int maxStripes) {
+		if(maxStripes<1) throw new IllegalArgumentException("A level needs at least 1 stripe");
+		int numStripes = maxStripes;
+		while(numStripes>1&&numRows<numStripes*MIN_ROWS_PER_STRIPE) numStripes/=2;
+		return numStripes;
+	}
+
+	/**
+	 * Constructor.. a level laid out like a level that hasn't sold anything, for another performance in the venue
+	 * The pool and the indexes share their arrays with the other level till they are first changed, and the rows
+	 * are made when they are first checked out, like in any other level. So this doesn't copy anything for the rows
+	 * @param pristine
+	 */
+	Level(Level pristine)
+	{
+		assert pristine.numUnallocatedSeats()==pristine.numRows*pristine.seatsPerRow;
+		this.level = pristine.level;
+		this.numRows = pristine.numRows;
+		this.seatsPerRow = pristine.seatsPerRow;
+		this.rows = new AtomicReferenceArray<Row>(numRows);
+		this.freeBlocks = new FreeBlockIndex(pristine.freeBlocks);
+		this.bestRows = (pristine.bestRows==pristine.freeBlocks)?freeBlocks:new FreeBlockIndex(pristine.bestRows);
+		this.pools = new RowPool[pristine.pools.length];
+		for(int stripe=0; stripe<pools.length; stripe++) pools[stripe] = new RowPool(pristine.pools[stripe], freeBlocks, bestRows);
+	}
+
+	/**
+	 * the pool that has the row
+	 * @param rowNum
+	 * @return
+	 */
+	RowPool pool(int rowNum) {
+		return pools[rowNum%pools.length];
+	}
+
+	/**
+	 * the row with the given number.. makes it if it hasn't been made yet
+	 * @param rowNum
+	 * @return
+	 */
+	Row row(int rowNum) {
+		Row row = rows.get(rowNum);
+		if(row==null)
 		{
-			emptyRows.add(new Row(level, i, seatsPerRow));
+			// rows are made by whoever checked them out, but someone might have beaten us to it
+			Row empty = new Row(level, rowNum, seatsPerRow);
+			row = rows.compareAndSet(rowNum, null, empty)?empty:rows.get(rowNum);
 		}
-		allRows.addAll(emptyRows);
+		return row;
 	}
 
 	/**
@@ -104,12 +286,9 @@ public class Level {
 	 * @return
 	 */
 	public int numUnallocatedSeats() {
-		int result=0;
-		for(Row row:halfFilledRows)
-		{
-			result+=row.numUnallocatedSeats();
-		}
-		return result+seatsPerRow*emptyRows.size();
+		int result = 0;
+		for(RowPool pool: pools) result+=pool.numFreeSeats();
+		return result;
 	}
 
 	/**
@@ -123,10 +302,11 @@ public class Level {
 	 * @return number of seats allocated
 	 */
 	public int allocate(int numSeats, SortedSet<RowFragment> result) {
+		LevelAllocationEvent event = LevelAllocationEvent.start(level, BEST_AVAILABLE, numSeats);
 		allocationLock.lock();
+		if(event!=null) event.locked();
 		try
 		{
-			SortedSet<RowFragment> frags = new TreeSet<RowFragment>();
 			// check out an empty row at a time and allocate it till we have 
 			// either filled all the empty rows, or the number of seats can 
 			// fill a half filled row
@@ -136,7 +316,8 @@ public class Level {
 			// limited to check out and check in methods, and we don't have to do synchronization 
 			// on the row itself
 			int seatsAllocated = 0;
-			SortedSet<Row> checkedOutRows = new TreeSet<Row>();// hold the checked out rows here
+			Row[] checkedOutRows = this.checkedOutRows.get();// hold the checked out rows here
+			int numCheckedOut = 0;
 			
 			try
 			{
@@ -145,7 +326,7 @@ public class Level {
 				// try to allocate completely empty rows
 				while(numSeats>=seatsPerRow&&(checkedOutRow=checkoutEmptyRow())!=null)
 				{
-					checkedOutRows.add(checkedOutRow);
+					checkedOutRows[numCheckedOut++] = checkedOutRow;
 					checkedOutRow.allocate(seatsPerRow, result);
 					numSeats-=seatsPerRow;
 					seatsAllocated+=seatsPerRow;
@@ -154,7 +335,7 @@ public class Level {
 				//now fill the half filled rows bigger than current row
 				while(numSeats>0&&(checkedOutRow=checkoutHalfFilledRow(numSeats))!=null)
 				{
-					checkedOutRows.add(checkedOutRow);
+					checkedOutRows[numCheckedOut++] = checkedOutRow;
 					int seatsToAllocate = checkedOutRow.numUnallocatedSeats();
 					seatsToAllocate = (seatsToAllocate>numSeats)?numSeats:seatsToAllocate;
 					checkedOutRow.allocate(seatsToAllocate, result);
@@ -165,7 +346,7 @@ public class Level {
 				// if we still have seats left, let's put them in an empty row if available
 				if(numSeats>0&&(checkedOutRow=checkoutEmptyRow())!=null)
 				{
-					checkedOutRows.add(checkedOutRow);
+					checkedOutRows[numCheckedOut++] = checkedOutRow;
 					int seatsToAllocate = checkedOutRow.numUnallocatedSeats();
 					seatsToAllocate = (seatsToAllocate>numSeats)?numSeats:seatsToAllocate;
 					checkedOutRow.allocate(seatsToAllocate, result);
@@ -176,7 +357,7 @@ public class Level {
 				//now try to fit people in the remaining fill the half filled rows than current row
 				while(numSeats>0&&(checkedOutRow=checkoutHalfFilledRow(0))!=null)
 				{
-					checkedOutRows.add(checkedOutRow);
+					checkedOutRows[numCheckedOut++] = checkedOutRow;
 					int seatsToAllocate = checkedOutRow.numUnallocatedSeats();
 					seatsToAllocate = (seatsToAllocate>numSeats)?numSeats:seatsToAllocate;
 					checkedOutRow.allocate(seatsToAllocate, result);
@@ -190,73 +371,436 @@ public class Level {
 			{
 			
 				//check the rows back in
-				for(Row checkedOutRow: checkedOutRows)
-				{
+				checkIn(checkedOutRows, numCheckedOut);
+				countAllocation(numCheckedOut);
+				if(event!=null) event.end(seatsAllocated, numCheckedOut, 0);
+			}
+		}
+		finally
+		{
+			allocationLock.unlock();
+		}
 		
-					if(checkedOutRow.numUnallocatedSeats()==0)
+	}
+
+	/**
+	 * Allocates seats for a party that wants to sit together
+	 * A party that fits in a row gets the front most row that has enough free seats. A bigger party
+	 * gets the front most run of consecutive empty rows that is long enough
+	 * The rows are found in the free block index, so this doesn't scan the rows
+	 * @param numSeats - number of seats to be allocated
+	 * @param result - set that stored the allocated fragments
+	 * @return number of seats allocated.. either all of them, or 0 if the party can't sit together
+	 */
+	public int allocateTogether(int numSeats, SortedSet<RowFragment> result) {
+		assert numSeats>0;
+		LevelAllocationEvent event = LevelAllocationEvent.start(level, KEEP_TOGETHER, numSeats);
+		allocationLock.lock();
+		if(event!=null) event.locked();
+		int seatsAllocated = 0, rowsCheckedOut = 0, rowsLost = 0;
+		try
+		{
+			int numRowsNeeded = (numSeats+seatsPerRow-1)/seatsPerRow;
+			// an allocator that checked a row out of the sets may not have told the index yet.. in that case
+			// we lose the row and try again. The row stays out of the index till the allocator checks it in
+			for(int attempt=0; attempt<3; attempt++)
+			{
+				int firstRow = (numRowsNeeded==1)?freeBlocks.checkOutRow(numSeats):freeBlocks.checkOutEmptyRows(numRowsNeeded);
+				if(firstRow<0)
+				{
+					// no block big enough
+					break;
+				}
+				Row[] checkedOutRows = this.checkedOutRows.get();
+				int numCheckedOut = 0;
+				boolean lost = false;
+				for(int rowNum=firstRow; rowNum<firstRow+numRowsNeeded; rowNum++)
+				{
+					Row row = row(rowNum);
+					if(pool(rowNum).remove(rowNum))
 					{
-						filledRows.add(checkedOutRow);
+						checkedOutRows[numCheckedOut++] = row;
+						// someone might have checked the row out and in again after we found it
+						int seatsNeeded = (numRowsNeeded==1)?numSeats:seatsPerRow;
+						if(row.numUnallocatedSeats()<seatsNeeded) lost = true;
 					}
 					else
 					{
-						halfFilledRows.add(checkedOutRow);
+						lost = true;
+						rowsLost++;
+					}
+				}
+				rowsCheckedOut+=numCheckedOut;
+				if(lost)
+				{
+					// give back the rows we got and try again
+					checkIn(checkedOutRows, numCheckedOut);
+					continue;
+				}
+				try
+				{
+					int seatsLeft = numSeats;
+					for(int i=0; i<numCheckedOut; i++)
+					{
+						seatsLeft-=checkedOutRows[i].allocate(Math.min(seatsLeft, seatsPerRow), result);
 					}
+					seatsAllocated = numSeats;
+					countAllocation(numCheckedOut);
+					return numSeats;
+				}
+				finally
+				{
+					checkIn(checkedOutRows, numCheckedOut);
 				}
 			}
+			return 0;
 		}
 		finally
 		{
 			allocationLock.unlock();
+			if(event!=null) event.end(seatsAllocated, rowsCheckedOut, rowsLost);
 		}
-		
 	}
 
-	private Row checkoutHalfFilledRow(int minSize) {
-		return checkoutRow(halfFilledRows, minSize);
+	/**
+	 * Allocates the best scoring seats in this level
+	 * Each row is the best scoring row that can take the rest of the party, or a whole row of it. If there is
+	 * no such row, the party is split over the best scoring rows that have any free seats
+	 * The rows are found in the score index, so this doesn't scan the rows
+	 * In times of high contention, it may allocate less seats than available
+	 * @param numSeats - number of seats to be allocated
+	 * @param result - set that stored the allocated fragments
+	 * @return number of seats allocated
+	 */
+	public int allocateBest(int numSeats, SortedSet<RowFragment> result) {
+		return allocateFromIndex(bestRows, 0, numRows-1, numSeats, result, BEST_SCORE);
 	}
 
-	private Row checkoutEmptyRow() {
-		return checkoutRow(emptyRows, 0);
+	/**
+	 * Allocates seats in a range of rows of this level, front rows first
+	 * Works like {@link #allocateBest(int, SortedSet)}, but only looks at the given rows
+	 * @param numSeats - number of seats to be allocated
+	 * @param fromRow
+	 * @param toRow - inclusive
+	 * @param result - set that stored the allocated fragments
+	 * @return number of seats allocated
+	 */
+	public int allocateInRows(int numSeats, int fromRow, int toRow, SortedSet<RowFragment> result) {
+		return allocateFromIndex(freeBlocks, fromRow, toRow, numSeats, result, IN_ROWS);
 	}
-	
-	private Row checkoutRow(SortedSet<Row> rows, int minSize)
-	{
-		synchronized(rows)
+
+	/**
+	 * Allocates all the free seats in a block of rows, for a group
+	 * The block is allocated under the allocation lock, instead of a hold request per row, and every row
+	 * is checked out by it's number, so the block doesn't go looking for rows in the pools like the on-sale does. A
+	 * row of the block that is checked out by another request is only gone for the length of that request, so it's
+	 * waited for instead of being skipped.. the rows that are there are allocated first, then the allocation lets go
+	 * of the lock and sleeps on the pool till the missing rows are checked back in. Waiting with the lock held would
+	 * hold up a deallocation that is queued for it, and every allocation queued behind that
+	 * @param fromRow
+	 * @param toRow - inclusive
+	 * @param result - set that stored the allocated fragments
+	 * @return number of seats allocated
+	 */
+	public int allocateBlock(int fromRow, int toRow, SortedSet<RowFragment> result) {
+		if(fromRow<0||toRow>=numRows||fromRow>toRow) throw new IllegalArgumentException("Rows should be between 0 and "+(numRows-1));
+		LevelAllocationEvent event = LevelAllocationEvent.start(level, BLOCK, 0);
+		// counting the free seats of the block isn't free.. only for a recording that wants the event
+		if(event!=null&&event.isEnabled()) event.seatsRequested = freeBlocks.numFree(fromRow, toRow);
+		int seatsAllocated = 0, rowsLost = 0, rowsAllocated = 0;
+		// the rows that were checked out by requests in flight
+		int[] missing = new int[toRow-fromRow+1];
+		try
 		{
-			if(rows.isEmpty()) return null;
-			for(Row candidate: rows)
+			allocationLock.lock();
+			if(event!=null) event.locked();
+			try
+			{
+				for(int rowNum=fromRow; rowNum<=toRow; rowNum++)
+				{
+					if(!pool(rowNum).remove(rowNum))
+					{
+						missing[rowsLost++] = rowNum;
+						continue;
+					}
+					int numFree = allocateAll(row(rowNum), result);
+					seatsAllocated+=numFree;
+					if(numFree>0) rowsAllocated++;
+				}
+			}
+			finally
+			{
+				allocationLock.unlock();
+			}
+			for(int i=0; i<rowsLost; i++)
 			{
-				if(candidate.numUnallocatedSeats()>=minSize)
+				int rowNum = missing[i];
+				for(boolean checkedOut=false; !checkedOut;)
 				{
-					rows.remove(candidate);
-					return candidate;
+					pool(rowNum).awaitCheckedIn(rowNum);
+					allocationLock.lock();
+					try
+					{
+						// someone else might have checked it out again before we got the lock
+						checkedOut = pool(rowNum).remove(rowNum);
+						if(checkedOut)
+						{
+							int numFree = allocateAll(row(rowNum), result);
+							seatsAllocated+=numFree;
+							if(numFree>0) rowsAllocated++;
+						}
+					}
+					finally
+					{
+						allocationLock.unlock();
+					}
 				}
 			}
-			return null;
+			return seatsAllocated;
+		}
+		finally
+		{
+			countAllocation(rowsAllocated);
+			if(event!=null) event.end(seatsAllocated, toRow-fromRow+1, rowsLost);
 		}
 	}
 
 	/**
-	 * Allocates seats in a particular row.. use only for testing.. not for real code
-	 * @param numSeats
+	 * allocates all the free seats of a row that is checked out, and checks it back in
+	 * must be called with the allocation lock held
 	 * @param row
+	 * @param result
+	 * @return the number of seats allocated
 	 */
-	public int allocateInRow(Integer numSeats, int row) {
-		Row r = allRows.get(row);
-		int n = r.allocate(numSeats, new TreeSet<RowFragment>());
-		emptyRows.remove(r);
-		if(r.numUnallocatedSeats()==0)
+	private int allocateAll(Row row, SortedSet<RowFragment> result) {
+		try
 		{
-			filledRows.add(r);
+			int numFree = row.numUnallocatedSeats();
+			return (numFree>0)?row.allocate(numFree, result):0;
 		}
-		else
+		finally
+		{
+			checkIn(row);
+		}
+	}
+
+	/**
+	 * returns the number of seats that are available to be held in a range of rows
+	 * Just like {@link #numUnallocatedSeats()}, this excludes the rows that are being allocated right now
+	 * @param fromRow
+	 * @param toRow - inclusive
+	 * @return
+	 */
+	public int numUnallocatedSeats(int fromRow, int toRow) {
+		return freeBlocks.numFree(fromRow, toRow);
+	}
+
+	/**
+	 * allocates seats in the rows between the given positions of an index, in the order of the index
+	 * @param index
+	 * @param fromPosition
+	 * @param toPosition
+	 * @param numSeats
+	 * @param result
+	 * @param mode - what the allocation is for, for the flight recorder
+	 * @return number of seats allocated
+	 */
+	private int allocateFromIndex(FreeBlockIndex index, int fromPosition, int toPosition, int numSeats, SortedSet<RowFragment> result, String mode) {
+		assert numSeats>0;
+		LevelAllocationEvent event = LevelAllocationEvent.start(level, mode, numSeats);
+		allocationLock.lock();
+		if(event!=null) event.locked();
+		try
+		{
+			Row[] checkedOutRows = this.checkedOutRows.get();
+			int numCheckedOut = 0;
+			int rowsLost = 0, rowsAllocated = 0;
+			int seatsLeft = numSeats;
+			try
+			{
+				// every row found is marked full in the index till it's checked in, so this runs out of rows
+				while(seatsLeft>0)
+				{
+					int rowNum = index.checkOutRow(Math.min(seatsLeft, seatsPerRow), fromPosition, toPosition);
+					if(rowNum<0) rowNum = index.checkOutRow(1, fromPosition, toPosition);
+					if(rowNum<0)
+					{
+						// no free seats left
+						break;
+					}
+					if(!pool(rowNum).remove(rowNum))
+					{
+						// someone else has the row.. they will put it back in the index
+						rowsLost++;
+						continue;
+					}
+					Row row = row(rowNum);
+					checkedOutRows[numCheckedOut++] = row;
+					// the row might have lost seats after we found it
+					int seatsToAllocate = Math.min(seatsLeft, row.numUnallocatedSeats());
+					if(seatsToAllocate>0)
+					{
+						seatsLeft-=row.allocate(seatsToAllocate, result);
+						rowsAllocated++;
+					}
+				}
+				return numSeats-seatsLeft;
+			}
+			finally
+			{
+				checkIn(checkedOutRows, numCheckedOut);
+				countAllocation(rowsAllocated);
+				if(event!=null) event.end(numSeats-seatsLeft, numCheckedOut, rowsLost);
+			}
+		}
+		finally
 		{
-			halfFilledRows.add(r);
+			allocationLock.unlock();
 		}
+	}
+
+	/**
+	 * counts an allocation for the stats
+	 * @param rowsAllocated - the rows it got seats in, 0 if it didn't get any
+	 */
+	private void countAllocation(int rowsAllocated) {
+		if(rowsAllocated==0) return;
+		numAllocations.increment();
+		numRowsAllocated.add(rowsAllocated);
+		if(rowsAllocated>1) numSplitAllocations.increment();
+	}
+
+	/**
+	 * the fragmentation of the level, and how well it has seated the parties so far
+	 * @return
+	 */
+	public LevelStats stats() {
+		return new LevelStats(level, seatsPerRow, freeBlocks.countRowsByFreeSeats(), numAllocations.sum(), numSplitAllocations.sum(), numRowsAllocated.sum());
+	}
+
+	private Row checkoutHalfFilledRow(int minSize) {
+		if(pools.length==1)
+		{
+			int rowNum = pools[0].pollHalfFilled(minSize);
+			return (rowNum<0)?null:row(rowNum);
+		}
+		// the fewest free seats that fit in any stripe, and the front most row with that many.. the row a level that
+		// isn't striped would hand out
+		int best = Integer.MAX_VALUE;
+		int bestRow = Integer.MAX_VALUE;
+		RowPool bestPool = null;
+		for(RowPool pool: pools)
+		{
+			int numFree = pool.peekHalfFilled(minSize);
+			if(numFree>best||numFree==Integer.MAX_VALUE) continue;
+			int rowNum = pool.peekRowWithFree(numFree);
+			if(numFree<best||rowNum<bestRow)
+			{
+				best = numFree;
+				bestRow = rowNum;
+				bestPool = pool;
+			}
+		}
+		if(bestPool==null) return null;
+		int rowNum = bestPool.tryPollHalfFilled(minSize);
+		if(rowNum>=0) return row(rowNum);
+		// the stripe is busy, or someone beat us to the row.. the rows with as few free seats are equally good
+		int home = homeStripe.get();
+		for(int i=0; i<pools.length; i++)
+		{
+			RowPool pool = pools[(home+i)%pools.length];
+			if(pool.peekHalfFilled(minSize)!=best) continue;
+			rowNum = pool.pollHalfFilled(minSize);
+			if(rowNum>=0) return row(rowNum);
+		}
+		// someone beat us to those rows.. anything that fits will do
+		for(int i=0; i<pools.length; i++)
+		{
+			rowNum = pools[(home+i)%pools.length].pollHalfFilled(minSize);
+			if(rowNum>=0) return row(rowNum);
+		}
+		return null;
+	}
+
+	private Row checkoutEmptyRow() {
+		if(pools.length==1)
+		{
+			int rowNum = pools[0].pollEmpty();
+			return (rowNum<0)?null:row(rowNum);
+		}
+		int best = Integer.MAX_VALUE;
+		RowPool bestPool = null;
+		for(RowPool pool: pools)
+		{
+			int firstEmpty = pool.firstEmpty;
+			if(firstEmpty<best)
+			{
+				best = firstEmpty;
+				bestPool = pool;
+			}
+		}
+		if(bestPool==null) return null;
+		// the front most empty row of the level, unless someone else is checking rows out of it's stripe
+		int rowNum = bestPool.tryPollEmpty();
+		if(rowNum>=0) return row(rowNum);
+		// no more than a round of stripes behind the front most empty row
+		int budget = best+pools.length;
+		int home = homeStripe.get();
+		for(int i=0; i<pools.length; i++)
+		{
+			RowPool pool = pools[(home+i)%pools.length];
+			if(pool.firstEmpty>budget) continue;
+			rowNum = pool.pollEmpty();
+			if(rowNum>=0) return row(rowNum);
+		}
+		// someone beat us to those rows.. any empty row will do
+		for(int i=0; i<pools.length; i++)
+		{
+			rowNum = pools[(home+i)%pools.length].pollEmpty();
+			if(rowNum>=0) return row(rowNum);
+		}
+		return null;
+	}
+
+	/**
+	 * Allocates seats in a particular row.. use only for testing and for seats that are sold before a performance
+	 * goes on sale, like the seats of season ticket holders.. not for real code
+	 * @param numSeats
+	 * @param row
+	 */
+	public int allocateInRow(Integer numSeats, int row) {
+		Row r = row(row);
+		// checked out by a request in flight.. it will be back
+		while(!pool(row).remove(row)) pool(row).awaitCheckedIn(row);
+		int n = r.allocate(numSeats, new TreeSet<RowFragment>());
+		checkIn(r);
 		return n;
 		
 	}
 
+	/**
+	 * finds the fragment a seat is in
+	 * @param rowNum
+	 * @param seat
+	 * @return null if the seat isn't allocated
+	 */
+	public RowFragment findFragment(int rowNum, int seat) {
+		Row row = rows.get(rowNum);
+		// a row that was never checked out has nothing allocated
+		return (row==null)?null:row.fragmentAt(seat);
+	}
+
+	/**
+	 * finds a fragment that was handed out by it's serial
+	 * @param rowNum
+	 * @param serial
+	 * @return null if the fragment isn't allocated
+	 */
+	public RowFragment findFragmentBySerial(int rowNum, int serial) {
+		Row row = rows.get(rowNum);
+		return (row==null)?null:row.fragmentBySerial(serial);
+	}
+
 	/**
 	 * deallocates a fragment from this level
 	 * @param fragment
@@ -267,35 +811,76 @@ public class Level {
 		assert level == fragment.getLevel(); 
 		
 		deallocationLock.lock();
+		long stamp = moves.writeLock();
 		try
 		{
-			Row row = allRows.get(fragment.getRowNum());
-			row.deallocate(fragment);
-			
-			// remove the row from wherver it is now
-			emptyRows.remove(row);
-			halfFilledRows.remove(row);
-			filledRows.remove(row);
-			
-			// add it to it's new place
-			if(row.numUnallocatedSeats()==0)
-			{
-				filledRows.add(row);
-			}
-			else if(row.numUnallocatedSeats()==seatsPerRow)
-			{
-				emptyRows.add(row);
-			}
-			else 
+			releaseInRow(fragment, fragment.getNumSeats());
+		}
+		finally
+		{
+			moves.unlockWrite(stamp);
+			deallocationLock.unlock();
+		}
+		
+		
+	}
+
+	/**
+	 * releases the last seats of fragments in this level
+	 * All the fragments are released while allocations are frozen once, instead of once per fragment
+	 * @param seatsToRelease - the number of seats to release keyed by the fragment
+	 */
+	public void release(Map<RowFragment, Integer> seatsToRelease) {
+
+		deallocationLock.lock();
+		long stamp = moves.writeLock();
+		try
+		{
+			for(Map.Entry<RowFragment, Integer> entry: seatsToRelease.entrySet())
 			{
-				halfFilledRows.add(row);
+				assert level == entry.getKey().getLevel();
+				releaseInRow(entry.getKey(), entry.getValue());
 			}
 		}
 		finally
 		{
+			moves.unlockWrite(stamp);
 			deallocationLock.unlock();
 		}
+	}
+
+	/**
+	 * releases seats of a fragment in it's row and moves the row to where it belongs
+	 * must be called with the deallocation lock held
+	 * @param fragment
+	 * @param seatsToRelease
+	 */
+	private void releaseInRow(RowFragment fragment, int seatsToRelease) {
+		Row row = row(fragment.getRowNum());
+		
+		// take the row out of the pool.. it's filed under it's number of free seats, which is about to change
+		pool(row.rowNum).remove(row.rowNum);
 		
+		row.release(fragment, seatsToRelease);
 		
+		// add it to it's new place
+		checkIn(row);
+	}
+
+	/**
+	 * puts a checked out row back in the pool
+	 * @param row
+	 */
+	private void checkIn(Row row) {
+		pool(row.rowNum).add(row.rowNum, row.numUnallocatedSeats());
+	}
+
+	private void checkIn(Row[] rows, int numRows) {
+		for(int i=0; i<numRows; i++)
+		{
+			checkIn(rows[i]);
+			// don't keep the row reachable from the scratch array
+			rows[i] = null;
+		}
 	}
 }
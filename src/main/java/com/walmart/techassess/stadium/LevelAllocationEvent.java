@@ -0,0 +1,103 @@
+package com.walmart.techassess.stadium;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for the allocation of seats in a level, from asking for the allocation lock to checking
+ * the rows back in
+ *
+ * The level only makes the event once the flight recorder is up, see {@link #start(int, String, int)}, so the
+ * allocation stays free of garbage when nothing is recorded. The fields are only filled in, and the clock for
+ * the lock wait is only read, while the event is enabled in the recording
+ *
+ */
+@Name(LevelAllocationEvent.NAME)
+@Label("Level Allocation")
+@Category({"Ticketing", "Hold Pipeline"})
+@Description("Allocation of seats in a level")
+@StackTrace(false)
+class LevelAllocationEvent extends Event {
+
+	static final String NAME = "com.walmart.techassess.LevelAllocation";
+
+	@Label("Level")
+	int level;
+
+	@Label("Mode")
+	@Description("BEST_AVAILABLE, KEEP_TOGETHER, BEST_SCORE, IN_ROWS for seats in a range of rows, or BLOCK for whole rows")
+	String mode;
+
+	@Label("Seats Requested")
+	int seatsRequested;
+
+	@Label("Seats Allocated")
+	int seatsAllocated;
+
+	@Label("Rows Checked Out")
+	int rowsCheckedOut;
+
+	@Label("Rows Lost")
+	@Description("Rows that were found, but were checked out by someone else before they could be checked out")
+	int rowsLost;
+
+	@Label("Lock Wait")
+	@Description("Time spent waiting for the allocation lock of the level")
+	@Timespan(Timespan.NANOSECONDS)
+	long lockWait;
+
+	// when the lock was asked for
+	transient long lockRequested;
+
+	/**
+	 * starts the event, call it right before asking for the allocation lock
+	 * @param level
+	 * @param mode
+	 * @param seatsRequested
+	 * @return the event, or null if the flight recorder isn't up.. the JIT doesn't always get rid of an event
+	 * that is never enabled in a method as big as the allocations
+	 */
+	static LevelAllocationEvent start(int level, String mode, int seatsRequested) {
+		if(!FlightRecorder.isInitialized()) return null;
+		LevelAllocationEvent event = new LevelAllocationEvent();
+		if(event.isEnabled())
+		{
+			event.level = level;
+			event.mode = mode;
+			event.seatsRequested = seatsRequested;
+			event.lockRequested = System.nanoTime();
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * the allocation lock was granted
+	 */
+	void locked() {
+		if(isEnabled()) lockWait = System.nanoTime()-lockRequested;
+	}
+
+	/**
+	 * ends the event, and commits it if the recording wants it
+	 * @param seatsAllocated
+	 * @param rowsCheckedOut
+	 * @param rowsLost
+	 */
+	void end(int seatsAllocated, int rowsCheckedOut, int rowsLost) {
+		end();
+		if(shouldCommit())
+		{
+			this.seatsAllocated = seatsAllocated;
+			this.rowsCheckedOut = rowsCheckedOut;
+			this.rowsLost = rowsLost;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.walmart.techassess.stadium;
+
+import java.util.Arrays;
+
+/**
+ * How fragmented a level is, and how well it has seated the parties so far
+ *
+ * Rows compact when seats are given back, so the free seats of a row are always one block at the end of it, and
+ * the layout of a level comes down to how many rows have how many free seats. As a sale goes on, expiries and
+ * releases leave half filled rows behind. Their seats can only go to parties that fit in them, or be split
+ * over rows, which seats parties apart and makes the allocations check out more rows. So besides the free block
+ * sizes, the stats count
+ * - the allocations that got seats, and how many of them were split over more than one row
+ * - the rows they got seats in
+ * An allocation is the part of a hold that went to this level.. a hold that is spread over levels is an
+ * allocation in each of them, and a party that couldn't be seated in full counts even though it's seats are
+ * given back
+ *
+ * The layout is read from the free block index, where rows that are being allocated count as full. So it's a
+ * little off while allocations are in flight, like the number of free seats
+ *
+ * Immutable
+ *
+ */
+public class LevelStats {
+
+	final int level;
+	final int seatsPerRow;
+	// the number of rows with k free seats at k
+	final int[] rowsByFreeSeats;
+	final long numAllocations;
+	final long numSplitAllocations;
+	final long numRowsAllocated;
+
+	LevelStats(int level, int seatsPerRow, int[] rowsByFreeSeats, long numAllocations, long numSplitAllocations, long numRowsAllocated) {
+		super();
+		assert rowsByFreeSeats.length==seatsPerRow+1;
+		this.level = level;
+		this.seatsPerRow = seatsPerRow;
+		this.rowsByFreeSeats = rowsByFreeSeats;
+		this.numAllocations = numAllocations;
+		this.numSplitAllocations = numSplitAllocations;
+		this.numRowsAllocated = numRowsAllocated;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public int getSeatsPerRow() {
+		return seatsPerRow;
+	}
+
+	public int getNumRows() {
+		int result = 0;
+		for(int rows: rowsByFreeSeats) result+=rows;
+		return result;
+	}
+
+	/**
+	 * the distribution of the free block sizes
+	 * @return the number of rows with k free seats at k, for k from 0 to the seats per row
+	 */
+	public int[] getRowsByFreeSeats() {
+		return rowsByFreeSeats.clone();
+	}
+
+	public int getEmptyRows() {
+		return rowsByFreeSeats[seatsPerRow];
+	}
+
+	public int getFullRows() {
+		return rowsByFreeSeats[0];
+	}
+
+	/**
+	 * the rows that have free seats, but aren't empty
+	 * @return
+	 */
+	public int getHalfFilledRows() {
+		return getNumRows()-getEmptyRows()-getFullRows();
+	}
+
+	public int getFreeSeats() {
+		int result = 0;
+		for(int free=1; free<=seatsPerRow; free++) result+=free*rowsByFreeSeats[free];
+		return result;
+	}
+
+	/**
+	 * the most free seats in a row
+	 * @return 0 if the level is full
+	 */
+	public int getLargestFreeBlock() {
+		for(int free=seatsPerRow; free>0; free--)
+		{
+			if(rowsByFreeSeats[free]>0) return free;
+		}
+		return 0;
+	}
+
+	/**
+	 * the share of the free seats that are in half filled rows
+	 * @return 0 when all the free seats are in empty rows, 1 when none of them are
+	 */
+	public double getFragmentation() {
+		int freeSeats = getFreeSeats();
+		if(freeSeats==0) return 0;
+		return (double)(freeSeats-seatsPerRow*getEmptyRows())/freeSeats;
+	}
+
+	/**
+	 * the allocations that got seats in this level
+	 * @return
+	 */
+	public long getNumAllocations() {
+		return numAllocations;
+	}
+
+	/**
+	 * the share of the allocations that were split over more than one row
+	 * @return
+	 */
+	public double getSplitRate() {
+		return (numAllocations==0)?0:(double)numSplitAllocations/numAllocations;
+	}
+
+	/**
+	 * the average number of rows an allocation got seats in
+	 * @return
+	 */
+	public double getRowsPerAllocation() {
+		return (numAllocations==0)?0:(double)numRowsAllocated/numAllocations;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("level %d: %d empty, %d half filled, %d full rows, %d free seats, largest block %d, fragmentation %.2f, "
+				+"%d allocations, split rate %.2f, %.2f rows per allocation, rows by free seats %s", level, getEmptyRows(), getHalfFilledRows(),
+				getFullRows(), getFreeSeats(), getLargestFreeBlock(), getFragmentation(), numAllocations, getSplitRate(), getRowsPerAllocation(),
+				Arrays.toString(rowsByFreeSeats));
+	}
+}
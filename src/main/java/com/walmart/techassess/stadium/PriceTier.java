@@ -0,0 +1,60 @@
+package com.walmart.techassess.stadium;
+
+/**
+ * A price tier is a range of rows in a level that are sold at the same price
+ * Usually a tier covers a whole level, but a level can have tiers for some of it's rows, like the front rows
+ *
+ */
+public class PriceTier {
+
+	final String name;
+	final double price;
+	final int level;
+	final int firstRow;
+	final int lastRow;
+
+	/**
+	 * Constructor
+	 * @param name
+	 * @param price - the price of a seat
+	 * @param level
+	 * @param firstRow
+	 * @param lastRow - inclusive
+	 */
+	public PriceTier(String name, double price, int level, int firstRow, int lastRow) {
+		super();
+		assert name!=null;
+		assert price>=0;
+		assert firstRow>=0&&firstRow<=lastRow;
+		this.name = name;
+		this.price = price;
+		this.level = level;
+		this.firstRow = firstRow;
+		this.lastRow = lastRow;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public double getPrice() {
+		return price;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public int getFirstRow() {
+		return firstRow;
+	}
+
+	public int getLastRow() {
+		return lastRow;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s@%.2f %d#%c-%c", name, price, level, ('A'+firstRow), ('A'+lastRow));
+	}
+}
@@ -1,10 +1,8 @@
 package com.walmart.techassess.stadium;
 
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.function.Consumer;
-import java.util.function.Function;
 
 /**
  * Row represents a row within the stadium
@@ -17,6 +15,17 @@ import java.util.function.Function;
  * 
  * During deallocation, the deallocated fragment is removed and all fragments after it are moved up
  * If required a new unassinged fragment is created or the existing unassinged fragment is stretched
+ * 
+ * A fragment can also be partially released. The fragment loses it's last seats, and the fragments after it
+ * are moved up by the same number of seats
+ * 
+ * The fragments are kept in seat order in a list, and are changed in place. The unassigned fragment shrinks
+ * when seats are allocated, and is kept around when the row is full. So the only object allocating seats
+ * creates is the assigned fragment that is handed out
+ * 
+ * Every fragment that is handed out gets the next serial of the row. Fragments are handed out from the start of
+ * the unassigned fragment and never change places, so the serials go up in seat order too, and a fragment can
+ * be found by it's serial however far it has moved
  * @author jlalwani
  *
  */
@@ -25,20 +34,14 @@ public class Row implements Comparable<Row>{
 	final int level;
 	final int rowNum;
 	final int numSeats;
-	// the fragments
-	final SortedSet<RowFragment> fragments = new TreeSet<RowFragment>();
-	// the unassigned fragment
-	Optional<RowFragment> unassignedFragment;
-
-	// a function that returns the number of seats in a fragment
-	private class NumSeatsFunction implements Function<RowFragment, Integer> {
-
-		@Override
-		public Integer apply(RowFragment r) {
-			return r.getNumSeats();
-		}
-		
-	}
+	// the fragments in seat order.. the unassigned fragment is the last one, unless the row is full
+	final List<RowFragment> fragments = new ArrayList<RowFragment>();
+	// the unassigned fragment.. when the row is full it is empty, and not in the fragments
+	final RowFragment unassignedFragment;
+	// the number of unallocated seats
+	volatile int numFree;
+	// the serial of the next fragment that is handed out
+	int nextSerial = 1;
 	
 	/**
 	 * Constructor
@@ -51,8 +54,10 @@ public class Row implements Comparable<Row>{
 		this.level = level;
 		this.rowNum = rowNum;
 		this.numSeats = numSeats;
-		unassignedFragment = Optional.of(new RowFragment(level, rowNum, 1, numSeats));
-		fragments.add(unassignedFragment.get());
+		// the unassigned fragment is always last, so it gets the last serial
+		unassignedFragment = new RowFragment(level, rowNum, 1, numSeats, Integer.MAX_VALUE);
+		fragments.add(unassignedFragment);
+		numFree = numSeats;
 	}
 
 	
@@ -91,9 +96,7 @@ public class Row implements Comparable<Row>{
 	 * @return
 	 */
 	public int numUnallocatedSeats() {
-		// sinply find the number of seats in the unassigned fragment
-		// if no unassigned fragment, 0 seats available
-		return unassignedFragment.map(new NumSeatsFunction()).orElse(0);
+		return numFree;
 	}
 
 	/**
@@ -104,28 +107,21 @@ public class Row implements Comparable<Row>{
 	 */
 	public synchronized int allocate(int numSeats, SortedSet<RowFragment> result) {
 
-		assert unassignedFragment.isPresent();
-		RowFragment uaFrag = unassignedFragment.get();
-		assert numSeats<=uaFrag.getNumSeats();
+		assert numSeats>0&&numSeats<=numFree;
+		RowFragment uaFrag = unassignedFragment;
 		
-		//create a new assigned fragment and add it to list of fragments
-		RowFragment assignedFragment = new RowFragment(level, rowNum, uaFrag.getStartSeat(), uaFrag.getStartSeat()+numSeats-1);
+		//create a new assigned fragment and put it in front of the unassigned fragment
+		RowFragment assignedFragment = new RowFragment(level, rowNum, uaFrag.getStartSeat(), uaFrag.getStartSeat()+numSeats-1, nextSerial++);
 		result.add(assignedFragment);
-		fragments.add(assignedFragment);
+		fragments.add(fragments.size()-1, assignedFragment);
 		
-		// remove currently unassigned fragment and create a new one that represents the currently unassigned seats
-		fragments.remove(uaFrag);
-		if(numSeats==uaFrag.getNumSeats())
+		// the unassigned fragment loses the seats from it's start
+		uaFrag.stretchStart(-numSeats);
+		numFree-=numSeats;
+		if(numFree==0)
 		{
 			// no unassigned fragment left
-			unassignedFragment=Optional.empty();
-		}
-		else
-		{
-			// new unassigned fragment
-			unassignedFragment = Optional.of(new RowFragment(numSeats, rowNum, uaFrag.getStartSeat()+numSeats, uaFrag.getEndSeat()));
-			fragments.add(unassignedFragment.get());
-			
+			fragments.remove(fragments.size()-1);
 		}
 		return numSeats;
 	}
@@ -147,48 +143,105 @@ public class Row implements Comparable<Row>{
 	 * deallocates this fragment
 	 */
 	public synchronized void  deallocate(RowFragment fragment) {
-		
-		if(!fragments.contains(fragment))
+		release(fragment, fragment.getNumSeats());
+	}
+	
+	/**
+	 * releases the last seats of this fragment.. the fragment shrinks in place, so whoever holds it sees
+	 * the smaller fragment. Releasing all the seats of the fragment is the same as deallocating it
+	 * @param fragment
+	 * @param seatsToRelease
+	 */
+	public synchronized void release(RowFragment fragment, int seatsToRelease) {
+
+		int index = indexOf(fragment);
+		if(index<0)
 		{
 			// someone already deallocated.. no op
 			return;
 		}
-		// contains the list of new framgents
-		SortedSet<RowFragment> newFragments = new TreeSet<RowFragment>();
-		
-		// go through existing fragments
-		for(RowFragment existingFragment: fragments)
+		assert seatsToRelease>0&&seatsToRelease<=fragment.getNumSeats();
+		if(seatsToRelease==fragment.getNumSeats())
 		{
-			if (existingFragment.compareTo(fragment)<0)
-			{
-				// fragment before the fragment to be removed
-				newFragments.add(existingFragment);// add as is
-			}
-			else if (existingFragment.compareTo(fragment)>0)
-			{
-				// fragment after fragment being removed
-				if(unassignedFragment.isPresent()&&unassignedFragment.get().equals(existingFragment))
-				{
-					// unassigned fragment, stretch it out
-					unassignedFragment = Optional.of(unassignedFragment.get().stretchStart(fragment.getNumSeats()));
-					newFragments.add(unassignedFragment.get());
-				}
-				else
-				{
-					newFragments.add(existingFragment.shiftUp(fragment.getNumSeats()));
-				}
-			}
-				
+			// the whole fragment goes
+			fragments.remove(index);
 		}
-		if(!unassignedFragment.isPresent())
+		else
 		{
-			// create new unassigned fragment
-			unassignedFragment = Optional.of(new RowFragment(level, rowNum, newFragments.last().getEndSeat()+1, numSeats));
-			newFragments.add(unassignedFragment.get());
+			fragment.stretchEnd(-seatsToRelease);
+			index++;
 		}
-		// replace fragments with new fragments
-		fragments.clear();
-		fragments.addAll(newFragments);
+		if(numFree==0)
+		{
+			// the row was full.. bring back the unassigned fragment, empty, at the end of the row
+			unassignedFragment.startSeat = numSeats+1;
+			unassignedFragment.endSeat = numSeats;
+			fragments.add(unassignedFragment);
+		}
+		// move up the fragments after the released seats, and stretch the unassigned fragment out
+		int last = fragments.size()-1;
+		for(int i=index; i<last; i++)
+		{
+			fragments.get(i).shiftUp(seatsToRelease);
+		}
+		unassignedFragment.stretchStart(seatsToRelease);
+		numFree+=seatsToRelease;
 	}
-	
+
+	/**
+	 * finds the fragment a seat is in, by it's seat
+	 * @param seat
+	 * @return null if the seat isn't allocated
+	 */
+	public synchronized RowFragment fragmentAt(int seat) {
+		int low = 0, high = fragments.size()-1;
+		while(low<=high)
+		{
+			int mid = (low+high)>>>1;
+			RowFragment candidate = fragments.get(mid);
+			if(candidate.getEndSeat()<seat) low = mid+1;
+			else if(candidate.getStartSeat()>seat) high = mid-1;
+			else return (candidate!=unassignedFragment)?candidate:null;
+		}
+		return null;
+	}
+
+	/**
+	 * finds a fragment that was handed out by it's serial
+	 * @param serial
+	 * @return null if no fragment with the serial is allocated in the row
+	 */
+	public synchronized RowFragment fragmentBySerial(int serial) {
+		int low = 0, high = fragments.size()-1;
+		while(low<=high)
+		{
+			int mid = (low+high)>>>1;
+			RowFragment candidate = fragments.get(mid);
+			if(candidate.serial<serial) low = mid+1;
+			else if(candidate.serial>serial) high = mid-1;
+			else return (candidate!=unassignedFragment)?candidate:null;
+		}
+		return null;
+	}
+
+	/**
+	 * finds this very fragment in the row.. a fragment that was deallocated might be
+	 * equal to a fragment that was allocated in it's place later
+	 * @param fragment
+	 * @return the index of the fragment, or -1 if it's not allocated in the row
+	 */
+	private int indexOf(RowFragment fragment) {
+		// the fragments are in seat order, so look it up by it's start seat
+		int low = 0, high = fragments.size()-1;
+		while(low<=high)
+		{
+			int mid = (low+high)>>>1;
+			RowFragment candidate = fragments.get(mid);
+			if(candidate.getStartSeat()<fragment.getStartSeat()) low = mid+1;
+			else if(candidate.getStartSeat()>fragment.getStartSeat()) high = mid-1;
+			else return (candidate==fragment&&candidate!=unassignedFragment)?mid:-1;
+		}
+		return -1;
+	}
+
 }
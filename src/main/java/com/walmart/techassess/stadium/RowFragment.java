@@ -12,12 +12,19 @@ public class RowFragment implements Comparable<RowFragment>{
 	final int rowNum;
 	int startSeat;
 	int endSeat;
+	// the order the fragment was handed out in, in it's row.. it stays the same when the fragment moves
+	// 0 for a fragment that wasn't handed out by a row
+	final int serial;
 	public RowFragment(int level, int rowNum, int startSeat, int endSeat) {
+		this(level, rowNum, startSeat, endSeat, 0);
+	}
+	public RowFragment(int level, int rowNum, int startSeat, int endSeat, int serial) {
 		super();
 		this.level = level;
 		this.rowNum = rowNum;
 		this.startSeat = startSeat;
 		this.endSeat = endSeat;
+		this.serial = serial;
 	}
 	public int getRowNum() {
 		return rowNum;
@@ -31,6 +38,14 @@ public class RowFragment implements Comparable<RowFragment>{
 	public int getLevel() {
 		return level;
 	}
+	/**
+	 * the order the fragment was handed out in, in it's row.. unlike the seats it never changes, so a fragment
+	 * can be found again with {@link StadiumService#findFragmentBySerial(int, int, int)} after it has moved
+	 * @return 0 if the fragment wasn't handed out by a row
+	 */
+	public int getSerial() {
+		return serial;
+	}
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -60,7 +75,16 @@ public class RowFragment implements Comparable<RowFragment>{
 	}
 	@Override
 	public String toString() {
-		return String.format("%d#%c{%d-%d}", level, ('A'+rowNum), startSeat, endSeat);
+		return String.format("%d#%s{%d-%d}", level, rowLabel(rowNum), startSeat, endSeat);
+	}
+	/**
+	 * the label of a row, like the columns of a spreadsheet.. A to Z, then AA, AB and so on
+	 * @param rowNum
+	 * @return
+	 */
+	public static String rowLabel(int rowNum) {
+		if(rowNum<26) return String.valueOf((char)('A'+rowNum));
+		return rowLabel(rowNum/26-1)+(char)('A'+rowNum%26);
 	}
 	@Override
 	public int compareTo(RowFragment o) {
@@ -0,0 +1,402 @@
+package com.walmart.techassess.stadium;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The rows of a level that are not checked out, by the number of free seats they have
+ *
+ * This replaces the sorted sets of empty, half filled and filled rows. Adding a row to a sorted set allocates
+ * a tree node, and every allocation checks rows out and in again, so the sets were a steady source of garbage.
+ * The pool keeps a bit set of rows for every number of free seats instead, plus a bit set of the numbers of
+ * free seats that have any rows. Rows come out in the same order as they came out of the sets
+ * - empty rows, front rows first
+ * - half filled rows, the fewest free seats first and front rows first among rows with the same free seats
+ * Checking a row out or in flips 2 bits, and finding a row is a couple of scans over a few longs. Neither allocates
+ *
+ * The pool also keeps the free block indexes of the level up to date. The indexes are updated while the pool is
+ * locked, so a row can't be checked out and in again by someone else between the pool and the index being updated
+ *
+ * The bit set for a number of free seats is only made when a row with that many free seats is checked in. A level
+ * that hasn't sold anything only has the bit set of the empty rows
+ *
+ * A pool can be one of the stripes of a level.. it then only has every numStripes'th row, starting at the
+ * stripe's number, so concurrent allocators that use different stripes don't lock each other out. The bits and
+ * the free counts are kept by slot, the position of the row in the stripe. The pool publishes it's front most
+ * empty row, so an allocator can compare the stripes without locking them. The pool is guarded by a lock instead of
+ * it's monitor, so an allocator can try the stripe it wants, and go to another one when the stripe is busy
+ *
+ * Thread-safe
+ *
+ */
+class RowPool {
+
+	final int numRows;
+	final int seatsPerRow;
+	// the rows of the pool are stripe, stripe+numStripes, stripe+2*numStripes..
+	final int stripe;
+	final int numStripes;
+	// the number of rows in the stripe
+	final int numSlots;
+	// rowsWithFree[f] has a bit for every row in the pool that has f free seats.. null till a row has f free seats
+	long[][] rowsWithFree;
+	// the number of rows in the pool that have f free seats
+	int[] numRowsWithFree;
+	// bit f is set when there is a row in the pool with f free seats
+	long[] freeCounts;
+	// the free seats of every row in the pool by slot, -1 for rows that are checked out
+	int[] freeOf;
+	// true while the arrays above are shared with the pool this is a copy of.. they are copied on the first change
+	boolean shared;
+	// the free seats of all the rows in the pool
+	int numFreeSeats;
+	// the front most empty row in the pool, Integer.MAX_VALUE if there is none.. read without the lock
+	volatile int firstEmpty = Integer.MAX_VALUE;
+	// the indexes that are kept in step with the pool
+	final FreeBlockIndex freeBlocks;
+	final FreeBlockIndex bestRows;
+	// guards everything above that isn't final or volatile
+	final ReentrantLock lock = new ReentrantLock();
+	// signalled whenever a row is checked in
+	final Condition checkedIn = lock.newCondition();
+	// what the try methods return when the lock is held by someone else
+	static final int BUSY = -2;
+
+	/**
+	 * Constructor.. all the rows start checked out
+	 * @param numRows
+	 * @param seatsPerRow
+	 * @param freeBlocks
+	 * @param bestRows - may be the same as freeBlocks
+	 */
+	RowPool(int numRows, int seatsPerRow, FreeBlockIndex freeBlocks, FreeBlockIndex bestRows) {
+		this(numRows, seatsPerRow, 0, 1, freeBlocks, bestRows);
+	}
+
+	/**
+	 * Constructor.. a stripe of the rows of a level, all checked out
+	 * @param numRows - of the level
+	 * @param seatsPerRow
+	 * @param stripe
+	 * @param numStripes
+	 * @param freeBlocks
+	 * @param bestRows - may be the same as freeBlocks
+	 */
+	RowPool(int numRows, int seatsPerRow, int stripe, int numStripes, FreeBlockIndex freeBlocks, FreeBlockIndex bestRows) {
+		assert numRows>0;
+		assert seatsPerRow>0;
+		assert stripe>=0&&stripe<numStripes&&numStripes<=numRows;
+		this.numRows = numRows;
+		this.seatsPerRow = seatsPerRow;
+		this.stripe = stripe;
+		this.numStripes = numStripes;
+		this.numSlots = (numRows-stripe+numStripes-1)/numStripes;
+		this.rowsWithFree = new long[seatsPerRow+1][];
+		this.numRowsWithFree = new int[seatsPerRow+1];
+		this.freeCounts = new long[(seatsPerRow+1+63)/64];
+		this.freeOf = new int[numSlots];
+		Arrays.fill(freeOf, -1);
+		this.freeBlocks = freeBlocks;
+		this.bestRows = bestRows;
+	}
+
+	/**
+	 * Constructor.. a copy of another pool, which must never change
+	 * The copy shares the arrays of the other pool till it's first changed
+	 * @param other
+	 * @param freeBlocks - the indexes of the copy
+	 * @param bestRows - may be the same as freeBlocks
+	 */
+	RowPool(RowPool other, FreeBlockIndex freeBlocks, FreeBlockIndex bestRows) {
+		this.numRows = other.numRows;
+		this.seatsPerRow = other.seatsPerRow;
+		this.stripe = other.stripe;
+		this.numStripes = other.numStripes;
+		this.numSlots = other.numSlots;
+		this.rowsWithFree = other.rowsWithFree;
+		this.numRowsWithFree = other.numRowsWithFree;
+		this.freeCounts = other.freeCounts;
+		this.freeOf = other.freeOf;
+		this.numFreeSeats = other.numFreeSeats;
+		this.firstEmpty = other.firstEmpty;
+		this.freeBlocks = freeBlocks;
+		this.bestRows = bestRows;
+		this.shared = true;
+	}
+
+	/**
+	 * checks a row in
+	 * @param rowNum
+	 * @param numFree
+	 */
+	void add(int rowNum, int numFree) {
+		lock.lock();
+		try
+		{
+			unshare();
+			int slot = slot(rowNum);
+			assert freeOf[slot]<0;
+			assert numFree>=0&&numFree<=seatsPerRow;
+			long[] rows = rowsWithFree[numFree];
+			if(rows==null) rows = rowsWithFree[numFree] = new long[(numSlots+63)/64];
+			rows[slot>>>6] |= 1L<<slot;
+			numRowsWithFree[numFree]++;
+			freeCounts[numFree>>>6] |= 1L<<numFree;
+			freeOf[slot] = numFree;
+			numFreeSeats+=numFree;
+			if(numFree==seatsPerRow&&rowNum<firstEmpty) firstEmpty = rowNum;
+			updateIndexes(rowNum, numFree);
+			checkedIn.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * checks all the rows in, empty.. the indexes are expected to have them empty already
+	 */
+	void addAllEmpty() {
+		lock.lock();
+		try
+		{
+			assert !shared;
+			assert numRowsWithFree[seatsPerRow]==0&&numFreeSeats==0;
+			long[] rows = new long[(numSlots+63)/64];
+			Arrays.fill(rows, -1L);
+			// clear the bits past the last row
+			if(numSlots%64!=0) rows[rows.length-1] = (1L<<numSlots)-1;
+			rowsWithFree[seatsPerRow] = rows;
+			numRowsWithFree[seatsPerRow] = numSlots;
+			freeCounts[seatsPerRow>>>6] |= 1L<<seatsPerRow;
+			Arrays.fill(freeOf, seatsPerRow);
+			numFreeSeats = numSlots*seatsPerRow;
+			firstEmpty = stripe;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * checks a row out
+	 * @param rowNum
+	 * @return false if the row is checked out already
+	 */
+	boolean remove(int rowNum) {
+		lock.lock();
+		try
+		{
+			int slot = slot(rowNum);
+			int numFree = freeOf[slot];
+			if(numFree<0) return false;
+			unshare();
+			long[] rows = rowsWithFree[numFree];
+			rows[slot>>>6] &= ~(1L<<slot);
+			if(--numRowsWithFree[numFree]==0)
+			{
+				// that was the last row with this many free seats
+				freeCounts[numFree>>>6] &= ~(1L<<numFree);
+			}
+			freeOf[slot] = -1;
+			numFreeSeats-=numFree;
+			if(rowNum==firstEmpty)
+			{
+				int next = (numRowsWithFree[seatsPerRow]==0)?-1:nextSetBit(rows, slot);
+				firstEmpty = (next<0)?Integer.MAX_VALUE:rowNumOf(next);
+			}
+			updateIndexes(rowNum, 0);
+			return true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * waits for a row to be checked in.. the row must be checked out by a request that is running, or it's never
+	 * checked in. Don't wait with the allocation lock held, the request might be a deallocation that needs it
+	 * @param rowNum
+	 */
+	void awaitCheckedIn(int rowNum) {
+		lock.lock();
+		try
+		{
+			int slot = slot(rowNum);
+			while(freeOf[slot]<0) checkedIn.awaitUninterruptibly();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * checks out the front most empty row
+	 * @return the row number, or -1 if there are no empty rows
+	 */
+	int pollEmpty() {
+		lock.lock();
+		try
+		{
+			if(numRowsWithFree[seatsPerRow]==0) return -1;
+			int rowNum = rowNumOf(nextSetBit(rowsWithFree[seatsPerRow], 0));
+			remove(rowNum);
+			return rowNum;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * checks out the half filled row with the fewest free seats that has at least the given number of free seats
+	 * @param minFree
+	 * @return the row number, or -1 if there is no such row
+	 */
+	int pollHalfFilled(int minFree) {
+		lock.lock();
+		try
+		{
+			int numFree = nextSetBit(freeCounts, Math.max(1, minFree));
+			if(numFree<0||numFree>=seatsPerRow) return -1;
+			int rowNum = rowNumOf(nextSetBit(rowsWithFree[numFree], 0));
+			remove(rowNum);
+			return rowNum;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * the free seats of the half filled row that {@link #pollHalfFilled(int)} would check out.. without the lock,
+	 * so it's only a hint, and may be out of date by the time it's used
+	 * @param minFree
+	 * @return Integer.MAX_VALUE if there is no such row
+	 */
+	int peekHalfFilled(int minFree) {
+		int numFree = nextSetBit(freeCounts, Math.max(1, minFree));
+		return (numFree<0||numFree>=seatsPerRow)?Integer.MAX_VALUE:numFree;
+	}
+
+	/**
+	 * checks out the front most empty row, if nobody else has the pool locked
+	 * @return the row number, -1 if there are no empty rows, or {@link #BUSY}
+	 */
+	int tryPollEmpty() {
+		if(!lock.tryLock()) return BUSY;
+		try
+		{
+			return pollEmpty();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * checks out the half filled row that {@link #pollHalfFilled(int)} would, if nobody else has the pool locked
+	 * @param minFree
+	 * @return the row number, -1 if there is no such row, or {@link #BUSY}
+	 */
+	int tryPollHalfFilled(int minFree) {
+		if(!lock.tryLock()) return BUSY;
+		try
+		{
+			return pollHalfFilled(minFree);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * the front most row with the given number of free seats.. without the lock, so it's only a hint, like
+	 * {@link #peekHalfFilled(int)}
+	 * @param numFree
+	 * @return Integer.MAX_VALUE if there is no such row
+	 */
+	int peekRowWithFree(int numFree) {
+		long[] rows = rowsWithFree[numFree];
+		int slot = (rows==null)?-1:nextSetBit(rows, 0);
+		return (slot<0)?Integer.MAX_VALUE:rowNumOf(slot);
+	}
+
+	/**
+	 * the free seats of all the rows that are not checked out
+	 * @return
+	 */
+	int numFreeSeats() {
+		lock.lock();
+		try
+		{
+			return numFreeSeats;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * the position of a row of the stripe in the bits and counts of the pool
+	 * @param rowNum
+	 * @return
+	 */
+	int slot(int rowNum) {
+		assert rowNum%numStripes==stripe;
+		return rowNum/numStripes;
+	}
+
+	private int rowNumOf(int slot) {
+		return slot*numStripes+stripe;
+	}
+
+	/**
+	 * copies the arrays shared with the pool this is a copy of, before they are changed
+	 */
+	private void unshare() {
+		if(!shared) return;
+		rowsWithFree = rowsWithFree.clone();
+		for(int numFree=0; numFree<=seatsPerRow; numFree++)
+		{
+			if(rowsWithFree[numFree]!=null) rowsWithFree[numFree] = rowsWithFree[numFree].clone();
+		}
+		numRowsWithFree = numRowsWithFree.clone();
+		freeCounts = freeCounts.clone();
+		freeOf = freeOf.clone();
+		shared = false;
+	}
+
+	private void updateIndexes(int rowNum, int numFree) {
+		freeBlocks.update(rowNum, numFree);
+		if(bestRows!=freeBlocks) bestRows.update(rowNum, numFree);
+	}
+
+	/**
+	 * the index of the first bit that is set, starting at the given index
+	 * @param bits
+	 * @param from
+	 * @return -1 if there is none
+	 */
+	static int nextSetBit(long[] bits, int from) {
+		int word = from>>>6;
+		if(word>=bits.length) return -1;
+		long current = bits[word]&(-1L<<from);
+		while(true)
+		{
+			if(current!=0) return (word<<6)+Long.numberOfTrailingZeros(current);
+			if(++word==bits.length) return -1;
+			current = bits[word];
+		}
+	}
+}
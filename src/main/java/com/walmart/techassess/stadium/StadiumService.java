@@ -1,5 +1,7 @@
 package com.walmart.techassess.stadium;
 
+import java.util.List;
+import java.util.SortedMap;
 import java.util.SortedSet;
 
 import com.walmart.techassess.stadium.RowFragment;
@@ -43,11 +45,93 @@ public interface StadiumService {
 	 * @return
 	 */
 	SortedSet<RowFragment> allocate(int numSeats, int startLevel, int endLevel);
+
+	/**
+	 * Allocate the seats the way the party wants them
+	 * @param numSeats
+	 * @param startLevel
+	 * @param endLevel
+	 * @param mode
+	 * @return
+	 */
+	SortedSet<RowFragment> allocate(int numSeats, int startLevel, int endLevel, AllocationMode mode);
 	
+	/**
+	 * Get the number of seats available at or under a price
+	 * Just like {@link #numSeatsAvailable(int, int)}, this number might be off in a concurrent environment
+	 * @param maxPrice
+	 * @return
+	 */
+	int numSeatsAvailable(double maxPrice);
+
+	/**
+	 * Allocate the best seats at or under a price.. the most expensive seats that fit the price go first
+	 * @param numSeats
+	 * @param maxPrice
+	 * @return
+	 */
+	SortedSet<RowFragment> allocate(int numSeats, double maxPrice);
+
+	/**
+	 * Allocate all the free seats in a block of rows of a level, for group sales
+	 * @param level
+	 * @param fromRow - the first row, 0 is the front row
+	 * @param toRow - the last row, inclusive
+	 * @return the seats.. the seats of the block that are sold or held already are not in it
+	 * @throws IllegalArgumentException if the rows are not in the level, or none of their seats are free
+	 */
+	SortedSet<RowFragment> allocateBlock(int level, int fromRow, int toRow);
+
 	/**
 	 * Deallocates the fragments
 	 * @param fragments
 	 */
 	void deallocate(SortedSet<RowFragment> fragments);
 
+	/**
+	 * Releases the last seats of the fragments. The fragments shrink in place
+	 * @param seatsToRelease - the number of seats to release keyed by the fragment
+	 */
+	void release(SortedMap<RowFragment, Integer> seatsToRelease);
+
+	/**
+	 * The fragmentation of a level, and how well it has seated the parties so far
+	 * @param level
+	 * @return
+	 * @throws IllegalArgumentException if there is no such level
+	 */
+	LevelStats getLevelStats(int level);
+
+	/**
+	 * Copies the seats of fragments that have been handed out, as they all were at one instant
+	 * Deallocations move the fragments after the deallocated seats in place, so reading fragments one by one can
+	 * mix seats from before and after a move, and seat 2 customers in the same seat.. this doesn't. Allocations
+	 * are not stopped
+	 * @param fragments
+	 * @param seats - gets the start and the end seat of every fragment, 2 entries per fragment
+	 */
+	void copySeats(List<RowFragment> fragments, int[] seats);
+
+	/**
+	 * Finds the fragment that a seat is in.. the fragment is the one that was handed out, so it can be looked up
+	 * by identity. It can move to other seats later, when seats before it are deallocated
+	 * @param level
+	 * @param rowNum - starts at 0, row A
+	 * @param seat - starts at 1
+	 * @return null if the seat isn't allocated
+	 * @throws IllegalArgumentException if there is no such seat
+	 */
+	RowFragment findFragment(int level, int rowNum, int seat);
+
+	/**
+	 * Finds a fragment that was handed out by it's serial.. the serial stays the same when the fragment moves, so
+	 * this finds where fragments whose seats were written down somewhere, like archived reservations, are now
+	 * @param level
+	 * @param rowNum - starts at 0, row A
+	 * @param serial - see {@link RowFragment#getSerial()}
+	 * @return null if the fragment isn't allocated
+	 * @throws IllegalArgumentException if there is no such row
+	 */
+	RowFragment findFragmentBySerial(int level, int rowNum, int serial);
+
 }
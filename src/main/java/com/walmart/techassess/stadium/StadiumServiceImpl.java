@@ -1,8 +1,14 @@
 package com.walmart.techassess.stadium;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 /**
@@ -21,6 +27,12 @@ import java.util.TreeSet;
  * Real implementations would use a persistent store that provides some notion of
  * consistency
  * 
+ * Rows can be priced with {@link PriceTier}s. The priced rows are indexed by price, so a search for seats under
+ * a price only looks at the rows that are cheap enough, and counts their free seats from the free block index
+ * of their level, without probing the levels one after another
+ * 
+ * Giving back the seats of a party that couldn't be seated is an {@link AllocationRollbackEvent} for the flight recorder
+ * 
  * 
  * @author jlalwani
  *
@@ -33,6 +45,29 @@ public class StadiumServiceImpl implements StadiumService {
 	//the stadium is made up of levels
 	final List<Level> levels;
 	
+	// how many times the seats of fragments are copied without stopping the deallocations, before they are stopped
+	static final int OPTIMISTIC_COPIES = 8;
+	
+	// runs of consecutive rows in a level that are sold at the same price, keyed by price
+	final NavigableMap<Double, List<PricedRows>> pricedRows = new TreeMap<Double, List<PricedRows>>();
+	
+	/**
+	 * a run of rows in a level that belong to the same price tier
+	 */
+	static class PricedRows {
+		final PriceTier tier;
+		final Level level;
+		final int fromRow;
+		final int toRow;
+
+		PricedRows(PriceTier tier, Level level, int fromRow, int toRow) {
+			this.tier = tier;
+			this.level = level;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+		}
+	}
+	
 	
 	/**
 	 * Constructor
@@ -42,16 +77,107 @@ public class StadiumServiceImpl implements StadiumService {
 	 * @param numSeats
 	 */
 	public StadiumServiceImpl(int minLevel, int maxLevel, List<Integer> numRows, List<Integer> numSeats) {
+		this(minLevel, maxLevel, numRows, numSeats, null);
+	}
+
+	/**
+	 * Constructor
+	 * @param minLevel - the minimum level
+	 * @param maxLevel
+	 * @param numRows
+	 * @param numSeats
+	 * @param rowScores - the quality score of every row in every level, higher is better.. null if the front rows are the best
+	 */
+	public StadiumServiceImpl(int minLevel, int maxLevel, List<Integer> numRows, List<Integer> numSeats, List<List<Integer>> rowScores) {
+		this(minLevel, maxLevel, numRows, numSeats, rowScores, null);
+	}
+
+	/**
+	 * Constructor
+	 * @param minLevel - the minimum level
+	 * @param maxLevel
+	 * @param numRows
+	 * @param numSeats
+	 * @param rowScores - the quality score of every row in every level, higher is better.. null if the front rows are the best
+	 * @param priceTiers - the prices of the rows.. a tier overrides the tiers before it for the rows it covers. Rows that are
+	 * not in any tier are not sold by price. null if the rows aren't priced
+	 */
+	public StadiumServiceImpl(int minLevel, int maxLevel, List<Integer> numRows, List<Integer> numSeats, List<List<Integer>> rowScores,
+			List<PriceTier> priceTiers) {
+		this(minLevel, maxLevel, numRows, numSeats, rowScores, priceTiers, Level.DEFAULT_STRIPES);
+	}
+
+	/**
+	 * Constructor
+	 * @param minLevel - the minimum level
+	 * @param maxLevel
+	 * @param numRows
+	 * @param numSeats
+	 * @param rowScores - the quality score of every row in every level, higher is better.. null if the front rows are the best
+	 * @param priceTiers - the prices of the rows, see above.. null if the rows aren't priced
+	 * @param maxStripes - the most stripes the row pool of a level is split into, 1 for levels that aren't striped.. see {@link Level}
+	 */
+	public StadiumServiceImpl(int minLevel, int maxLevel, List<Integer> numRows, List<Integer> numSeats, List<List<Integer>> rowScores,
+			List<PriceTier> priceTiers, int maxStripes) {
+		this(minLevel, createLevels(minLevel, maxLevel, numRows, numSeats, rowScores, maxStripes), priceTiers);
+	}
+
+	/**
+	 * Constructor.. for levels that have been made already
+	 * @param minLevel
+	 * @param levels - minLevel first
+	 * @param priceTiers - null if the rows aren't priced
+	 */
+	StadiumServiceImpl(int minLevel, List<Level> levels, List<PriceTier> priceTiers) {
 		super();
+		assert !levels.isEmpty();
+		this.minLevel = minLevel;
+		this.maxLevel = minLevel+levels.size()-1;
+		this.levels = levels;
+		if(priceTiers!=null) indexPriceTiers(priceTiers);
+	}
+
+	private static List<Level> createLevels(int minLevel, int maxLevel, List<Integer> numRows, List<Integer> numSeats, List<List<Integer>> rowScores,
+			int maxStripes) {
 		assert minLevel<=maxLevel;
 		assert(numSeats.size()==(maxLevel-minLevel+1));
-		this.minLevel = minLevel;
-		this.maxLevel = maxLevel;
-		// create the levels
-		this.levels = new ArrayList<Level>();
+		assert rowScores==null||rowScores.size()==numSeats.size();
+		List<Level> levels = new ArrayList<Level>();
 		for(int i=0; i<numSeats.size(); i++)
 		{
-			levels.add(new Level(minLevel+i, numRows.get(i), numSeats.get(i)));
+			levels.add(new Level(minLevel+i, numRows.get(i), numSeats.get(i), (rowScores==null)?null:rowScores.get(i),
+					Level.stripes(numRows.get(i), maxStripes)));
+		}
+		return levels;
+	}
+
+	/**
+	 * breaks the tiers up into runs of rows and indexes the runs by price
+	 * @param priceTiers
+	 */
+	private void indexPriceTiers(List<PriceTier> priceTiers) {
+		for(Level level: levels)
+		{
+			// the tier of each row.. later tiers win
+			PriceTier[] tierOfRow = new PriceTier[level.numRows];
+			for(PriceTier tier: priceTiers)
+			{
+				if(tier.getLevel()!=level.level) continue;
+				assert tier.getLastRow()<level.numRows;
+				Arrays.fill(tierOfRow, tier.getFirstRow(), tier.getLastRow()+1, tier);
+			}
+			int fromRow = 0;
+			for(int row=1; row<=level.numRows; row++)
+			{
+				if(row<level.numRows&&tierOfRow[row]==tierOfRow[fromRow]) continue;
+				if(tierOfRow[fromRow]!=null)
+				{
+					PriceTier tier = tierOfRow[fromRow];
+					if(!pricedRows.containsKey(tier.getPrice())) pricedRows.put(tier.getPrice(), new ArrayList<PricedRows>());
+					pricedRows.get(tier.getPrice()).add(new PricedRows(tier, level, fromRow, row-1));
+				}
+				fromRow = row;
+			}
 		}
 	}
 
@@ -81,6 +207,48 @@ public class StadiumServiceImpl implements StadiumService {
 		return result;
 	}
 
+	@Override
+	public int numSeatsAvailable(double maxPrice) {
+		int result = 0;
+		for(List<PricedRows> rowsAtPrice: pricedRows.headMap(maxPrice, true).values())
+		{
+			for(PricedRows rows: rowsAtPrice)
+			{
+				result+=rows.level.numUnallocatedSeats(rows.fromRow, rows.toRow);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public SortedSet<RowFragment> allocate(int numSeats, double maxPrice) {
+		SortedSet<RowFragment> result = new TreeSet<RowFragment>();
+		assert numSeats>0;
+		
+		// don't bother the levels if there aren't enough seats under the price
+		if(numSeatsAvailable(maxPrice)<numSeats) throw new IllegalArgumentException("Out of seats!");
+		
+		// the most expensive seats under the price are the best ones.. lower levels and front rows first
+		// among seats of the same price
+		int seatsLeft = numSeats;
+		for(List<PricedRows> rowsAtPrice: pricedRows.headMap(maxPrice, true).descendingMap().values())
+		{
+			for(PricedRows rows: rowsAtPrice)
+			{
+				if(seatsLeft==0) return result;
+				if(rows.level.numUnallocatedSeats(rows.fromRow, rows.toRow)==0) continue;
+				seatsLeft-=rows.level.allocateInRows(seatsLeft, rows.fromRow, rows.toRow, result);
+			}
+		}
+		if(seatsLeft>0)
+		{
+			//Couldn't allocate all seats
+			rollback(numSeats, result);
+			throw new IllegalArgumentException("Out of seats!");
+		}
+		return result;
+	}
+
 	@Override
 	public SortedSet<RowFragment> allocate(int numSeats, int startLevel, int endLevel) {
 
@@ -92,19 +260,75 @@ public class StadiumServiceImpl implements StadiumService {
 		
 		// start from the lowest level and allocate seats to lower levels first
 		// allocate the remaining seats to higher levels
-		for(int i=startLevel; i<=endLevel&&numSeats>0; i++)
+		int seatsLeft = numSeats;
+		for(int i=startLevel; i<=endLevel&&seatsLeft>0; i++)
 		{
-			numSeats-=levels.get(i-minLevel).allocate(numSeats, result);
+			seatsLeft-=levels.get(i-minLevel).allocate(seatsLeft, result);
 		}
-		if(numSeats>0)
+		if(seatsLeft>0)
 		{
 			//Couldn't allocate all seats
-			deallocate(result);
+			rollback(numSeats, result);
 			throw new IllegalArgumentException("Out of seats!");			
 		}
 		return result;
 	}
 
+	@Override
+	public SortedSet<RowFragment> allocate(int numSeats, int startLevel, int endLevel, AllocationMode mode) {
+		if(mode==AllocationMode.BEST_AVAILABLE) return allocate(numSeats, startLevel, endLevel);
+		
+		SortedSet<RowFragment> result = new TreeSet<RowFragment>();
+		assert startLevel>=minLevel;
+		assert endLevel<=maxLevel;
+		assert startLevel<=endLevel;
+		assert numSeats>0;
+		
+		if(mode==AllocationMode.BEST_SCORE)
+		{
+			// lower levels first, best scoring rows of each level first
+			int seatsLeft = numSeats;
+			for(int i=startLevel; i<=endLevel&&seatsLeft>0; i++)
+			{
+				seatsLeft-=levels.get(i-minLevel).allocateBest(seatsLeft, result);
+			}
+			if(seatsLeft>0)
+			{
+				//Couldn't allocate all seats
+				rollback(numSeats, result);
+				throw new IllegalArgumentException("Out of seats!");
+			}
+			return result;
+		}
+		
+		// a party can't be split across levels.. take the lowest level that can seat it together
+		for(int i=startLevel; i<=endLevel; i++)
+		{
+			if(levels.get(i-minLevel).allocateTogether(numSeats, result)==numSeats) return result;
+		}
+		throw new IllegalArgumentException("Out of seats!");
+	}
+
+	@Override
+	public SortedSet<RowFragment> allocateBlock(int level, int fromRow, int toRow) {
+		if(level<minLevel||level>maxLevel) throw new IllegalArgumentException("Level should be between min and max");
+		SortedSet<RowFragment> result = new TreeSet<RowFragment>();
+		// the whole block in one go.. the level takes it's allocation lock once
+		if(levels.get(level-minLevel).allocateBlock(fromRow, toRow, result)==0) throw new IllegalArgumentException("Out of seats!");
+		return result;
+	}
+
+	/**
+	 * gives back the seats of an allocation that couldn't seat the whole party
+	 * @param numSeats - the seats the party wanted
+	 * @param allocated - the seats it got
+	 */
+	private void rollback(int numSeats, SortedSet<RowFragment> allocated) {
+		AllocationRollbackEvent event = AllocationRollbackEvent.start(numSeats, allocated);
+		deallocate(allocated);
+		if(event!=null) event.commit();
+	}
+
 	@Override
 	public void deallocate(SortedSet<RowFragment> fragments) {
 		// simply deallocate each fragment from each level
@@ -116,6 +340,84 @@ public class StadiumServiceImpl implements StadiumService {
 		
 	}
 	
+	@Override
+	public void release(SortedMap<RowFragment, Integer> seatsToRelease) {
+		// the fragments are sorted by level, so each level gets all it's fragments in one go
+		Map<RowFragment, Integer> levelSeats = new LinkedHashMap<RowFragment, Integer>();
+		int currentLevel = minLevel;
+		for(Map.Entry<RowFragment, Integer> entry: seatsToRelease.entrySet())
+		{
+			if(entry.getKey().getLevel()!=currentLevel&&!levelSeats.isEmpty())
+			{
+				levels.get(currentLevel-minLevel).release(levelSeats);
+				levelSeats.clear();
+			}
+			currentLevel = entry.getKey().getLevel();
+			levelSeats.put(entry.getKey(), entry.getValue());
+		}
+		if(!levelSeats.isEmpty())
+		{
+			levels.get(currentLevel-minLevel).release(levelSeats);
+		}
+	}
+	
+	@Override
+	public LevelStats getLevelStats(int level) {
+		if(level<minLevel||level>maxLevel) throw new IllegalArgumentException("Level should be between min and max");
+		return levels.get(level-minLevel).stats();
+	}
+
+	@Override
+	public RowFragment findFragment(int level, int rowNum, int seat) {
+		if(level<minLevel||level>maxLevel) throw new IllegalArgumentException("Level should be between min and max");
+		Level l = levels.get(level-minLevel);
+		if(rowNum<0||rowNum>=l.numRows) throw new IllegalArgumentException("Row should be between 0 and "+(l.numRows-1));
+		if(seat<1||seat>l.seatsPerRow) throw new IllegalArgumentException("Seat should be between 1 and "+l.seatsPerRow);
+		return l.findFragment(rowNum, seat);
+	}
+
+	@Override
+	public RowFragment findFragmentBySerial(int level, int rowNum, int serial) {
+		if(level<minLevel||level>maxLevel) throw new IllegalArgumentException("Level should be between min and max");
+		Level l = levels.get(level-minLevel);
+		if(rowNum<0||rowNum>=l.numRows) throw new IllegalArgumentException("Row should be between 0 and "+(l.numRows-1));
+		return l.findFragmentBySerial(rowNum, serial);
+	}
+
+	@Override
+	public void copySeats(List<RowFragment> fragments, int[] seats) {
+		if(seats.length<2*fragments.size()) throw new IllegalArgumentException("Need 2 entries per fragment");
+		long[] stamps = new long[levels.size()];
+		for(int attempt=0; attempt<OPTIMISTIC_COPIES; attempt++)
+		{
+			for(int i=0; i<stamps.length; i++) stamps[i] = levels.get(i).moves.tryOptimisticRead();
+			copy(fragments, seats);
+			boolean valid = true;
+			for(int i=0; i<stamps.length&&valid; i++) valid = levels.get(i).moves.validate(stamps[i]);
+			if(valid) return;
+		}
+		// the seats keep moving.. hold the deallocations off while we copy. Deallocations take one level at a
+		// time, so taking all of them in level order can't deadlock
+		for(int i=0; i<stamps.length; i++) stamps[i] = levels.get(i).moves.readLock();
+		try
+		{
+			copy(fragments, seats);
+		}
+		finally
+		{
+			for(int i=0; i<stamps.length; i++) levels.get(i).moves.unlockRead(stamps[i]);
+		}
+	}
+
+	private static void copy(List<RowFragment> fragments, int[] seats) {
+		for(int i=0; i<fragments.size(); i++)
+		{
+			RowFragment fragment = fragments.get(i);
+			seats[2*i] = fragment.getStartSeat();
+			seats[2*i+1] = fragment.getEndSeat();
+		}
+	}
+
 	/**
 	 * A back door method to allocate seats in a sepcific row.. use only for testing
 	 * @param numSeats
@@ -0,0 +1,235 @@
+package com.walmart.techassess.stadium;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The layout of a venue, for making the stadiums of the performances in the venue
+ *
+ * The levels of the template are made once, and never sold. A performance gets copies of them, which share the
+ * indexes of the template's level till something is sold in the level, and don't make any rows.. a row is made
+ * when it's first checked out, and till then it's just an empty row in the indexes. So starting a performance
+ * costs a few small objects per level, and a performance only takes memory for the levels and rows it has sold
+ *
+ * A layout file has a table like the ones in the feature files, a level per line
+ * <pre>
+ * |id	|name		|price	|seats					|scores	|
+ * |1	|Orchestra	|100	|RRRRREEEEE,EEEEEEEEEE	|9,8	|
+ * </pre>
+ * The seats of a level are a string per row, separated by commas, with an E for every empty seat and an R for
+ * every seat that is sold before the performance goes on sale. The scores column is optional, and so are lines
+ * starting with # and blank lines. The whole of each level is sold at the level's price
+ *
+ * Thread-safe
+ *
+ */
+public class VenueTemplate {
+
+	final int minLevel, maxLevel;
+	// the levels as they are before anything is sold.. never allocated
+	final List<Level> pristineLevels;
+	final List<PriceTier> priceTiers;
+	// the number of seats sold before the on-sale in every row of every level, null if there are none
+	final List<List<Integer>> filledSeats;
+
+	/**
+	 * Constructor
+	 * @param minLevel - the minimum level
+	 * @param maxLevel
+	 * @param numRows
+	 * @param numSeats
+	 * @param rowScores - the quality score of every row in every level, higher is better.. null if the front rows are the best
+	 * @param priceTiers - the prices of the rows, see {@link StadiumServiceImpl}.. null if the rows aren't priced
+	 */
+	public VenueTemplate(int minLevel, int maxLevel, List<Integer> numRows, List<Integer> numSeats, List<List<Integer>> rowScores,
+			List<PriceTier> priceTiers) {
+		this(minLevel, maxLevel, numRows, numSeats, rowScores, priceTiers, null);
+	}
+
+	/**
+	 * Constructor
+	 * @param minLevel - the minimum level
+	 * @param maxLevel
+	 * @param numRows
+	 * @param numSeats
+	 * @param rowScores - the quality score of every row in every level, higher is better.. null if the front rows are the best
+	 * @param priceTiers - the prices of the rows, see {@link StadiumServiceImpl}.. null if the rows aren't priced
+	 * @param filledSeats - the number of seats sold before the on-sale in every row of every level.. null if there are none
+	 */
+	public VenueTemplate(int minLevel, int maxLevel, List<Integer> numRows, List<Integer> numSeats, List<List<Integer>> rowScores,
+			List<PriceTier> priceTiers, List<List<Integer>> filledSeats) {
+		this(minLevel, maxLevel, numRows, numSeats, rowScores, priceTiers, filledSeats, Level.DEFAULT_STRIPES);
+	}
+
+	/**
+	 * Constructor
+	 * @param minLevel - the minimum level
+	 * @param maxLevel
+	 * @param numRows
+	 * @param numSeats
+	 * @param rowScores - the quality score of every row in every level, higher is better.. null if the front rows are the best
+	 * @param priceTiers - the prices of the rows, see {@link StadiumServiceImpl}.. null if the rows aren't priced
+	 * @param filledSeats - the number of seats sold before the on-sale in every row of every level.. null if there are none
+	 * @param maxStripes - the most stripes the row pool of a level is split into, 1 for levels that aren't striped.. see {@link Level}
+	 */
+	public VenueTemplate(int minLevel, int maxLevel, List<Integer> numRows, List<Integer> numSeats, List<List<Integer>> rowScores,
+			List<PriceTier> priceTiers, List<List<Integer>> filledSeats, int maxStripes) {
+		super();
+		if(minLevel>maxLevel||numRows.size()!=maxLevel-minLevel+1||numSeats.size()!=numRows.size()) throw new IllegalArgumentException("Need the rows and seats of every level");
+		if(rowScores!=null&&rowScores.size()!=numRows.size()) throw new IllegalArgumentException("Need the row scores of every level");
+		if(filledSeats!=null&&filledSeats.size()!=numRows.size()) throw new IllegalArgumentException("Need the filled seats of every level");
+		this.minLevel = minLevel;
+		this.maxLevel = maxLevel;
+		this.pristineLevels = new ArrayList<Level>();
+		for(int i=0; i<numRows.size(); i++)
+		{
+			if(numRows.get(i)<=0||numSeats.get(i)<=0) throw new IllegalArgumentException("Level "+(minLevel+i)+" has no seats");
+			if(rowScores!=null&&rowScores.get(i).size()!=numRows.get(i)) throw new IllegalArgumentException("Need a score for every row of level "+(minLevel+i));
+			pristineLevels.add(new Level(minLevel+i, numRows.get(i), numSeats.get(i), (rowScores==null)?null:rowScores.get(i),
+					Level.stripes(numRows.get(i), maxStripes)));
+		}
+		this.priceTiers = (priceTiers==null)?null:new ArrayList<PriceTier>(priceTiers);
+		this.filledSeats = filledSeats;
+	}
+
+	/**
+	 * makes the stadium of a new performance in this venue
+	 * @return
+	 */
+	public StadiumServiceImpl newPerformance() {
+		List<Level> levels = new ArrayList<Level>(pristineLevels.size());
+		for(Level pristine: pristineLevels)
+		{
+			levels.add(new Level(pristine));
+		}
+		if(filledSeats!=null)
+		{
+			// only the rows with seats sold up front are made
+			for(int i=0; i<levels.size(); i++)
+			{
+				List<Integer> filledSeatsForLevel = filledSeats.get(i);
+				for(int row=0; row<filledSeatsForLevel.size(); row++)
+				{
+					if(filledSeatsForLevel.get(row)>0) levels.get(i).allocateInRow(filledSeatsForLevel.get(row), row);
+				}
+			}
+		}
+		return new StadiumServiceImpl(minLevel, levels, priceTiers);
+	}
+
+	public int getMinLevel() {
+		return minLevel;
+	}
+
+	public int getMaxLevel() {
+		return maxLevel;
+	}
+
+	/**
+	 * loads a template from a layout file
+	 * @param layout
+	 * @return
+	 * @throws IOException
+	 */
+	public static VenueTemplate load(Path layout) throws IOException {
+		try(Reader reader = Files.newBufferedReader(layout, StandardCharsets.UTF_8))
+		{
+			return parse(reader);
+		}
+	}
+
+	/**
+	 * reads a template in the layout file format
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the layout is not valid
+	 */
+	public static VenueTemplate parse(Reader reader) throws IOException {
+		BufferedReader lines = new BufferedReader(reader);
+		List<String> header = null;
+		int minLevel = 0, maxLevel = 0;
+		List<Integer> numRows = new ArrayList<Integer>();
+		List<Integer> numSeats = new ArrayList<Integer>();
+		List<List<Integer>> filledSeats = new ArrayList<List<Integer>>();
+		List<List<Integer>> rowScores = null;
+		List<PriceTier> priceTiers = new ArrayList<PriceTier>();
+		String line;
+		for(int lineNum=1; (line = lines.readLine())!=null; lineNum++)
+		{
+			line = line.trim();
+			if(line.length()==0||line.startsWith("#")) continue;
+			List<String> cells = cells(line, lineNum);
+			if(header==null)
+			{
+				header = cells;
+				if(!header.containsAll(Arrays.asList("id", "name", "price", "seats"))) throw new IllegalArgumentException("Line "+lineNum+": need id, name, price and seats columns");
+				if(header.contains("scores")) rowScores = new ArrayList<List<Integer>>();
+				continue;
+			}
+			if(cells.size()!=header.size()) throw new IllegalArgumentException("Line "+lineNum+": expected "+header.size()+" columns");
+			try
+			{
+				int level = Integer.parseInt(cells.get(header.indexOf("id")));
+				if(numRows.isEmpty()) minLevel = level;
+				else if(level!=maxLevel+1) throw new IllegalArgumentException("Line "+lineNum+": levels should be consecutive");
+				maxLevel = level;
+				String[] rows = cells.get(header.indexOf("seats")).split(",");
+				int seatsPerRow = rows[0].trim().length();
+				List<Integer> filledSeatsForLevel = new ArrayList<Integer>();
+				for(String row: rows)
+				{
+					row = row.trim();
+					if(row.length()!=seatsPerRow) throw new IllegalArgumentException("Line "+lineNum+": all the rows of a level should have the same seats");
+					int filled = 0;
+					for(int i=0; i<row.length(); i++)
+					{
+						char seat = row.charAt(i);
+						if(seat=='R') filled++;
+						else if(seat!='E') throw new IllegalArgumentException("Line "+lineNum+": seats should be E or R");
+					}
+					filledSeatsForLevel.add(filled);
+				}
+				numRows.add(rows.length);
+				numSeats.add(seatsPerRow);
+				filledSeats.add(filledSeatsForLevel);
+				priceTiers.add(new PriceTier(cells.get(header.indexOf("name")), Double.parseDouble(cells.get(header.indexOf("price"))), level, 0, rows.length-1));
+				if(rowScores!=null)
+				{
+					List<Integer> rowScoresForLevel = new ArrayList<Integer>();
+					for(String score: cells.get(header.indexOf("scores")).split(","))
+					{
+						rowScoresForLevel.add(Integer.parseInt(score.trim()));
+					}
+					rowScores.add(rowScoresForLevel);
+				}
+			}
+			catch(NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Line "+lineNum+": "+e.getMessage());
+			}
+		}
+		if(numRows.isEmpty()) throw new IllegalArgumentException("No levels in the layout");
+		return new VenueTemplate(minLevel, maxLevel, numRows, numSeats, rowScores, priceTiers, filledSeats);
+	}
+
+	/**
+	 * the cells of a table line
+	 */
+	private static List<String> cells(String line, int lineNum) {
+		if(!line.startsWith("|")||!line.endsWith("|")||line.length()<2) throw new IllegalArgumentException("Line "+lineNum+": expected a table line");
+		List<String> cells = new ArrayList<String>();
+		for(String cell: line.substring(1, line.length()-1).split("\\|", -1))
+		{
+			cells.add(cell.trim());
+		}
+		return cells;
+	}
+}
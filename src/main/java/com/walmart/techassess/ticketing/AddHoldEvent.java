@@ -0,0 +1,40 @@
+package com.walmart.techassess.ticketing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for putting allocated seats on a hold in the reservation service
+ *
+ */
+@Name(AddHoldEvent.NAME)
+@Label("Add Hold")
+@Category({"Ticketing", "Hold Pipeline"})
+@Description("Putting the allocated seats on a hold in the reservation service")
+@StackTrace(false)
+class AddHoldEvent extends Event {
+
+	static final String NAME = "com.walmart.techassess.AddHold";
+
+	@Label("Seats Held")
+	int seatsHeld;
+
+	@Label("Seat Hold ID")
+	int seatHoldId;
+
+	/**
+	 * starts the event
+	 * @return the event, or null if the flight recorder isn't up
+	 */
+	static AddHoldEvent start() {
+		if(!FlightRecorder.isInitialized()) return null;
+		AddHoldEvent event = new AddHoldEvent();
+		event.begin();
+		return event;
+	}
+}
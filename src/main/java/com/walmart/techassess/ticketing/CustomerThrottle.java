@@ -0,0 +1,204 @@
+package com.walmart.techassess.ticketing;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Protects the ticket service from customers that make too many hold requests
+ *
+ * It does 2 things
+ * a) Rate limiting - every customer has a token bucket. Each hold request takes a token, and the tokens
+ * are refilled at a fixed rate up to the size of the bucket. A customer that runs out of tokens is turned away
+ * b) Quota - a customer cannot hold more than a maximum number of seats at a time
+ *
+ * Both checks are done before the request gets anywhere near the stadium, so abusive traffic
+ * never takes a level lock or checks out a row. They are done together under the customer's entry, so concurrent
+ * requests of the same customer can't all see the same seats held and go over the quota together. A request that
+ * is turned away by the quota doesn't use up a token
+ *
+ * The bucket is kept in a single long using the generic cell rate algorithm. Instead of counting tokens,
+ * it keeps the "theoretical arrival time".. the time at which the bucket would be full again. A request is allowed
+ * if that time is less than a bucket's worth of tokens ahead of now. This makes a customer's entry a single small
+ * object, and the lock is only ever contended by requests of the same customer
+ *
+ * Entries of customers that have been idle long enough to have a full bucket again carry no information,
+ * so they are evicted by a sweep that runs every now and then
+ *
+ */
+public class CustomerThrottle {
+
+	// the number of requests a customer can make in a burst
+	final int burst;
+	// the time it takes to earn one token, in nanoseconds
+	final long nanosPerToken;
+	// the maximum number of seats a customer can hold at a time
+	final int maxSeatsHeld;
+	// entries idle for longer than this are evicted, in nanoseconds
+	final long idleNanos;
+
+	final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	// the time of the next eviction sweep
+	final AtomicLong nextSweep;
+
+	/**
+	 * the state kept for each customer
+	 */
+	static class Entry {
+		// the time at which the bucket will be full again
+		long theoreticalArrivalTime;
+		// seats being allocated right now, or waited for, but not yet on a hold
+		int seatsInFlight;
+		// set once the entry is swept.. a request that finds it has to get the new one
+		boolean evicted;
+
+		Entry(long now) {
+			this.theoreticalArrivalTime = now;
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param burst - the number of hold requests a customer can make at once
+	 * @param requestsPerSecond - the rate at which a customer earns new hold requests
+	 * @param maxSeatsHeld - the maximum number of seats a customer can hold at a time
+	 * @param idleEvictionMillis - time after which an idle customer is forgotten
+	 */
+	public CustomerThrottle(int burst, double requestsPerSecond, int maxSeatsHeld, long idleEvictionMillis) {
+		super();
+		assert burst>0;
+		assert requestsPerSecond>0;
+		assert maxSeatsHeld>0;
+		this.burst = burst;
+		this.nanosPerToken = (long)(1e9/requestsPerSecond);
+		this.maxSeatsHeld = maxSeatsHeld;
+		// an idle entry is evicted only after it's bucket is full again, otherwise eviction would hand out free tokens
+		this.idleNanos = Math.max(idleEvictionMillis*1000000L, nanosPerToken*burst);
+		this.nextSweep = new AtomicLong(System.nanoTime()+idleNanos);
+	}
+
+	/**
+	 * A throttle that lets everything through
+	 * @return
+	 */
+	public static CustomerThrottle unlimited() {
+		return new CustomerThrottle(Integer.MAX_VALUE, Double.MAX_VALUE, Integer.MAX_VALUE, 0) {
+
+			@Override
+			public void acquire(String customerEmail, int numSeats, IntSupplier numSeatsHeld) {
+				// no op
+			}
+
+			@Override
+			public void release(String customerEmail, int numSeats) {
+				// no op
+			}
+		};
+	}
+
+	/**
+	 * Checks if the customer is allowed to hold the seats, and counts the seats as being held
+	 * Call {@link #release(String, int)} once the seats are on a hold, or the hold failed
+	 * @param customerEmail
+	 * @param numSeats - the number of seats requested
+	 * @param numSeatsHeld - reads the number of seats that the customer holds right now.. it's read under the
+	 * customer's entry, so no other request of the customer is admitted in between
+	 * @throws ThrottledException if the customer made too many requests, or would hold too many seats
+	 */
+	public void acquire(String customerEmail, int numSeats, IntSupplier numSeatsHeld) {
+		long now = System.nanoTime();
+		evictIdleEntries(now);
+		while(true)
+		{
+			Entry entry = entry(customerEmail, now);
+			synchronized(entry)
+			{
+				// swept while we were getting it.. get the new one
+				if(entry.evicted) continue;
+				
+				// is there a token
+				long newTat = Math.max(entry.theoreticalArrivalTime, now)+nanosPerToken;
+				if(newTat-now>nanosPerToken*burst)
+				{
+					throw new ThrottledException("Too many requests, please try again later");
+				}
+
+				// check the quota.. seats that other requests of the same customer are allocating count too
+				if((long)numSeatsHeld.getAsInt()+entry.seatsInFlight+numSeats>maxSeatsHeld)
+				{
+					throw new ThrottledException("Cannot hold more than "+maxSeatsHeld+" seats");
+				}
+
+				// admitted.. take the token and the seats
+				entry.theoreticalArrivalTime = newTat;
+				entry.seatsInFlight+=numSeats;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Releases seats counted by {@link #acquire(String, int, IntSupplier)}
+	 * @param customerEmail
+	 * @param numSeats
+	 */
+	public void release(String customerEmail, int numSeats) {
+		Entry entry = entries.get(customerEmail);
+		// an entry with seats in flight is never swept
+		if(entry==null) return;
+		synchronized(entry)
+		{
+			entry.seatsInFlight-=numSeats;
+		}
+	}
+
+	/**
+	 * the entry of a customer, made if it's not there
+	 */
+	private Entry entry(String customerEmail, long now) {
+		Entry entry = entries.get(customerEmail);
+		if(entry==null)
+		{
+			Entry newEntry = new Entry(now);
+			entry = entries.putIfAbsent(customerEmail, newEntry);
+			if(entry==null) entry = newEntry;
+		}
+		return entry;
+	}
+
+	/**
+	 * the number of customers being tracked
+	 * @return
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * removes the entries of customers that have been idle for a while
+	 * only one thread sweeps at a time, the others carry on
+	 * @param now
+	 */
+	void evictIdleEntries(long now) {
+		long sweepAt = nextSweep.get();
+		if(now-sweepAt<0||!nextSweep.compareAndSet(sweepAt, now+idleNanos))
+		{
+			// not yet time, or someone else is sweeping
+			return;
+		}
+		for(Iterator<Entry> it = entries.values().iterator(); it.hasNext();)
+		{
+			Entry entry = it.next();
+			synchronized(entry)
+			{
+				if(now-entry.theoreticalArrivalTime>idleNanos&&entry.seatsInFlight==0)
+				{
+					entry.evicted = true;
+					it.remove();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package com.walmart.techassess.ticketing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for the inline sweep of expired holds, that runs before holds, reservations and lookups
+ *
+ */
+@Name(ExpirySweepEvent.NAME)
+@Label("Expiry Sweep")
+@Category({"Ticketing", "Hold Pipeline"})
+@Description("Holds that expired, taken off the reservation service and given back to their rows")
+@StackTrace(false)
+class ExpirySweepEvent extends Event {
+
+	static final String NAME = "com.walmart.techassess.ExpirySweep";
+
+	@Label("Holds Expired")
+	int holdsExpired;
+
+	@Label("Fragments Deallocated")
+	int fragmentsDeallocated;
+
+	/**
+	 * starts the event
+	 * @return the event, or null if the flight recorder isn't up
+	 */
+	static ExpirySweepEvent start() {
+		if(!FlightRecorder.isInitialized()) return null;
+		ExpirySweepEvent event = new ExpirySweepEvent();
+		event.begin();
+		return event;
+	}
+}
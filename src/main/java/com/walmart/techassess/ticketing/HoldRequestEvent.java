@@ -0,0 +1,57 @@
+package com.walmart.techassess.ticketing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a whole request to find and hold seats. The phases of the request are events of their
+ * own, on the same thread and inside this one
+ *
+ * None of the events of the pipeline are made till the flight recorder is up.. the service gets null from their start
+ * methods, and skips them, so a request doesn't make any garbage for events that can't be recorded
+ *
+ */
+@Name(HoldRequestEvent.NAME)
+@Label("Hold Request")
+@Category({"Ticketing", "Hold Pipeline"})
+@Description("A request to find and hold seats, from validation to the hold")
+@StackTrace(false)
+class HoldRequestEvent extends Event {
+
+	static final String NAME = "com.walmart.techassess.HoldRequest";
+
+	@Label("Seats Requested")
+	int seatsRequested;
+
+	@Label("Mode")
+	@Description("The allocation mode, or BY_PRICE for the best seats under a price")
+	String mode;
+
+	@Label("Seat Hold ID")
+	@Description("The ID of the hold, 0 if no seats were held")
+	int seatHoldId;
+
+	@Label("Outcome")
+	@Description("HELD, or the message of the exception that turned the request down")
+	String outcome;
+
+	/**
+	 * starts the event of a request
+	 * @param seatsRequested
+	 * @param mode
+	 * @return the event, or null if the flight recorder isn't up
+	 */
+	static HoldRequestEvent start(int seatsRequested, String mode) {
+		if(!FlightRecorder.isInitialized()) return null;
+		HoldRequestEvent event = new HoldRequestEvent();
+		event.seatsRequested = seatsRequested;
+		event.mode = mode;
+		event.begin();
+		return event;
+	}
+}
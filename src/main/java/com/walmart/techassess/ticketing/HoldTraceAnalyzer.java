@@ -0,0 +1,262 @@
+package com.walmart.techassess.ticketing;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Turns a flight recording of the ticketing service into a latency breakdown of the hold pipeline
+ *
+ * The phases of a hold request are events on the same thread as the {@link HoldRequestEvent}, that start and end
+ * inside it. The analyzer matches them up, and reports
+ * - the latency percentiles of every phase, over all it's events. The wait for the allocation lock of a level
+ *   is a phase of it's own
+ * - the share of the time of the hold requests that went to every phase
+ * - the slowest requests, phase by phase, with the levels they allocated in
+ * Expiry sweeps and level allocations also happen outside hold requests, for reservations and lookups. They are
+ * in the percentiles, but not in the shares
+ *
+ * Record with -XX:StartFlightRecording=filename=holds.jfr, or start a recording with jcmd, and then
+ * <pre>
+ * java ... HoldTraceAnalyzer holds.jfr [slowest]
+ * </pre>
+ */
+public class HoldTraceAnalyzer {
+
+	static final String HOLD_REQUEST = HoldRequestEvent.NAME;
+	// the events of the stadium are private to the stadium
+	static final String LEVEL_ALLOCATION = "com.walmart.techassess.LevelAllocation";
+	static final String ROLLBACK = "com.walmart.techassess.AllocationRollback";
+	// not an event.. the lock wait of the level allocations
+	static final String LEVEL_LOCK_WAIT = "com.walmart.techassess.LevelLockWait";
+
+	// the phases in the order they happen, and what they are called in the report
+	static final Map<String, String> PHASES = new LinkedHashMap<String, String>();
+	static {
+		PHASES.put(HOLD_REQUEST, "hold request");
+		PHASES.put(HoldValidationEvent.NAME, "validation");
+		PHASES.put(ExpirySweepEvent.NAME, "expiry sweep");
+		PHASES.put(SeatAllocationEvent.NAME, "seat allocation");
+		PHASES.put(LEVEL_LOCK_WAIT, "  level lock wait");
+		PHASES.put(LEVEL_ALLOCATION, "  level allocation");
+		PHASES.put(ROLLBACK, "  rollback");
+		PHASES.put(AddHoldEvent.NAME, "add hold");
+	}
+
+	/**
+	 * the latencies of a phase
+	 */
+	static class Phase {
+		long[] nanos = new long[64];
+		int count;
+		boolean sorted;
+
+		void add(long duration) {
+			if(count==nanos.length) nanos = Arrays.copyOf(nanos, 2*count);
+			nanos[count++] = duration;
+			sorted = false;
+		}
+
+		int count() {
+			return count;
+		}
+
+		double percentileMicros(double percentile) {
+			if(count==0) return 0;
+			if(!sorted)
+			{
+				Arrays.sort(nanos, 0, count);
+				sorted = true;
+			}
+			int index = (int)Math.ceil(percentile/100*count)-1;
+			return nanos[Math.max(0, Math.min(count-1, index))]/1000.0;
+		}
+	}
+
+	/**
+	 * a hold request, and the time it spent in every phase
+	 */
+	static class Request {
+		final RecordedEvent event;
+		final Map<String, Long> nanosByPhase = new HashMap<String, Long>();
+		final List<RecordedEvent> levels = new ArrayList<RecordedEvent>();
+
+		Request(RecordedEvent event) {
+			this.event = event;
+		}
+
+		long nanos() {
+			return event.getDuration().toNanos();
+		}
+
+		void add(String phase, long nanos) {
+			Long sofar = nanosByPhase.get(phase);
+			nanosByPhase.put(phase, (sofar==null)?nanos:sofar+nanos);
+		}
+	}
+
+	final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+	final List<Request> requests = new ArrayList<Request>();
+
+	/**
+	 * reads a recording
+	 * @param recording
+	 * @return
+	 * @throws IOException
+	 */
+	public static HoldTraceAnalyzer load(Path recording) throws IOException {
+		HoldTraceAnalyzer analyzer = new HoldTraceAnalyzer();
+		analyzer.analyze(RecordingFile.readAllEvents(recording));
+		return analyzer;
+	}
+
+	void analyze(List<RecordedEvent> events) {
+		for(String name: PHASES.keySet()) phases.put(name, new Phase());
+		// the events of every thread, in the order they started
+		Map<Long, List<RecordedEvent>> byThread = new HashMap<Long, List<RecordedEvent>>();
+		for(RecordedEvent event: events)
+		{
+			String name = event.getEventType().getName();
+			if(!phases.containsKey(name)) continue;
+			phases.get(name).add(event.getDuration().toNanos());
+			if(name.equals(LEVEL_ALLOCATION)) phases.get(LEVEL_LOCK_WAIT).add(event.getDuration("lockWait").toNanos());
+			long thread = (event.getThread()==null)?-1:event.getThread().getJavaThreadId();
+			if(!byThread.containsKey(thread)) byThread.put(thread, new ArrayList<RecordedEvent>());
+			byThread.get(thread).add(event);
+		}
+		for(List<RecordedEvent> threadEvents: byThread.values())
+		{
+			Collections.sort(threadEvents, new Comparator<RecordedEvent>() {
+
+				@Override
+				public int compare(RecordedEvent arg0, RecordedEvent arg1) {
+					int result = arg0.getStartTime().compareTo(arg1.getStartTime());
+					// an event that starts at the same time as another one it's in comes after it
+					return (result!=0)?result:arg1.getDuration().compareTo(arg0.getDuration());
+				}
+			});
+			// the phases of a request start after it and end before it
+			for(int i=0; i<threadEvents.size(); i++)
+			{
+				RecordedEvent event = threadEvents.get(i);
+				if(!event.getEventType().getName().equals(HOLD_REQUEST)) continue;
+				Request request = new Request(event);
+				for(int j=i+1; j<threadEvents.size(); j++)
+				{
+					RecordedEvent phase = threadEvents.get(j);
+					if(phase.getStartTime().isAfter(event.getEndTime())) break;
+					if(phase.getEndTime().isAfter(event.getEndTime())) continue;
+					String name = phase.getEventType().getName();
+					request.add(name, phase.getDuration().toNanos());
+					if(name.equals(LEVEL_ALLOCATION))
+					{
+						request.add(LEVEL_LOCK_WAIT, phase.getDuration("lockWait").toNanos());
+						request.levels.add(phase);
+					}
+				}
+				requests.add(request);
+			}
+		}
+	}
+
+	public int numRequests() {
+		return requests.size();
+	}
+
+	/**
+	 * the number of events of a phase
+	 * @param name - the name of the event
+	 * @return
+	 */
+	public int numEvents(String name) {
+		Phase phase = phases.get(name);
+		return (phase==null)?0:phase.count();
+	}
+
+	/**
+	 * the share of the time of the hold requests that went to a phase
+	 * @param name - the name of the event
+	 * @return between 0 and 1
+	 */
+	public double share(String name) {
+		long total = 0, inPhase = 0;
+		for(Request request: requests)
+		{
+			total+=request.nanos();
+			Long nanos = request.nanosByPhase.get(name);
+			if(nanos!=null) inPhase+=nanos;
+		}
+		return (total==0)?0:(double)inPhase/total;
+	}
+
+	/**
+	 * prints the breakdown
+	 * @param out
+	 * @param slowest - the number of slowest requests to show
+	 */
+	public void report(PrintStream out, int slowest) {
+		out.println(String.format("%-20s %10s %10s %10s %10s %10s %8s", "phase", "events", "p50(us)", "p90(us)", "p99(us)", "max(us)", "share"));
+		for(Map.Entry<String, String> entry: PHASES.entrySet())
+		{
+			Phase phase = phases.get(entry.getKey());
+			out.println(String.format("%-20s %10d %10.1f %10.1f %10.1f %10.1f %7.1f%%", entry.getValue(), phase.count(),
+					phase.percentileMicros(50), phase.percentileMicros(90), phase.percentileMicros(99), phase.percentileMicros(100),
+					100*share(entry.getKey())));
+		}
+		List<Request> slowestRequests = new ArrayList<Request>(requests);
+		Collections.sort(slowestRequests, new Comparator<Request>() {
+
+			@Override
+			public int compare(Request arg0, Request arg1) {
+				return Long.compare(arg1.nanos(), arg0.nanos());
+			}
+		});
+		if(slowest>0&&!slowestRequests.isEmpty())
+		{
+			out.println();
+			out.println("slowest hold requests");
+		}
+		for(Request request: slowestRequests.subList(0, Math.min(slowest, slowestRequests.size())))
+		{
+			RecordedEvent event = request.event;
+			out.println(String.format("%s %.1fus on %s: %d seats %s, %s", event.getStartTime(), request.nanos()/1000.0,
+					(event.getThread()==null)?"?":event.getThread().getJavaName(), event.getInt("seatsRequested"),
+					event.getString("mode"), event.getString("outcome")));
+			StringBuilder phases = new StringBuilder();
+			for(Map.Entry<String, String> entry: PHASES.entrySet())
+			{
+				Long nanos = request.nanosByPhase.get(entry.getKey());
+				if(nanos!=null) phases.append(String.format("  %s %.1fus", entry.getValue().trim(), nanos/1000.0));
+			}
+			out.println(phases);
+			for(RecordedEvent level: request.levels)
+			{
+				out.println(String.format("    level %d %s: %d of %d seats, %d rows checked out, %d lost, waited %.1fus",
+						level.getInt("level"), level.getString("mode"), level.getInt("seatsAllocated"), level.getInt("seatsRequested"),
+						level.getInt("rowsCheckedOut"), level.getInt("rowsLost"), level.getDuration("lockWait").toNanos()/1000.0));
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length==0)
+		{
+			System.err.println("java ... HoldTraceAnalyzer recording.jfr [slowest]");
+			System.exit(1);
+		}
+		int slowest = (args.length>1)?Integer.parseInt(args[1]):10;
+		load(Paths.get(args[0])).report(System.out, slowest);
+	}
+}
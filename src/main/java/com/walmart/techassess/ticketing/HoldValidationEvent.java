@@ -0,0 +1,37 @@
+package com.walmart.techassess.ticketing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for the validation of a hold request, including the customer throttle
+ *
+ */
+@Name(HoldValidationEvent.NAME)
+@Label("Hold Validation")
+@Category({"Ticketing", "Hold Pipeline"})
+@Description("Validation of a hold request, and the rate limits and quotas of the customer")
+@StackTrace(false)
+class HoldValidationEvent extends Event {
+
+	static final String NAME = "com.walmart.techassess.HoldValidation";
+
+	@Label("Passed")
+	boolean passed;
+
+	/**
+	 * starts the event
+	 * @return the event, or null if the flight recorder isn't up
+	 */
+	static HoldValidationEvent start() {
+		if(!FlightRecorder.isInitialized()) return null;
+		HoldValidationEvent event = new HoldValidationEvent();
+		event.begin();
+		return event;
+	}
+}
@@ -0,0 +1,196 @@
+package com.walmart.techassess.ticketing;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the results of requests that came with an idempotency key, so a client that retries a request
+ * gets the result of the first try instead of doing the work again
+ *
+ * A front end that times out and retries a hold would otherwise hold a second set of seats, that nobody can buy
+ * till the hold expires, and a retried reservation would fail with an expired hold after the first one went
+ * through. With a key
+ * - the first request with the key runs, and it's result is kept for a while
+ * - a retry gets that result back. A retry that comes in while the first request is still running waits for it
+ * - a request that fails isn't kept, so it can be retried with the same key.. retries that were waiting for it
+ *   get the same exception
+ * - a key that comes back with a different request is refused
+ * Keys belong to a customer, so 2 customers can use the same key
+ *
+ * The cache is bounded. Every key is kept for the same time, so the keys expire in the order they were added..
+ * a queue in that order is enough to find the expired keys without scanning, and once the cache is full the
+ * oldest keys go first, expired or not. A key whose request is still running is never evicted, a retry would run
+ * the request again.. it goes to the back of the queue instead, so the cache can be over it's size by the requests
+ * that are running
+ *
+ * Thread-safe
+ *
+ */
+public class IdempotencyCache {
+
+	// the most keys that are kept
+	final int maxKeys;
+	// how long a key is kept, in nanoseconds
+	final long ttlNanos;
+
+	final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	// the entries in the order they were added.. the same order in which they expire
+	final Queue<Entry> order = new ConcurrentLinkedQueue<Entry>();
+	final AtomicInteger numQueued = new AtomicInteger();
+
+	/**
+	 * a key, and the result of the request that came with it
+	 */
+	static class Entry {
+		final String key;
+		// what the request was, to catch a key that is used for 2 different requests
+		final String request;
+		final long expiresAt;
+		final CompletableFuture<Object> result = new CompletableFuture<Object>();
+
+		Entry(String key, String request, long expiresAt) {
+			this.key = key;
+			this.request = request;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param maxKeys - the most keys that are kept at a time
+	 * @param ttlMillis - how long a key is kept after it's first used
+	 */
+	public IdempotencyCache(int maxKeys, long ttlMillis) {
+		super();
+		if(maxKeys<=0) throw new IllegalArgumentException("Need room for at least one key");
+		if(ttlMillis<=0) throw new IllegalArgumentException("Keys have to be kept for a while");
+		this.maxKeys = maxKeys;
+		this.ttlNanos = ttlMillis*1000000L;
+	}
+
+	/**
+	 * runs a request, unless a request with the same key ran before
+	 * @param customerEmail - the customer the key belongs to
+	 * @param idempotencyKey - the key the client sent, null to always run the request
+	 * @param request - a description of the request, the same for all the tries of a request
+	 * @param action - runs the request
+	 * @return the result of the first request with the key
+	 * @throws IllegalArgumentException if the key was used for a different request
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T execute(String customerEmail, String idempotencyKey, String request, Supplier<T> action) {
+		if(idempotencyKey==null) return action.get();
+		long now = System.nanoTime();
+		evictExpired(now);
+		String key = customerEmail+'\n'+idempotencyKey;
+		Entry entry = new Entry(key, request, now+ttlNanos);
+		while(true)
+		{
+			Entry existing = entries.putIfAbsent(key, entry);
+			if(existing==null) break;
+			if(now-existing.expiresAt>=0&&existing.result.isDone())
+			{
+				// expired, but not evicted yet.. it's as good as gone
+				if(entries.replace(key, existing, entry))
+				{
+					// it's not counted any more, whoever takes it off the queue
+					if(order.remove(existing)) numQueued.decrementAndGet();
+					break;
+				}
+				continue;
+			}
+			if(!existing.request.equals(request)) throw new IllegalArgumentException("Idempotency key "+idempotencyKey+" was used for a different request");
+			return (T)await(existing);
+		}
+		order.add(entry);
+		if(numQueued.incrementAndGet()>maxKeys) evictOldest();
+
+		// first time for this key
+		boolean done = false;
+		try
+		{
+			T result = action.get();
+			entry.result.complete(result);
+			done = true;
+			return result;
+		}
+		catch(RuntimeException e)
+		{
+			entry.result.completeExceptionally(e);
+			throw e;
+		}
+		finally
+		{
+			if(!done)
+			{
+				// forget the failure so the request can be tried again
+				entries.remove(key, entry);
+				entry.result.completeExceptionally(new IllegalStateException("Request with idempotency key "+idempotencyKey+" failed"));
+			}
+		}
+	}
+
+	/**
+	 * the number of keys being kept
+	 * @return
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * waits for the request of an entry to finish
+	 * @return the result of the request
+	 * @throws RuntimeException the exception of the request, if it failed
+	 */
+	private static Object await(Entry entry) {
+		try
+		{
+			return entry.result.join();
+		}
+		catch(CompletionException e)
+		{
+			throw (e.getCause() instanceof RuntimeException)?(RuntimeException)e.getCause():e;
+		}
+	}
+
+	/**
+	 * removes the keys that have expired.. they are at the head of the queue. Stops at a key whose request is
+	 * still running
+	 * @param now
+	 */
+	void evictExpired(long now) {
+		Entry head;
+		while((head = order.peek())!=null&&now-head.expiresAt>=0&&head.result.isDone())
+		{
+			if(order.remove(head)) forget(head);
+		}
+	}
+
+	/**
+	 * removes the oldest keys till the cache is back under it's size
+	 */
+	private void evictOldest() {
+		Entry head;
+		// every key is looked at once at most, in case they are all running
+		int numLeft = numQueued.get();
+		while(numQueued.get()>maxKeys&&numLeft-->0&&(head = order.poll())!=null)
+		{
+			if(head.result.isDone()) forget(head);
+			// still running.. a retry has to find it
+			else order.add(head);
+		}
+	}
+
+	private void forget(Entry entry) {
+		numQueued.decrementAndGet();
+		// the key might have a newer entry by now
+		entries.remove(entry.key, entry);
+	}
+}
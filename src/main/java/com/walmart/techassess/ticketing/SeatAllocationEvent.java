@@ -0,0 +1,44 @@
+package com.walmart.techassess.ticketing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for the allocation of the seats of a hold by the stadium service. Every level it tried is
+ * an event of it's own, and so is the rollback when the party couldn't be seated
+ *
+ */
+@Name(SeatAllocationEvent.NAME)
+@Label("Seat Allocation")
+@Category({"Ticketing", "Hold Pipeline"})
+@Description("Allocation of the seats of a hold by the stadium, over all the levels it tried")
+@StackTrace(false)
+class SeatAllocationEvent extends Event {
+
+	static final String NAME = "com.walmart.techassess.SeatAllocation";
+
+	@Label("Seats Requested")
+	int seatsRequested;
+
+	@Label("Fragments")
+	@Description("The fragments of rows the seats are in, 0 if the party couldn't be seated")
+	int fragments;
+
+	/**
+	 * starts the event
+	 * @param seatsRequested
+	 * @return the event, or null if the flight recorder isn't up
+	 */
+	static SeatAllocationEvent start(int seatsRequested) {
+		if(!FlightRecorder.isInitialized()) return null;
+		SeatAllocationEvent event = new SeatAllocationEvent();
+		event.seatsRequested = seatsRequested;
+		event.begin();
+		return event;
+	}
+}
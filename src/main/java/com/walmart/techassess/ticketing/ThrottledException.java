@@ -0,0 +1,16 @@
+package com.walmart.techassess.ticketing;
+
+/**
+ * Thrown when a customer makes too many hold requests, or holds too many seats at once
+ * The calling application can show a "Please try again later" message to the user
+ *
+ */
+public class ThrottledException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ThrottledException(String message) {
+		super(message);
+	}
+
+}
@@ -1,9 +1,15 @@
 package com.walmart.techassess.ticketing;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import com.walmart.techassess.reservations.Reservation;
 import com.walmart.techassess.reservations.SeatHold;
+import com.walmart.techassess.reservations.SeatOwner;
+import com.walmart.techassess.stadium.AllocationMode;
 
 /**
  * Ticket Service interface. Exposes the services provided by the ticketing service
@@ -63,6 +69,79 @@ public interface TicketService {
 
 	Optional<Integer> maxLevel, String customerEmail);
 
+	/**
+	 * Find and hold seats for a customer, picked the way the customer wants them
+	 * With {@link AllocationMode#KEEP_TOGETHER} the party sits next to each other, in one row or in
+	 * consecutive rows of one level, or not at all
+	 * @param numSeats the number of seats to find and hold
+	 * @param minLevel the minimum venue level 
+	 * @param maxLevel the maximum venue level 
+	 * @param customerEmail unique identifier for the customer
+	 * @param mode how the seats are picked
+	 * @return a SeatHold object identifying the specific seats and related information
+	 */
+	SeatHold findAndHoldSeats(int numSeats, Optional<Integer> minLevel, Optional<Integer> maxLevel, String customerEmail, AllocationMode mode);
+
+	/**
+	 * Find and hold seats for a customer, once per idempotency key
+	 * A retry with the same key gets the hold of the first request back, instead of holding more seats. See {@link IdempotencyCache}
+	 * @param numSeats the number of seats to find and hold
+	 * @param minLevel the minimum venue level 
+	 * @param maxLevel the maximum venue level 
+	 * @param customerEmail unique identifier for the customer
+	 * @param mode how the seats are picked
+	 * @param idempotencyKey a key that the client picks for the request, and sends again when it retries.. null for none
+	 * @return a SeatHold object identifying the specific seats and related information
+	 */
+	SeatHold findAndHoldSeats(int numSeats, Optional<Integer> minLevel, Optional<Integer> maxLevel, String customerEmail, AllocationMode mode,
+			String idempotencyKey);
+
+	/**
+	 * Find and hold the best seats that cost at most the given price, in any level
+	 * The most expensive seats under the price go first. Only the rows that have a price are sold this way
+	 * @param numSeats the number of seats to find and hold
+	 * @param maxPrice the most the customer is willing to pay for a seat
+	 * @param customerEmail unique identifier for the customer
+	 * @return a SeatHold object identifying the specific seats and related information
+	 */
+	SeatHold findAndHoldSeats(int numSeats, double maxPrice, String customerEmail);
+
+	/**
+	 * Find and hold the best seats that cost at most the given price, once per idempotency key
+	 * @param numSeats the number of seats to find and hold
+	 * @param maxPrice the most the customer is willing to pay for a seat
+	 * @param customerEmail unique identifier for the customer
+	 * @param idempotencyKey a key that the client picks for the request, and sends again when it retries.. null for none
+	 * @return a SeatHold object identifying the specific seats and related information
+	 */
+	SeatHold findAndHoldSeats(int numSeats, double maxPrice, String customerEmail, String idempotencyKey);
+
+	/**
+	 * Wait for seats to come free in levels that are sold out, instead of retrying holds
+	 * The customer joins a waitlist. Whenever held seats expire or are released, the waitlist is served in the order
+	 * the customers came, and a customer whose seats are free gets the best of them on a hold. If the seats are free
+	 * already, and nobody is waiting for them, they are held right away
+	 * @param numSeats the number of seats to hold
+	 * @param minLevel the minimum venue level 
+	 * @param maxLevel the maximum venue level 
+	 * @param customerEmail unique identifier for the customer
+	 * @return a future that completes with the hold.. cancel it to leave the waitlist
+	 * @throws ThrottledException if the customer is throttled, or the waitlist is full
+	 */
+	CompletableFuture<SeatHold> waitForSeats(int numSeats, Optional<Integer> minLevel, Optional<Integer> maxLevel, String customerEmail);
+
+	/**
+	 * Hold a block of whole rows of a level, for the box office to sell to a group
+	 * All the free seats of the rows go on one hold. Seats of the rows that are sold or held already are left out,
+	 * so check the seats on the hold. Block holds are not throttled
+	 * @param level the venue level
+	 * @param rowFrom the first row of the block, 0 is the front row
+	 * @param rowTo the last row of the block, inclusive
+	 * @param customerEmail unique identifier for the customer
+	 * @return a SeatHold object identifying the specific seats and related information
+	 */
+	SeatHold holdBlock(int level, int rowFrom, int rowTo, String customerEmail);
+
 	/**
 
 	* Commit seats held for a specific customer
@@ -80,13 +159,88 @@ public interface TicketService {
 	*/ 
 
 	String reserveSeats(int seatHoldId, String customerEmail);
+
+	/**
+	 * Commit seats held for a specific customer, once per idempotency key
+	 * A retry with the same key gets the confirmation code of the first request back, even though the hold is gone by then
+	 * @param seatHoldId the seat hold identifier
+	 * @param customerEmail the email address of the customer to which the seat hold is assigned
+	 * @param idempotencyKey a key that the client picks for the request, and sends again when it retries.. null for none
+	 * @return a reservation confirmation code 
+	 */
+	String reserveSeats(int seatHoldId, String customerEmail, String idempotencyKey);
+	
+	/**
+	 * Extend a hold for a customer that needs more time to pay
+	 * The seats stay where they are. A hold can be extended only up to a maximum, after
+	 * that the extension is cut short. Check the expiry of the returned hold
+	 * @param seatHoldId the seat hold identifier
+	 * @param customerEmail the email address of the customer to which the seat hold is assigned
+	 * @param extraMillis the time to add to the hold in milliseconds
+	 * @return the extended hold
+	 */
+	SeatHold extendHold(int seatHoldId, String customerEmail, long extraMillis);
+	
+	/**
+	 * Give back some of the seats of a hold, for a customer that needs less seats than they held
+	 * The rest of the seats stay where they are. The worst seats of the hold are given back
+	 * @param seatHoldId the seat hold identifier
+	 * @param customerEmail the email address of the customer to which the seat hold is assigned
+	 * @param numSeats the number of seats to give back, less than the seats on the hold
+	 * @return the hold with the remaining seats
+	 */
+	SeatHold releaseSeats(int seatHoldId, String customerEmail, int numSeats);
 	
 	/**
 	 * Get the seats reserved for the reservation. 
 	 * Note that this is subject to change while reservations are been made, 
 	 * and should be called after all reservations are made (will-call) 
+	 * For all the reservations at once, see {@link #exportReservations(OutputStream)}
 	 * @param confirmationCode
-	 * @return
+	 * @return null if there is no reservation with the confirmation code
 	 */
 	Reservation getReservation(String confirmationCode);
+	
+	/**
+	 * Writes every reservation and it's seats, as they all were at one instant, for the door manifests
+	 * The export is CSV, with a header line and a line for every run of seats of a reservation
+	 * <pre>
+	 * confirmationCode,customerEmail,level,row,startSeat,endSeat
+	 * </pre>
+	 * The rows are labelled A to Z, then AA, AB and so on, like in {@link com.walmart.techassess.stadium.RowFragment}.
+	 * Confirmation codes and emails that have a comma or a quote are quoted, with the quotes in them doubled. Holds
+	 * and reservations can be made while the export is written
+	 * @param out - where the export goes.. it's flushed, not closed
+	 * @return the number of reservations exported
+	 * @throws IOException
+	 */
+	int exportReservations(OutputStream out) throws IOException;
+	
+	/**
+	 * Get the active holds of a customer. Holds that have expired or have been reserved are not included
+	 * This is a lookup in an index, it doesn't scan all the holds
+	 * @param customerEmail
+	 * @return
+	 */
+	List<SeatHold> getHolds(String customerEmail);
+	
+	/**
+	 * Get the confirmation codes of all the reservations of a customer
+	 * This is a lookup in an index, it doesn't scan all the reservations
+	 * @param customerEmail
+	 * @return
+	 */
+	List<String> getConfirmationCodes(String customerEmail);
+	
+	/**
+	 * Find who a seat belongs to, for customer service and audits.. the hold it's on, or the reservation
+	 * This is a lookup in the row and an index, it doesn't scan the holds and reservations
+	 * Seats move up when seats before them in the row are given back, so the same seat can belong to someone
+	 * else later
+	 * @param level
+	 * @param rowNum - starts at 0, row A
+	 * @param seat - starts at 1
+	 * @return null if nobody holds or reserved the seat
+	 */
+	SeatOwner findSeatOwner(int level, int rowNum, int seat);
 }
@@ -1,14 +1,29 @@
 package com.walmart.techassess.ticketing;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
 
 import com.walmart.techassess.reservations.HoldExpiredException;
 import com.walmart.techassess.reservations.Reservation;
 import com.walmart.techassess.reservations.ReservationService;
+import com.walmart.techassess.reservations.ReservationSnapshot;
 import com.walmart.techassess.reservations.SeatHold;
+import com.walmart.techassess.reservations.SeatOwner;
+import com.walmart.techassess.stadium.AllocationMode;
 import com.walmart.techassess.stadium.RowFragment;
 import com.walmart.techassess.stadium.StadiumService;
 
@@ -19,6 +34,27 @@ import com.walmart.techassess.stadium.StadiumService;
  * b) Reservation Service - responsible for managing the reservations
  * 
  * Both services are injected into this service
+ * 
+ * Hold requests can optionally go through a {@link CustomerThrottle}, which turns away customers that make
+ * too many requests or hold too many seats before any seats are allocated
+ * 
+ * Holds and reservations can come with an idempotency key. The results of keyed requests are kept in an
+ * {@link IdempotencyCache} for a while, so a front end that retries after a timeout gets the original hold or
+ * confirmation code back, instead of holding another set of seats or failing on a hold that was already reserved
+ * 
+ * Customers can wait for seats in levels that are sold out on a {@link Waitlist}. The waitlist is served in a
+ * short pass whenever the expiry sweep or a release gives seats back to the stadium. The seats a customer waits
+ * for count against the customer's quota of held seats, like the seats of a hold that is being allocated
+ * 
+ * The reservations can be exported all at once. The reservations are snapshotted, which holds off new
+ * reservations only while the heap is copied, and the seats of all of them are copied in one go, which doesn't
+ * stop the allocations. So the export is from one instant, and nobody is seated twice in it. It's written in
+ * chunks as it's read, so the archived reservations are never all on the heap
+ * 
+ * Every hold request is a {@link HoldRequestEvent} for the flight recorder, and so is every phase of it.. the
+ * validation, the expiry sweep, the allocation of the seats, and putting them on the hold. The stadium adds
+ * events for the levels it allocates in, and for rolling back a party that couldn't be seated. The events cost
+ * nothing till the flight recorder is up.. they aren't even made
  * @author jlalwani
  *
  */
@@ -30,14 +66,55 @@ public class TicketServiceImpl implements TicketService {
 	//the reservation service
 	final ReservationService reservationService;
 	
+	//rate limits and quotas of the customers
+	final CustomerThrottle customerThrottle;
+	
+	//the results of requests with an idempotency key
+	final IdempotencyCache idempotencyCache;
+	
+	//customers waiting for seats to come free
+	final Waitlist waitlist = new Waitlist(DEFAULT_MAX_WAITERS);
+
+	//releases of the same hold go one at a time
+	final Object[] releaseLocks = new Object[64];
+	
+	//the outcome of a hold request that held seats, and the mode of one that's by price, for the flight recorder
+	static final String HELD = "HELD";
+	static final String BY_PRICE = "BY_PRICE";
+	
+	//how many idempotency keys are kept by default, and for how long
+	static final int DEFAULT_IDEMPOTENCY_KEYS = 100000;
+	static final long DEFAULT_IDEMPOTENCY_MILLIS = 10*60*1000;
+	
+	//the most customers that can wait for seats
+	static final int DEFAULT_MAX_WAITERS = 100000;
+	
+	//the export is written in chunks of this many chars, and the archive is read this many reservations at a time
+	static final int EXPORT_BUFFER = 64*1024;
+	static final int EXPORT_BATCH = 1024;
+	static final String EXPORT_HEADER = "confirmationCode,customerEmail,level,row,startSeat,endSeat";
 	
 	
 	public TicketServiceImpl(StadiumService stadiumService, ReservationService reservationService) {
+		this(stadiumService, reservationService, CustomerThrottle.unlimited());
+	}
+	
+	public TicketServiceImpl(StadiumService stadiumService, ReservationService reservationService, CustomerThrottle customerThrottle) {
+		this(stadiumService, reservationService, customerThrottle, new IdempotencyCache(DEFAULT_IDEMPOTENCY_KEYS, DEFAULT_IDEMPOTENCY_MILLIS));
+	}
+	
+	public TicketServiceImpl(StadiumService stadiumService, ReservationService reservationService, CustomerThrottle customerThrottle,
+			IdempotencyCache idempotencyCache) {
 		super();
 		assert stadiumService!=null;
 		assert reservationService!=null;
+		assert customerThrottle!=null;
+		assert idempotencyCache!=null;
 		this.stadiumService = stadiumService;
 		this.reservationService = reservationService;
+		this.customerThrottle = customerThrottle;
+		this.idempotencyCache = idempotencyCache;
+		for(int i=0; i<releaseLocks.length; i++) releaseLocks[i] = new Object();
 	}
 
 	@Override
@@ -61,29 +138,289 @@ public class TicketServiceImpl implements TicketService {
 	@Override
 	public SeatHold findAndHoldSeats(int numSeats, Optional<Integer> minLevel, Optional<Integer> maxLevel,
 			String customerEmail) {
+		return findAndHoldSeats(numSeats, minLevel, maxLevel, customerEmail, AllocationMode.BEST_AVAILABLE);
+	}
+
+	@Override
+	public SeatHold findAndHoldSeats(int numSeats, Optional<Integer> minLevel, Optional<Integer> maxLevel,
+			String customerEmail, AllocationMode mode) {
+		return findAndHoldSeats(numSeats, minLevel, maxLevel, customerEmail, mode, null);
+	}
+
+	@Override
+	public SeatHold findAndHoldSeats(final int numSeats, final Optional<Integer> minLevel, final Optional<Integer> maxLevel,
+			final String customerEmail, final AllocationMode mode, String idempotencyKey) {
+		if(idempotencyKey==null) return holdInLevels(numSeats, minLevel, maxLevel, customerEmail, mode);
+		return idempotencyCache.execute(customerEmail, idempotencyKey, "hold "+numSeats+" "+minLevel+" "+maxLevel+" "+mode, new Supplier<SeatHold>() {
+
+			@Override
+			public SeatHold get() {
+				return holdInLevels(numSeats, minLevel, maxLevel, customerEmail, mode);
+			}
+		});
+	}
+
+	@Override
+	public SeatHold findAndHoldSeats(int numSeats, double maxPrice, String customerEmail) {
+		return findAndHoldSeats(numSeats, maxPrice, customerEmail, null);
+	}
+
+	@Override
+	public SeatHold findAndHoldSeats(final int numSeats, final double maxPrice, final String customerEmail, String idempotencyKey) {
+		if(idempotencyKey==null) return holdUnderPrice(numSeats, maxPrice, customerEmail);
+		return idempotencyCache.execute(customerEmail, idempotencyKey, "hold "+numSeats+" under "+maxPrice, new Supplier<SeatHold>() {
 
+			@Override
+			public SeatHold get() {
+				return holdUnderPrice(numSeats, maxPrice, customerEmail);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<SeatHold> waitForSeats(final int numSeats, Optional<Integer> minLevel, Optional<Integer> maxLevel, final String customerEmail) {
 		//validation
 		if(minLevel==null||maxLevel==null) throw new IllegalArgumentException("Venue level cannot be null");
 		if(customerEmail==null||customerEmail.length()==0) throw new IllegalArgumentException("Need Customer email address");
-		if(numSeats==0) throw new IllegalArgumentException("Invalid number of seats requested");
+		if(numSeats<=0) throw new IllegalArgumentException("Invalid number of seats requested");
 		int startLevel = minLevel.orElse(stadiumService.getMinLevel());
 		int endLevel = maxLevel.orElse(startLevel);
 		if(startLevel<stadiumService.getMinLevel()||endLevel>stadiumService.getMaxLevel()) throw new IllegalArgumentException("Level should be between min and max");
 		
-		//before we get down to business.. let's cleanup any other reservations that have expired
+		//joining the waitlist counts as a hold request.. the seats count against the quota till the customer is
+		//served or leaves the waitlist
+		customerThrottle.acquire(customerEmail, numSeats, numSeatsHeld(customerEmail));
+		Waitlist.Waiter waiter;
+		try
+		{
+			waiter = waitlist.add(numSeats, startLevel, endLevel, customerEmail);
+		}
+		catch(RuntimeException e)
+		{
+			customerThrottle.release(customerEmail, numSeats);
+			throw e;
+		}
+		waiter.hold.whenComplete(new BiConsumer<SeatHold, Throwable>() {
+
+			@Override
+			public void accept(SeatHold hold, Throwable cancelled) {
+				//the seats are either on the hold now, or the customer left
+				customerThrottle.release(customerEmail, numSeats);
+			}
+		});
+		
+		//the seats might be free already
 		deallocateExpiredReservations();
+		serveWaitlist();
+		return waiter.hold;
+	}
+
+	@Override
+	public SeatHold holdBlock(int level, int rowFrom, int rowTo, String customerEmail) {
+		//validation
+		if(customerEmail==null||customerEmail.length()==0) throw new IllegalArgumentException("Need Customer email address");
+		if(level<stadiumService.getMinLevel()||level>stadiumService.getMaxLevel()) throw new IllegalArgumentException("Level should be between min and max");
+		if(rowFrom<0||rowFrom>rowTo) throw new IllegalArgumentException("Invalid rows requested");
 		
-		//ask stadium to allocate seats in the requested level
-		SortedSet<RowFragment> rowsAllocated = stadiumService.allocate(numSeats, startLevel, endLevel);
+		//expired seats in the block are up for grabs too
+		deallocateExpiredReservations();
 		
-		//add a hold into the reservation system for those seats
+		//the rows in one allocation, and the seats on one hold
+		SortedSet<RowFragment> rowsAllocated = stadiumService.allocateBlock(level, rowFrom, rowTo);
 		return reservationService.addHold(rowsAllocated, customerEmail);
-		
+	}
+
+	/**
+	 * holds the best seats in a range of levels
+	 */
+	private SeatHold holdInLevels(final int numSeats, final Optional<Integer> minLevel, final Optional<Integer> maxLevel,
+			final String customerEmail, final AllocationMode mode) {
+		return holdSeats(numSeats, customerEmail, (mode==null)?null:mode.name(), new HoldAllocator() {
+
+			int startLevel, endLevel;
+
+			@Override
+			void validate() {
+				if(mode==null) throw new IllegalArgumentException("Allocation mode cannot be null");
+				if(minLevel==null||maxLevel==null) throw new IllegalArgumentException("Venue level cannot be null");
+				if(customerEmail==null||customerEmail.length()==0) throw new IllegalArgumentException("Need Customer email address");
+				if(numSeats==0) throw new IllegalArgumentException("Invalid number of seats requested");
+				startLevel = minLevel.orElse(stadiumService.getMinLevel());
+				endLevel = maxLevel.orElse(startLevel);
+				if(startLevel<stadiumService.getMinLevel()||endLevel>stadiumService.getMaxLevel()) throw new IllegalArgumentException("Level should be between min and max");
+			}
+
+			@Override
+			SortedSet<RowFragment> allocate(int numSeats) {
+				//ask stadium to allocate seats in the requested level
+				return stadiumService.allocate(numSeats, startLevel, endLevel, mode);
+			}
+		});
+	}
+
+	/**
+	 * holds the best seats under a price
+	 */
+	private SeatHold holdUnderPrice(final int numSeats, final double maxPrice, final String customerEmail) {
+		return holdSeats(numSeats, customerEmail, BY_PRICE, new HoldAllocator() {
+
+			@Override
+			void validate() {
+				if(customerEmail==null||customerEmail.length()==0) throw new IllegalArgumentException("Need Customer email address");
+				if(numSeats<=0) throw new IllegalArgumentException("Invalid number of seats requested");
+				if(maxPrice<0) throw new IllegalArgumentException("Invalid price");
+			}
+
+			@Override
+			SortedSet<RowFragment> allocate(int numSeats) {
+				//ask stadium to allocate the best seats under the price
+				return stadiumService.allocate(numSeats, maxPrice);
+			}
+		});
+	}
+
+	/**
+	 * checks a hold request, and allocates it's seats in the stadium
+	 */
+	private static abstract class HoldAllocator {
+
+		/**
+		 * checks the request.. throws IllegalArgumentException if it's no good
+		 */
+		abstract void validate();
+
+		/**
+		 * allocates the seats, after the request has been validated
+		 * @param numSeats
+		 * @return
+		 */
+		abstract SortedSet<RowFragment> allocate(int numSeats);
+	}
+
+	/**
+	 * allocates seats and puts them on a hold for the customer
+	 * @param numSeats
+	 * @param customerEmail
+	 * @param mode - how the seats are allocated, for the flight recorder
+	 * @param allocator - validates the request and allocates the seats in the stadium
+	 * @return
+	 */
+	private SeatHold holdSeats(int numSeats, String customerEmail, String mode, HoldAllocator allocator) {
+		HoldRequestEvent request = HoldRequestEvent.start(numSeats, mode);
+		HoldValidationEvent validation = HoldValidationEvent.start();
+		try
+		{
+			//validation
+			allocator.validate();
+			//turn away customers that are asking for too much.. this happens before we touch any level
+			customerThrottle.acquire(customerEmail, numSeats, numSeatsHeld(customerEmail));
+		}
+		catch(RuntimeException e)
+		{
+			if(validation!=null) validation.commit();
+			if(request!=null)
+			{
+				request.outcome = e.getMessage();
+				request.commit();
+			}
+			throw e;
+		}
+		if(validation!=null)
+		{
+			validation.passed = true;
+			validation.commit();
+		}
+		SeatHold hold = null;
+		try
+		{
+			//before we get down to business.. let's cleanup any other reservations that have expired
+			deallocateExpiredReservations();
+			
+			SeatAllocationEvent allocation = SeatAllocationEvent.start(numSeats);
+			SortedSet<RowFragment> rowsAllocated;
+			try
+			{
+				rowsAllocated = allocator.allocate(numSeats);
+				if(allocation!=null) allocation.fragments = rowsAllocated.size();
+			}
+			finally
+			{
+				if(allocation!=null) allocation.commit();
+			}
+			
+			//add a hold into the reservation system for those seats
+			AddHoldEvent addHold = AddHoldEvent.start();
+			hold = reservationService.addHold(rowsAllocated, customerEmail);
+			if(addHold!=null)
+			{
+				addHold.end();
+				if(addHold.shouldCommit())
+				{
+					addHold.seatsHeld = numSeats;
+					addHold.seatHoldId = hold.getSeatHoldId();
+					addHold.commit();
+				}
+			}
+			return hold;
+		}
+		catch(RuntimeException e)
+		{
+			if(request!=null) request.outcome = e.getMessage();
+			throw e;
+		}
+		finally
+		{
+			//the seats are either on the hold now, or not allocated at all
+			customerThrottle.release(customerEmail, numSeats);
+			if(request!=null)
+			{
+				if(hold!=null)
+				{
+					request.seatHoldId = hold.getSeatHoldId();
+					request.outcome = HELD;
+				}
+				request.commit();
+			}
+		}
+	}
+
+	/**
+	 * reads the seats a customer holds, for the throttle to check against the quota
+	 * @param customerEmail
+	 * @return
+	 */
+	private IntSupplier numSeatsHeld(final String customerEmail) {
+		return new IntSupplier() {
+
+			@Override
+			public int getAsInt() {
+				return reservationService.numSeatsHeld(customerEmail);
+			}
+		};
 	}
 
 
 	@Override
 	public String reserveSeats(int seatHoldId, String customerEmail) {
+		return reserveSeats(seatHoldId, customerEmail, null);
+	}
+
+	@Override
+	public String reserveSeats(final int seatHoldId, final String customerEmail, String idempotencyKey) {
+		if(idempotencyKey==null) return reserve(seatHoldId, customerEmail);
+		return idempotencyCache.execute(customerEmail, idempotencyKey, "reserve "+seatHoldId, new Supplier<String>() {
+
+			@Override
+			public String get() {
+				return reserve(seatHoldId, customerEmail);
+			}
+		});
+	}
+
+	/**
+	 * reserves the seats of a hold
+	 */
+	private String reserve(int seatHoldId, String customerEmail) {
 		//validations
 		if(customerEmail==null||customerEmail.length()==0) throw new IllegalArgumentException("Need Customer email address");
 		
@@ -109,22 +446,228 @@ public class TicketServiceImpl implements TicketService {
 		return reservationService.reserve(hold.getSeatHoldId());
 	}
 
+	@Override
+	public SeatHold extendHold(int seatHoldId, String customerEmail, long extraMillis) {
+		//validations
+		if(customerEmail==null||customerEmail.length()==0) throw new IllegalArgumentException("Need Customer email address");
+		if(extraMillis<=0) throw new IllegalArgumentException("Invalid extension requested");
+		
+		//get the hold
+		SeatHold hold = reservationService.findHold(seatHoldId);
+		if(hold==null) throw new HoldExpiredException(seatHoldId);
+		
+		//check if the hold belongs to the user who is trying to extend it
+		if(!hold.getCustomerEmailAddress().equals(customerEmail)) 
+			throw new IllegalArgumentException("Wrong customer trying to extend hold");
+		
+		//extend it in place.. no need to give the seats back and allocate them again
+		return reservationService.extendHold(seatHoldId, extraMillis);
+	}
+
+	@Override
+	public SeatHold releaseSeats(int seatHoldId, String customerEmail, int numSeats) {
+		//validations
+		if(customerEmail==null||customerEmail.length()==0) throw new IllegalArgumentException("Need Customer email address");
+		if(numSeats<=0) throw new IllegalArgumentException("Invalid number of seats to release");
+		
+		//get the hold
+		SeatHold hold = reservationService.findHold(seatHoldId);
+		if(hold==null) throw new HoldExpiredException(seatHoldId);
+		
+		//check if the hold belongs to the user who is trying to release the seats
+		if(!hold.getCustomerEmailAddress().equals(customerEmail)) 
+			throw new IllegalArgumentException("Wrong customer trying to release seats");
+		
+		//take the seats off the hold and give them back to their rows.. the rest of the hold stays where it is
+		//2 releases of the same hold would pick the same fragment, so they go one at a time. The lock is picked by
+		//the ID, since the reservation service might hand out a new copy of the hold on every lookup
+		synchronized(releaseLocks[seatHoldId&(releaseLocks.length-1)])
+		{
+			SortedMap<RowFragment, Integer> seatsToRelease = reservationService.releaseSeats(seatHoldId, numSeats);
+			stadiumService.release(seatsToRelease);
+		}
+		serveWaitlist();
+		//look it up again, a copy wouldn't show the seats that went
+		SeatHold released = reservationService.findHold(seatHoldId);
+		return (released==null)?hold:released;
+	}
+
 	@Override
 	public Reservation getReservation(String confirmationCode) {
 		//validation
 		if(confirmationCode==null||confirmationCode.length()==0) throw new IllegalArgumentException("Need Customer email address");
 		
-		//get the reservations
-		return reservationService.getReservation(confirmationCode);
+		//get the reservations.. an archived one has the seats it had when it was archived, so find where they are now
+		Reservation reservation = reservationService.getReservation(confirmationCode);
+		if(reservation==null) return null;
+		SortedSet<RowFragment> seats = new TreeSet<RowFragment>();
+		boolean moved = false;
+		for(RowFragment reserved: reservation.getRowsReserved())
+		{
+			RowFragment live = liveFragment(reserved);
+			moved|=live!=reserved;
+			seats.add(live);
+		}
+		return moved?new Reservation(seats):reservation;
 		
 	}
+
+	/**
+	 * the fragment in the row that has the seats of a reserved fragment now.. the fragments on the heap are the
+	 * ones in the rows, the ones read from the archive are found by their serials
+	 * @param reserved
+	 * @return
+	 */
+	private RowFragment liveFragment(RowFragment reserved) {
+		RowFragment live = stadiumService.findFragmentBySerial(reserved.getLevel(), reserved.getRowNum(), reserved.getSerial());
+		// not in the rows if the archive is from another run
+		return (live==null)?reserved:live;
+	}
 	
 
+	@Override
+	public int exportReservations(OutputStream out) throws IOException {
+		//validation
+		if(out==null) throw new IllegalArgumentException("Need somewhere to export to");
+		
+		//which reservations there are, and then where all of them sit.. the seats of all of them can still move, so
+		//they are copied in one go. The archived ones are read twice, once for their live fragments and once to write
+		//them out, so only their fragments are on the heap at a time
+		ReservationSnapshot snapshot = reservationService.snapshotReservations();
+		List<RowFragment> fragments = new ArrayList<RowFragment>();
+		for(int i=0; i<snapshot.numOnHeap(); i++)
+		{
+			fragments.addAll(snapshot.getHold(i).getReservation().getRowsReserved());
+		}
+		List<String> confirmationCodes = new ArrayList<String>(EXPORT_BATCH);
+		List<SeatHold> holds = new ArrayList<SeatHold>(EXPORT_BATCH);
+		while(snapshot.nextArchived(EXPORT_BATCH, confirmationCodes, holds))
+		{
+			for(SeatHold hold: holds)
+			{
+				for(RowFragment reserved: hold.getReservation().getRowsReserved()) fragments.add(liveFragment(reserved));
+			}
+			confirmationCodes.clear();
+			holds.clear();
+		}
+		int[] seats = new int[2*fragments.size()];
+		stadiumService.copySeats(fragments, seats);
+		
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), EXPORT_BUFFER);
+		writer.write(EXPORT_HEADER);
+		writer.write('\n');
+		int fragment = 0;
+		for(int i=0; i<snapshot.numOnHeap(); i++)
+		{
+			//the fragments are in the order they were copied in
+			for(RowFragment reserved: snapshot.getHold(i).getReservation().getRowsReserved())
+			{
+				writeSeats(writer, snapshot.getConfirmationCode(i), snapshot.getHold(i), reserved, seats[2*fragment], seats[2*fragment+1]);
+				fragment++;
+			}
+		}
+		//the archived reservations come back in the same order, a batch at a time
+		int numReservations = snapshot.numOnHeap();
+		snapshot.rewindArchive();
+		while(snapshot.nextArchived(EXPORT_BATCH, confirmationCodes, holds))
+		{
+			for(int i=0; i<holds.size(); i++)
+			{
+				for(RowFragment reserved: holds.get(i).getReservation().getRowsReserved())
+				{
+					writeSeats(writer, confirmationCodes.get(i), holds.get(i), reserved, seats[2*fragment], seats[2*fragment+1]);
+					fragment++;
+				}
+			}
+			numReservations+=holds.size();
+			confirmationCodes.clear();
+			holds.clear();
+		}
+		writer.flush();
+		return numReservations;
+	}
+
+	/**
+	 * writes a line of the export
+	 */
+	private static void writeSeats(Writer writer, String confirmationCode, SeatHold hold, RowFragment fragment, int startSeat, int endSeat)
+			throws IOException {
+		writeField(writer, confirmationCode);
+		writer.write(',');
+		writeField(writer, hold.getCustomerEmailAddress());
+		writer.write(',');
+		writer.write(Integer.toString(fragment.getLevel()));
+		writer.write(',');
+		writer.write(RowFragment.rowLabel(fragment.getRowNum()));
+		writer.write(',');
+		writer.write(Integer.toString(startSeat));
+		writer.write(',');
+		writer.write(Integer.toString(endSeat));
+		writer.write('\n');
+	}
+
+	/**
+	 * writes a text field of the export.. in quotes if it has a comma, a quote or a line break, with the quotes
+	 * in it doubled
+	 */
+	private static void writeField(Writer writer, String field) throws IOException {
+		boolean quote = false;
+		for(int i=0; i<field.length()&&!quote; i++)
+		{
+			char c = field.charAt(i);
+			quote = c==','||c=='"'||c=='\n'||c=='\r';
+		}
+		if(!quote)
+		{
+			writer.write(field);
+			return;
+		}
+		writer.write('"');
+		for(int i=0; i<field.length(); i++)
+		{
+			char c = field.charAt(i);
+			if(c=='"') writer.write('"');
+			writer.write(c);
+		}
+		writer.write('"');
+	}
+
+	@Override
+	public List<SeatHold> getHolds(String customerEmail) {
+		//validation
+		if(customerEmail==null||customerEmail.length()==0) throw new IllegalArgumentException("Need Customer email address");
+		
+		//housekeeping.. so that expired holds don't show up
+		deallocateExpiredReservations();
+		
+		return reservationService.findHolds(customerEmail);
+	}
+
+	@Override
+	public List<String> getConfirmationCodes(String customerEmail) {
+		//validation
+		if(customerEmail==null||customerEmail.length()==0) throw new IllegalArgumentException("Need Customer email address");
+		
+		return reservationService.findConfirmationCodes(customerEmail);
+	}
+
+	@Override
+	public SeatOwner findSeatOwner(int level, int rowNum, int seat) {
+		//housekeeping.. so that expired holds don't show up
+		deallocateExpiredReservations();
+		
+		//the fragment the seat is in, and whoever it was handed out to
+		RowFragment fragment = stadiumService.findFragment(level, rowNum, seat);
+		return (fragment==null)?null:reservationService.findOwner(fragment);
+	}
+
 	private void deallocateExpiredReservations() {
+		ExpirySweepEvent event = ExpirySweepEvent.start();
 		List<SeatHold> expiredHolds = reservationService.extractExpiredFragments();
 		if(expiredHolds.isEmpty())
 		{
 			// nothing to do.. scram
+			if(event!=null) event.commit();
 			return;
 		}
 		SortedSet<RowFragment> deallocatables = new TreeSet<RowFragment>();
@@ -135,7 +678,22 @@ public class TicketServiceImpl implements TicketService {
 		// deallocate the fragments.. please note that this 
 		// is a costly operation so should be avoided if possible
 		stadiumService.deallocate(deallocatables);
+		if(event!=null)
+		{
+			event.holdsExpired = expiredHolds.size();
+			event.fragmentsDeallocated = deallocatables.size();
+			event.commit();
+		}
 		
+		//the waitlist gets a turn at the seats that came free
+		serveWaitlist();
+	}
+
+	/**
+	 * holds seats for the customers on the waitlist, if there are any
+	 */
+	private void serveWaitlist() {
+		if(!waitlist.isEmpty()) waitlist.serve(stadiumService, reservationService, customerThrottle.maxSeatsHeld);
 	}
 
 }
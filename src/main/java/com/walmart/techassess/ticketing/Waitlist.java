@@ -0,0 +1,191 @@
+package com.walmart.techassess.ticketing;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.walmart.techassess.reservations.ReservationService;
+import com.walmart.techassess.reservations.SeatHold;
+import com.walmart.techassess.stadium.AllocationMode;
+import com.walmart.techassess.stadium.RowFragment;
+import com.walmart.techassess.stadium.StadiumService;
+
+/**
+ * Customers waiting for seats to come free in levels that are sold out
+ *
+ * Instead of polling the available seats and retrying holds, a customer joins the waitlist and gets a future.
+ * Whenever seats come free, because holds expired or seats were released, the ticket service serves the waitlist..
+ * the waiters are matched against the free seats in one pass, in the order they came, and a waiter whose seats
+ * are free gets a hold, which completes it's future. A waiter that needs more seats than are free stays where it
+ * is, so a smaller party behind it can be seated first. The seats that came free go back to the stadium before the
+ * pass, so a hold that comes in at the same time can get them before the waiters do
+ *
+ * A pass runs on the thread of the request that freed the seats, so it only looks at the first few waiters, and
+ * only one pass runs at a time.. a request that finds a pass running carries on, the running pass or the next one
+ * gets to the seats. A waiter isn't served if it's seats would take the customer over the quota of held seats
+ *
+ * A pass only takes the lock to copy the first waiters, and again to take the ones it served off the waitlist.. the
+ * seats are held in between, so customers joining the waitlist don't wait for the stadium. The futures are completed
+ * after the pass is done, outside the lock, so whatever the customers chain on them doesn't hold up the waitlist. A customer leaves the waitlist by cancelling the future. If the future is
+ * cancelled while it's seats are being held, the hold is kept, and expires like any other
+ *
+ * Thread-safe
+ *
+ */
+class Waitlist {
+
+	/**
+	 * a customer waiting for seats
+	 */
+	static class Waiter {
+		final int numSeats;
+		final int startLevel, endLevel;
+		final String customerEmail;
+		final CompletableFuture<SeatHold> hold = new CompletableFuture<SeatHold>();
+
+		Waiter(int numSeats, int startLevel, int endLevel, String customerEmail) {
+			this.numSeats = numSeats;
+			this.startLevel = startLevel;
+			this.endLevel = endLevel;
+			this.customerEmail = customerEmail;
+		}
+	}
+
+	// the most waiters a pass looks at
+	static final int MAX_WAITERS_PER_PASS = 64;
+	// the most customers that can wait at a time
+	final int maxWaiters;
+	// the waiters, in the order they came
+	final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+	// the number of waiters.. lets the sweeps skip the waitlist without taking the lock
+	volatile int size;
+	// set while a pass is running
+	final AtomicBoolean serving = new AtomicBoolean();
+
+	Waitlist(int maxWaiters) {
+		super();
+		assert maxWaiters>0;
+		this.maxWaiters = maxWaiters;
+	}
+
+	/**
+	 * puts a customer at the end of the waitlist
+	 * @param numSeats
+	 * @param startLevel
+	 * @param endLevel
+	 * @param customerEmail
+	 * @return the waiter
+	 * @throws ThrottledException if the waitlist is full
+	 */
+	synchronized Waiter add(int numSeats, int startLevel, int endLevel, String customerEmail) {
+		if(waiters.size()>=maxWaiters)
+		{
+			// make room from the waiters that left, if the passes haven't got to them yet
+			for(Iterator<Waiter> it = waiters.iterator(); it.hasNext();)
+			{
+				if(it.next().hold.isDone()) it.remove();
+			}
+			if(waiters.size()>=maxWaiters) throw new ThrottledException("The waitlist is full, please try again later");
+		}
+		Waiter waiter = new Waiter(numSeats, startLevel, endLevel, customerEmail);
+		waiters.add(waiter);
+		size = waiters.size();
+		return waiter;
+	}
+
+	boolean isEmpty() {
+		return size==0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * holds seats for the first waiters whose seats are free.. unless another pass is running
+	 * @param stadiumService
+	 * @param reservationService
+	 * @param maxSeatsHeld - the most seats a customer can hold
+	 * @return the number of waiters that got a hold
+	 */
+	int serve(StadiumService stadiumService, ReservationService reservationService, int maxSeatsHeld) {
+		if(!serving.compareAndSet(false, true)) return 0;
+		List<Waiter> served = new ArrayList<Waiter>();
+		List<SeatHold> holds = new ArrayList<SeatHold>();
+		try
+		{
+			// the seats are held outside the lock, so customers can join while the pass runs.. the waiters of
+			// the batch stay on the waitlist till they are served, and only this pass takes them off
+			for(Waiter waiter: nextWaiters())
+			{
+				if(stadiumService.numSeatsAvailable(waiter.startLevel, waiter.endLevel)<waiter.numSeats) continue;
+				// the customer might have got other seats while waiting
+				if((long)reservationService.numSeatsHeld(waiter.customerEmail)+waiter.numSeats>maxSeatsHeld) continue;
+				SortedSet<RowFragment> allocated;
+				try
+				{
+					allocated = stadiumService.allocate(waiter.numSeats, waiter.startLevel, waiter.endLevel, AllocationMode.BEST_AVAILABLE);
+				}
+				catch(IllegalArgumentException e)
+				{
+					// the rows are checked out by another request, or someone got there first.. next time
+					continue;
+				}
+				holds.add(reservationService.addHold(allocated, waiter.customerEmail));
+				served.add(waiter);
+			}
+		}
+		finally
+		{
+			remove(served);
+			serving.set(false);
+		}
+		for(int i=0; i<served.size(); i++)
+		{
+			served.get(i).hold.complete(holds.get(i));
+		}
+		return served.size();
+	}
+
+	/**
+	 * the first waiters that are still waiting.. the ones that left on the way are taken off
+	 * @return at most {@link #MAX_WAITERS_PER_PASS} waiters, in the order they came
+	 */
+	private synchronized List<Waiter> nextWaiters() {
+		List<Waiter> batch = new ArrayList<Waiter>();
+		for(Iterator<Waiter> it = waiters.iterator(); it.hasNext()&&batch.size()<MAX_WAITERS_PER_PASS;)
+		{
+			Waiter waiter = it.next();
+			if(waiter.hold.isDone())
+			{
+				// left the waitlist
+				it.remove();
+				continue;
+			}
+			batch.add(waiter);
+		}
+		size = waiters.size();
+		return batch;
+	}
+
+	/**
+	 * takes the waiters that were served off the waitlist.. they are near the front
+	 * @param served
+	 */
+	private synchronized void remove(List<Waiter> served) {
+		int numLeft = served.size();
+		for(Iterator<Waiter> it = waiters.iterator(); it.hasNext()&&numLeft>0;)
+		{
+			if(served.contains(it.next()))
+			{
+				it.remove();
+				numLeft--;
+			}
+		}
+		size = waiters.size();
+	}
+}
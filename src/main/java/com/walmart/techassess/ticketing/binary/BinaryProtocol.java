@@ -0,0 +1,165 @@
+package com.walmart.techassess.ticketing.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.walmart.techassess.stadium.RowFragment;
+
+/**
+ * The binary protocol spoken by the box office terminals
+ *
+ * Every message is a frame. A frame starts with it's length, so the reader knows when it has the whole frame
+ * <pre>
+ * request  : int length | int requestId | byte opcode | payload
+ * response : int length | int requestId | byte status | payload
+ * </pre>
+ * The length counts the bytes after the length itself. Numbers are big endian. A string is a short length
+ * followed by it's UTF-8 bytes. Levels that are not given are sent as {@link #NO_LEVEL}
+ *
+ * The requests and the payload of their responses, when the status is {@link #OK}, are
+ * <pre>
+ * NUM_SEATS_AVAILABLE : int minLevel | int maxLevel                                        -&gt; int numSeats
+ * FIND_AND_HOLD       : int numSeats | int minLevel | int maxLevel | byte mode | string email -&gt; hold
+ * RESERVE             : int seatHoldId | string email                                     -&gt; string confirmationCode
+ * GET_RESERVATION     : string confirmationCode                                           -&gt; seats
+ *
+ * hold  : int seatHoldId | long timestampHold | long timestampExpiry | seats
+ * seats : short count | count x (short level | short row | short startSeat | short endSeat)
+ * </pre>
+ * The seats are shorts, so a venue with more than 32767 levels, rows or seats in a row can't be served.. a hold on
+ * such seats fails with {@link #ERROR} instead of sending the wrong seats, and the hold is left to expire
+ * Any other status comes with a string that explains what went wrong
+ *
+ * A connection can have many requests in flight. The responses come back in the order of the requests
+ *
+ */
+public final class BinaryProtocol {
+
+	// opcodes
+	public static final byte NUM_SEATS_AVAILABLE = 1;
+	public static final byte FIND_AND_HOLD = 2;
+	public static final byte RESERVE = 3;
+	public static final byte GET_RESERVATION = 4;
+
+	// statuses
+	public static final byte OK = 0;
+	public static final byte INVALID = 1;
+	public static final byte HOLD_EXPIRED = 2;
+	public static final byte THROTTLED = 3;
+	public static final byte NOT_FOUND = 4;
+	public static final byte ERROR = 5;
+
+	// the length, the request ID and the opcode or status
+	public static final int HEADER_SIZE = 4+4+1;
+	// the largest frame either side will accept
+	public static final int MAX_FRAME_SIZE = 32*1024;
+	// the bytes of one fragment in the seats of a response
+	static final int FRAGMENT_SIZE = 2+2+2+2;
+	// a level that's not given.. 0 is a level like any other
+	public static final int NO_LEVEL = Integer.MIN_VALUE;
+
+	private BinaryProtocol() {
+	}
+
+	/**
+	 * writes a string as a short length and it's UTF-8 bytes
+	 * @param buffer
+	 * @param value
+	 */
+	public static void putString(ByteBuffer buffer, String value) {
+		int lengthAt = buffer.position();
+		buffer.putShort((short)0);
+		for(int i=0; i<value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if(c<0x80)
+			{
+				buffer.put((byte)c);
+			}
+			else if(c<0x800)
+			{
+				buffer.put((byte)(0xc0|(c>>>6)));
+				buffer.put((byte)(0x80|(c&0x3f)));
+			}
+			else if(Character.isHighSurrogate(c)&&i+1<value.length()&&Character.isLowSurrogate(value.charAt(i+1)))
+			{
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte)(0xf0|(codePoint>>>18)));
+				buffer.put((byte)(0x80|((codePoint>>>12)&0x3f)));
+				buffer.put((byte)(0x80|((codePoint>>>6)&0x3f)));
+				buffer.put((byte)(0x80|(codePoint&0x3f)));
+			}
+			else
+			{
+				buffer.put((byte)(0xe0|(c>>>12)));
+				buffer.put((byte)(0x80|((c>>>6)&0x3f)));
+				buffer.put((byte)(0x80|(c&0x3f)));
+			}
+		}
+		int length = buffer.position()-lengthAt-2;
+		if(length>Short.MAX_VALUE) throw new IllegalArgumentException("String too long");
+		buffer.putShort(lengthAt, (short)length);
+	}
+
+	/**
+	 * reads a string written by {@link #putString(ByteBuffer, String)}
+	 * @param buffer
+	 * @return
+	 */
+	public static String getString(ByteBuffer buffer) {
+		int length = buffer.getShort();
+		if(length<0||length>buffer.remaining()) throw new IllegalArgumentException("Bad string length "+length);
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * writes a fragment straight from it's fields
+	 * @param buffer
+	 * @param fragment
+	 */
+	public static void putFragment(ByteBuffer buffer, RowFragment fragment) {
+		buffer.putShort(toShort(fragment.getLevel()));
+		buffer.putShort(toShort(fragment.getRowNum()));
+		buffer.putShort(toShort(fragment.getStartSeat()));
+		buffer.putShort(toShort(fragment.getEndSeat()));
+	}
+
+	/**
+	 * @param value
+	 * @return
+	 * @throws ArithmeticException if the value doesn't fit in a short
+	 */
+	static short toShort(int value) {
+		if(value<Short.MIN_VALUE||value>Short.MAX_VALUE) throw new ArithmeticException(value+" doesn't fit in the protocol");
+		return (short)value;
+	}
+
+	public static RowFragment getFragment(ByteBuffer buffer) {
+		int level = buffer.getShort();
+		int rowNum = buffer.getShort();
+		int startSeat = buffer.getShort();
+		int endSeat = buffer.getShort();
+		return new RowFragment(level, rowNum, startSeat, endSeat);
+	}
+
+	/**
+	 * starts a frame.. the length is filled in by {@link #endFrame(ByteBuffer, int)}
+	 * @param buffer
+	 * @param requestId
+	 * @param opcodeOrStatus
+	 * @return the position of the frame, to be passed to endFrame
+	 */
+	public static int beginFrame(ByteBuffer buffer, int requestId, byte opcodeOrStatus) {
+		int frameAt = buffer.position();
+		buffer.putInt(0);
+		buffer.putInt(requestId);
+		buffer.put(opcodeOrStatus);
+		return frameAt;
+	}
+
+	public static void endFrame(ByteBuffer buffer, int frameAt) {
+		buffer.putInt(frameAt, buffer.position()-frameAt-4);
+	}
+}
@@ -0,0 +1,38 @@
+package com.walmart.techassess.ticketing.binary;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of direct buffers of the same size
+ *
+ * Direct buffers are expensive to create and are only freed when the GC gets around to it, so the buffers of
+ * closed connections are kept for the next connections. The pool keeps at most a given number of buffers..
+ * the rest are left to the GC
+ *
+ * Not thread-safe.. every selector thread has it's own pool
+ *
+ */
+class BufferPool {
+
+	final int bufferSize;
+	final int maxPooled;
+	final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<ByteBuffer>();
+
+	BufferPool(int bufferSize, int maxPooled) {
+		assert bufferSize>0;
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.pollFirst();
+		return (buffer!=null)?buffer:ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	void release(ByteBuffer buffer) {
+		assert buffer.isDirect()&&buffer.capacity()==bufferSize;
+		buffer.clear();
+		if(buffers.size()<maxPooled) buffers.addFirst(buffer);
+	}
+}
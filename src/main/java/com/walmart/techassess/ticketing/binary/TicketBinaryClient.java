@@ -0,0 +1,294 @@
+package com.walmart.techassess.ticketing.binary;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.walmart.techassess.reservations.HoldExpiredException;
+import com.walmart.techassess.reservations.SeatHold;
+import com.walmart.techassess.stadium.AllocationMode;
+import com.walmart.techassess.stadium.RowFragment;
+import com.walmart.techassess.ticketing.ThrottledException;
+
+/**
+ * A client of the {@link BinaryProtocol}, for a box office terminal
+ *
+ * The request methods only put the request in the send buffer and return it's ID. {@link #flush()} sends all the
+ * requests at once, and {@link #readResponse()} reads the responses one by one, in the order of the requests.
+ * So a terminal can pipeline a batch of requests. The blocking methods, like {@link #findAndHoldSeats}, do all
+ * three for a single request, and turn a failure into the same exception the ticket service throws
+ *
+ * Not thread-safe.. every terminal has it's own client
+ *
+ */
+public class TicketBinaryClient implements Closeable {
+
+	/**
+	 * A response of the server.. what's in it depends on the request
+	 */
+	public static class Response {
+		final int requestId;
+		final byte opcode;
+		final byte status;
+		int numSeats;
+		SeatHold hold;
+		String confirmationCode;
+		SortedSet<RowFragment> seats;
+		String error;
+
+		Response(int requestId, byte opcode, byte status) {
+			this.requestId = requestId;
+			this.opcode = opcode;
+			this.status = status;
+		}
+
+		public int getRequestId() {
+			return requestId;
+		}
+
+		public byte getOpcode() {
+			return opcode;
+		}
+
+		public byte getStatus() {
+			return status;
+		}
+
+		public boolean isOk() {
+			return status==BinaryProtocol.OK;
+		}
+
+		/**
+		 * the number of seats available
+		 */
+		public int getNumSeats() {
+			return numSeats;
+		}
+
+		public SeatHold getHold() {
+			return hold;
+		}
+
+		public String getConfirmationCode() {
+			return confirmationCode;
+		}
+
+		/**
+		 * the seats of a reservation
+		 */
+		public SortedSet<RowFragment> getSeats() {
+			return seats;
+		}
+
+		public String getError() {
+			return error;
+		}
+	}
+
+	final SocketChannel channel;
+	final ByteBuffer out = ByteBuffer.allocateDirect(2*BinaryProtocol.MAX_FRAME_SIZE);
+	final ByteBuffer in = ByteBuffer.allocateDirect(2*BinaryProtocol.MAX_FRAME_SIZE);
+	// the opcodes of the requests that haven't been answered, oldest first
+	final ArrayDeque<Byte> pending = new ArrayDeque<Byte>();
+	// the email of the hold requests that haven't been answered, needed to build the holds
+	final ArrayDeque<String> pendingEmails = new ArrayDeque<String>();
+	int nextRequestId;
+
+	/**
+	 * Constructor.. connects to the server
+	 * @param address
+	 * @throws IOException
+	 */
+	public TicketBinaryClient(InetSocketAddress address) throws IOException {
+		this.channel = SocketChannel.open(address);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		in.flip();
+	}
+
+	public int requestNumSeatsAvailable(Optional<Integer> minLevel, Optional<Integer> maxLevel) throws IOException {
+		int requestId = begin(BinaryProtocol.NUM_SEATS_AVAILABLE);
+		int frameAt = BinaryProtocol.beginFrame(out, requestId, BinaryProtocol.NUM_SEATS_AVAILABLE);
+		out.putInt(minLevel.orElse(BinaryProtocol.NO_LEVEL));
+		out.putInt(maxLevel.orElse(BinaryProtocol.NO_LEVEL));
+		BinaryProtocol.endFrame(out, frameAt);
+		return requestId;
+	}
+
+	public int requestHold(int numSeats, Optional<Integer> minLevel, Optional<Integer> maxLevel, String customerEmail, AllocationMode mode) throws IOException {
+		int requestId = begin(BinaryProtocol.FIND_AND_HOLD);
+		int frameAt = BinaryProtocol.beginFrame(out, requestId, BinaryProtocol.FIND_AND_HOLD);
+		out.putInt(numSeats);
+		out.putInt(minLevel.orElse(BinaryProtocol.NO_LEVEL));
+		out.putInt(maxLevel.orElse(BinaryProtocol.NO_LEVEL));
+		out.put((byte)mode.ordinal());
+		BinaryProtocol.putString(out, customerEmail);
+		BinaryProtocol.endFrame(out, frameAt);
+		pendingEmails.addLast(customerEmail);
+		return requestId;
+	}
+
+	public int requestReserve(int seatHoldId, String customerEmail) throws IOException {
+		int requestId = begin(BinaryProtocol.RESERVE);
+		int frameAt = BinaryProtocol.beginFrame(out, requestId, BinaryProtocol.RESERVE);
+		out.putInt(seatHoldId);
+		BinaryProtocol.putString(out, customerEmail);
+		BinaryProtocol.endFrame(out, frameAt);
+		return requestId;
+	}
+
+	public int requestReservation(String confirmationCode) throws IOException {
+		int requestId = begin(BinaryProtocol.GET_RESERVATION);
+		int frameAt = BinaryProtocol.beginFrame(out, requestId, BinaryProtocol.GET_RESERVATION);
+		BinaryProtocol.putString(out, confirmationCode);
+		BinaryProtocol.endFrame(out, frameAt);
+		return requestId;
+	}
+
+	/**
+	 * sends the requests that have been queued
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		out.flip();
+		while(out.hasRemaining()) channel.write(out);
+		out.clear();
+	}
+
+	/**
+	 * waits for the response of the oldest request that hasn't been answered
+	 * @return
+	 * @throws IOException
+	 */
+	public Response readResponse() throws IOException {
+		if(pending.isEmpty()) throw new IllegalStateException("No requests waiting for a response");
+		fill(4);
+		int length = in.getInt(in.position());
+		if(length<BinaryProtocol.HEADER_SIZE-4||length>BinaryProtocol.MAX_FRAME_SIZE-4) throw new IOException("Bad frame length "+length);
+		fill(4+length);
+		int frameEnd = in.position()+4+length;
+		in.getInt();
+		byte opcode = pending.pollFirst();
+		String email = (opcode==BinaryProtocol.FIND_AND_HOLD)?pendingEmails.pollFirst():null;
+		Response response = new Response(in.getInt(), opcode, in.get());
+		if(!response.isOk())
+		{
+			response.error = BinaryProtocol.getString(in);
+		}
+		else
+		{
+			switch(opcode)
+			{
+			case BinaryProtocol.NUM_SEATS_AVAILABLE:
+				response.numSeats = in.getInt();
+				break;
+			case BinaryProtocol.FIND_AND_HOLD:
+				int seatHoldId = in.getInt();
+				long timestampHold = in.getLong();
+				long timestampExpiry = in.getLong();
+				response.hold = new SeatHold(seatHoldId, email, getSeats(), timestampHold, timestampExpiry);
+				break;
+			case BinaryProtocol.RESERVE:
+				response.confirmationCode = BinaryProtocol.getString(in);
+				break;
+			case BinaryProtocol.GET_RESERVATION:
+				response.seats = getSeats();
+				break;
+			}
+		}
+		in.position(frameEnd);
+		return response;
+	}
+
+	public int numSeatsAvailable(Optional<Integer> minLevel, Optional<Integer> maxLevel) throws IOException {
+		requestNumSeatsAvailable(minLevel, maxLevel);
+		flush();
+		return check(readResponse(), 0).numSeats;
+	}
+
+	public SeatHold findAndHoldSeats(int numSeats, Optional<Integer> minLevel, Optional<Integer> maxLevel, String customerEmail, AllocationMode mode) throws IOException {
+		requestHold(numSeats, minLevel, maxLevel, customerEmail, mode);
+		flush();
+		return check(readResponse(), 0).hold;
+	}
+
+	public String reserveSeats(int seatHoldId, String customerEmail) throws IOException {
+		requestReserve(seatHoldId, customerEmail);
+		flush();
+		return check(readResponse(), seatHoldId).confirmationCode;
+	}
+
+	/**
+	 * @param confirmationCode
+	 * @return null if there is no reservation with the confirmation code
+	 * @throws IOException
+	 */
+	public SortedSet<RowFragment> getReservation(String confirmationCode) throws IOException {
+		requestReservation(confirmationCode);
+		flush();
+		Response response = readResponse();
+		if(response.status==BinaryProtocol.NOT_FOUND) return null;
+		return check(response, 0).seats;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private int begin(byte opcode) throws IOException {
+		if(out.remaining()<BinaryProtocol.MAX_FRAME_SIZE)
+		{
+			// no room for another request.. send what we have
+			flush();
+		}
+		pending.addLast(opcode);
+		return nextRequestId++;
+	}
+
+	/**
+	 * reads until the given number of bytes are in the read buffer
+	 */
+	private void fill(int numBytes) throws IOException {
+		if(in.remaining()>=numBytes) return;
+		in.compact();
+		while(in.position()<numBytes)
+		{
+			if(channel.read(in)<0) throw new EOFException("Server closed the connection");
+		}
+		in.flip();
+	}
+
+	private SortedSet<RowFragment> getSeats() {
+		SortedSet<RowFragment> seats = new TreeSet<RowFragment>();
+		int count = in.getShort();
+		for(int i=0; i<count; i++) seats.add(BinaryProtocol.getFragment(in));
+		return seats;
+	}
+
+	/**
+	 * turns a failure into the exception the ticket service would have thrown
+	 */
+	private static Response check(Response response, int seatHoldId) {
+		switch(response.status)
+		{
+		case BinaryProtocol.OK:
+			return response;
+		case BinaryProtocol.HOLD_EXPIRED:
+			throw new HoldExpiredException(seatHoldId);
+		case BinaryProtocol.THROTTLED:
+			throw new ThrottledException(response.error);
+		case BinaryProtocol.INVALID:
+			throw new IllegalArgumentException(response.error);
+		default:
+			throw new IllegalStateException(response.error);
+		}
+	}
+}
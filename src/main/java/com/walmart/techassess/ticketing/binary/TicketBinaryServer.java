@@ -0,0 +1,590 @@
+package com.walmart.techassess.ticketing.binary;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.walmart.techassess.reservations.HoldExpiredException;
+import com.walmart.techassess.reservations.Reservation;
+import com.walmart.techassess.reservations.SeatHold;
+import com.walmart.techassess.stadium.AllocationMode;
+import com.walmart.techassess.stadium.RowFragment;
+import com.walmart.techassess.ticketing.ThrottledException;
+import com.walmart.techassess.ticketing.TicketService;
+
+/**
+ * Serves the {@link BinaryProtocol} on non blocking sockets, for the box office terminals and kiosks
+ *
+ * The server runs a few selector threads. The first one also accepts the connections, and hands them out to
+ * the selector threads in turn. A selector thread reads whatever has arrived on a connection, queues every
+ * complete request in it, and writes the responses back. So a terminal can send many requests without
+ * waiting for the responses (pipelining), and they are answered with as few writes as possible
+ *
+ * The requests are handled by a pool of worker threads, not by the selector threads. A request can take the
+ * locks of a level, like when it sweeps expired holds, and a selector thread that waits for a lock holds up
+ * every connection it serves. The requests of a connection are handled by one worker at a time, in the order
+ * they came, so the responses come back in the order of the requests
+ *
+ * Every connection has a direct buffer for what it reads and one for what it writes, from a pool of the selector
+ * thread. A worker encodes a response into a buffer of it's own, and copies it into the write buffer. When a
+ * terminal doesn't read it's responses, the workers stop handling it's requests until the write buffer drains,
+ * and the selector stops reading once {@link #MAX_QUEUED} requests are waiting
+ *
+ * Only the selector thread of a connection touches it's selection key and read buffer. A worker hands a connection
+ * back to it's selector thread once it's done with the requests, to write the responses and read some more
+ *
+ */
+public class TicketBinaryServer {
+
+	// the size of the buffers of a connection.. a read buffer always has room for a whole frame, and the
+	// write buffer always has room for a whole response before a request is handled
+	static final int BUFFER_SIZE = 2*BinaryProtocol.MAX_FRAME_SIZE;
+	// the buffers kept around by each selector thread
+	static final int MAX_POOLED_BUFFERS = 256;
+	// the most requests of a connection that wait for a worker.. the rest wait in the read buffer
+	static final int MAX_QUEUED = 64;
+	// the worker threads when they are not given
+	static final int DEFAULT_WORKERS = 8;
+
+	static final Logger LOG = Logger.getLogger(TicketBinaryServer.class.getName());
+
+	final TicketService ticketService;
+	final ServerSocketChannel serverChannel;
+	final SelectorLoop[] loops;
+	final Thread[] threads;
+	final ExecutorService workers;
+	// the buffer each worker encodes it's responses into
+	final ThreadLocal<ByteBuffer> responses = new ThreadLocal<ByteBuffer>() {
+
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(BinaryProtocol.MAX_FRAME_SIZE);
+		}
+	};
+	// the selector loop that gets the next connection
+	int nextLoop;
+	volatile boolean running;
+
+	/**
+	 * Constructor.. the server doesn't accept connections until it's started
+	 * @param ticketService
+	 * @param address - port 0 picks a free port
+	 * @param numSelectors - the number of selector threads
+	 * @throws IOException if the server can't bind to the address
+	 */
+	public TicketBinaryServer(TicketService ticketService, InetSocketAddress address, int numSelectors) throws IOException {
+		this(ticketService, address, numSelectors, DEFAULT_WORKERS);
+	}
+
+	/**
+	 * Constructor.. the server doesn't accept connections until it's started
+	 * @param ticketService
+	 * @param address - port 0 picks a free port
+	 * @param numSelectors - the number of selector threads
+	 * @param numWorkers - the number of threads that handle the requests
+	 * @throws IOException if the server can't bind to the address
+	 */
+	public TicketBinaryServer(TicketService ticketService, InetSocketAddress address, int numSelectors, int numWorkers) throws IOException {
+		super();
+		assert ticketService!=null;
+		assert numSelectors>0;
+		assert numWorkers>0;
+		this.ticketService = ticketService;
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(numWorkers, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ticket-binary-worker-"+threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(address);
+		serverChannel.configureBlocking(false);
+		this.loops = new SelectorLoop[numSelectors];
+		this.threads = new Thread[numSelectors];
+		for(int i=0; i<numSelectors; i++)
+		{
+			loops[i] = new SelectorLoop();
+		}
+		serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+	}
+
+	public void start() {
+		running = true;
+		for(int i=0; i<loops.length; i++)
+		{
+			threads[i] = new Thread(loops[i], "ticket-binary-"+i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+	}
+
+	/**
+	 * closes all the connections and waits for the selector threads to stop
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException {
+		running = false;
+		for(SelectorLoop loop: loops) loop.selector.wakeup();
+		for(Thread thread: threads)
+		{
+			if(thread!=null) thread.join();
+		}
+		workers.shutdown();
+		try
+		{
+			serverChannel.close();
+		}
+		catch(IOException e)
+		{
+			// nothing left to do with it
+		}
+	}
+
+	/**
+	 * the port the server listens on.. useful when it was created on port 0
+	 * @return
+	 * @throws IOException
+	 */
+	public int getPort() throws IOException {
+		return ((InetSocketAddress)serverChannel.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * the state of a connection
+	 * The write buffer is shared by the selector thread and the worker, and is only touched under the connection's
+	 * lock. The rest belongs to the selector thread, but for the queue of requests
+	 */
+	class Connection implements Runnable {
+		final SelectorLoop loop;
+		final SocketChannel channel;
+		final ByteBuffer in;
+		final ByteBuffer out;
+		SelectionKey key;
+		// the requests that were read and not handled yet, in order.. the frames without their length
+		final Queue<ByteBuffer> requests = new ConcurrentLinkedQueue<ByteBuffer>();
+		final AtomicInteger numQueued = new AtomicInteger();
+		// set while a worker handles the requests.. only one at a time
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		// set when a request is waiting for room in the write buffer
+		volatile boolean stalled;
+		// set once the buffers have gone back to the pool
+		boolean closed;
+
+		Connection(SelectorLoop loop, SocketChannel channel, ByteBuffer in, ByteBuffer out) {
+			this.loop = loop;
+			this.channel = channel;
+			this.in = in;
+			this.out = out;
+		}
+
+		/**
+		 * gets a worker to handle the requests, unless one is at it, or the responses have to drain first
+		 */
+		void schedule() {
+			if(!stalled&&!requests.isEmpty()&&scheduled.compareAndSet(false, true)) workers.execute(this);
+		}
+
+		/**
+		 * handles the queued requests, on a worker
+		 */
+		@Override
+		public void run() {
+			ByteBuffer response = responses.get();
+			ByteBuffer request;
+			while((request = requests.peek())!=null)
+			{
+				synchronized(this)
+				{
+					if(closed) return;
+					if(out.remaining()<BinaryProtocol.MAX_FRAME_SIZE)
+					{
+						// wait for the responses to drain
+						stalled = true;
+						break;
+					}
+				}
+				requests.poll();
+				numQueued.decrementAndGet();
+				response.clear();
+				handleRequest(request.getInt(), request.get(), request, response);
+				response.flip();
+				synchronized(this)
+				{
+					if(closed) return;
+					out.put(response);
+				}
+			}
+			scheduled.set(false);
+			// back to the selector thread, to write the responses, and to read what was left unread
+			loop.ready.add(this);
+			loop.selector.wakeup();
+		}
+	}
+
+	/**
+	 * a selector thread and the connections it serves
+	 */
+	class SelectorLoop implements Runnable {
+
+		final Selector selector;
+		final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+		// connections accepted by the first loop for this loop
+		final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<SocketChannel>();
+		// connections a worker is done with
+		final Queue<Connection> ready = new ConcurrentLinkedQueue<Connection>();
+
+		SelectorLoop() throws IOException {
+			this.selector = Selector.open();
+		}
+
+		@Override
+		public void run() {
+			try
+			{
+				while(running)
+				{
+					selector.select();
+					registerAccepted();
+					handleReady();
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while(keys.hasNext())
+					{
+						SelectionKey key = keys.next();
+						keys.remove();
+						if(!key.isValid()) continue;
+						if(key.isAcceptable())
+						{
+							accept();
+							continue;
+						}
+						Connection connection = (Connection)key.attachment();
+						try
+						{
+							if(key.isReadable()) read(key, connection);
+							if(key.isValid()&&key.isWritable()) write(key, connection);
+						}
+						catch(IOException e)
+						{
+							// the terminal went away
+							close(key, connection);
+						}
+					}
+				}
+			}
+			catch(IOException e)
+			{
+				throw new IllegalStateException("Selector failed", e);
+			}
+			finally
+			{
+				for(SelectionKey key: new ArrayList<SelectionKey>(selector.keys()))
+				{
+					if(key.attachment() instanceof Connection) close(key, (Connection)key.attachment());
+				}
+				try
+				{
+					selector.close();
+				}
+				catch(IOException e)
+				{
+					// nothing left to do with it
+				}
+			}
+		}
+
+		private void accept() throws IOException {
+			SocketChannel channel;
+			while((channel = serverChannel.accept())!=null)
+			{
+				channel.configureBlocking(false);
+				// the responses are small.. don't let them wait for more data to fill a packet
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				SelectorLoop loop = loops[nextLoop];
+				nextLoop = (nextLoop+1)%loops.length;
+				if(loop==this)
+				{
+					register(channel);
+				}
+				else
+				{
+					loop.accepted.add(channel);
+					loop.selector.wakeup();
+				}
+			}
+		}
+
+		private void registerAccepted() throws IOException {
+			SocketChannel channel;
+			while((channel = accepted.poll())!=null) register(channel);
+		}
+
+		private void register(SocketChannel channel) throws IOException {
+			Connection connection = new Connection(this, channel, bufferPool.acquire(), bufferPool.acquire());
+			connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		}
+
+		/**
+		 * writes the responses of the connections the workers are done with
+		 */
+		private void handleReady() {
+			Connection connection;
+			while((connection = ready.poll())!=null)
+			{
+				if(!connection.key.isValid()) continue;
+				try
+				{
+					if(!queueRequests(connection))
+					{
+						close(connection.key, connection);
+						continue;
+					}
+					write(connection.key, connection);
+				}
+				catch(IOException e)
+				{
+					// the terminal went away
+					close(connection.key, connection);
+				}
+			}
+		}
+
+		private void read(SelectionKey key, Connection connection) throws IOException {
+			if(connection.channel.read(connection.in)<0)
+			{
+				close(key, connection);
+				return;
+			}
+			if(!queueRequests(connection))
+			{
+				close(key, connection);
+				return;
+			}
+			write(key, connection);
+		}
+
+		private void write(SelectionKey key, Connection connection) throws IOException {
+			boolean pending;
+			synchronized(connection)
+			{
+				ByteBuffer out = connection.out;
+				out.flip();
+				connection.channel.write(out);
+				out.compact();
+				pending = out.position()>0;
+				if(connection.stalled&&out.remaining()>=BinaryProtocol.MAX_FRAME_SIZE)
+				{
+					// there's room for the responses of the requests that are waiting
+					connection.stalled = false;
+					connection.schedule();
+				}
+			}
+			// stop reading while enough requests are waiting
+			int interest = (connection.numQueued.get()<MAX_QUEUED)?SelectionKey.OP_READ:0;
+			if(pending) interest|=SelectionKey.OP_WRITE;
+			key.interestOps(interest);
+		}
+
+		/**
+		 * queues the complete requests in the read buffer for a worker
+		 * @param connection
+		 * @return false if the terminal sent a frame that can't be right
+		 */
+		private boolean queueRequests(Connection connection) {
+			ByteBuffer in = connection.in;
+			in.flip();
+			try
+			{
+				while(in.remaining()>=4&&connection.numQueued.get()<MAX_QUEUED)
+				{
+					int length = in.getInt(in.position());
+					if(length<BinaryProtocol.HEADER_SIZE-4||length>BinaryProtocol.MAX_FRAME_SIZE-4) return false;
+					if(in.remaining()<4+length) break;
+					// the request ID, the opcode and the payload.. the request can't read past it's frame
+					byte[] frame = new byte[length];
+					in.position(in.position()+4);
+					in.get(frame);
+					connection.requests.add(ByteBuffer.wrap(frame));
+					connection.numQueued.incrementAndGet();
+				}
+				return true;
+			}
+			finally
+			{
+				in.compact();
+				connection.schedule();
+			}
+		}
+
+		private void close(SelectionKey key, Connection connection) {
+			key.cancel();
+			try
+			{
+				connection.channel.close();
+			}
+			catch(IOException e)
+			{
+				// closed anyway
+			}
+			// a worker might be at it's requests.. it checks before it writes
+			synchronized(connection)
+			{
+				if(connection.closed) return;
+				connection.closed = true;
+				bufferPool.release(connection.out);
+			}
+			bufferPool.release(connection.in);
+		}
+	}
+
+	/**
+	 * handles a request and writes the response
+	 * @param requestId
+	 * @param opcode
+	 * @param in - positioned at the payload, and limited to the frame
+	 * @param out - has room for a whole frame
+	 */
+	void handleRequest(int requestId, byte opcode, ByteBuffer in, ByteBuffer out) {
+		int frameAt = out.position();
+		try
+		{
+			switch(opcode)
+			{
+			case BinaryProtocol.NUM_SEATS_AVAILABLE:
+			{
+				int numSeats = ticketService.numSeatsAvailable(level(in.getInt()), level(in.getInt()));
+				BinaryProtocol.beginFrame(out, requestId, BinaryProtocol.OK);
+				out.putInt(numSeats);
+				break;
+			}
+			case BinaryProtocol.FIND_AND_HOLD:
+			{
+				int numSeats = in.getInt();
+				Optional<Integer> minLevel = level(in.getInt());
+				Optional<Integer> maxLevel = level(in.getInt());
+				AllocationMode mode = mode(in.get());
+				String email = BinaryProtocol.getString(in);
+				SeatHold hold = ticketService.findAndHoldSeats(numSeats, minLevel, maxLevel, email, mode);
+				BinaryProtocol.beginFrame(out, requestId, BinaryProtocol.OK);
+				out.putInt(hold.getSeatHoldId());
+				out.putLong(hold.getTimestampHold());
+				out.putLong(hold.getTimestampExpiry());
+				// the customer can give back seats of the hold while we are writing it out
+				synchronized(hold)
+				{
+					putSeats(out, hold.getReservation());
+				}
+				break;
+			}
+			case BinaryProtocol.RESERVE:
+			{
+				int seatHoldId = in.getInt();
+				String email = BinaryProtocol.getString(in);
+				String confirmationCode = ticketService.reserveSeats(seatHoldId, email);
+				BinaryProtocol.beginFrame(out, requestId, BinaryProtocol.OK);
+				BinaryProtocol.putString(out, confirmationCode);
+				break;
+			}
+			case BinaryProtocol.GET_RESERVATION:
+			{
+				Reservation reservation = ticketService.getReservation(BinaryProtocol.getString(in));
+				if(reservation==null)
+				{
+					error(out, requestId, BinaryProtocol.NOT_FOUND, "Unknown confirmation code");
+					return;
+				}
+				BinaryProtocol.beginFrame(out, requestId, BinaryProtocol.OK);
+				putSeats(out, reservation);
+				break;
+			}
+			default:
+				error(out, requestId, BinaryProtocol.INVALID, "Unknown opcode "+opcode);
+				return;
+			}
+			BinaryProtocol.endFrame(out, frameAt);
+		}
+		catch(BufferUnderflowException e)
+		{
+			out.position(frameAt);
+			error(out, requestId, BinaryProtocol.INVALID, "Request too short");
+		}
+		catch(BufferOverflowException e)
+		{
+			out.position(frameAt);
+			error(out, requestId, BinaryProtocol.ERROR, "Response too large");
+		}
+		catch(HoldExpiredException e)
+		{
+			out.position(frameAt);
+			error(out, requestId, BinaryProtocol.HOLD_EXPIRED, e.getMessage());
+		}
+		catch(ThrottledException e)
+		{
+			out.position(frameAt);
+			error(out, requestId, BinaryProtocol.THROTTLED, e.getMessage());
+		}
+		catch(IllegalArgumentException e)
+		{
+			// includes running out of seats
+			out.position(frameAt);
+			error(out, requestId, BinaryProtocol.INVALID, e.getMessage());
+		}
+		catch(RuntimeException e)
+		{
+			// the details are for us, not the terminal
+			LOG.log(Level.SEVERE, "Request "+requestId+" with opcode "+opcode+" failed", e);
+			out.position(frameAt);
+			error(out, requestId, BinaryProtocol.ERROR, "Internal error");
+		}
+	}
+
+	private static void putSeats(ByteBuffer out, Reservation reservation) {
+		int countAt = out.position();
+		out.putShort((short)0);
+		int count = 0;
+		for(RowFragment fragment: reservation.getRowsReserved())
+		{
+			BinaryProtocol.putFragment(out, fragment);
+			count++;
+		}
+		out.putShort(countAt, (short)count);
+	}
+
+	private static void error(ByteBuffer out, int requestId, byte status, String message) {
+		int frameAt = BinaryProtocol.beginFrame(out, requestId, status);
+		BinaryProtocol.putString(out, (message!=null)?message:"");
+		BinaryProtocol.endFrame(out, frameAt);
+	}
+
+	private static Optional<Integer> level(int level) {
+		return (level==BinaryProtocol.NO_LEVEL)?Optional.<Integer>empty():Optional.of(level);
+	}
+
+	private static AllocationMode mode(byte mode) {
+		AllocationMode[] modes = AllocationMode.values();
+		if(mode<0||mode>=modes.length) throw new IllegalArgumentException("Unknown allocation mode "+mode);
+		return modes[mode];
+	}
+}
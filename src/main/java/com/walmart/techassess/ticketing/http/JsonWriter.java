@@ -0,0 +1,233 @@
+package com.walmart.techassess.ticketing.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes JSON straight into an output stream
+ *
+ * Numbers and strings are encoded into a byte buffer as they are written, so writing a response doesn't build
+ * any intermediate strings. The buffer goes out to the stream when it fills up and when the writer is flushed.
+ * The writer keeps track of the commas, but doesn't check that the JSON is well formed.. the caller has to
+ * open and close the objects and arrays properly
+ *
+ * Not thread-safe
+ *
+ */
+public class JsonWriter {
+
+	private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+	private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+	private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+	private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+	// the deepest nesting the writer can keep track of
+	private static final int MAX_DEPTH = 32;
+
+	final OutputStream out;
+	final byte[] buffer;
+	int position;
+	// whether the object or array at each depth needs a comma before it's next element
+	final boolean[] needsComma = new boolean[MAX_DEPTH];
+	int depth;
+	// set right after a name, so the value that follows doesn't get a comma
+	boolean afterName;
+
+	/**
+	 * Constructor
+	 * @param out
+	 * @param bufferSize - the number of bytes to collect before writing to the stream
+	 */
+	public JsonWriter(OutputStream out, int bufferSize) {
+		assert out!=null;
+		assert bufferSize>=32;
+		this.out = out;
+		this.buffer = new byte[bufferSize];
+	}
+
+	public JsonWriter beginObject() throws IOException {
+		return open('{');
+	}
+
+	public JsonWriter endObject() throws IOException {
+		return close('}');
+	}
+
+	public JsonWriter beginArray() throws IOException {
+		return open('[');
+	}
+
+	public JsonWriter endArray() throws IOException {
+		return close(']');
+	}
+
+	/**
+	 * writes the name of the next member of an object
+	 * @param name - plain ASCII.. names are not escaped
+	 * @return
+	 */
+	public JsonWriter name(String name) throws IOException {
+		separate();
+		write('"');
+		for(int i=0; i<name.length(); i++) write((byte)name.charAt(i));
+		write('"');
+		write(':');
+		afterName = true;
+		return this;
+	}
+
+	public JsonWriter value(long value) throws IOException {
+		separate();
+		writeLong(value);
+		return this;
+	}
+
+	public JsonWriter value(boolean value) throws IOException {
+		separate();
+		write(value?TRUE:FALSE);
+		return this;
+	}
+
+	/**
+	 * writes a string, escaped and encoded in UTF-8
+	 * @param value - null is written as null
+	 * @return
+	 */
+	public JsonWriter value(CharSequence value) throws IOException {
+		separate();
+		if(value==null)
+		{
+			write(NULL);
+			return this;
+		}
+		write('"');
+		for(int i=0; i<value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if(c=='"'||c=='\\')
+			{
+				write('\\');
+				write((byte)c);
+			}
+			else if(c<0x20)
+			{
+				// control characters
+				write('\\');
+				write('u');
+				write('0');
+				write('0');
+				write(HEX[c>>>4]);
+				write(HEX[c&0xf]);
+			}
+			else if(c<0x80)
+			{
+				write((byte)c);
+			}
+			else if(c<0x800)
+			{
+				write((byte)(0xc0|(c>>>6)));
+				write((byte)(0x80|(c&0x3f)));
+			}
+			else if(Character.isHighSurrogate(c)&&i+1<value.length()&&Character.isLowSurrogate(value.charAt(i+1)))
+			{
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				write((byte)(0xf0|(codePoint>>>18)));
+				write((byte)(0x80|((codePoint>>>12)&0x3f)));
+				write((byte)(0x80|((codePoint>>>6)&0x3f)));
+				write((byte)(0x80|(codePoint&0x3f)));
+			}
+			else
+			{
+				write((byte)(0xe0|(c>>>12)));
+				write((byte)(0x80|((c>>>6)&0x3f)));
+				write((byte)(0x80|(c&0x3f)));
+			}
+		}
+		write('"');
+		return this;
+	}
+
+	/**
+	 * writes whatever is in the buffer to the stream
+	 */
+	public void flush() throws IOException {
+		if(position>0)
+		{
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+		out.flush();
+	}
+
+	private JsonWriter open(char bracket) throws IOException {
+		separate();
+		write((byte)bracket);
+		if(depth==MAX_DEPTH) throw new IllegalStateException("JSON nested too deep");
+		needsComma[depth++] = false;
+		return this;
+	}
+
+	private JsonWriter close(char bracket) throws IOException {
+		assert depth>0;
+		depth--;
+		write((byte)bracket);
+		return this;
+	}
+
+	/**
+	 * writes a comma if the value is not the first one in it's object or array
+	 */
+	private void separate() throws IOException {
+		if(afterName)
+		{
+			afterName = false;
+			return;
+		}
+		if(depth==0) return;
+		if(needsComma[depth-1]) write(',');
+		needsComma[depth-1] = true;
+	}
+
+	private void writeLong(long value) throws IOException {
+		if(value==Long.MIN_VALUE)
+		{
+			// can't be negated
+			writeLong(value/10);
+			write((byte)('0'+8));
+			return;
+		}
+		if(value<0)
+		{
+			write('-');
+			value = -value;
+		}
+		// the digits come out backwards.. count them first and fill them in from the end
+		int digits = 1;
+		for(long rest=value/10; rest>0; rest/=10) digits++;
+		if(buffer.length-position<digits) drain();
+		int end = position+digits;
+		for(int i=end-1; i>=position; i--)
+		{
+			buffer[i] = (byte)('0'+(value%10));
+			value/=10;
+		}
+		position = end;
+	}
+
+	private void write(char c) throws IOException {
+		write((byte)c);
+	}
+
+	private void write(byte b) throws IOException {
+		if(position==buffer.length) drain();
+		buffer[position++] = b;
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		for(byte b: bytes) write(b);
+	}
+
+	private void drain() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+	}
+}
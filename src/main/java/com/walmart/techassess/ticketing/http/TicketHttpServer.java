@@ -0,0 +1,534 @@
+package com.walmart.techassess.ticketing.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.walmart.techassess.reservations.HoldExpiredException;
+import com.walmart.techassess.reservations.Reservation;
+import com.walmart.techassess.reservations.ReservationServiceImpl;
+import com.walmart.techassess.reservations.SeatHold;
+import com.walmart.techassess.stadium.AllocationMode;
+import com.walmart.techassess.stadium.RowFragment;
+import com.walmart.techassess.stadium.StadiumServiceImpl;
+import com.walmart.techassess.ticketing.ThrottledException;
+import com.walmart.techassess.ticketing.TicketService;
+import com.walmart.techassess.ticketing.TicketServiceImpl;
+import com.walmart.techassess.ticketing.replay.ReplayEngine;
+import com.walmart.techassess.ticketing.replay.TraceRecorder;
+
+/**
+ * An embedded HTTP front end for a {@link TicketService}, built on the HTTP server that comes with the JDK
+ *
+ * The parameters go in the query string, or in a form encoded body for POSTs. Responses are JSON, and are
+ * streamed into the connection by a {@link JsonWriter}
+ * <pre>
+ * GET  /seats?level=1                                          {"numSeatsAvailable":..}
+ * GET  /seats?minLevel=1&amp;maxLevel=2                            {"numSeatsAvailable":..}
+ * POST /holds?numSeats=4&amp;email=..[&amp;minLevel=1&amp;maxLevel=2][&amp;mode=KEEP_TOGETHER]  the hold
+ * POST /holds?numSeats=4&amp;email=..&amp;maxPrice=80                   the hold
+ * POST /reservations?seatHoldId=7&amp;email=..                     {"confirmationCode":..}
+ * GET  /reservations/{confirmationCode}                        the reservation
+ * </pre>
+ * A hold or a reservation can carry an Idempotency-Key header. A client that retries with the same key gets the
+ * response of the first request, see {@link com.walmart.techassess.ticketing.IdempotencyCache}
+ * Failures come back as {"error":..} with the status
+ * - 400 for bad requests, and when there are not enough seats
+ * - 404 for unknown paths and reservations, 405 for the wrong method
+ * - 410 when the hold has expired
+ * - 429 when the customer is throttled
+ * - 500 for anything else.. the client gets a generic message, the exception is logged
+ * The paths have to match exactly, /seatsX is not /seats
+ *
+ * Every request runs on it's own virtual thread when the JDK has them, so a request that blocks doesn't hold up
+ * a platform thread. On older JDKs the requests run on a cached thread pool instead.
+ * The JDK server reads it's keep-alive settings from system properties when it's first used.. the server sets
+ * them to keep a good number of idle connections open for a while, unless they are set already
+ *
+ */
+public class TicketHttpServer {
+
+	// how long an idle connection is kept open, in seconds
+	static final int IDLE_SECONDS = 30;
+	// how many idle connections are kept open
+	static final int MAX_IDLE_CONNECTIONS = 1000;
+	// the responses are small.. this is enough to send most of them in one go
+	static final int RESPONSE_BUFFER_SIZE = 1024;
+	// the header with the idempotency key of a hold or a reservation
+	static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+	static final Logger LOG = Logger.getLogger(TicketHttpServer.class.getName());
+
+	final TicketService ticketService;
+	final ExecutorService executor;
+	final HttpServer server;
+
+	/**
+	 * Constructor.. the server doesn't accept connections until it's started
+	 * @param ticketService
+	 * @param address - port 0 picks a free port
+	 * @param backlog - the number of connections that can wait to be accepted, 0 for the system default
+	 * @throws IOException if the server can't bind to the address
+	 */
+	public TicketHttpServer(TicketService ticketService, InetSocketAddress address, int backlog) throws IOException {
+		super();
+		assert ticketService!=null;
+		this.ticketService = ticketService;
+		tuneKeepAlive();
+		this.executor = newExecutor();
+		this.server = HttpServer.create(address, backlog);
+		server.setExecutor(executor);
+		server.createContext("/seats", new JsonHandler("GET") {
+
+			@Override
+			void handle(Request request) throws IOException {
+				int numSeats;
+				if(request.params.containsKey("level"))
+				{
+					numSeats = ticketService.numSeatsAvailable(request.intParam("level"));
+				}
+				else
+				{
+					numSeats = ticketService.numSeatsAvailable(request.intParam("minLevel"), request.intParam("maxLevel"));
+				}
+				request.respond(200).beginObject().name("numSeatsAvailable").value(numSeats).endObject();
+			}
+		});
+		server.createContext("/holds", new JsonHandler("POST") {
+
+			@Override
+			void handle(Request request) throws IOException {
+				int numSeats = request.requiredIntParam("numSeats");
+				String email = request.params.get("email");
+				String idempotencyKey = request.exchange.getRequestHeaders().getFirst(IDEMPOTENCY_KEY);
+				SeatHold hold;
+				if(request.params.containsKey("maxPrice"))
+				{
+					hold = ticketService.findAndHoldSeats(numSeats, request.doubleParam("maxPrice"), email, idempotencyKey);
+				}
+				else
+				{
+					AllocationMode mode = request.params.containsKey("mode")?request.modeParam("mode"):AllocationMode.BEST_AVAILABLE;
+					hold = ticketService.findAndHoldSeats(numSeats, request.intParam("minLevel"), request.intParam("maxLevel"), email, mode, idempotencyKey);
+				}
+				writeHold(request.respond(200), hold);
+			}
+		});
+		server.createContext("/reservations", new JsonHandler(null) {
+
+			@Override
+			boolean matches(String path, String context) {
+				// the reservations, or one reservation by it's confirmation code
+				return super.matches(path, context)||(path.startsWith("/reservations/")&&path.indexOf('/', "/reservations/".length())<0
+						&&path.length()>"/reservations/".length());
+			}
+
+			@Override
+			void handle(Request request) throws IOException {
+				String path = request.exchange.getRequestURI().getPath();
+				if(path.startsWith("/reservations/"))
+				{
+					// look up a reservation
+					if(!"GET".equals(request.exchange.getRequestMethod()))
+					{
+						request.error(405, "Method not allowed");
+						return;
+					}
+					String confirmationCode = path.substring("/reservations/".length());
+					Reservation reservation = ticketService.getReservation(confirmationCode);
+					if(reservation==null)
+					{
+						request.error(404, "Unknown confirmation code");
+						return;
+					}
+					JsonWriter json = request.respond(200).beginObject();
+					json.name("confirmationCode").value(confirmationCode);
+					writeSeats(json, reservation);
+					json.endObject();
+					return;
+				}
+				// make a reservation
+				if(!"POST".equals(request.exchange.getRequestMethod()))
+				{
+					request.error(405, "Method not allowed");
+					return;
+				}
+				String confirmationCode = ticketService.reserveSeats(request.requiredIntParam("seatHoldId"), request.params.get("email"),
+						request.exchange.getRequestHeaders().getFirst(IDEMPOTENCY_KEY));
+				request.respond(200).beginObject().name("confirmationCode").value(confirmationCode).endObject();
+			}
+		});
+		server.createContext("/", new JsonHandler(null) {
+
+			@Override
+			boolean matches(String path, String context) {
+				// everything no other handler took
+				return true;
+			}
+
+			@Override
+			void handle(Request request) throws IOException {
+				request.error(404, "Not found");
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * stops accepting connections and waits for the requests in progress to finish
+	 * @param delaySeconds - the most to wait for the requests in progress
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdown();
+	}
+
+	/**
+	 * the port the server listens on.. useful when it was created on port 0
+	 * @return
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * sets the keep alive properties of the JDK server, unless they have been set on the command line
+	 * They are read once, when the first server is created, so this has to happen before that
+	 */
+	static void tuneKeepAlive() {
+		setIfAbsent("sun.net.httpserver.idleInterval", Integer.toString(IDLE_SECONDS));
+		setIfAbsent("sun.net.httpserver.maxIdleConnections", Integer.toString(MAX_IDLE_CONNECTIONS));
+		// the responses are small.. don't let them wait for more data to fill a packet
+		setIfAbsent("sun.net.httpserver.nodelay", "true");
+	}
+
+	private static void setIfAbsent(String property, String value) {
+		if(System.getProperty(property)==null) System.setProperty(property, value);
+	}
+
+	/**
+	 * creates a virtual thread per request executor if the JDK has one, or a cached thread pool
+	 * The virtual threads are looked up reflectively, so this compiles on JDKs that don't have them
+	 * @return
+	 */
+	static ExecutorService newExecutor() {
+		try
+		{
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)factory.invoke(null);
+		}
+		catch(ReflectiveOperationException|UnsupportedOperationException e)
+		{
+			// no virtual threads, or they are a preview feature that's not enabled
+			final AtomicInteger threadCount = new AtomicInteger();
+			return Executors.newCachedThreadPool(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ticket-http-"+threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	static void writeHold(JsonWriter json, SeatHold hold) throws IOException {
+		json.beginObject();
+		json.name("seatHoldId").value(hold.getSeatHoldId());
+		json.name("customerEmail").value(hold.getCustomerEmailAddress());
+		json.name("timestampHold").value(hold.getTimestampHold());
+		json.name("timestampExpiry").value(hold.getTimestampExpiry());
+		// the customer can give back seats of the hold while we are writing it out
+		synchronized(hold)
+		{
+			writeSeats(json, hold.getReservation());
+		}
+		json.endObject();
+	}
+
+	/**
+	 * writes the number of seats and the seats of a reservation as members of the current object
+	 * @param json
+	 * @param reservation
+	 * @throws IOException
+	 */
+	static void writeSeats(JsonWriter json, Reservation reservation) throws IOException {
+		json.name("numSeats").value(reservation.numSeats());
+		json.name("seats").beginArray();
+		for(RowFragment fragment: reservation.getRowsReserved())
+		{
+			json.beginObject();
+			json.name("level").value(fragment.getLevel());
+			json.name("row").value(fragment.getRowNum());
+			json.name("startSeat").value(fragment.getStartSeat());
+			json.name("endSeat").value(fragment.getEndSeat());
+			json.endObject();
+		}
+		json.endArray();
+	}
+
+	/**
+	 * A request and it's response.. keeps track of the writer of the response
+	 */
+	static class Request {
+
+		final HttpExchange exchange;
+		// the parameters from the query string and the form body
+		final Map<String, String> params = new HashMap<String, String>();
+		// the writer of the response, once the response has started
+		JsonWriter json;
+
+		Request(HttpExchange exchange) {
+			this.exchange = exchange;
+		}
+
+		/**
+		 * sends the status and the headers, and returns a writer for the body
+		 * @param status
+		 * @return
+		 * @throws IOException
+		 */
+		JsonWriter respond(int status) throws IOException {
+			if(json!=null)
+			{
+				// the handler failed half way through the response.. too late to send an error
+				throw new IOException("Response already started");
+			}
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			// the length is not known up front.. the body is sent in chunks
+			exchange.sendResponseHeaders(status, 0);
+			json = new JsonWriter(exchange.getResponseBody(), RESPONSE_BUFFER_SIZE);
+			return json;
+		}
+
+		void error(int status, String message) throws IOException {
+			respond(status).beginObject().name("error").value(message).endObject();
+		}
+
+		Optional<Integer> intParam(String name) {
+			String value = params.get(name);
+			return (value==null)?Optional.<Integer>empty():Optional.of(parseInt(name, value));
+		}
+
+		int requiredIntParam(String name) {
+			String value = params.get(name);
+			if(value==null) throw new IllegalArgumentException("Missing parameter "+name);
+			return parseInt(name, value);
+		}
+
+		double doubleParam(String name) {
+			try
+			{
+				return Double.parseDouble(params.get(name));
+			}
+			catch(NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Invalid parameter "+name);
+			}
+		}
+
+		AllocationMode modeParam(String name) {
+			try
+			{
+				return AllocationMode.valueOf(params.get(name));
+			}
+			catch(IllegalArgumentException e)
+			{
+				throw new IllegalArgumentException("Invalid parameter "+name);
+			}
+		}
+
+		private static int parseInt(String name, String value) {
+			try
+			{
+				return Integer.parseInt(value);
+			}
+			catch(NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Invalid parameter "+name);
+			}
+		}
+	}
+
+	/**
+	 * Parses the parameters, turns the exceptions of the ticket service into status codes and makes sure
+	 * the response is flushed and the exchange is closed, so the connection can be kept alive
+	 */
+	static abstract class JsonHandler implements HttpHandler {
+
+		// the method the handler accepts.. null if the handler checks the method itself
+		final String method;
+
+		JsonHandler(String method) {
+			this.method = method;
+		}
+
+		/**
+		 * checks the path of a request.. the server routes requests by the prefix of the path, so /seatsX comes to
+		 * the handler of /seats
+		 * @param path
+		 * @param context - the path the handler was registered for
+		 * @return true if the handler takes requests for the path, by default only the path of it's context
+		 */
+		boolean matches(String path, String context) {
+			return path.equals(context);
+		}
+
+		/**
+		 * handles the request, and writes the response with {@link Request#respond(int)} or
+		 * {@link Request#error(int, String)}
+		 * @param request
+		 * @throws IOException
+		 */
+		abstract void handle(Request request) throws IOException;
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			Request request = new Request(exchange);
+			try
+			{
+				parseParams(exchange.getRequestURI().getRawQuery(), request.params);
+				// the body has to be read completely before the connection can take the next request
+				String body = readBody(exchange);
+				String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+				if(contentType!=null&&contentType.startsWith("application/x-www-form-urlencoded")) parseParams(body, request.params);
+				if(!matches(exchange.getRequestURI().getPath(), exchange.getHttpContext().getPath()))
+				{
+					request.error(404, "Not found");
+				}
+				else if(method!=null&&!method.equals(exchange.getRequestMethod()))
+				{
+					request.error(405, "Method not allowed");
+				}
+				else
+				{
+					handle(request);
+				}
+			}
+			catch(HoldExpiredException e)
+			{
+				request.error(410, e.getMessage());
+			}
+			catch(ThrottledException e)
+			{
+				request.error(429, e.getMessage());
+			}
+			catch(IllegalArgumentException e)
+			{
+				// includes bad numbers, bad allocation modes and running out of seats
+				request.error(400, e.getMessage());
+			}
+			catch(RuntimeException e)
+			{
+				// the details are for us, not the client
+				LOG.log(Level.SEVERE, exchange.getRequestMethod()+" "+exchange.getRequestURI()+" failed", e);
+				request.error(500, "Internal server error");
+			}
+			finally
+			{
+				if(request.json!=null) request.json.flush();
+				exchange.close();
+			}
+		}
+
+		private static String readBody(HttpExchange exchange) throws IOException {
+			InputStream in = exchange.getRequestBody();
+			byte[] buffer = new byte[256];
+			int length = 0;
+			int read;
+			while((read = in.read(buffer, length, buffer.length-length))>=0)
+			{
+				length+=read;
+				if(length==buffer.length)
+				{
+					byte[] bigger = new byte[buffer.length*2];
+					System.arraycopy(buffer, 0, bigger, 0, length);
+					buffer = bigger;
+				}
+			}
+			return new String(buffer, 0, length, StandardCharsets.UTF_8);
+		}
+
+		private static void parseParams(String encoded, Map<String, String> params) throws UnsupportedEncodingException {
+			if(encoded==null||encoded.isEmpty()) return;
+			for(String pair: encoded.split("&"))
+			{
+				int equals = pair.indexOf('=');
+				if(equals<0) continue;
+				params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals+1), "UTF-8"));
+			}
+		}
+	}
+
+	/**
+	 * starts a server with an empty venue
+	 * <pre>
+	 * java ... TicketHttpServer [port] [venue] [holdTimeoutMillis] [trace]
+	 * </pre>
+	 * The venue is rows x seats for each level starting at level 1, for example 25x50,20x100. With a trace file, the
+	 * calls are recorded to it for the {@link ReplayEngine}.. the trace is written out when the server is shut down
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = (args.length>0)?Integer.parseInt(args[0]):8080;
+		String venue = (args.length>1)?args[1]:"25x50,20x100,15x100,15x100";
+		int timeout = (args.length>2)?Integer.parseInt(args[2]):60000;
+		List<Integer> numRows = new ArrayList<Integer>();
+		List<Integer> numSeats = new ArrayList<Integer>();
+		for(String level: venue.split(","))
+		{
+			String[] size = level.split("x");
+			numRows.add(Integer.parseInt(size[0]));
+			numSeats.add(Integer.parseInt(size[1]));
+		}
+		TicketService ticketService = new TicketServiceImpl(new StadiumServiceImpl(1, numRows.size(), numRows, numSeats), new ReservationServiceImpl(timeout));
+		if(args.length>3)
+		{
+			// the reservation service goes by the system clock
+			final TraceRecorder recorder = new TraceRecorder(ticketService, Clock.systemUTC(),
+					Files.newBufferedWriter(Paths.get(args[3]), StandardCharsets.UTF_8));
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try
+					{
+						recorder.close();
+					}
+					catch(IOException e)
+					{
+						e.printStackTrace();
+					}
+				}
+			}, "trace-writer"));
+			ticketService = recorder;
+		}
+		TicketHttpServer server = new TicketHttpServer(ticketService, new InetSocketAddress(port), 0);
+		server.start();
+		System.out.println("Listening on port "+server.getPort());
+	}
+}
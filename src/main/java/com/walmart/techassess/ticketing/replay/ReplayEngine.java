@@ -0,0 +1,410 @@
+package com.walmart.techassess.ticketing.replay;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.walmart.techassess.reservations.ReservationServiceImpl;
+import com.walmart.techassess.stadium.AllocationMode;
+import com.walmart.techassess.stadium.StadiumServiceImpl;
+import com.walmart.techassess.ticketing.ThrottledException;
+import com.walmart.techassess.ticketing.TicketService;
+import com.walmart.techassess.ticketing.TicketServiceImpl;
+
+/**
+ * Replays a trace of a sale against a fresh ticket service, and reports what came out different and how the
+ * latencies compare
+ *
+ * The calls are made one at a time, in the order they were made in the trace. Before every call the
+ * {@link VirtualClock} of the reservations is moved to the time of the call in the trace, so the holds expire
+ * between the same calls as they did, no matter how fast the replay goes. The replay goes as fast as it can, or
+ * at a multiple of the speed of the trace, which keeps the gaps between the calls, only shorter. Replaying the
+ * same trace against the same build comes out the same every time, so 2 builds can be compared on the outcomes
+ * and the latencies of a real sale
+ *
+ * The hold IDs and confirmation codes of the replay are not the ones of the trace.. the engine keeps track of
+ * which is which, and passes the ones of the replay to the calls that refer to them. A call comes out different if
+ * - a hold got different seats, or didn't get seats
+ * - a count is different, like the seats available or the holds of a customer
+ * - an error is a different exception, or there was no error
+ * - a seat belongs to another hold or reservation, or to nobody
+ * Calls that were throttled in the trace are skipped, the throttle is a guard against the customers of that sale,
+ * not part of it. A customer on the waitlist might be given a hold by any of the calls that give seats back, so
+ * a hold ID that came from the waitlist is passed on as it is. The idempotency keys are kept for the real time,
+ * not the virtual one, so a replay that's much faster than the trace remembers them for longer
+ * <pre>
+ * java ... ReplayEngine trace [venue] [holdTimeoutMillis] [speed] [replayTrace]
+ * </pre>
+ * The venue is rows x seats for each level starting at level 1, like for the TicketHttpServer. A speed of 0
+ * replays as fast as it can
+ *
+ * Not thread-safe
+ *
+ */
+public class ReplayEngine {
+
+	// the most differences that are kept for the report
+	static final int MAX_DIFFERENCES = 100;
+
+	final TicketService ticketService;
+	final VirtualClock clock;
+	// the recorder in front of the ticket service, and the last call it made
+	final TraceRecorder recorder;
+	TraceEntry replayed;
+	// the hold IDs and confirmation codes of the trace, and what they are in the replay
+	final Map<String, String> holdIds = new HashMap<String, String>();
+	final Map<String, String> confirmationCodes = new HashMap<String, String>();
+
+	/**
+	 * Constructor
+	 * @param ticketService - a fresh ticket service, on a fresh stadium, with a reservation service on the clock
+	 * @param clock - the clock of the reservation service
+	 * @param out - where the trace of the replay is written, null if it's not needed
+	 */
+	public ReplayEngine(TicketService ticketService, VirtualClock clock, Writer out) {
+		super();
+		if(ticketService==null) throw new IllegalArgumentException("Need a ticket service to replay against");
+		if(clock==null) throw new IllegalArgumentException("Need a clock");
+		this.ticketService = ticketService;
+		this.clock = clock;
+		this.recorder = new TraceRecorder(ticketService, clock, out) {
+
+			@Override
+			void recorded(TraceEntry entry) {
+				replayed = entry;
+				super.recorded(entry);
+			}
+		};
+	}
+
+	/**
+	 * What came out of a replay
+	 */
+	public static class Report {
+		int numCalls;
+		int numSkipped;
+		int numDifferent;
+		long replayNanos;
+		long traceMillis;
+		final List<String> differences = new ArrayList<String>();
+		// the latencies of every call in the trace, and in the replay
+		final Map<String, List<Long>> traceLatencies = new LinkedHashMap<String, List<Long>>();
+		final Map<String, List<Long>> replayLatencies = new LinkedHashMap<String, List<Long>>();
+
+		/**
+		 * the calls that were replayed
+		 * @return
+		 */
+		public int getNumCalls() {
+			return numCalls;
+		}
+
+		/**
+		 * the calls that were throttled in the trace, and not replayed
+		 * @return
+		 */
+		public int getNumSkipped() {
+			return numSkipped;
+		}
+
+		/**
+		 * the calls that came out different than in the trace
+		 * @return
+		 */
+		public int getNumDifferent() {
+			return numDifferent;
+		}
+
+		/**
+		 * the calls that came out different, the trace and the replay of each.. the first {@link ReplayEngine#MAX_DIFFERENCES}
+		 * @return
+		 */
+		public List<String> getDifferences() {
+			return Collections.unmodifiableList(differences);
+		}
+
+		void add(TraceEntry traced, TraceEntry replayed, boolean different) {
+			numCalls++;
+			latencies(traceLatencies, traced.getCall()).add(traced.getLatencyNanos());
+			latencies(replayLatencies, traced.getCall()).add(replayed.getLatencyNanos());
+			if(!different) return;
+			numDifferent++;
+			if(differences.size()<MAX_DIFFERENCES) differences.add(traced+" -> "+replayed.getOutcome()+" "+replayed.getValue());
+		}
+
+		private static List<Long> latencies(Map<String, List<Long>> latencies, String call) {
+			List<Long> result = latencies.get(call);
+			if(result==null)
+			{
+				result = new ArrayList<Long>();
+				latencies.put(call, result);
+			}
+			return result;
+		}
+
+		/**
+		 * prints the differences, and the latency percentiles of the calls in the trace and in the replay
+		 * @param out
+		 */
+		public void print(PrintStream out) {
+			out.println(String.format("replayed %d calls from %.1fs of trace in %.1fs, skipped %d throttled calls",
+					numCalls, traceMillis/1e3, replayNanos/1e9, numSkipped));
+			out.println(String.format("%d calls came out different", numDifferent));
+			for(String difference: differences) out.println("  "+difference);
+			out.println();
+			out.println(String.format("%-18s %8s %12s %12s %12s %12s", "call", "count", "trace p50", "trace p99", "replay p50", "replay p99"));
+			for(Map.Entry<String, List<Long>> entry: traceLatencies.entrySet())
+			{
+				long[] traced = sorted(entry.getValue());
+				long[] replayed = sorted(replayLatencies.get(entry.getKey()));
+				out.println(String.format("%-18s %8d %10.1fus %10.1fus %10.1fus %10.1fus", entry.getKey(), traced.length,
+						percentile(traced, 50)/1e3, percentile(traced, 99)/1e3, percentile(replayed, 50)/1e3, percentile(replayed, 99)/1e3));
+			}
+		}
+
+		private static long[] sorted(List<Long> latencies) {
+			long[] result = new long[latencies.size()];
+			for(int i=0; i<result.length; i++) result[i] = latencies.get(i);
+			Arrays.sort(result);
+			return result;
+		}
+
+		private static long percentile(long[] sorted, double percentile) {
+			if(sorted.length==0) return 0;
+			return sorted[Math.max(0, Math.min(sorted.length-1, (int)Math.ceil(percentile/100*sorted.length)-1))];
+		}
+	}
+
+	/**
+	 * reads a trace, and puts the calls in the order they were made
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalArgumentException if a line is not a call
+	 */
+	public static List<TraceEntry> readTrace(Reader in) throws IOException {
+		BufferedReader reader = new BufferedReader(in);
+		List<TraceEntry> trace = new ArrayList<TraceEntry>();
+		String line;
+		while((line = reader.readLine())!=null)
+		{
+			if(!line.isEmpty()) trace.add(TraceEntry.parse(line));
+		}
+		Collections.sort(trace, new Comparator<TraceEntry>() {
+
+			@Override
+			public int compare(TraceEntry e1, TraceEntry e2) {
+				return Long.compare(e1.getSequence(), e2.getSequence());
+			}
+		});
+		return trace;
+	}
+
+	/**
+	 * replays the calls of a trace
+	 * @param trace - the calls, in the order they were made
+	 * @param speed - how many times faster than the trace the calls are made, 0 for as fast as they can
+	 * @return
+	 * @throws InterruptedException if the replay is interrupted while it waits for the next call
+	 */
+	public Report replay(List<TraceEntry> trace, double speed) throws InterruptedException {
+		if(speed<0) throw new IllegalArgumentException("Speed must not be negative");
+		Report report = new Report();
+		if(trace.isEmpty()) return report;
+		long traceStart = trace.get(0).getTimestamp();
+		long replayStart = System.nanoTime();
+		for(TraceEntry traced: trace)
+		{
+			if(isThrottled(traced))
+			{
+				report.numSkipped++;
+				continue;
+			}
+			long offsetMillis = traced.getTimestamp()-traceStart;
+			if(speed>0)
+			{
+				// keep the gaps between the calls, only shorter
+				long wait = (long)(offsetMillis*1e6/speed)-(System.nanoTime()-replayStart);
+				if(wait>0) TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			clock.moveTo(traced.getTimestamp());
+			replayed = null;
+			call(traced);
+			report.add(traced, replayed, isDifferent(traced, replayed));
+			report.traceMillis = offsetMillis;
+		}
+		report.replayNanos = System.nanoTime()-replayStart;
+		return report;
+	}
+
+	private static boolean isThrottled(TraceEntry traced) {
+		return traced.getOutcome().equals(TraceEntry.ERROR)&&traced.getIdentity().equals(ThrottledException.class.getSimpleName());
+	}
+
+	/**
+	 * makes a call of the trace.. the recorder keeps what came out of it
+	 * @param traced
+	 */
+	private void call(TraceEntry traced) {
+		try
+		{
+			switch(traced.getCall())
+			{
+			case TraceEntry.AVAILABLE:
+				recorder.numSeatsAvailable(TraceEntry.toLevel(traced.getArg(0)), TraceEntry.toLevel(traced.getArg(1)));
+				break;
+			case TraceEntry.HOLD:
+				recorder.findAndHoldSeats(Integer.parseInt(traced.getArg(0)), TraceEntry.toLevel(traced.getArg(1)), TraceEntry.toLevel(traced.getArg(2)),
+						traced.getArg(3), (traced.getArg(4)==null)?null:AllocationMode.valueOf(traced.getArg(4)), traced.getArg(5));
+				break;
+			case TraceEntry.HOLD_UNDER_PRICE:
+				recorder.findAndHoldSeats(Integer.parseInt(traced.getArg(0)), Double.parseDouble(traced.getArg(1)), traced.getArg(2), traced.getArg(3));
+				break;
+			case TraceEntry.WAIT:
+				recorder.waitForSeats(Integer.parseInt(traced.getArg(0)), TraceEntry.toLevel(traced.getArg(1)), TraceEntry.toLevel(traced.getArg(2)),
+						traced.getArg(3));
+				break;
+			case TraceEntry.HOLD_BLOCK:
+				recorder.holdBlock(Integer.parseInt(traced.getArg(0)), Integer.parseInt(traced.getArg(1)), Integer.parseInt(traced.getArg(2)),
+						traced.getArg(3));
+				break;
+			case TraceEntry.RESERVE:
+				recorder.reserveSeats(holdId(traced.getArg(0)), traced.getArg(1), traced.getArg(2));
+				break;
+			case TraceEntry.EXTEND:
+				recorder.extendHold(holdId(traced.getArg(0)), traced.getArg(1), Long.parseLong(traced.getArg(2)));
+				break;
+			case TraceEntry.RELEASE:
+				recorder.releaseSeats(holdId(traced.getArg(0)), traced.getArg(1), Integer.parseInt(traced.getArg(2)));
+				break;
+			case TraceEntry.RESERVATION:
+				String confirmationCode = confirmationCodes.get(traced.getArg(0));
+				recorder.getReservation((confirmationCode==null)?traced.getArg(0):confirmationCode);
+				break;
+			case TraceEntry.EXPORT:
+				recorder.exportReservations(OutputStream.nullOutputStream());
+				break;
+			case TraceEntry.HOLDS:
+				recorder.getHolds(traced.getArg(0));
+				break;
+			case TraceEntry.CONFIRMATION_CODES:
+				recorder.getConfirmationCodes(traced.getArg(0));
+				break;
+			case TraceEntry.OWNER:
+				recorder.findSeatOwner(Integer.parseInt(traced.getArg(0)), Integer.parseInt(traced.getArg(1)), Integer.parseInt(traced.getArg(2)));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown call in trace: "+traced);
+			}
+		}
+		catch(RuntimeException e)
+		{
+			// the recorder has it.. unless the trace itself is broken
+			if(replayed==null) throw e;
+		}
+		catch(IOException e)
+		{
+			// the recorder has it
+		}
+	}
+
+	/**
+	 * the hold ID of the replay for a hold ID of the trace
+	 * @param traced
+	 * @return
+	 */
+	private int holdId(String traced) {
+		String replayed = holdIds.get(traced);
+		return Integer.parseInt((replayed==null)?traced:replayed);
+	}
+
+	/**
+	 * compares what came out of a call in the trace and in the replay, and keeps track of the hold IDs and
+	 * confirmation codes that came out
+	 * @return true if the call came out different
+	 */
+	private boolean isDifferent(TraceEntry traced, TraceEntry replayed) {
+		if(!traced.getOutcome().equals(replayed.getOutcome())) return true;
+		switch(traced.getOutcome())
+		{
+		case TraceEntry.HELD:
+			holdIds.put(traced.getIdentity(), replayed.getIdentity());
+			return !traced.getDetail().equals(replayed.getDetail());
+		case TraceEntry.RESERVED:
+			confirmationCodes.put(traced.getIdentity(), replayed.getIdentity());
+			return false;
+		case TraceEntry.ERROR:
+			// the messages can have hold IDs in them
+			return !traced.getIdentity().equals(replayed.getIdentity());
+		case TraceEntry.FOUND:
+			if(traced.getCall().equals(TraceEntry.OWNER)) return !toReplay(traced).equals(replayed.getValue());
+			return !traced.getValue().equals(replayed.getValue());
+		default:
+			return !traced.getValue().equals(replayed.getValue());
+		}
+	}
+
+	/**
+	 * the owner of a seat in the trace, with the hold ID and the confirmation code of the replay
+	 * @param owner
+	 * @return
+	 */
+	private String toReplay(TraceEntry owner) {
+		String[] fields = owner.getValue().split(" ");
+		String holdId = holdIds.get(fields[0]);
+		String result = ((holdId==null)?fields[0]:holdId)+" "+fields[1];
+		if(fields.length<3) return result;
+		String confirmationCode = confirmationCodes.get(fields[2]);
+		return result+" "+((confirmationCode==null)?fields[2]:confirmationCode);
+	}
+
+	/**
+	 * replays a trace against an empty venue
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length==0)
+		{
+			System.err.println("java ... ReplayEngine trace [venue] [holdTimeoutMillis] [speed] [replayTrace]");
+			return;
+		}
+		String venue = (args.length>1)?args[1]:"25x50,20x100,15x100,15x100";
+		int timeout = (args.length>2)?Integer.parseInt(args[2]):60000;
+		double speed = (args.length>3)?Double.parseDouble(args[3]):0;
+		List<TraceEntry> trace;
+		try(Reader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8))
+		{
+			trace = readTrace(in);
+		}
+		List<Integer> numRows = new ArrayList<Integer>();
+		List<Integer> numSeats = new ArrayList<Integer>();
+		for(String level: venue.split(","))
+		{
+			String[] size = level.split("x");
+			numRows.add(Integer.parseInt(size[0]));
+			numSeats.add(Integer.parseInt(size[1]));
+		}
+		VirtualClock clock = new VirtualClock(trace.isEmpty()?0:trace.get(0).getTimestamp());
+		TicketService ticketService = new TicketServiceImpl(new StadiumServiceImpl(1, numRows.size(), numRows, numSeats),
+				new ReservationServiceImpl(timeout, timeout, null, 0, clock));
+		Writer out = (args.length>4)?Files.newBufferedWriter(Paths.get(args[4]), StandardCharsets.UTF_8):null;
+		ReplayEngine engine = new ReplayEngine(ticketService, clock, out);
+		Report report = engine.replay(trace, speed);
+		engine.recorder.close();
+		report.print(System.out);
+	}
+}
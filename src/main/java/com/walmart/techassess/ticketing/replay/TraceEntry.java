@@ -0,0 +1,253 @@
+package com.walmart.techassess.ticketing.replay;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * A call to the ticket service, as it's kept in a trace
+ *
+ * An entry is a line of tab separated fields
+ * <pre>
+ * sequence timestamp latencyNanos call arg.. outcome value
+ * </pre>
+ * The sequence is the order the calls were made in. The calls are written to the trace as they finish, so the
+ * lines of calls that ran at the same time can be out of order.. sort them by the sequence. The value of the
+ * outcome starts with what identifies it, the hold ID of a hold or of the owner of a seat, the confirmation code
+ * of a reservation or the exception of an error, followed by the rest of it
+ *
+ * Tabs, line breaks and backslashes in the fields are escaped with a backslash, and null is \0
+ *
+ * Immutable
+ *
+ */
+public class TraceEntry {
+
+	// the calls
+	public static final String AVAILABLE = "available";
+	public static final String HOLD = "hold";
+	public static final String HOLD_UNDER_PRICE = "holdUnderPrice";
+	public static final String WAIT = "wait";
+	public static final String HOLD_BLOCK = "holdBlock";
+	public static final String RESERVE = "reserve";
+	public static final String EXTEND = "extend";
+	public static final String RELEASE = "release";
+	public static final String RESERVATION = "reservation";
+	public static final String EXPORT = "export";
+	public static final String HOLDS = "holds";
+	public static final String CONFIRMATION_CODES = "confirmationCodes";
+	public static final String OWNER = "owner";
+
+	// the outcomes
+	public static final String HELD = "held";
+	public static final String RESERVED = "reserved";
+	public static final String COUNT = "count";
+	public static final String FOUND = "found";
+	public static final String NOT_FOUND = "notFound";
+	public static final String WAITING = "waiting";
+	public static final String ERROR = "error";
+
+	static final String NULL = "\\0";
+
+	final long sequence;
+	final long timestamp;
+	final long latencyNanos;
+	final String call;
+	final String[] args;
+	final String outcome;
+	final String value;
+
+	TraceEntry(long sequence, long timestamp, long latencyNanos, String call, String[] args, String outcome, String value) {
+		super();
+		assert call!=null&&outcome!=null&&value!=null;
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.latencyNanos = latencyNanos;
+		this.call = call;
+		this.args = args;
+		this.outcome = outcome;
+		this.value = value;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * when the call was made
+	 * @return in milliseconds since the epoch, by the clock of the reservations
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * how long the call took
+	 * @return
+	 */
+	public long getLatencyNanos() {
+		return latencyNanos;
+	}
+
+	public String getCall() {
+		return call;
+	}
+
+	/**
+	 * an argument of the call, in the order of the parameters of the method
+	 * @param index
+	 * @return
+	 */
+	public String getArg(int index) {
+		return args[index];
+	}
+
+	public int getNumArgs() {
+		return args.length;
+	}
+
+	public String getOutcome() {
+		return outcome;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 * what identifies the value.. the hold ID of a hold, the confirmation code of a reservation or the exception
+	 * of an error
+	 * @return
+	 */
+	public String getIdentity() {
+		int space = value.indexOf(' ');
+		return (space<0)?value:value.substring(0, space);
+	}
+
+	/**
+	 * the value without what identifies it.. the seats of a hold, or the message of an error
+	 * @return
+	 */
+	public String getDetail() {
+		int space = value.indexOf(' ');
+		return (space<0)?"":value.substring(space+1);
+	}
+
+	/**
+	 * the line of the entry in a trace, without the line break
+	 * @return
+	 */
+	public String format() {
+		StringBuilder line = new StringBuilder(128);
+		line.append(sequence).append('\t').append(timestamp).append('\t').append(latencyNanos).append('\t').append(call);
+		for(String arg: args)
+		{
+			line.append('\t');
+			escape(arg, line);
+		}
+		line.append('\t').append(outcome).append('\t');
+		escape(value, line);
+		return line.toString();
+	}
+
+	/**
+	 * reads the line of an entry
+	 * @param line
+	 * @return
+	 * @throws IllegalArgumentException if it's not an entry
+	 */
+	public static TraceEntry parse(String line) {
+		String[] fields = line.split("\t", -1);
+		if(fields.length<6) throw new IllegalArgumentException("Not a trace entry: "+line);
+		try
+		{
+			String[] args = new String[fields.length-6];
+			for(int i=0; i<args.length; i++) args[i] = unescape(fields[4+i]);
+			return new TraceEntry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3], args,
+					fields[fields.length-2], unescape(fields[fields.length-1]));
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Not a trace entry: "+line, e);
+		}
+	}
+
+	/**
+	 * a level as it's kept in a trace.. an empty level is an empty string
+	 * @param level
+	 * @return
+	 */
+	static String level(Optional<Integer> level) {
+		if(level==null) return null;
+		return level.isPresent()?level.get().toString():"";
+	}
+
+	/**
+	 * a level the way it was passed to the call
+	 * @param level
+	 * @return
+	 */
+	static Optional<Integer> toLevel(String level) {
+		if(level==null) return null;
+		return level.isEmpty()?Optional.<Integer>empty():Optional.of(Integer.parseInt(level));
+	}
+
+	private static void escape(String field, StringBuilder line) {
+		if(field==null)
+		{
+			line.append(NULL);
+			return;
+		}
+		for(int i=0; i<field.length(); i++)
+		{
+			char c = field.charAt(i);
+			switch(c)
+			{
+			case '\\': line.append("\\\\"); break;
+			case '\t': line.append("\\t"); break;
+			case '\n': line.append("\\n"); break;
+			case '\r': line.append("\\r"); break;
+			default: line.append(c);
+			}
+		}
+	}
+
+	private static String unescape(String field) {
+		if(field.equals(NULL)) return null;
+		if(field.indexOf('\\')<0) return field;
+		StringBuilder result = new StringBuilder(field.length());
+		for(int i=0; i<field.length(); i++)
+		{
+			char c = field.charAt(i);
+			if(c!='\\'||i==field.length()-1)
+			{
+				result.append(c);
+				continue;
+			}
+			c = field.charAt(++i);
+			switch(c)
+			{
+			case 't': result.append('\t'); break;
+			case 'n': result.append('\n'); break;
+			case 'r': result.append('\r'); break;
+			default: result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * the args of a call as they are kept in a trace
+	 * @param args
+	 * @return
+	 */
+	static String[] toArgs(Object... args) {
+		String[] result = new String[args.length];
+		for(int i=0; i<args.length; i++) result[i] = (args[i]==null)?null:args[i].toString();
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "#"+sequence+" "+call+" "+Arrays.toString(args)+": "+outcome+" "+value;
+	}
+}
@@ -0,0 +1,430 @@
+package com.walmart.techassess.ticketing.replay;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.time.Clock;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.walmart.techassess.reservations.Reservation;
+import com.walmart.techassess.reservations.SeatHold;
+import com.walmart.techassess.reservations.SeatOwner;
+import com.walmart.techassess.stadium.AllocationMode;
+import com.walmart.techassess.ticketing.TicketService;
+
+/**
+ * Writes a trace of every call to a ticket service.. what was asked, when, how long it took and what came out
+ *
+ * The recorder goes in front of the ticket service, and the trace can be replayed by the {@link ReplayEngine}.
+ * The time of a call is read from the clock of the reservations, so the holds in the replay expire between the
+ * same calls as they did in the trace
+ *
+ * A call costs a line of text on top of what the service does.. the line is made without a lock, and written to
+ * a buffer that's shared by all the calls, which is only locked for the copy. If the trace can't be written, the
+ * recorder stops writing it, and the calls go on as if there was no recorder
+ *
+ * The overloads of a call are recorded as the one with the most parameters, with the defaults filled in
+ *
+ * Thread-safe
+ *
+ */
+public class TraceRecorder implements TicketService, Closeable {
+
+	// the trace is written in chunks of this many chars
+	static final int TRACE_BUFFER = 64*1024;
+
+	final TicketService ticketService;
+	final Clock clock;
+	// null if the trace is not written
+	final Writer out;
+	// the order the calls were made in
+	final AtomicLong sequence = new AtomicLong();
+	final AtomicLong numRecorded = new AtomicLong();
+	volatile boolean failed;
+
+	/**
+	 * Constructor
+	 * @param ticketService - the service that makes the calls
+	 * @param clock - the clock of the reservations
+	 * @param out - where the trace is written, null to only pass the calls to {@link #recorded(TraceEntry)}
+	 */
+	public TraceRecorder(TicketService ticketService, Clock clock, Writer out) {
+		super();
+		if(ticketService==null) throw new IllegalArgumentException("Need a ticket service to record");
+		if(clock==null) throw new IllegalArgumentException("Need a clock");
+		this.ticketService = ticketService;
+		this.clock = clock;
+		this.out = (out==null)?null:new BufferedWriter(out, TRACE_BUFFER);
+	}
+
+	/**
+	 * a call that's being made
+	 */
+	class Call {
+		final long sequence = TraceRecorder.this.sequence.incrementAndGet();
+		final long timestamp = clock.millis();
+		final String call;
+		final String[] args;
+		final long start;
+
+		Call(String call, Object... args) {
+			this.call = call;
+			this.args = TraceEntry.toArgs(args);
+			// converting the args is the time of the recorder, not of the call
+			this.start = System.nanoTime();
+		}
+
+		void end(String outcome, String value) {
+			recorded(new TraceEntry(sequence, timestamp, System.nanoTime()-start, call, args, outcome, value));
+		}
+
+		<T extends Throwable> T failed(T e) {
+			String message = e.getMessage();
+			end(TraceEntry.ERROR, (message==null)?e.getClass().getSimpleName():e.getClass().getSimpleName()+" "+message);
+			return e;
+		}
+
+		SeatHold held(SeatHold hold) {
+			String seats;
+			// seats can be released from the hold while we look at them
+			synchronized(hold)
+			{
+				seats = hold.getReservation().toString();
+			}
+			end(TraceEntry.HELD, hold.getSeatHoldId()+" "+seats);
+			return hold;
+		}
+
+		int count(int count) {
+			end(TraceEntry.COUNT, Integer.toString(count));
+			return count;
+		}
+	}
+
+	/**
+	 * called for every call once it's done.. writes it to the trace
+	 * @param entry
+	 */
+	void recorded(TraceEntry entry) {
+		if(out==null||failed) return;
+		String line = entry.format();
+		try
+		{
+			synchronized(out)
+			{
+				out.write(line);
+				out.write('\n');
+			}
+			numRecorded.incrementAndGet();
+		}
+		catch(IOException e)
+		{
+			// the calls go on without a trace
+			failed = true;
+		}
+	}
+
+	/**
+	 * the number of calls written to the trace so far
+	 * @return
+	 */
+	public long getNumRecorded() {
+		return numRecorded.get();
+	}
+
+	/**
+	 * @return true if the trace couldn't be written, and the recorder stopped writing it
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * writes out the calls that are still in the buffer
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if(out==null) return;
+		synchronized(out)
+		{
+			out.flush();
+		}
+	}
+
+	/**
+	 * writes out the calls that are still in the buffer, and closes the trace.. the ticket service stays open
+	 */
+	@Override
+	public void close() throws IOException {
+		if(out==null) return;
+		synchronized(out)
+		{
+			out.close();
+		}
+	}
+
+	@Override
+	public int numSeatsAvailable(Optional<Integer> venueLevel) {
+		Call call = new Call(TraceEntry.AVAILABLE, TraceEntry.level(venueLevel), TraceEntry.level(venueLevel));
+		try
+		{
+			return call.count(ticketService.numSeatsAvailable(venueLevel));
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public int numSeatsAvailable(Optional<Integer> minLevel, Optional<Integer> maxLevel) {
+		Call call = new Call(TraceEntry.AVAILABLE, TraceEntry.level(minLevel), TraceEntry.level(maxLevel));
+		try
+		{
+			return call.count(ticketService.numSeatsAvailable(minLevel, maxLevel));
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public SeatHold findAndHoldSeats(int numSeats, Optional<Integer> minLevel, Optional<Integer> maxLevel, String customerEmail) {
+		Call call = new Call(TraceEntry.HOLD, numSeats, TraceEntry.level(minLevel), TraceEntry.level(maxLevel), customerEmail,
+				AllocationMode.BEST_AVAILABLE, null);
+		try
+		{
+			return call.held(ticketService.findAndHoldSeats(numSeats, minLevel, maxLevel, customerEmail));
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public SeatHold findAndHoldSeats(int numSeats, Optional<Integer> minLevel, Optional<Integer> maxLevel, String customerEmail,
+			AllocationMode mode) {
+		Call call = new Call(TraceEntry.HOLD, numSeats, TraceEntry.level(minLevel), TraceEntry.level(maxLevel), customerEmail, mode, null);
+		try
+		{
+			return call.held(ticketService.findAndHoldSeats(numSeats, minLevel, maxLevel, customerEmail, mode));
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public SeatHold findAndHoldSeats(int numSeats, Optional<Integer> minLevel, Optional<Integer> maxLevel, String customerEmail,
+			AllocationMode mode, String idempotencyKey) {
+		Call call = new Call(TraceEntry.HOLD, numSeats, TraceEntry.level(minLevel), TraceEntry.level(maxLevel), customerEmail, mode,
+				idempotencyKey);
+		try
+		{
+			return call.held(ticketService.findAndHoldSeats(numSeats, minLevel, maxLevel, customerEmail, mode, idempotencyKey));
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public SeatHold findAndHoldSeats(int numSeats, double maxPrice, String customerEmail) {
+		Call call = new Call(TraceEntry.HOLD_UNDER_PRICE, numSeats, maxPrice, customerEmail, null);
+		try
+		{
+			return call.held(ticketService.findAndHoldSeats(numSeats, maxPrice, customerEmail));
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public SeatHold findAndHoldSeats(int numSeats, double maxPrice, String customerEmail, String idempotencyKey) {
+		Call call = new Call(TraceEntry.HOLD_UNDER_PRICE, numSeats, maxPrice, customerEmail, idempotencyKey);
+		try
+		{
+			return call.held(ticketService.findAndHoldSeats(numSeats, maxPrice, customerEmail, idempotencyKey));
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public CompletableFuture<SeatHold> waitForSeats(int numSeats, Optional<Integer> minLevel, Optional<Integer> maxLevel, String customerEmail) {
+		Call call = new Call(TraceEntry.WAIT, numSeats, TraceEntry.level(minLevel), TraceEntry.level(maxLevel), customerEmail);
+		try
+		{
+			CompletableFuture<SeatHold> result = ticketService.waitForSeats(numSeats, minLevel, maxLevel, customerEmail);
+			// the hold comes later, with a call that gives seats back
+			call.end(TraceEntry.WAITING, "");
+			return result;
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public SeatHold holdBlock(int level, int rowFrom, int rowTo, String customerEmail) {
+		Call call = new Call(TraceEntry.HOLD_BLOCK, level, rowFrom, rowTo, customerEmail);
+		try
+		{
+			return call.held(ticketService.holdBlock(level, rowFrom, rowTo, customerEmail));
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public String reserveSeats(int seatHoldId, String customerEmail) {
+		Call call = new Call(TraceEntry.RESERVE, seatHoldId, customerEmail, null);
+		try
+		{
+			String confirmationCode = ticketService.reserveSeats(seatHoldId, customerEmail);
+			call.end(TraceEntry.RESERVED, confirmationCode);
+			return confirmationCode;
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public String reserveSeats(int seatHoldId, String customerEmail, String idempotencyKey) {
+		Call call = new Call(TraceEntry.RESERVE, seatHoldId, customerEmail, idempotencyKey);
+		try
+		{
+			String confirmationCode = ticketService.reserveSeats(seatHoldId, customerEmail, idempotencyKey);
+			call.end(TraceEntry.RESERVED, confirmationCode);
+			return confirmationCode;
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public SeatHold extendHold(int seatHoldId, String customerEmail, long extraMillis) {
+		Call call = new Call(TraceEntry.EXTEND, seatHoldId, customerEmail, extraMillis);
+		try
+		{
+			return call.held(ticketService.extendHold(seatHoldId, customerEmail, extraMillis));
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public SeatHold releaseSeats(int seatHoldId, String customerEmail, int numSeats) {
+		Call call = new Call(TraceEntry.RELEASE, seatHoldId, customerEmail, numSeats);
+		try
+		{
+			return call.held(ticketService.releaseSeats(seatHoldId, customerEmail, numSeats));
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public Reservation getReservation(String confirmationCode) {
+		Call call = new Call(TraceEntry.RESERVATION, confirmationCode);
+		try
+		{
+			Reservation reservation = ticketService.getReservation(confirmationCode);
+			if(reservation==null) call.end(TraceEntry.NOT_FOUND, "");
+			else call.end(TraceEntry.FOUND, reservation.toString());
+			return reservation;
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public int exportReservations(OutputStream out) throws IOException {
+		Call call = new Call(TraceEntry.EXPORT);
+		try
+		{
+			return call.count(ticketService.exportReservations(out));
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+		catch(IOException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public List<SeatHold> getHolds(String customerEmail) {
+		Call call = new Call(TraceEntry.HOLDS, customerEmail);
+		try
+		{
+			List<SeatHold> holds = ticketService.getHolds(customerEmail);
+			call.count(holds.size());
+			return holds;
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public List<String> getConfirmationCodes(String customerEmail) {
+		Call call = new Call(TraceEntry.CONFIRMATION_CODES, customerEmail);
+		try
+		{
+			List<String> confirmationCodes = ticketService.getConfirmationCodes(customerEmail);
+			call.count(confirmationCodes.size());
+			return confirmationCodes;
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+
+	@Override
+	public SeatOwner findSeatOwner(int level, int rowNum, int seat) {
+		Call call = new Call(TraceEntry.OWNER, level, rowNum, seat);
+		try
+		{
+			SeatOwner owner = ticketService.findSeatOwner(level, rowNum, seat);
+			if(owner==null) call.end(TraceEntry.NOT_FOUND, "");
+			else if(owner.isReserved()) call.end(TraceEntry.FOUND, owner.getSeatHoldId()+" "+owner.getCustomerEmail()+" "+owner.getConfirmationCode());
+			else call.end(TraceEntry.FOUND, owner.getSeatHoldId()+" "+owner.getCustomerEmail());
+			return owner;
+		}
+		catch(RuntimeException e)
+		{
+			throw call.failed(e);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.walmart.techassess.ticketing.replay;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * A clock that only moves when it's told to
+ *
+ * Give it to the reservation service, and the holds expire when the clock is moved past their expiry, not when
+ * the time has passed. The {@link ReplayEngine} moves it to the time of every call it replays, so a sale that took
+ * an hour replays in however long the calls take, and the holds expire between the same calls as they did
+ *
+ * The clock never goes back.. a hold that expired stays expired
+ *
+ * Thread-safe
+ *
+ */
+public class VirtualClock extends Clock {
+
+	volatile long millis;
+
+	/**
+	 * Constructor
+	 * @param millis - the time the clock starts at, in milliseconds since the epoch
+	 */
+	public VirtualClock(long millis) {
+		super();
+		this.millis = millis;
+	}
+
+	@Override
+	public long millis() {
+		return millis;
+	}
+
+	@Override
+	public Instant instant() {
+		return Instant.ofEpochMilli(millis);
+	}
+
+	@Override
+	public ZoneId getZone() {
+		return ZoneOffset.UTC;
+	}
+
+	@Override
+	public Clock withZone(ZoneId zone) {
+		// the time is all there is to this clock
+		throw new UnsupportedOperationException("A virtual clock is in UTC");
+	}
+
+	/**
+	 * moves the clock to a time.. a time before the time of the clock leaves it where it is
+	 * @param millis - in milliseconds since the epoch
+	 */
+	public synchronized void moveTo(long millis) {
+		if(millis>this.millis) this.millis = millis;
+	}
+
+	/**
+	 * moves the clock forward
+	 * @param millis
+	 */
+	public synchronized void advance(long millis) {
+		if(millis<0) throw new IllegalArgumentException("The clock doesn't go back");
+		this.millis+=millis;
+	}
+}
@@ -0,0 +1,121 @@
+package com.walmart.techassess.stadium;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Measures the heap allocated by {@link Level#allocate(int, java.util.SortedSet)} and {@link Level#deallocate(RowFragment)}
+ *
+ * The hot path is supposed to create nothing but the fragments it hands out. The benchmark holds and lets go of
+ * random parties on a single thread, and reads the bytes allocated by the thread before and after. Then it
+ * runs a calibration loop that creates the same number of fragments and puts them in and takes them out of a
+ * result set, which is what any caller of the level has to pay for. The difference is the overhead of the level
+ * and it's rows, and should be 0.. the benchmark exits with 1 if it's more than {@link #MAX_OVERHEAD} bytes per op, so
+ * a change that allocates on the hot path fails the run
+ *
+ * The benchmark is single threaded on purpose. With more than one reader the read lock of the level keeps a
+ * hold count per thread, which allocates the first time a thread takes the lock
+ * <pre>
+ * java ... AllocationBenchmark [ops] [rows] [seatsPerRow] [stripes]
+ * </pre>
+ */
+public class AllocationBenchmark {
+
+	// the overhead that's put down to noise, in bytes per op.. one object on the hot path is 16 bytes or more per op
+	static final double MAX_OVERHEAD = 0.5;
+
+	public static void main(String[] args) {
+		int ops = (args.length>0)?Integer.parseInt(args[0]):1000000;
+		int numRows = (args.length>1)?Integer.parseInt(args[1]):20;
+		int seatsPerRow = (args.length>2)?Integer.parseInt(args[2]):50;
+		int numStripes = (args.length>3)?Integer.parseInt(args[3]):1;
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		Level level = new Level(1, numRows, seatsPerRow, null, numStripes);
+
+		// warm up, so the JIT has compiled the hot path and the lists of the rows have grown to their size
+		run(level, ops, seatsPerRow, new Random(1));
+		run(level, ops, seatsPerRow, new Random(1));
+
+		long before = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		long fragments = run(level, ops, seatsPerRow, new Random(2));
+		long nanos = System.nanoTime()-start;
+		long allocated = threads.getThreadAllocatedBytes(thread)-before;
+
+		// what the fragments and the result set cost on their own
+		calibrate(fragments);
+		before = threads.getThreadAllocatedBytes(thread);
+		calibrate(fragments);
+		long inherent = threads.getThreadAllocatedBytes(thread)-before;
+
+		System.out.println(String.format("%-24s %12s", "ops", ops));
+		System.out.println(String.format("%-24s %12s", "fragments", fragments));
+		System.out.println(String.format("%-24s %12.1f", "ns/op", (double)nanos/ops));
+		System.out.println(String.format("%-24s %12.1f", "bytes/op", (double)allocated/ops));
+		System.out.println(String.format("%-24s %12.1f", "inherent bytes/op", (double)inherent/ops));
+		double overhead = (double)(allocated-inherent)/ops;
+		System.out.println(String.format("%-24s %12.1f", "overhead bytes/op", overhead));
+		if(overhead>MAX_OVERHEAD)
+		{
+			System.out.println("FAILED: the hot path allocates "+overhead+" bytes per op");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * holds a party, and lets go of the oldest party once a few are held
+	 * @return the number of fragments handed out
+	 */
+	static long run(Level level, int ops, int seatsPerRow, Random random) {
+		int maxParties = 16;
+		TreeSet<RowFragment> result = new TreeSet<RowFragment>();
+		// the fragments of the parties that are held, oldest first
+		RowFragment[][] parties = new RowFragment[maxParties][];
+		int[] partySizes = new int[maxParties];
+		for(int i=0; i<maxParties; i++) parties[i] = new RowFragment[level.numRows];
+		long fragments = 0;
+		int next = 0;
+		for(int op=0; op<ops; op++)
+		{
+			int slot = next++%maxParties;
+			for(int i=0; i<partySizes[slot]; i++)
+			{
+				level.deallocate(parties[slot][i]);
+				parties[slot][i] = null;
+			}
+			partySizes[slot] = 0;
+			int numSeats = 1+random.nextInt(seatsPerRow+seatsPerRow/2);
+			level.allocate(numSeats, result);
+			RowFragment fragment;
+			while((fragment=result.pollFirst())!=null)
+			{
+				parties[slot][partySizes[slot]++] = fragment;
+				fragments++;
+			}
+		}
+		for(int slot=0; slot<maxParties; slot++)
+		{
+			for(int i=0; i<partySizes[slot]; i++) level.deallocate(parties[slot][i]);
+		}
+		return fragments;
+	}
+
+	/**
+	 * creates the given number of fragments and passes them through a result set
+	 */
+	static void calibrate(long fragments) {
+		TreeSet<RowFragment> result = new TreeSet<RowFragment>();
+		List<RowFragment> sink = new ArrayList<RowFragment>(1);
+		for(long i=0; i<fragments; i++)
+		{
+			result.add(new RowFragment(1, (int)(i%64), 1, 1));
+			sink.add(result.pollFirst());
+			sink.clear();
+		}
+	}
+}
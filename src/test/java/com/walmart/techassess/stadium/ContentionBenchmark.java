@@ -0,0 +1,115 @@
+package com.walmart.techassess.stadium;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how {@link Level#allocate(int, java.util.SortedSet)} scales with the number of threads, with and
+ * without the row pool split into stripes
+ *
+ * Every thread holds parties of 1 to 4 seats in the same level, like buyers going for the premium level at the
+ * on-sale, and lets go of it's oldest party once it holds a few. So the front of the level is sold and unsold
+ * all the time, and every thread wants the same front rows. For every number of threads the benchmark runs a
+ * level that isn't striped, and a level with a stripe per thread, and prints
+ * - the holds per second
+ * - how far back the buyers were seated.. the average row of the seats held, which shouldn't be much worse
+ *   with stripes
+ * <pre>
+ * java ... ContentionBenchmark [millisPerRun] [maxThreads] [rows] [seatsPerRow]
+ * </pre>
+ */
+public class ContentionBenchmark {
+
+	final Level level;
+	final int threads;
+	final AtomicLong holds = new AtomicLong();
+	final AtomicLong seatsHeld = new AtomicLong();
+	final AtomicLong rowsOfSeatsHeld = new AtomicLong();
+	volatile boolean running = true;
+
+	ContentionBenchmark(Level level, int threads) {
+		this.level = level;
+		this.threads = threads;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		long millis = (args.length>0)?Long.parseLong(args[0]):1000;
+		int maxThreads = (args.length>1)?Integer.parseInt(args[1]):2*Runtime.getRuntime().availableProcessors();
+		int numRows = (args.length>2)?Integer.parseInt(args[2]):1000;
+		int seatsPerRow = (args.length>3)?Integer.parseInt(args[3]):20;
+
+		System.out.println(String.format("%-8s %8s %12s %10s", "threads", "stripes", "holds/s", "avg row"));
+		for(int threads=1; threads<=maxThreads; threads*=2)
+		{
+			int striped = Math.min(Integer.highestOneBit(threads), numRows);
+			for(int numStripes: (striped==1)?new int[]{1}:new int[]{1, striped})
+			{
+				// once to warm up, once for real
+				new ContentionBenchmark(new Level(1, numRows, seatsPerRow, null, numStripes), threads).run(millis/4);
+				ContentionBenchmark benchmark = new ContentionBenchmark(new Level(1, numRows, seatsPerRow, null, numStripes), threads);
+				long nanos = benchmark.run(millis);
+				System.out.println(String.format("%-8d %8d %12.0f %10.1f", threads, numStripes, benchmark.holds.get()/(nanos/1e9),
+						(double)benchmark.rowsOfSeatsHeld.get()/Math.max(1, benchmark.seatsHeld.get())));
+			}
+		}
+	}
+
+	/**
+	 * runs the threads for the given time
+	 * @return the elapsed time in nanoseconds
+	 * @throws InterruptedException
+	 */
+	long run(long millis) throws InterruptedException {
+		List<Thread> buyers = new ArrayList<Thread>();
+		for(int i=0; i<threads; i++)
+		{
+			final Random random = new Random(i);
+			buyers.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					buy(random);
+				}
+			}, "buyer-"+i));
+		}
+		long start = System.nanoTime();
+		for(Thread buyer: buyers) buyer.start();
+		Thread.sleep(millis);
+		running = false;
+		for(Thread buyer: buyers) buyer.join();
+		return System.nanoTime()-start;
+	}
+
+	void buy(Random random) {
+		int maxParties = 8;
+		List<TreeSet<RowFragment>> parties = new ArrayList<TreeSet<RowFragment>>();
+		long numHolds = 0, numSeats = 0, rows = 0;
+		while(running)
+		{
+			if(parties.size()==maxParties)
+			{
+				for(RowFragment fragment: parties.remove(0)) level.deallocate(fragment);
+			}
+			int partySize = 1+random.nextInt(4);
+			TreeSet<RowFragment> party = new TreeSet<RowFragment>();
+			if(level.allocate(partySize, party)<partySize)
+			{
+				for(RowFragment fragment: party) level.deallocate(fragment);
+				continue;
+			}
+			for(RowFragment fragment: party)
+			{
+				numSeats+=fragment.getNumSeats();
+				rows+=(long)fragment.getRowNum()*fragment.getNumSeats();
+			}
+			parties.add(party);
+			numHolds++;
+		}
+		holds.addAndGet(numHolds);
+		seatsHeld.addAndGet(numSeats);
+		rowsOfSeatsHeld.addAndGet(rows);
+	}
+}
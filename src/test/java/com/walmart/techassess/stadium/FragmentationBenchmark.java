@@ -0,0 +1,205 @@
+package com.walmart.techassess.stadium;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+
+/**
+ * Replays the same simulated sale against every allocation mode, and scores them on speed and on the layout
+ * they leave behind
+ *
+ * The sale is a script made from a seed.. parties of 1 to 10 come to hold seats, and some of the holds that are
+ * live expire, which gives their seats back and compacts their rows. More seats are held than given back, so the
+ * venue fills up towards the end of the script. The same seed makes the same script, so runs can be compared
+ * from build to build. The script is cut in phases, and for every mode and every phase the benchmark prints
+ * - the average time of an allocation, and the parties that were turned away
+ * - the share of the parties that were split over rows, and the rows per party
+ * - how full the venue was, the half filled rows, and the fragmentation of the levels, from their {@link LevelStats}
+ * If allocations slow down in the late phases while the half filled rows and the fragmentation go up, the decay
+ * of the layout is what slows them down.. if they slow down without it, it's something else
+ * <pre>
+ * java ... FragmentationBenchmark [seed] [steps] [levels] [rowsPerLevel] [seatsPerRow] [phases]
+ * </pre>
+ */
+public class FragmentationBenchmark {
+
+	// the party sizes, and how often they come in percent
+	static final int[] PARTY_SIZES = {1, 2, 3, 4, 5, 6, 8, 10};
+	static final int[] PARTY_WEIGHTS = {10, 40, 12, 20, 6, 6, 4, 2};
+	// the share of the steps that expire a live hold instead of making one
+	static final double EXPIRY_RATE = 0.4;
+
+	/**
+	 * a step of the script.. a party that holds seats, or the expiry of a live hold
+	 */
+	static class Step {
+		final int partySize;
+		// picks the hold that expires among the live holds
+		final int pick;
+
+		Step(int partySize, int pick) {
+			this.partySize = partySize;
+			this.pick = pick;
+		}
+
+		boolean isExpiry() {
+			return partySize==0;
+		}
+	}
+
+	/**
+	 * what happened in a phase of the sale
+	 */
+	static class Phase {
+		long allocationNanos;
+		int allocations;
+		int turnedAway;
+		int split;
+		int rows;
+		int seatsHeld;
+		int halfFilledRows;
+		double fragmentation;
+	}
+
+	public static void main(String[] args) {
+		long seed = (args.length>0)?Long.parseLong(args[0]):42;
+		int steps = (args.length>1)?Integer.parseInt(args[1]):40000;
+		int numLevels = (args.length>2)?Integer.parseInt(args[2]):2;
+		int numRows = (args.length>3)?Integer.parseInt(args[3]):200;
+		int seatsPerRow = (args.length>4)?Integer.parseInt(args[4]):50;
+		int numPhases = (args.length>5)?Integer.parseInt(args[5]):10;
+
+		List<Step> script = script(seed, steps);
+		int capacity = numLevels*numRows*seatsPerRow;
+		for(AllocationMode mode: AllocationMode.values())
+		{
+			// once to warm up, once for real
+			replay(script, mode, numLevels, numRows, seatsPerRow, numPhases);
+			List<Phase> phases = replay(script, mode, numLevels, numRows, seatsPerRow, numPhases);
+			System.out.println(mode);
+			System.out.println(String.format("%-6s %10s %10s %8s %10s %8s %12s %14s", "phase", "ns/alloc", "turned", "split", "rows/hold", "sold", "half filled", "fragmentation"));
+			long nanos = 0;
+			int allocations = 0, split = 0;
+			for(int i=0; i<phases.size(); i++)
+			{
+				Phase phase = phases.get(i);
+				int held = Math.max(1, phase.allocations);
+				System.out.println(String.format("%-6d %10.0f %10d %7.1f%% %10.2f %7.1f%% %12d %14.2f", i+1, (double)phase.allocationNanos/Math.max(1, phase.allocations+phase.turnedAway),
+						phase.turnedAway, 100.0*phase.split/held, (double)phase.rows/held, 100.0*phase.seatsHeld/capacity, phase.halfFilledRows, phase.fragmentation));
+				nanos+=phase.allocationNanos;
+				allocations+=phase.allocations;
+				split+=phase.split;
+			}
+			System.out.println(String.format("%s: %.0f holds/s, %.1f%% split", mode, allocations/(nanos/1e9), 100.0*split/Math.max(1, allocations)));
+			System.out.println();
+		}
+	}
+
+	/**
+	 * makes the script of a sale
+	 * @param seed
+	 * @param steps
+	 * @return
+	 */
+	static List<Step> script(long seed, int steps) {
+		Random random = new Random(seed);
+		List<Step> script = new ArrayList<Step>(steps);
+		for(int i=0; i<steps; i++)
+		{
+			if(random.nextDouble()<EXPIRY_RATE)
+			{
+				script.add(new Step(0, random.nextInt(Integer.MAX_VALUE)));
+				continue;
+			}
+			int weight = random.nextInt(100);
+			int size = 0;
+			while(weight>=PARTY_WEIGHTS[size]) weight-=PARTY_WEIGHTS[size++];
+			script.add(new Step(PARTY_SIZES[size], 0));
+		}
+		return script;
+	}
+
+	/**
+	 * plays a script against a new stadium
+	 * @return what happened in every phase
+	 */
+	static List<Phase> replay(List<Step> script, AllocationMode mode, int numLevels, int numRows, int seatsPerRow, int numPhases) {
+		StadiumServiceImpl stadium = new StadiumServiceImpl(1, numLevels, Collections.nCopies(numLevels, numRows), Collections.nCopies(numLevels, seatsPerRow));
+		List<SortedSet<RowFragment>> live = new ArrayList<SortedSet<RowFragment>>();
+		List<Phase> phases = new ArrayList<Phase>();
+		int seatsHeld = 0;
+		int stepsPerPhase = (script.size()+numPhases-1)/numPhases;
+		Phase phase = null;
+		for(int i=0; i<script.size(); i++)
+		{
+			if(i%stepsPerPhase==0)
+			{
+				phase = new Phase();
+				phases.add(phase);
+			}
+			Step step = script.get(i);
+			if(step.isExpiry())
+			{
+				seatsHeld-=expire(stadium, live, step.pick);
+			}
+			else
+			{
+				long start = System.nanoTime();
+				SortedSet<RowFragment> allocated = null;
+				try
+				{
+					allocated = stadium.allocate(step.partySize, 1, numLevels, mode);
+				}
+				catch(IllegalArgumentException e)
+				{
+					// out of seats
+				}
+				phase.allocationNanos+=System.nanoTime()-start;
+				if(allocated==null)
+				{
+					phase.turnedAway++;
+				}
+				else
+				{
+					phase.allocations++;
+					// one fragment per row
+					phase.rows+=allocated.size();
+					if(allocated.size()>1) phase.split++;
+					seatsHeld+=step.partySize;
+					live.add(allocated);
+				}
+			}
+			if((i+1)%stepsPerPhase==0||i==script.size()-1)
+			{
+				// the layout at the end of the phase
+				phase.seatsHeld = seatsHeld;
+				for(int level=1; level<=numLevels; level++)
+				{
+					LevelStats stats = stadium.getLevelStats(level);
+					phase.halfFilledRows+=stats.getHalfFilledRows();
+					phase.fragmentation+=stats.getFragmentation()/numLevels;
+				}
+			}
+		}
+		return phases;
+	}
+
+	/**
+	 * gives back the seats of a live hold
+	 * @return the number of seats given back
+	 */
+	static int expire(StadiumServiceImpl stadium, List<SortedSet<RowFragment>> live, int pick) {
+		if(live.isEmpty()) return 0;
+		// swap the expired hold with the last one, the order of the live holds doesn't matter
+		int index = pick%live.size();
+		SortedSet<RowFragment> expired = live.get(index);
+		live.set(index, live.get(live.size()-1));
+		live.remove(live.size()-1);
+		int seats = 0;
+		for(RowFragment fragment: expired) seats+=fragment.getNumSeats();
+		stadium.deallocate(expired);
+		return seats;
+	}
+}
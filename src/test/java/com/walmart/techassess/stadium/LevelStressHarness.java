@@ -0,0 +1,468 @@
+package com.walmart.techassess.stadium;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress harness for {@link Level} and {@link Row}, in the spirit of jcstress
+ *
+ * Each configuration is a small level that is hammered by concurrent allocators and expirers, and some of the
+ * levels have their row pool split into stripes. Allocators allocate parties of random size and roll back when
+ * the level can't seat the whole party, just like {@link StadiumServiceImpl#allocate(int, int, int)} does. Some parties are seated together, in the best
+ * scoring rows or in a range of rows, and some take all the free seats of a block of rows. Expirers deallocate parties that were allocated earlier, or release the
+ * last seats of a party, which makes the rows compact their fragments. An observer periodically freezes the
+ * level by taking the deallocation lock and checks the invariants while the actors are running
+ *
+ * After every run the level is checked again with the actors stopped. The invariants are
+ * - no seat is allocated twice. The fragments of every row are contiguous, don't overlap, belong to the row,
+ *   and the unassigned fragment is the last one
+ * - the free counts are consistent. The free count of the row matches it's unassigned fragment and the free
+ *   block and score indexes, the free count of the level matches the rows, and the seats held by the actors match the seats allocated
+ * - every row is in the row pool exactly once, under it's number of free seats, or is checked out. Rows can only
+ *   be checked out while an allocation is in progress, so a frozen level has no checked out rows
+ * - every stripe of the row pool knows it's front most empty row
+ *
+ * The harness prints the throughput of every configuration and the invariants that were violated. It exits
+ * with a non zero status when any invariant was violated
+ * <pre>
+ * java -ea ... LevelStressHarness [runs] [millisPerRun]
+ * </pre>
+ */
+public class LevelStressHarness {
+
+	/**
+	 * a level layout and the number of actors that hammer it
+	 */
+	static class Configuration {
+		final String name;
+		final int numRows;
+		final int seatsPerRow;
+		final int maxPartySize;
+		final int allocators;
+		final int expirers;
+		final int numStripes;
+
+		Configuration(String name, int numRows, int seatsPerRow, int maxPartySize, int allocators, int expirers) {
+			this(name, numRows, seatsPerRow, maxPartySize, allocators, expirers, 1);
+		}
+
+		Configuration(String name, int numRows, int seatsPerRow, int maxPartySize, int allocators, int expirers, int numStripes) {
+			this.name = name;
+			this.numRows = numRows;
+			this.seatsPerRow = seatsPerRow;
+			this.maxPartySize = maxPartySize;
+			this.allocators = allocators;
+			this.expirers = expirers;
+			this.numStripes = numStripes;
+		}
+	}
+
+	static final List<Configuration> CONFIGURATIONS = new ArrayList<Configuration>();
+	static {
+		CONFIGURATIONS.add(new Configuration("tiny 2x4", 2, 4, 3, 2, 1));
+		CONFIGURATIONS.add(new Configuration("small 4x10", 4, 10, 6, 4, 2));
+		CONFIGURATIONS.add(new Configuration("contended 8x20", 8, 20, 8, 8, 4));
+		CONFIGURATIONS.add(new Configuration("multi-row 3x50", 3, 50, 120, 4, 2));
+		CONFIGURATIONS.add(new Configuration("striped 8x20", 8, 20, 30, 8, 4, 4));
+		CONFIGURATIONS.add(new Configuration("striped 40x10", 40, 10, 12, 8, 4, 4));
+	}
+
+	// the level under test.. uses level 2 so that level and seat counts can't be mixed up
+	static final int LEVEL = 2;
+
+	final Configuration configuration;
+	final Level level;
+	// the parties that are currently allocated
+	final ConcurrentLinkedQueue<SortedSet<RowFragment>> parties = new ConcurrentLinkedQueue<SortedSet<RowFragment>>();
+	final AtomicLong allocations = new AtomicLong();
+	final AtomicLong rollbacks = new AtomicLong();
+	final AtomicLong deallocations = new AtomicLong();
+	final AtomicLong releases = new AtomicLong();
+	final AtomicLong observations = new AtomicLong();
+	final ConcurrentLinkedQueue<String> violations = new ConcurrentLinkedQueue<String>();
+	volatile boolean running = true;
+
+	LevelStressHarness(Configuration configuration) {
+		this.configuration = configuration;
+		// score the rows so that the score index is not in row order
+		List<Integer> rowScores = new ArrayList<Integer>();
+		for(int rowNum=0; rowNum<configuration.numRows; rowNum++) rowScores.add((rowNum*7)%configuration.numRows);
+		this.level = new Level(LEVEL, configuration.numRows, configuration.seatsPerRow, rowScores, configuration.numStripes);
+	}
+
+	/**
+	 * runs the actors for the given time and checks the invariants when they are done
+	 * @param millis
+	 * @param seed
+	 * @throws InterruptedException
+	 */
+	void run(long millis, long seed) throws InterruptedException {
+		List<Thread> actors = new ArrayList<Thread>();
+		for(int i=0; i<configuration.allocators; i++)
+		{
+			final Random rand = new Random(seed*31+i);
+			actors.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					while(running) allocate(rand);
+				}
+			}, "allocator-"+i));
+		}
+		for(int i=0; i<configuration.expirers; i++)
+		{
+			final Random rand = new Random(seed*17+i);
+			actors.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					while(running) expire(rand);
+				}
+			}, "expirer-"+i));
+		}
+		actors.add(new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				while(running)
+				{
+					observe();
+					Thread.yield();
+				}
+			}
+		}, "observer"));
+
+		for(Thread actor: actors) actor.start();
+		Thread.sleep(millis);
+		running = false;
+		for(Thread actor: actors) actor.join();
+
+		checkLevel("after run");
+		checkParties();
+	}
+
+	void allocate(Random rand) {
+		int numSeats = 1+rand.nextInt(configuration.maxPartySize);
+		SortedSet<RowFragment> party = new TreeSet<RowFragment>();
+		try
+		{
+			// every now and then seat a party together, in the best scoring rows or in a range of rows, which go
+			// through the indexes
+			int mode = rand.nextInt(8);
+			int fromRow = rand.nextInt(level.numRows);
+			if(mode==3)
+			{
+				// a group takes whatever is left of a block of rows
+				if(level.allocateBlock(fromRow, Math.min(level.numRows-1, fromRow+rand.nextInt(2)), party)>0)
+				{
+					parties.add(party);
+					allocations.incrementAndGet();
+				}
+				return;
+			}
+			int allocated = (mode==0)?level.allocateTogether(numSeats, party)
+					:(mode==1)?level.allocateBest(numSeats, party)
+					:(mode==2)?level.allocateInRows(numSeats, fromRow, fromRow+rand.nextInt(level.numRows-fromRow), party)
+					:level.allocate(numSeats, party);
+			if(allocated<numSeats)
+			{
+				// couldn't seat the whole party.. roll back like the stadium does
+				for(RowFragment fragment: party) level.deallocate(fragment);
+				rollbacks.incrementAndGet();
+				return;
+			}
+			parties.add(party);
+			allocations.incrementAndGet();
+		}
+		catch(RuntimeException|AssertionError e)
+		{
+			violation("allocate of "+numSeats+" seats threw "+e);
+		}
+	}
+
+	void expire(Random rand) {
+		SortedSet<RowFragment> party = parties.poll();
+		if(party==null)
+		{
+			Thread.yield();
+			return;
+		}
+		try
+		{
+			// every now and then give back the last seats of the party, like a customer that needs less seats
+			if(rand.nextInt(4)==0&&party.last().getNumSeats()>1)
+			{
+				RowFragment last = party.last();
+				level.release(Collections.singletonMap(last, 1+rand.nextInt(last.getNumSeats()-1)));
+				parties.add(party);
+				releases.incrementAndGet();
+				return;
+			}
+			// every now and then expire more than one party at once, like the expiry sweep does
+			if(rand.nextInt(4)==0)
+			{
+				SortedSet<RowFragment> other = parties.poll();
+				if(other!=null) party.addAll(other);
+			}
+			for(RowFragment fragment: party) level.deallocate(fragment);
+			deallocations.incrementAndGet();
+		}
+		catch(RuntimeException|AssertionError e)
+		{
+			violation("deallocate of "+party+" threw "+e);
+		}
+	}
+
+	/**
+	 * freezes the level and checks it
+	 */
+	void observe() {
+		level.deallocationLock.lock();
+		try
+		{
+			checkLevel("while running");
+			observations.incrementAndGet();
+		}
+		finally
+		{
+			level.deallocationLock.unlock();
+		}
+	}
+
+	/**
+	 * checks the invariants of the level and it's rows.. the level must be frozen
+	 * @param when
+	 */
+	void checkLevel(String when) {
+		int freeSeats = 0;
+		for(int rowNum=0; rowNum<level.numRows; rowNum++)
+		{
+			// a row that hasn't been made yet is empty
+			Row row = level.rows.get(rowNum);
+			int rowFree = (row==null)?level.seatsPerRow:row.numUnallocatedSeats();
+			freeSeats+=rowFree;
+			if(row!=null) checkRow(row, when);
+			int memberships = count(level.pool(rowNum), rowNum);
+			if(memberships!=1)
+			{
+				violation(when+": row "+rowNum+" is in the row pool "+memberships+" times");
+				continue;
+			}
+			int indexedFree = level.freeBlocks.numFree(rowNum);
+			if(indexedFree!=rowFree)
+			{
+				violation(when+": row "+rowNum+" has "+rowFree+" free seats, the free block index says "+indexedFree);
+			}
+			int scoredFree = level.bestRows.numFree(rowNum);
+			if(scoredFree!=rowFree)
+			{
+				violation(when+": row "+rowNum+" has "+rowFree+" free seats, the score index says "+scoredFree);
+			}
+			int pooledFree = level.pool(rowNum).freeOf[level.pool(rowNum).slot(rowNum)];
+			if(pooledFree!=rowFree)
+			{
+				violation(when+": row "+rowNum+" with "+rowFree+" free seats is in the row pool with "+pooledFree);
+			}
+		}
+		int rowsInPool = 0;
+		for(RowPool pool: level.pools)
+		{
+			int rowsInStripe = size(pool);
+			int countedRows = 0;
+			for(int numRows: pool.numRowsWithFree) countedRows+=numRows;
+			if(countedRows!=rowsInStripe)
+			{
+				violation(when+": stripe "+pool.stripe+" of the row pool counts "+countedRows+" rows but has "+rowsInStripe);
+			}
+			int firstEmpty = Integer.MAX_VALUE;
+			for(int rowNum=pool.stripe; rowNum<level.numRows; rowNum+=level.pools.length)
+			{
+				if(pool.freeOf[pool.slot(rowNum)]==level.seatsPerRow)
+				{
+					firstEmpty = rowNum;
+					break;
+				}
+			}
+			if(pool.firstEmpty!=firstEmpty)
+			{
+				violation(when+": stripe "+pool.stripe+" of the row pool says it's first empty row is "+pool.firstEmpty+", not "+firstEmpty);
+			}
+			rowsInPool+=rowsInStripe;
+		}
+		if(rowsInPool!=level.numRows)
+		{
+			violation(when+": "+rowsInPool+" entries in the row pool for "+level.numRows+" rows");
+		}
+		if(level.numUnallocatedSeats()!=freeSeats)
+		{
+			violation(when+": level reports "+level.numUnallocatedSeats()+" free seats, rows have "+freeSeats);
+		}
+	}
+
+	/**
+	 * checks that the fragments of a row tile the row without gaps or overlaps
+	 * @param row
+	 * @param when
+	 */
+	void checkRow(Row row, String when) {
+		synchronized(row)
+		{
+			String name = when+": row "+row.rowNum+" "+row.fragments;
+			int nextSeat = 1;
+			for(RowFragment fragment: row.fragments)
+			{
+				if(fragment.getLevel()!=row.level||fragment.getRowNum()!=row.rowNum)
+				{
+					violation(name+" contains fragment "+fragment+" of another row");
+				}
+				if(fragment.getStartSeat()!=nextSeat||fragment.getEndSeat()<fragment.getStartSeat())
+				{
+					violation(name+" has a gap or an overlap at seat "+nextSeat);
+				}
+				nextSeat = fragment.getEndSeat()+1;
+			}
+			if(nextSeat!=row.numSeats+1)
+			{
+				violation(name+" covers "+(nextSeat-1)+" of "+row.numSeats+" seats");
+			}
+			RowFragment unassigned = row.unassignedFragment;
+			if(row.numUnallocatedSeats()!=0)
+			{
+				if(row.fragments.isEmpty()||row.fragments.get(row.fragments.size()-1)!=unassigned)
+				{
+					violation(name+" unassigned fragment "+unassigned+" is not the last fragment");
+				}
+				if(unassigned.getNumSeats()!=row.numUnallocatedSeats())
+				{
+					violation(name+" has "+row.numUnallocatedSeats()+" free seats but the unassigned fragment is "+unassigned);
+				}
+			}
+			else if(containsInstance(row.fragments, unassigned))
+			{
+				violation(name+" is full but still has the unassigned fragment "+unassigned);
+			}
+		}
+	}
+
+	/**
+	 * checks that the parties held by the actors are exactly the allocated fragments
+	 */
+	void checkParties() {
+		int seatsInParties = 0;
+		List<RowFragment> fragments = new ArrayList<RowFragment>();
+		for(SortedSet<RowFragment> party: parties)
+		{
+			for(RowFragment fragment: party)
+			{
+				seatsInParties+=fragment.getNumSeats();
+				fragments.add(fragment);
+			}
+		}
+		int allocatedSeats = level.numRows*level.seatsPerRow-level.numUnallocatedSeats();
+		if(allocatedSeats!=seatsInParties)
+		{
+			violation("after run: "+allocatedSeats+" seats allocated, parties hold "+seatsInParties);
+		}
+		for(RowFragment fragment: fragments)
+		{
+			Row row = level.rows.get(fragment.getRowNum());
+			if(row==null)
+			{
+				violation("after run: party fragment "+fragment+" is in a row that was never made");
+			}
+			else if(!containsInstance(row.fragments, fragment))
+			{
+				violation("after run: party fragment "+fragment+" is not in it's row "+row.fragments);
+			}
+		}
+	}
+
+	/**
+	 * the number of free seat buckets of the pool that have the row
+	 */
+	private static int count(RowPool pool, int rowNum) {
+		int count = 0;
+		int slot = pool.slot(rowNum);
+		pool.lock.lock();
+		try
+		{
+			for(long[] rows: pool.rowsWithFree)
+			{
+				if(rows!=null&&(rows[slot>>>6]&(1L<<slot))!=0) count++;
+			}
+		}
+		finally
+		{
+			pool.lock.unlock();
+		}
+		return count;
+	}
+
+	/**
+	 * the number of rows in the pool, counted from the buckets
+	 */
+	private static int size(RowPool pool) {
+		pool.lock.lock();
+		try
+		{
+			int size = 0;
+			for(long[] rows: pool.rowsWithFree)
+			{
+				if(rows!=null) for(long word: rows) size+=Long.bitCount(word);
+			}
+			return size;
+		}
+		finally
+		{
+			pool.lock.unlock();
+		}
+	}
+
+	private static boolean containsInstance(Collection<RowFragment> fragments, RowFragment fragment) {
+		for(RowFragment candidate: fragments) if(candidate==fragment) return true;
+		return false;
+	}
+
+	void violation(String message) {
+		// keep the first few.. a broken level usually breaks the same way over and over
+		if(violations.size()<20) violations.add(message);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int runs = (args.length>0)?Integer.parseInt(args[0]):5;
+		long millis = (args.length>1)?Long.parseLong(args[1]):500;
+		boolean failed = false;
+
+		System.out.println(String.format("%-18s %5s %12s %10s %10s %10s %10s %10s", "configuration", "runs", "ops/s", "allocs", "rollbacks", "deallocs", "releases", "violations"));
+		for(Configuration configuration: CONFIGURATIONS)
+		{
+			long allocations = 0, rollbacks = 0, deallocations = 0, releases = 0;
+			List<String> violations = new ArrayList<String>();
+			for(int run=0; run<runs; run++)
+			{
+				LevelStressHarness harness = new LevelStressHarness(configuration);
+				harness.run(millis, run);
+				allocations+=harness.allocations.get();
+				rollbacks+=harness.rollbacks.get();
+				deallocations+=harness.deallocations.get();
+				releases+=harness.releases.get();
+				for(String violation: harness.violations) violations.add("run "+run+": "+violation);
+			}
+			double opsPerSecond = (allocations+rollbacks+deallocations+releases)/(runs*millis/1000.0);
+			System.out.println(String.format("%-18s %5d %12.0f %10d %10d %10d %10d %10d", configuration.name, runs, opsPerSecond, allocations, rollbacks, deallocations, releases, violations.size()));
+			for(int i=0; i<violations.size()&&i<5; i++)
+			{
+				System.out.println("    "+violations.get(i));
+			}
+			failed|=!violations.isEmpty();
+		}
+		if(failed) System.exit(1);
+	}
+}
@@ -0,0 +1,205 @@
+package com.walmart.techassess.ticketing.binary;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.walmart.techassess.reservations.ReservationServiceImpl;
+import com.walmart.techassess.reservations.SeatHold;
+import com.walmart.techassess.stadium.AllocationMode;
+import com.walmart.techassess.stadium.RowFragment;
+import com.walmart.techassess.stadium.StadiumServiceImpl;
+import com.walmart.techassess.ticketing.TicketServiceImpl;
+import com.walmart.techassess.ticketing.load.LatencySamples;
+
+/**
+ * Loopback benchmark for {@link TicketBinaryServer}
+ *
+ * Starts a server on a free port of the loopback interface, and runs concurrent terminals against it in 2 phases
+ * - round trips: every terminal holds seats and reserves them, one request at a time, and the latency of
+ *   every hold and reserve is recorded
+ * - pipelined: every terminal sends a batch of holds at once, reads the responses, and then reserves all of
+ *   them at once. This measures the throughput when the terminals don't wait for every response
+ *
+ * Every reservation is looked up at the end and checked against the hold. The requests that fail are counted
+ * as errors.. running out of seats is not an error
+ * <pre>
+ * java ... BinaryBenchmark [terminals] [rounds] [pipelineDepth] [selectors]
+ * </pre>
+ */
+public class BinaryBenchmark {
+
+	static final String OUT_OF_SEATS = "Out of seats!";
+
+	final int terminals;
+	final int rounds;
+	final int depth;
+	final InetSocketAddress address;
+	final AtomicLong errors = new AtomicLong();
+	final AtomicLong outOfSeats = new AtomicLong();
+	final AtomicLong requests = new AtomicLong();
+	final List<LatencySamples> holdLatencies = new ArrayList<LatencySamples>();
+	final List<LatencySamples> reserveLatencies = new ArrayList<LatencySamples>();
+
+	public BinaryBenchmark(int terminals, int rounds, int depth, InetSocketAddress address) {
+		this.terminals = terminals;
+		this.rounds = rounds;
+		this.depth = depth;
+		this.address = address;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int terminals = (args.length>0)?Integer.parseInt(args[0]):16;
+		int rounds = (args.length>1)?Integer.parseInt(args[1]):2000;
+		int depth = (args.length>2)?Integer.parseInt(args[2]):32;
+		int selectors = (args.length>3)?Integer.parseInt(args[3]):Math.max(1, Runtime.getRuntime().availableProcessors()/2);
+		// a venue big enough for every party of 1 to 4 seats of both phases
+		int seats = terminals*rounds*4*(1+depth);
+		int numRows = seats/100+1;
+		TicketServiceImpl ticketService = new TicketServiceImpl(new StadiumServiceImpl(1, 1, Arrays.asList(numRows), Arrays.asList(100)),
+				new ReservationServiceImpl(60000));
+		TicketBinaryServer server = new TicketBinaryServer(ticketService, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), selectors);
+		server.start();
+		try
+		{
+			InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+			// warm up the JIT on both ends
+			new BinaryBenchmark(terminals, Math.max(1, rounds/10), depth, address).run();
+			BinaryBenchmark benchmark = new BinaryBenchmark(terminals, rounds, depth, address);
+			long nanos = benchmark.run();
+			benchmark.report(nanos);
+			if(benchmark.errors.get()>0) System.exit(1);
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+
+	/**
+	 * runs both phases of all the terminals
+	 * @return the elapsed time of the pipelined phase in nanoseconds
+	 * @throws InterruptedException
+	 */
+	long run() throws InterruptedException {
+		runTerminals(false);
+		requests.set(0);
+		long start = System.nanoTime();
+		runTerminals(true);
+		return System.nanoTime()-start;
+	}
+
+	void runTerminals(final boolean pipelined) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(terminals);
+		for(int i=0; i<terminals; i++)
+		{
+			final LatencySamples holdSamples = new LatencySamples();
+			final LatencySamples reserveSamples = new LatencySamples();
+			if(!pipelined)
+			{
+				holdLatencies.add(holdSamples);
+				reserveLatencies.add(reserveSamples);
+			}
+			final String email = "terminal"+i+"@boxoffice.com";
+			pool.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try(TicketBinaryClient client = new TicketBinaryClient(address))
+					{
+						for(int round=0; round<rounds; round++)
+						{
+							if(pipelined) pipelined(client, email);
+							else roundTrip(client, email, round, holdSamples, reserveSamples);
+						}
+					}
+					catch(Exception e)
+					{
+						// show the first error, the rest are probably the same
+						if(errors.incrementAndGet()==1) e.printStackTrace();
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.HOURS);
+	}
+
+	void roundTrip(TicketBinaryClient client, String email, int round, LatencySamples holdSamples, LatencySamples reserveSamples) throws Exception {
+		int numSeats = 1+(round%4);
+		long t0 = System.nanoTime();
+		SeatHold hold;
+		try
+		{
+			hold = client.findAndHoldSeats(numSeats, Optional.<Integer>empty(), Optional.<Integer>empty(), email, AllocationMode.BEST_AVAILABLE);
+		}
+		catch(IllegalArgumentException e)
+		{
+			if(!OUT_OF_SEATS.equals(e.getMessage())) throw e;
+			outOfSeats.incrementAndGet();
+			return;
+		}
+		holdSamples.record(System.nanoTime()-t0);
+
+		t0 = System.nanoTime();
+		String confirmationCode = client.reserveSeats(hold.getSeatHoldId(), email);
+		reserveSamples.record(System.nanoTime()-t0);
+		check(client.getReservation(confirmationCode), hold);
+	}
+
+	void pipelined(TicketBinaryClient client, String email) throws Exception {
+		for(int i=0; i<depth; i++)
+		{
+			client.requestHold(1+(i%4), Optional.<Integer>empty(), Optional.<Integer>empty(), email, AllocationMode.BEST_AVAILABLE);
+		}
+		client.flush();
+		List<SeatHold> holds = new ArrayList<SeatHold>();
+		for(int i=0; i<depth; i++)
+		{
+			TicketBinaryClient.Response response = client.readResponse();
+			if(response.isOk()) holds.add(response.getHold());
+			else if(OUT_OF_SEATS.equals(response.getError())) outOfSeats.incrementAndGet();
+			else throw new IllegalStateException(response.getError());
+		}
+		for(SeatHold hold: holds) client.requestReserve(hold.getSeatHoldId(), email);
+		client.flush();
+		for(int i=0; i<holds.size(); i++)
+		{
+			TicketBinaryClient.Response response = client.readResponse();
+			if(!response.isOk()) throw new IllegalStateException(response.getError());
+		}
+		requests.addAndGet(depth+holds.size());
+	}
+
+	static void check(SortedSet<RowFragment> reserved, SeatHold hold) {
+		if(reserved==null||!reserved.equals(hold.getReservation().getRowsReserved()))
+		{
+			throw new IllegalStateException("Reserved "+reserved+" but held "+hold.getReservation());
+		}
+	}
+
+	void report(long nanos) {
+		System.out.println(String.format("%-12s %10s %10s %10s %10s %10s", "round trip", "requests", "p50(us)", "p99(us)", "p99.9(us)", "max(us)"));
+		print("hold", holdLatencies);
+		print("reserve", reserveLatencies);
+		double seconds = nanos/1e9;
+		System.out.println(String.format("pipelined %d deep: %d requests in %.2fs, %.0f requests/s", depth, requests.get(), seconds, requests.get()/seconds));
+		System.out.println(String.format("terminals %d, out of seats %d, errors %d", terminals, outOfSeats.get(), errors.get()));
+	}
+
+	private static void print(String name, List<LatencySamples> latencies) {
+		LatencySamples merged = new LatencySamples();
+		for(LatencySamples samples: latencies) merged.addAll(samples);
+		merged.sort();
+		System.out.println(String.format("%-12s %10d %10.1f %10.1f %10.1f %10.1f", name, merged.size(),
+				merged.percentileMicros(50), merged.percentileMicros(99), merged.percentileMicros(99.9), merged.maxMicros()));
+	}
+}
@@ -1,32 +1,80 @@
 package com.walmart.techassess.ticketing.cukes;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang.StringUtils;
 import org.junit.Assert;
 
+import com.walmart.techassess.reservations.ColumnarReservationService;
 import com.walmart.techassess.reservations.Reservation;
+import com.walmart.techassess.reservations.ReservationArchive;
 import com.walmart.techassess.reservations.ReservationService;
 import com.walmart.techassess.reservations.ReservationServiceImpl;
 import com.walmart.techassess.reservations.SeatHold;
+import com.walmart.techassess.reservations.SeatOwner;
+import com.walmart.techassess.stadium.AllocationMode;
+import com.walmart.techassess.stadium.LevelStats;
+import com.walmart.techassess.stadium.PriceTier;
 import com.walmart.techassess.stadium.StadiumService;
 import com.walmart.techassess.stadium.StadiumServiceImpl;
+import com.walmart.techassess.stadium.VenueTemplate;
+import com.walmart.techassess.ticketing.CustomerThrottle;
+import com.walmart.techassess.ticketing.HoldTraceAnalyzer;
+import com.walmart.techassess.ticketing.IdempotencyCache;
+import com.walmart.techassess.ticketing.ThrottledException;
 import com.walmart.techassess.ticketing.TicketService;
 import com.walmart.techassess.ticketing.TicketServiceImpl;
+import com.walmart.techassess.ticketing.replay.ReplayEngine;
+import com.walmart.techassess.ticketing.replay.TraceEntry;
+import com.walmart.techassess.ticketing.replay.TraceRecorder;
+import com.walmart.techassess.ticketing.replay.VirtualClock;
 
 import cucumber.api.DataTable;
 import cucumber.api.PendingException;
 import cucumber.api.java.en.Given;
 import cucumber.api.java.en.Then;
 import cucumber.api.java.en.When;
+import jdk.jfr.Recording;
 
 public class ReservationSteps {
 
 	int timeout = 1;
+	int holdQuota = Integer.MAX_VALUE;
+	int maxExtension = 1;
+	List<PriceTier> rowTiers = new ArrayList<PriceTier>();
+	// seconds before reservations are archived, -1 keeps them on the heap
+	int settleTime = -1;
+	ReservationArchive archive;
+	// the size of the segments of the archive, 0 for the default
+	int archiveSegmentSize = 0;
+	boolean columnarHolds = false;
+	// seconds an idempotency key is kept
+	int idempotencyTime = 600;
+	// a flight recording of the scenario, and what's in it once it's stopped
+	Recording recording;
+	HoldTraceAnalyzer trace;
+	// the lines of the last export of the reservations, and the number of reservations in it
+	List<String> exported;
+	int numExported;
+	// the clock of the reservations and the trace of the calls, when the scenario is traced
+	VirtualClock clock;
+	StringWriter callTrace;
+	// the levels of the performance, for a fresh one to replay the trace against
+	List<StadiumInfo> levels;
 	ReservationService reservationService;
 	StadiumService stadiumService; 
 	TicketService ticketService;
@@ -37,6 +85,7 @@ public class ReservationSteps {
 		boolean seatsAvailable = false;
 		SeatHold hold = null;
 		String confirmationCode = "";
+		CompletableFuture<SeatHold> waitlisted = null;
 		public boolean isSeatsAvailable() {
 			return seatsAvailable;
 		}
@@ -61,22 +110,84 @@ public class ReservationSteps {
 	
 	Map<String, State> state = new HashMap<String, State>();
 
+	// the venue templates loaded so far, by layout file.. shared by all the scenarios, like a venue is shared by it's performances
+	static final Map<String, VenueTemplate> templates = new HashMap<String, VenueTemplate>();
+
 	@Given("^a timeout of (\\d+) sec$")
 	public void a_timeout_of_sec(int timeout) throws Throwable {
 		this.timeout = timeout;
 	}
 
+	@Given("^a maximum hold extension of (\\d+) sec$")
+	public void a_maximum_hold_extension_of_sec(int maxExtension) throws Throwable {
+		this.maxExtension = maxExtension;
+	}
+
+	@Given("^a hold quota of (\\d+) seats per customer$")
+	public void a_hold_quota_of_seats_per_customer(int holdQuota) throws Throwable {
+		this.holdQuota = holdQuota;
+	}
+
+	@Given("^reservations are archived after (\\d+) sec$")
+	public void reservations_are_archived_after_sec(int settleTime) throws Throwable {
+		this.settleTime = settleTime;
+	}
+
+	@Given("^reservations are archived after (\\d+) sec in segments of (\\d+) bytes$")
+	public void reservations_are_archived_after_sec_in_segments_of_bytes(int settleTime, int segmentSize) throws Throwable {
+		this.settleTime = settleTime;
+		this.archiveSegmentSize = segmentSize;
+	}
+
+	@Given("^holds are kept in columns$")
+	public void holds_are_kept_in_columns() throws Throwable {
+		this.columnarHolds = true;
+	}
+
+	@Given("^idempotency keys are kept for (\\d+) sec$")
+	public void idempotency_keys_are_kept_for_sec(int idempotencyTime) throws Throwable {
+		this.idempotencyTime = idempotencyTime;
+	}
+
+	@Given("^the hold pipeline is recorded$")
+	public void the_hold_pipeline_is_recorded() throws Throwable {
+		recording = new Recording();
+		recording.start();
+	}
+
+	@Given("^the ticket calls are traced on a virtual clock$")
+	public void the_ticket_calls_are_traced_on_a_virtual_clock() throws Throwable {
+		clock = new VirtualClock(System.currentTimeMillis());
+		callTrace = new StringWriter();
+	}
+
+	@Given("^a price tier \"([^\"]*)\" at (\\d+) for rows ([A-Z]) - ([A-Z]) of level (\\d+)$")
+	public void a_price_tier_for_rows_of_level(String name, int price, String firstRow, String lastRow, int level) throws Throwable {
+		rowTiers.add(new PriceTier(name, price, level, firstRow.charAt(0)-'A', lastRow.charAt(0)-'A'));
+	}
+
 	@Given("^a performance with the following levels$")
 	public void a_performance_with_the_following_levels(List<StadiumInfo> stadiumInfos) throws Throwable {
 		// Write code here that turns the phrase above into concrete actions
 		// For automatic transformation, change DataTable to one of
 		// List<YourType>, List<List<E>>, List<Map<K,V>> or Map<K,V>.
 		// E,K,V must be a scalar (String, Integer, Date, enum etc)
+		levels = stadiumInfos;
+		stadiumService = newPerformance(stadiumInfos);
+		startSelling();
+	}
+
+	/**
+	 * makes a stadium with the levels, and fills the seats that are reserved already
+	 */
+	private StadiumService newPerformance(List<StadiumInfo> stadiumInfos) {
 		int minLevel = stadiumInfos.get(0).getId();
 		int maxLevel = stadiumInfos.get(stadiumInfos.size()-1).getId();
 		List<Integer> numRows = new ArrayList<Integer>();
 		List<Integer> numSeats = new ArrayList<Integer>();
 		List<List<Integer>> filledSeats = new ArrayList<List<Integer>>();
+		List<List<Integer>> rowScores = null;
+		List<PriceTier> priceTiers = new ArrayList<PriceTier>();
 		for(StadiumInfo stadiumInfo: stadiumInfos)
 		{
 			String[] seats = stadiumInfo.getSeats().split(",");
@@ -88,19 +199,68 @@ public class ReservationSteps {
 				filledSeatsForLevel.add(StringUtils.countMatches(seatsInRow, "R"));
 			}
 			filledSeats.add(filledSeatsForLevel);
+			// the whole level is sold at the level's price, unless a row tier says otherwise
+			priceTiers.add(new PriceTier(stadiumInfo.getName(), stadiumInfo.getPrice(), stadiumInfo.getId(), 0, seats.length-1));
+			if(stadiumInfo.getScores()!=null&&stadiumInfo.getScores().length()>0)
+			{
+				// the scores of the rows of the level, if the venue has them
+				if(rowScores==null) rowScores = new ArrayList<List<Integer>>();
+				List<Integer> rowScoresForLevel = new ArrayList<Integer>();
+				for(String score: stadiumInfo.getScores().split(","))
+				{
+					rowScoresForLevel.add(Integer.parseInt(score.trim()));
+				}
+				rowScores.add(rowScoresForLevel);
+			}
 		}
-		stadiumService = new StadiumServiceImpl(minLevel, maxLevel, numRows, numSeats);
+		priceTiers.addAll(rowTiers);
+		StadiumServiceImpl stadiumService = new StadiumServiceImpl(minLevel, maxLevel, numRows, numSeats, rowScores, priceTiers);
 		for(int level=minLevel; level<=maxLevel; level++)
 		{
 			List<Integer> filledSeatsForLevel = filledSeats.get(level-minLevel);
 			for(int row=0; row<filledSeatsForLevel.size(); row++)
 			{
 				if(filledSeatsForLevel.get(row)>0)
-					((StadiumServiceImpl)stadiumService).allocateInRow(filledSeatsForLevel.get(row), level, row);
+					stadiumService.allocateInRow(filledSeatsForLevel.get(row), level, row);
+			}
+		}
+		return stadiumService;
+	}
+
+	@Given("^a performance in the venue \"([^\"]*)\"$")
+	public void a_performance_in_the_venue(String layout) throws Throwable {
+		VenueTemplate template;
+		synchronized(templates)
+		{
+			template = templates.get(layout);
+			if(template==null)
+			{
+				template = VenueTemplate.load(Paths.get(getClass().getResource(layout).toURI()));
+				templates.put(layout, template);
 			}
 		}
-		reservationService = new ReservationServiceImpl(timeout*1000);
-		ticketService = new TicketServiceImpl(stadiumService, reservationService);
+		stadiumService = template.newPerformance();
+		startSelling();
+	}
+
+	/**
+	 * sets up the reservation and ticket services for the stadium
+	 */
+	private void startSelling() throws Throwable {
+		if(settleTime>=0)
+		{
+			File file = File.createTempFile("reservations", ".archive");
+			file.delete();
+			file.deleteOnExit();
+			archive = (archiveSegmentSize==0)?new ReservationArchive(file.toPath()):new ReservationArchive(file.toPath(), archiveSegmentSize);
+		}
+		Clock reservationClock = (clock==null)?Clock.systemUTC():clock;
+		if(columnarHolds) reservationService = new ColumnarReservationService(timeout*1000, maxExtension*1000, reservationClock);
+		else reservationService = new ReservationServiceImpl(timeout*1000, maxExtension*1000, archive, settleTime*1000L, reservationClock);
+		ticketService = new TicketServiceImpl(stadiumService, reservationService, 
+				(holdQuota==Integer.MAX_VALUE)?CustomerThrottle.unlimited():new CustomerThrottle(1000, 1000, holdQuota, 60000),
+				new IdempotencyCache(1000, idempotencyTime*1000L));
+		if(callTrace!=null) ticketService = new TraceRecorder(ticketService, reservationClock, callTrace);
 	}
 
 	@When("^User \"([^\"]*)\" holds (\\d+) seats for level (\\d+) - (\\d+)$")
@@ -114,11 +274,150 @@ public class ReservationSteps {
 		}
 	}
 
+	@When("^User \"([^\"]*)\" holds (\\d+) seats together for level (\\d+) - (\\d+)$")
+	public void user_holds_seats_together_for_level(String customerEmail, int numSeats, int minLevel, int maxLevel)
+			throws Throwable {
+		state.put(customerEmail, new State());
+		try
+		{
+			state.get(customerEmail).setHold(ticketService.findAndHoldSeats(numSeats, Optional.of(minLevel), Optional.of(maxLevel), customerEmail, AllocationMode.KEEP_TOGETHER));
+			state.get(customerEmail).setSeatsAvailable(true);
+		}
+		catch(IllegalArgumentException e)
+		{
+			// the party can't sit together
+			state.get(customerEmail).setSeatsAvailable(false);
+		}
+	}
+
+	@When("^User \"([^\"]*)\" holds (\\d+) best seats for level (\\d+) - (\\d+)$")
+	public void user_holds_best_seats_for_level(String customerEmail, int numSeats, int minLevel, int maxLevel)
+			throws Throwable {
+		state.put(customerEmail, new State());
+		state.get(customerEmail).setSeatsAvailable(ticketService.numSeatsAvailable(Optional.of(minLevel), Optional.of(maxLevel))>=numSeats);
+		if(state.get(customerEmail).isSeatsAvailable())
+		{
+			state.get(customerEmail).setHold(ticketService.findAndHoldSeats(numSeats, Optional.of(minLevel), Optional.of(maxLevel), customerEmail, AllocationMode.BEST_SCORE));
+		}
+	}
+
+	@When("^User \"([^\"]*)\" holds (\\d+) seats up to (\\d+)$")
+	public void user_holds_seats_up_to(String customerEmail, int numSeats, int maxPrice) throws Throwable {
+		state.put(customerEmail, new State());
+		try
+		{
+			state.get(customerEmail).setHold(ticketService.findAndHoldSeats(numSeats, maxPrice, customerEmail));
+			state.get(customerEmail).setSeatsAvailable(true);
+		}
+		catch(IllegalArgumentException e)
+		{
+			// not enough seats under the price
+			state.get(customerEmail).setSeatsAvailable(false);
+		}
+	}
+
+	@When("^User \"([^\"]*)\" holds (\\d+) seats for level (\\d+) - (\\d+) with key \"([^\"]*)\"$")
+	public void user_holds_seats_for_level_with_key(String customerEmail, int numSeats, int minLevel, int maxLevel, String idempotencyKey)
+			throws Throwable {
+		state.put(customerEmail, new State());
+		try
+		{
+			state.get(customerEmail).setHold(ticketService.findAndHoldSeats(numSeats, Optional.of(minLevel), Optional.of(maxLevel), customerEmail, 
+					AllocationMode.BEST_AVAILABLE, idempotencyKey));
+			state.get(customerEmail).setSeatsAvailable(true);
+		}
+		catch(IllegalArgumentException e)
+		{
+			state.get(customerEmail).setSeatsAvailable(false);
+		}
+	}
+
+	@When("^User \"([^\"]*)\" retries holding (\\d+) seats for level (\\d+) - (\\d+) with key \"([^\"]*)\"$")
+	public void user_retries_holding_seats_for_level_with_key(String customerEmail, int numSeats, int minLevel, int maxLevel, String idempotencyKey)
+			throws Throwable {
+		SeatHold hold = ticketService.findAndHoldSeats(numSeats, Optional.of(minLevel), Optional.of(maxLevel), customerEmail, 
+				AllocationMode.BEST_AVAILABLE, idempotencyKey);
+		Assert.assertEquals(state.get(customerEmail).getHold().getSeatHoldId(), hold.getSeatHoldId());
+	}
+
+	@Then("^User \"([^\"]*)\" is refused holding (\\d+) seats for level (\\d+) - (\\d+) with key \"([^\"]*)\"$")
+	public void user_is_refused_holding_seats_for_level_with_key(String customerEmail, int numSeats, int minLevel, int maxLevel, String idempotencyKey)
+			throws Throwable {
+		try
+		{
+			ticketService.findAndHoldSeats(numSeats, Optional.of(minLevel), Optional.of(maxLevel), customerEmail, AllocationMode.BEST_AVAILABLE, idempotencyKey);
+			Assert.fail("Expected the key to be refused");
+		}
+		catch(IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	@When("^User \"([^\"]*)\" reserves seats with key \"([^\"]*)\"$")
+	public void user_reserves_seats_with_key(String customerEmail, String idempotencyKey) throws Throwable {
+		state.get(customerEmail).setConfirmationCode(ticketService.reserveSeats(state.get(customerEmail).getHold().getSeatHoldId(), customerEmail, idempotencyKey));
+	}
+
+	@When("^User \"([^\"]*)\" retries reserving seats with key \"([^\"]*)\"$")
+	public void user_retries_reserving_seats_with_key(String customerEmail, String idempotencyKey) throws Throwable {
+		Assert.assertEquals(state.get(customerEmail).getConfirmationCode(), 
+				ticketService.reserveSeats(state.get(customerEmail).getHold().getSeatHoldId(), customerEmail, idempotencyKey));
+	}
+
+	@When("^User \"([^\"]*)\" holds rows ([A-Z]) - ([A-Z]) of level (\\d+)$")
+	public void user_holds_rows_of_level(String customerEmail, String firstRow, String lastRow, int level) throws Throwable {
+		state.put(customerEmail, new State());
+		try
+		{
+			state.get(customerEmail).setHold(ticketService.holdBlock(level, firstRow.charAt(0)-'A', lastRow.charAt(0)-'A', customerEmail));
+			state.get(customerEmail).setSeatsAvailable(true);
+		}
+		catch(IllegalArgumentException e)
+		{
+			// nothing left in the rows
+			state.get(customerEmail).setSeatsAvailable(false);
+		}
+	}
+
+	@When("^User \"([^\"]*)\" waits for (\\d+) seats for level (\\d+) - (\\d+)$")
+	public void user_waits_for_seats_for_level(String customerEmail, int numSeats, int minLevel, int maxLevel) throws Throwable {
+		state.put(customerEmail, new State());
+		state.get(customerEmail).waitlisted = ticketService.waitForSeats(numSeats, Optional.of(minLevel), Optional.of(maxLevel), customerEmail);
+	}
+
+	@When("^User \"([^\"]*)\" leaves the waitlist$")
+	public void user_leaves_the_waitlist(String customerEmail) throws Throwable {
+		state.get(customerEmail).waitlisted.cancel(false);
+	}
+
+	@Then("^User \"([^\"]*)\" is still waiting$")
+	public void user_is_still_waiting(String customerEmail) throws Throwable {
+		Assert.assertFalse(state.get(customerEmail).waitlisted.isDone());
+	}
+
+	@Then("^User \"([^\"]*)\" is given a hold$")
+	public void user_is_given_a_hold(String customerEmail) throws Throwable {
+		Assert.assertTrue(state.get(customerEmail).waitlisted.isDone());
+		state.get(customerEmail).setHold(state.get(customerEmail).waitlisted.get());
+		state.get(customerEmail).setSeatsAvailable(true);
+	}
+
 	@When("^User \"([^\"]*)\" reserves seats$")
 	public void user_reserves_seats(String customerEmail) throws Throwable {
 		state.get(customerEmail).setConfirmationCode(ticketService.reserveSeats(state.get(customerEmail).getHold().getSeatHoldId(), customerEmail));
 	}
 
+	@When("^User \"([^\"]*)\" extends the hold by (\\d+) sec$")
+	public void user_extends_the_hold_by_sec(String customerEmail, int secs) throws Throwable {
+		state.get(customerEmail).setHold(ticketService.extendHold(state.get(customerEmail).getHold().getSeatHoldId(), customerEmail, secs*1000));
+	}
+
+	@When("^User \"([^\"]*)\" releases (\\d+) seats$")
+	public void user_releases_seats(String customerEmail, int numSeats) throws Throwable {
+		state.get(customerEmail).setHold(ticketService.releaseSeats(state.get(customerEmail).getHold().getSeatHoldId(), customerEmail, numSeats));
+	}
+
 	@Then("^User \"([^\"]*)\" gets \"([^\"]*)\" seats$")
 	public void user_gets_seats(String customerEmail, String expectedSeats) throws Throwable {
 		Reservation reservation = ticketService.getReservation(state.get(customerEmail).getConfirmationCode());
@@ -131,6 +430,179 @@ public class ReservationSteps {
 		Assert.assertFalse(state.get(customerEmail).isSeatsAvailable());
 	}
 
+	@Then("^User \"([^\"]*)\" has (\\d+) holds and (\\d+) reservations$")
+	public void user_has_holds_and_reservations(String customerEmail, int numHolds, int numReservations) throws Throwable {
+		Assert.assertEquals(numHolds, ticketService.getHolds(customerEmail).size());
+		Assert.assertEquals(numReservations, ticketService.getConfirmationCodes(customerEmail).size());
+	}
+
+	@When("^the reservations are exported$")
+	public void the_reservations_are_exported() throws Throwable {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		numExported = ticketService.exportReservations(out);
+		exported = Arrays.asList(new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n"));
+	}
+
+	@Then("^the export has (\\d+) reservations$")
+	public void the_export_has_reservations(int numReservations) throws Throwable {
+		Assert.assertEquals(numReservations, numExported);
+	}
+
+	@Then("^the export seats User \"([^\"]*)\" in \"([^\"]*)\"$")
+	public void the_export_seats_user_in(String customerEmail, String expectedSeats) throws Throwable {
+		// confirmationCode,customerEmail,level,row,startSeat,endSeat
+		List<String> seats = new ArrayList<String>();
+		for(String line: exported)
+		{
+			List<String> fields = splitCsv(line);
+			if(!fields.get(0).equals(state.get(customerEmail).getConfirmationCode())) continue;
+			Assert.assertEquals(customerEmail, fields.get(1));
+			seats.add(fields.get(2)+"#"+fields.get(3)+"{"+fields.get(4)+"-"+fields.get(5)+"}");
+		}
+		Assert.assertEquals(expectedSeats, StringUtils.join(seats, ", "));
+	}
+
+	/**
+	 * splits a line of CSV into it's fields, taking the quotes off quoted fields
+	 */
+	private static List<String> splitCsv(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for(int i=0; i<line.length(); i++)
+		{
+			char c = line.charAt(i);
+			if(quoted&&c=='"')
+			{
+				// a doubled quote is a quote
+				if(i+1<line.length()&&line.charAt(i+1)=='"') field.append(line.charAt(++i));
+				else quoted = false;
+			}
+			else if(quoted) field.append(c);
+			else if(c=='"') quoted = true;
+			else if(c==',')
+			{
+				fields.add(field.toString());
+				field.setLength(0);
+			}
+			else field.append(c);
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	@Then("^level (\\d+) has (\\d+) empty, (\\d+) half filled and (\\d+) full rows$")
+	public void level_has_empty_half_filled_and_full_rows(int level, int emptyRows, int halfFilledRows, int fullRows) throws Throwable {
+		LevelStats stats = stadiumService.getLevelStats(level);
+		Assert.assertEquals(emptyRows, stats.getEmptyRows());
+		Assert.assertEquals(halfFilledRows, stats.getHalfFilledRows());
+		Assert.assertEquals(fullRows, stats.getFullRows());
+	}
+
+	@Then("^level (\\d+) has a split rate of ([\\d.]+) and ([\\d.]+) rows per allocation$")
+	public void level_has_a_split_rate_of_and_rows_per_allocation(int level, double splitRate, double rowsPerAllocation) throws Throwable {
+		LevelStats stats = stadiumService.getLevelStats(level);
+		Assert.assertEquals(splitRate, stats.getSplitRate(), 0.001);
+		Assert.assertEquals(rowsPerAllocation, stats.getRowsPerAllocation(), 0.001);
+	}
+
+	@When("^(\\d+) sec pass on the clock$")
+	public void sec_pass_on_the_clock(int secs) throws Throwable {
+		clock.advance(secs*1000L);
+	}
+
+	@Then("^the trace replays (\\d+) calls with (\\d+) different$")
+	public void the_trace_replays_calls_with_different(int numCalls, int numDifferent) throws Throwable {
+		((TraceRecorder)ticketService).flush();
+		List<TraceEntry> calls = ReplayEngine.readTrace(new StringReader(callTrace.toString()));
+		// a fresh performance, on a clock of it's own
+		VirtualClock replayClock = new VirtualClock(calls.get(0).getTimestamp());
+		TicketService replayService = new TicketServiceImpl(newPerformance(levels),
+				new ReservationServiceImpl(timeout*1000, maxExtension*1000, null, 0, replayClock));
+		ReplayEngine.Report report = new ReplayEngine(replayService, replayClock, null).replay(calls, 0);
+		Assert.assertEquals(report.getDifferences().toString(), numDifferent, report.getNumDifferent());
+		Assert.assertEquals(numCalls, report.getNumCalls());
+	}
+
+	@Then("^seat (\\d+)#([A-Z])\\{(\\d+)\\} is held by User \"([^\"]*)\"$")
+	public void seat_is_held_by_user(int level, String row, int seat, String customerEmail) throws Throwable {
+		SeatOwner owner = ticketService.findSeatOwner(level, row.charAt(0)-'A', seat);
+		Assert.assertNotNull(owner);
+		Assert.assertEquals(customerEmail, owner.getCustomerEmail());
+		Assert.assertEquals(state.get(customerEmail).getHold().getSeatHoldId(), owner.getSeatHoldId());
+		Assert.assertFalse(owner.isReserved());
+	}
+
+	@Then("^seat (\\d+)#([A-Z])\\{(\\d+)\\} is reserved by User \"([^\"]*)\"$")
+	public void seat_is_reserved_by_user(int level, String row, int seat, String customerEmail) throws Throwable {
+		SeatOwner owner = ticketService.findSeatOwner(level, row.charAt(0)-'A', seat);
+		Assert.assertNotNull(owner);
+		Assert.assertEquals(customerEmail, owner.getCustomerEmail());
+		Assert.assertEquals(state.get(customerEmail).getConfirmationCode(), owner.getConfirmationCode());
+	}
+
+	@Then("^seat (\\d+)#([A-Z])\\{(\\d+)\\} is free$")
+	public void seat_is_free(int level, String row, int seat) throws Throwable {
+		Assert.assertNull(ticketService.findSeatOwner(level, row.charAt(0)-'A', seat));
+	}
+
+	@Then("^(\\d+) reservations are archived$")
+	public void reservations_are_archived(int numReservations) throws Throwable {
+		Assert.assertEquals(numReservations, archive.size());
+	}
+
+	@Then("^the recording has (\\d+) hold requests$")
+	public void the_recording_has_hold_requests(int numRequests) throws Throwable {
+		Assert.assertEquals(numRequests, trace().numRequests());
+	}
+
+	@Then("^the recording has (\\d+) \"([^\"]*)\" events$")
+	public void the_recording_has_events(int numEvents, String name) throws Throwable {
+		Assert.assertEquals(numEvents, trace().numEvents("com.walmart.techassess."+name));
+	}
+
+	/**
+	 * stops the recording the first time it's asked for, and reads it
+	 */
+	private HoldTraceAnalyzer trace() throws Exception {
+		if(trace==null)
+		{
+			recording.stop();
+			Path file = File.createTempFile("holds", ".jfr").toPath();
+			file.toFile().deleteOnExit();
+			recording.dump(file);
+			recording.close();
+			trace = HoldTraceAnalyzer.load(file);
+		}
+		return trace;
+	}
+
+	@Then("^User \"([^\"]*)\" is throttled holding (\\d+) seats for level (\\d+) - (\\d+)$")
+	public void user_is_throttled_holding_seats_for_level(String customerEmail, int numSeats, int minLevel, int maxLevel) throws Throwable {
+		try
+		{
+			ticketService.findAndHoldSeats(numSeats, Optional.of(minLevel), Optional.of(maxLevel), customerEmail);
+			Assert.fail("Expected the hold to be throttled");
+		}
+		catch(ThrottledException e)
+		{
+			// expected
+		}
+	}
+
+	@Then("^User \"([^\"]*)\" is throttled waiting for (\\d+) seats for level (\\d+) - (\\d+)$")
+	public void user_is_throttled_waiting_for_seats_for_level(String customerEmail, int numSeats, int minLevel, int maxLevel) throws Throwable {
+		try
+		{
+			ticketService.waitForSeats(numSeats, Optional.of(minLevel), Optional.of(maxLevel), customerEmail);
+			Assert.fail("Expected the wait to be throttled");
+		}
+		catch(ThrottledException e)
+		{
+			// expected
+		}
+	}
+
 	@When("^User \"([^\"]*)\" waits for (\\d+) sec$")
 	public void user_waits_for_sec(String customerEMail, int secs) throws Throwable {
 
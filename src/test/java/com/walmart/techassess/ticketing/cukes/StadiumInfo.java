@@ -6,6 +6,7 @@ public class StadiumInfo {
 	String name;
 	double price;
 	String seats;
+	String scores;
 	public int getId() {
 		return id;
 	}
@@ -29,6 +30,12 @@ public class StadiumInfo {
 	}
 	public void setSeats(String seats) {
 		this.seats = seats;
+	}
+	public String getScores() {
+		return scores;
+	}
+	public void setScores(String scores) {
+		this.scores = scores;
 	}	
 	
 	
@@ -0,0 +1,206 @@
+package com.walmart.techassess.ticketing.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.walmart.techassess.reservations.ReservationServiceImpl;
+import com.walmart.techassess.stadium.StadiumServiceImpl;
+import com.walmart.techassess.ticketing.TicketServiceImpl;
+import com.walmart.techassess.ticketing.load.LatencySamples;
+
+/**
+ * Loopback benchmark for {@link TicketHttpServer}
+ *
+ * Starts a server on a free port of the loopback interface, and runs concurrent clients against it. Every client
+ * goes through the whole flow of a buyer over and over: check the seats, hold, reserve and look up the reservation.
+ * The clients use {@link HttpURLConnection}, which keeps the connections alive between requests, so after the
+ * first round every request goes over a connection that is already open
+ *
+ * It prints the latency percentiles of every endpoint and the throughput. Every response is checked, and the
+ * requests that fail are counted as errors.. running out of seats is not an error
+ * <pre>
+ * java ... HttpBenchmark [clients] [roundsPerClient]
+ * </pre>
+ */
+public class HttpBenchmark {
+
+	static final String[] ENDPOINTS = {"seats", "hold", "reserve", "reservation"};
+
+	final int clients;
+	final int rounds;
+	final String baseUrl;
+	final AtomicLong errors = new AtomicLong();
+	final AtomicLong outOfSeats = new AtomicLong();
+	// the latencies of each client, by endpoint
+	final List<LatencySamples[]> latencies = new ArrayList<LatencySamples[]>();
+
+	public HttpBenchmark(int clients, int rounds, int port) {
+		this.clients = clients;
+		this.rounds = rounds;
+		this.baseUrl = "http://127.0.0.1:"+port;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int clients = (args.length>0)?Integer.parseInt(args[0]):16;
+		int rounds = (args.length>1)?Integer.parseInt(args[1]):2000;
+		// a venue big enough for every party of 1 to 4 seats
+		int seats = clients*rounds*4;
+		int numRows = Math.max(1, seats/100+1);
+		TicketServiceImpl ticketService = new TicketServiceImpl(new StadiumServiceImpl(1, 1, Arrays.asList(numRows), Arrays.asList(100)),
+				new ReservationServiceImpl(60000));
+		TicketHttpServer server = new TicketHttpServer(ticketService, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), clients);
+		server.start();
+		try
+		{
+			HttpBenchmark benchmark = new HttpBenchmark(clients, rounds, server.getPort());
+			// warm up the JIT on both ends
+			new HttpBenchmark(clients, Math.max(1, rounds/10), server.getPort()).run();
+			long nanos = benchmark.run();
+			benchmark.report(nanos);
+			if(benchmark.errors.get()>0) System.exit(1);
+		}
+		finally
+		{
+			server.stop(0);
+		}
+	}
+
+	/**
+	 * runs all the clients and returns when they are done
+	 * @return the elapsed time in nanoseconds
+	 * @throws InterruptedException
+	 */
+	long run() throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		long start = System.nanoTime();
+		for(int i=0; i<clients; i++)
+		{
+			final LatencySamples[] samples = new LatencySamples[ENDPOINTS.length];
+			for(int e=0; e<samples.length; e++) samples[e] = new LatencySamples();
+			latencies.add(samples);
+			final int client = i;
+			pool.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					for(int round=0; round<rounds; round++)
+					{
+						try
+						{
+							buy(client, round, samples);
+						}
+						catch(IOException|RuntimeException e)
+						{
+							// show the first error, the rest are probably the same
+							if(errors.incrementAndGet()==1) e.printStackTrace();
+						}
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.HOURS);
+		return System.nanoTime()-start;
+	}
+
+	void buy(int client, int round, LatencySamples[] samples) throws IOException {
+		String email = "client"+client+"@loadtest.com";
+		int numSeats = 1+(round%4);
+
+		long t0 = System.nanoTime();
+		String seats = request("GET", "/seats?level=1", 200);
+		samples[0].record(System.nanoTime()-t0);
+		if(seats.indexOf("\"numSeatsAvailable\":")<0) throw new IOException("Bad response "+seats);
+
+		t0 = System.nanoTime();
+		String hold = request("POST", "/holds?numSeats="+numSeats+"&email="+email, -1);
+		samples[1].record(System.nanoTime()-t0);
+		if(hold.startsWith("{\"error\":\"Out of seats!\""))
+		{
+			outOfSeats.incrementAndGet();
+			return;
+		}
+		String seatHoldId = member(hold, "seatHoldId");
+
+		t0 = System.nanoTime();
+		String reservation = request("POST", "/reservations?seatHoldId="+seatHoldId+"&email="+email, 200);
+		samples[2].record(System.nanoTime()-t0);
+		String confirmationCode = member(reservation, "confirmationCode");
+
+		t0 = System.nanoTime();
+		String reserved = request("GET", "/reservations/"+confirmationCode, 200);
+		samples[3].record(System.nanoTime()-t0);
+		if(!member(reserved, "numSeats").equals(Integer.toString(numSeats))) throw new IOException("Bad reservation "+reserved);
+	}
+
+	/**
+	 * makes a request and reads the whole response, which lets the connection go back to the keep alive cache
+	 * @param method
+	 * @param path
+	 * @param expectedStatus - -1 to accept 200 and 400
+	 * @return the body of the response
+	 * @throws IOException
+	 */
+	String request(String method, String path, int expectedStatus) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection)new URL(baseUrl+path).openConnection();
+		// the parameters are in the query string, so POSTs go without a body.. opening the output stream of
+		// the connection sends the headers and the empty body in separate packets, which costs a delayed ack
+		connection.setRequestMethod(method);
+		int status = connection.getResponseCode();
+		InputStream in = (status>=400)?connection.getErrorStream():connection.getInputStream();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while((read = in.read(buffer))>=0) body.write(buffer, 0, read);
+		in.close();
+		String response = new String(body.toByteArray(), StandardCharsets.UTF_8);
+		if(expectedStatus<0?(status!=200&&status!=400):status!=expectedStatus)
+		{
+			throw new IOException(method+" "+path+" returned "+status+" "+response);
+		}
+		return response;
+	}
+
+	/**
+	 * the value of a member of a flat JSON object, without the quotes
+	 */
+	static String member(String json, String name) throws IOException {
+		int start = json.indexOf("\""+name+"\":");
+		if(start<0) throw new IOException("No "+name+" in "+json);
+		start+=name.length()+3;
+		if(json.charAt(start)=='"') return json.substring(start+1, json.indexOf('"', start+1));
+		int end = start;
+		while(end<json.length()&&(Character.isDigit(json.charAt(end))||json.charAt(end)=='-')) end++;
+		return json.substring(start, end);
+	}
+
+	void report(long nanos) {
+		long requests = 0;
+		System.out.println(String.format("%-12s %10s %10s %10s %10s %10s", "endpoint", "requests", "p50(us)", "p99(us)", "p99.9(us)", "max(us)"));
+		for(int e=0; e<ENDPOINTS.length; e++)
+		{
+			LatencySamples merged = new LatencySamples();
+			for(LatencySamples[] samples: latencies) merged.addAll(samples[e]);
+			merged.sort();
+			requests+=merged.size();
+			System.out.println(String.format("%-12s %10d %10.1f %10.1f %10.1f %10.1f", ENDPOINTS[e], merged.size(),
+					merged.percentileMicros(50), merged.percentileMicros(99), merged.percentileMicros(99.9), merged.maxMicros()));
+		}
+		double seconds = nanos/1e9;
+		System.out.println(String.format("clients %d, %d requests in %.2fs, %.0f requests/s", clients, requests, seconds, requests/seconds));
+		System.out.println(String.format("out of seats %d, errors %d", outOfSeats.get(), errors.get()));
+	}
+}
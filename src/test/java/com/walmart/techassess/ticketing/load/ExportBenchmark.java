@@ -0,0 +1,184 @@
+package com.walmart.techassess.ticketing.load;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.walmart.techassess.reservations.ReservationServiceImpl;
+import com.walmart.techassess.reservations.SeatHold;
+import com.walmart.techassess.stadium.StadiumServiceImpl;
+import com.walmart.techassess.ticketing.TicketService;
+import com.walmart.techassess.ticketing.TicketServiceImpl;
+
+/**
+ * Measures {@link TicketService#exportReservations(java.io.OutputStream)} for a sold out venue, while ticketing
+ * goes on
+ *
+ * The venue is filled with parties of 2, every other one reserved, so the reserved seats sit between seats that
+ * are still held. While the gate list is exported again and again, buyer threads give back seats of those holds,
+ * which moves the reserved seats behind them, and hold the seats that come free. The benchmark prints
+ * - how long an export takes, and how big it is
+ * - the seats that are in an export twice.. should be 0, the export is from one instant
+ * - the hold latencies of the buyers while there are no exports, and while there are
+ * <pre>
+ * java ... ExportBenchmark [levels] [rowsPerLevel] [seatsPerRow] [exports] [buyers]
+ * </pre>
+ * The defaults are 80000 attendees in 40000 reservations
+ */
+public class ExportBenchmark {
+
+	final int numLevels, numRows, numSeats;
+	final StadiumServiceImpl stadiumService;
+	final TicketService ticketService;
+	// the holds between the reservations, and the next one to give seats back
+	final List<SeatHold> held = new ArrayList<SeatHold>();
+	final AtomicInteger nextRelease = new AtomicInteger();
+	volatile boolean running;
+
+	ExportBenchmark(int numLevels, int numRows, int numSeats) {
+		this.numLevels = numLevels;
+		this.numRows = numRows;
+		this.numSeats = numSeats;
+		this.stadiumService = new StadiumServiceImpl(1, numLevels, Collections.nCopies(numLevels, numRows), Collections.nCopies(numLevels, numSeats));
+		// the holds outlive the benchmark
+		this.ticketService = new TicketServiceImpl(stadiumService, new ReservationServiceImpl(60*60*1000));
+	}
+
+	public static void main(String[] args) throws Exception {
+		int numLevels = (args.length>0)?Integer.parseInt(args[0]):8;
+		int numRows = (args.length>1)?Integer.parseInt(args[1]):200;
+		int numSeats = (args.length>2)?Integer.parseInt(args[2]):100;
+		int exports = (args.length>3)?Integer.parseInt(args[3]):10;
+		int buyers = (args.length>4)?Integer.parseInt(args[4]):4;
+
+		ExportBenchmark benchmark = new ExportBenchmark(numLevels, numRows, numSeats);
+		int reservations = benchmark.sellOut();
+		System.out.println(String.format("%d reservations, %d held seats in between", reservations, 2*benchmark.held.size()));
+		// warm up
+		benchmark.export();
+
+		// the buyers on their own, for as long as the exports take
+		long exportNanos = 0;
+		for(int i=0; i<exports; i++) exportNanos+=benchmark.timeExport();
+		// half of the holds for each
+		LatencySamples quiet = benchmark.buy(buyers, exportNanos/1000000, 0, benchmark.held.size()/2);
+		LatencySamples busy = benchmark.buy(buyers, 0, exports, benchmark.held.size());
+		print("holds, no exports", quiet);
+		print("holds, exporting", busy);
+	}
+
+	/**
+	 * fills the venue with parties of 2, and reserves every other one
+	 * @return the number of reservations
+	 */
+	int sellOut() {
+		int reservations = 0;
+		for(int i=0; i<numLevels*numRows*numSeats/2; i++)
+		{
+			String customerEmail = "buyer"+i+"@loadtest.com";
+			SeatHold hold = ticketService.findAndHoldSeats(2, Optional.of(1), Optional.of(numLevels), customerEmail);
+			if(i%2==0)
+			{
+				ticketService.reserveSeats(hold.getSeatHoldId(), customerEmail);
+				reservations++;
+			}
+			else held.add(hold);
+		}
+		return reservations;
+	}
+
+	/**
+	 * exports the reservations once, and checks that nobody shares a seat
+	 * @return the time it took in nanoseconds
+	 * @throws IOException
+	 */
+	long timeExport() throws IOException {
+		long start = System.nanoTime();
+		ByteArrayOutputStream out = export();
+		long nanos = System.nanoTime()-start;
+		String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+		BitSet seated = new BitSet(numLevels*numRows*numSeats);
+		int twice = 0;
+		for(int i=1; i<lines.length; i++)
+		{
+			// confirmationCode,customerEmail,level,row,startSeat,endSeat
+			String[] fields = lines[i].split(",");
+			int row = ((Integer.parseInt(fields[2])-1)*numRows+rowNum(fields[3]))*numSeats;
+			for(int seat=Integer.parseInt(fields[4]); seat<=Integer.parseInt(fields[5]); seat++)
+			{
+				if(seated.get(row+seat-1)) twice++;
+				seated.set(row+seat-1);
+			}
+		}
+		System.out.println(String.format("export %.1fms, %d lines, %d bytes, %d seats twice", nanos/1e6, lines.length-1, out.size(), twice));
+		return nanos;
+	}
+
+	/**
+	 * the number of a row from it's label.. A is 0, Z is 25, AA is 26
+	 */
+	static int rowNum(String label) {
+		int rowNum = 0;
+		for(int i=0; i<label.length(); i++) rowNum = rowNum*26+(label.charAt(i)-'A'+1);
+		return rowNum-1;
+	}
+
+	ByteArrayOutputStream export() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ticketService.exportReservations(out);
+		return out;
+	}
+
+	/**
+	 * runs the buyers while the exports run, or for a while if there are none
+	 * @param lastRelease - the buyers stop at this hold
+	 * @return the latencies of their holds
+	 */
+	LatencySamples buy(int buyers, long millis, int exports, final int lastRelease) throws Exception {
+		final List<LatencySamples> samples = new ArrayList<LatencySamples>();
+		List<Thread> threads = new ArrayList<Thread>();
+		running = true;
+		for(int i=0; i<buyers; i++)
+		{
+			final LatencySamples buyerSamples = new LatencySamples();
+			samples.add(buyerSamples);
+			threads.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					while(running)
+					{
+						int next = nextRelease.getAndIncrement();
+						if(next>=lastRelease) return;
+						SeatHold hold = held.get(next);
+						// the seat that comes free moves the reservations behind it.. and is taken again
+						ticketService.releaseSeats(hold.getSeatHoldId(), hold.getCustomerEmailAddress(), 1);
+						long start = System.nanoTime();
+						ticketService.findAndHoldSeats(1, Optional.of(1), Optional.of(numLevels), hold.getCustomerEmailAddress());
+						buyerSamples.record(System.nanoTime()-start);
+					}
+				}
+			}, "buyer-"+i));
+		}
+		for(Thread thread: threads) thread.start();
+		if(exports==0) Thread.sleep(millis);
+		for(int i=0; i<exports; i++) timeExport();
+		running = false;
+		for(Thread thread: threads) thread.join();
+		LatencySamples result = new LatencySamples();
+		for(LatencySamples buyerSamples: samples) result.addAll(buyerSamples);
+		result.sort();
+		return result;
+	}
+
+	static void print(String label, LatencySamples samples) {
+		System.out.println(String.format("%-18s %8d holds  p50 %.1fus  p99 %.1fus  max %.1fus", label, samples.size(),
+				samples.percentileMicros(50), samples.percentileMicros(99), samples.maxMicros()));
+	}
+}
@@ -0,0 +1,60 @@
+package com.walmart.techassess.ticketing.load;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples in nanoseconds
+ * Each buyer thread keeps it's own samples so that recording doesn't contend. The samples are
+ * merged once the run is over
+ *
+ * Not thread-safe
+ */
+public class LatencySamples {
+
+	long[] samples = new long[1024];
+	int size = 0;
+
+	public void record(long nanos) {
+		if(size==samples.length)
+		{
+			samples = Arrays.copyOf(samples, size*2);
+		}
+		samples[size++] = nanos;
+	}
+
+	public void addAll(LatencySamples other) {
+		for(int i=0; i<other.size; i++)
+		{
+			record(other.samples[i]);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * sorts the samples.. call this before asking for percentiles
+	 */
+	public void sort() {
+		Arrays.sort(samples, 0, size);
+	}
+
+	/**
+	 * returns the given percentile in microseconds.. samples need to be sorted first
+	 * @param percentile - between 0 and 100
+	 * @return
+	 */
+	public double percentileMicros(double percentile) {
+		if(size==0) return 0;
+		int index = (int)Math.ceil(percentile/100.0*size)-1;
+		index = Math.max(0, Math.min(size-1, index));
+		return samples[index]/1000.0;
+	}
+
+	public double maxMicros() {
+		long max = 0;
+		for(int i=0; i<size; i++) max = Math.max(max, samples[i]);
+		return max/1000.0;
+	}
+}
@@ -0,0 +1,354 @@
+package com.walmart.techassess.ticketing.load;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.walmart.techassess.reservations.HoldExpiredException;
+import com.walmart.techassess.reservations.ColumnarReservationService;
+import com.walmart.techassess.reservations.ReservationService;
+import com.walmart.techassess.reservations.ReservationServiceImpl;
+import com.walmart.techassess.reservations.SeatHold;
+import com.walmart.techassess.stadium.StadiumServiceImpl;
+import com.walmart.techassess.ticketing.CustomerThrottle;
+import com.walmart.techassess.ticketing.ThrottledException;
+import com.walmart.techassess.ticketing.TicketService;
+import com.walmart.techassess.ticketing.TicketServiceImpl;
+import com.walmart.techassess.ticketing.replay.ReplayEngine;
+import com.walmart.techassess.ticketing.replay.TraceRecorder;
+
+/**
+ * Load generator that rehearses an on-sale
+ *
+ * It drives a {@link TicketServiceImpl} with many concurrent simulated buyers. Each buyer picks a party
+ * size and a level range from the {@link TrafficMix}, holds seats, and then either reserves them,
+ * abandons the hold or pays after the hold has expired
+ *
+ * At the end it prints the latency percentiles of holds and reservations, the throughput, the number of
+ * "Out of seats!" failures that were false (there were enough seats available when the buyer was turned away)
+ * and the final occupancy of the venue
+ *
+ * Run it with key=value arguments, for example
+ * <pre>
+ * java ... OnSaleLoadGenerator buyers=50000 concurrency=2000 venue=25x50,20x100,15x100,15x100 partySizes=2:60,4:40 conversion=0.9
+ * </pre>
+ * Supported keys are buyers, concurrency, venue (rows x seats for each level starting at level 1), seed,
+ * throttle (burst:requestsPerSecond:maxSeatsHeld of the {@link CustomerThrottle}), holds (objects for
+ * {@link ReservationServiceImpl}, columnar for {@link ColumnarReservationService}), trace (a file the calls are
+ * recorded to, for the {@link ReplayEngine}) and all the keys supported by {@link TrafficMix#set(String, String)}
+ *
+ */
+public class OnSaleLoadGenerator {
+
+	static final String OUT_OF_SEATS = "Out of seats!";
+
+	final TrafficMix mix;
+	final int buyers;
+	final int concurrency;
+	final long seed;
+	final StadiumServiceImpl stadiumService;
+	final TicketService ticketService;
+	// records the calls, null if they are not traced
+	final TraceRecorder recorder;
+	final int minLevel, maxLevel;
+	final int totalSeats;
+
+	// next buyer to be served
+	final AtomicInteger nextBuyer = new AtomicInteger();
+	// counters
+	final AtomicLong holds = new AtomicLong();
+	final AtomicLong seatsHeld = new AtomicLong();
+	final AtomicLong reservations = new AtomicLong();
+	final AtomicLong seatsReserved = new AtomicLong();
+	final AtomicLong abandoned = new AtomicLong();
+	final AtomicLong expiredBeforePayment = new AtomicLong();
+	final AtomicLong outOfSeats = new AtomicLong();
+	final AtomicLong falseOutOfSeats = new AtomicLong();
+	final AtomicLong throttled = new AtomicLong();
+	final AtomicLong errors = new AtomicLong();
+	// unexpected exceptions keyed by exception class and message
+	final Map<String, AtomicLong> errorTypes = new ConcurrentHashMap<String, AtomicLong>();
+	// the latencies recorded by each buyer thread
+	final List<LatencySamples> holdLatencies = new ArrayList<LatencySamples>();
+	final List<LatencySamples> reserveLatencies = new ArrayList<LatencySamples>();
+
+	public OnSaleLoadGenerator(TrafficMix mix, int buyers, int concurrency, long seed, List<Integer> numRows, List<Integer> numSeats, CustomerThrottle throttle) {
+		this(mix, buyers, concurrency, seed, numRows, numSeats, throttle, new ReservationServiceImpl(mix.getHoldTimeout()));
+	}
+
+	public OnSaleLoadGenerator(TrafficMix mix, int buyers, int concurrency, long seed, List<Integer> numRows, List<Integer> numSeats, CustomerThrottle throttle,
+			ReservationService reservationService) {
+		this(mix, buyers, concurrency, seed, numRows, numSeats, throttle, reservationService, null);
+	}
+
+	public OnSaleLoadGenerator(TrafficMix mix, int buyers, int concurrency, long seed, List<Integer> numRows, List<Integer> numSeats, CustomerThrottle throttle,
+			ReservationService reservationService, Writer trace) {
+		super();
+		this.mix = mix;
+		this.buyers = buyers;
+		this.concurrency = concurrency;
+		this.seed = seed;
+		this.minLevel = 1;
+		this.maxLevel = numRows.size();
+		int seats = 0;
+		for(int i=0; i<numRows.size(); i++) seats+=numRows.get(i)*numSeats.get(i);
+		this.totalSeats = seats;
+		this.stadiumService = new StadiumServiceImpl(minLevel, maxLevel, numRows, numSeats);
+		TicketService ticketService = new TicketServiceImpl(stadiumService, reservationService, throttle);
+		// the reservation service goes by the system clock
+		this.recorder = (trace==null)?null:new TraceRecorder(ticketService, Clock.systemUTC(), trace);
+		this.ticketService = (recorder==null)?ticketService:recorder;
+	}
+
+	/**
+	 * runs the on-sale and returns when all buyers are done
+	 * @return the elapsed time in nanoseconds
+	 * @throws InterruptedException
+	 */
+	public long run() throws InterruptedException {
+		ExecutorService buyerPool = Executors.newFixedThreadPool(concurrency);
+		// late payers come back after their hold has expired
+		ScheduledExecutorService latePayers = Executors.newScheduledThreadPool(4);
+		long start = System.nanoTime();
+		for(int i=0; i<concurrency; i++)
+		{
+			final LatencySamples holdSamples = new LatencySamples();
+			final LatencySamples reserveSamples = new LatencySamples();
+			holdLatencies.add(holdSamples);
+			reserveLatencies.add(reserveSamples);
+			final Random rand = new Random(seed+i);
+			buyerPool.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					while(nextBuyer.getAndIncrement()<buyers)
+					{
+						buy(rand, holdSamples, reserveSamples, latePayers);
+					}
+				}
+			});
+		}
+		buyerPool.shutdown();
+		buyerPool.awaitTermination(1, TimeUnit.HOURS);
+		latePayers.shutdown();
+		latePayers.awaitTermination(1, TimeUnit.HOURS);
+		return System.nanoTime()-start;
+	}
+
+	/**
+	 * simulates a single buyer
+	 */
+	void buy(Random rand, LatencySamples holdSamples, LatencySamples reserveSamples, ScheduledExecutorService latePayers) {
+		final int partySize = mix.nextPartySize(rand);
+		int[] levels = mix.nextLevels(rand);
+		final String customerEmail = "buyer"+rand.nextInt(Integer.MAX_VALUE)+"@loadtest.com";
+		final SeatHold hold;
+		long t0 = System.nanoTime();
+		try
+		{
+			hold = ticketService.findAndHoldSeats(partySize, Optional.of(levels[0]), Optional.of(levels[1]), customerEmail);
+			holdSamples.record(System.nanoTime()-t0);
+			holds.incrementAndGet();
+			seatsHeld.addAndGet(partySize);
+		}
+		catch(ThrottledException e)
+		{
+			holdSamples.record(System.nanoTime()-t0);
+			throttled.incrementAndGet();
+			return;
+		}
+		catch(IllegalArgumentException e)
+		{
+			holdSamples.record(System.nanoTime()-t0);
+			if(!OUT_OF_SEATS.equals(e.getMessage()))
+			{
+				error(e);
+				return;
+			}
+			outOfSeats.incrementAndGet();
+			// the failure is false if the seats were there, but were checked out by other buyers
+			if(ticketService.numSeatsAvailable(Optional.of(levels[0]), Optional.of(levels[1]))>=partySize)
+			{
+				falseOutOfSeats.incrementAndGet();
+			}
+			return;
+		}
+		catch(RuntimeException|AssertionError e)
+		{
+			holdSamples.record(System.nanoTime()-t0);
+			error(e);
+			return;
+		}
+
+		switch(mix.nextOutcome(rand))
+		{
+		case RESERVE:
+			pause(mix.getThinkTime());
+			reserve(hold, partySize, customerEmail, reserveSamples);
+			break;
+		case ABANDON:
+			abandoned.incrementAndGet();
+			break;
+		case PAY_LATE:
+			latePayers.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					reserve(hold, partySize, customerEmail, new LatencySamples());
+				}
+			}, mix.getHoldTimeout()+mix.getThinkTime(), TimeUnit.MILLISECONDS);
+			break;
+		}
+	}
+
+	void reserve(SeatHold hold, int partySize, String customerEmail, LatencySamples reserveSamples) {
+		long t0 = System.nanoTime();
+		try
+		{
+			ticketService.reserveSeats(hold.getSeatHoldId(), customerEmail);
+			reserveSamples.record(System.nanoTime()-t0);
+			reservations.incrementAndGet();
+			seatsReserved.addAndGet(partySize);
+		}
+		catch(HoldExpiredException e)
+		{
+			reserveSamples.record(System.nanoTime()-t0);
+			expiredBeforePayment.incrementAndGet();
+		}
+		catch(RuntimeException|AssertionError e)
+		{
+			error(e);
+		}
+	}
+
+	/**
+	 * counts an unexpected exception.. assertion errors are counted too, since the
+	 * generator is meant to be run with assertions enabled
+	 * @param e
+	 */
+	void error(Throwable e) {
+		errors.incrementAndGet();
+		String type = e.getClass().getSimpleName()+": "+e.getMessage();
+		AtomicLong count = errorTypes.get(type);
+		if(count==null)
+		{
+			errorTypes.putIfAbsent(type, new AtomicLong());
+			count = errorTypes.get(type);
+		}
+		count.incrementAndGet();
+	}
+
+	private static void pause(int millis) {
+		if(millis<=0) return;
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * prints the report
+	 * @param elapsedNanos
+	 */
+	public void report(long elapsedNanos) {
+		double seconds = elapsedNanos/1e9;
+		LatencySamples holdLatency = merge(holdLatencies);
+		LatencySamples reserveLatency = merge(reserveLatencies);
+		int seatsAllocated = totalSeats-stadiumService.numSeatsAvailable(minLevel, maxLevel);
+
+		System.out.println("On-sale rehearsal");
+		System.out.println(String.format("  venue               %d levels, %d seats", maxLevel-minLevel+1, totalSeats));
+		System.out.println(String.format("  buyers              %d (%d concurrent)", buyers, concurrency));
+		System.out.println("  traffic mix         "+mix);
+		System.out.println(String.format("  elapsed             %.2f s", seconds));
+		System.out.println(String.format("  holds               %d (%.0f holds/s, %d seats)", holds.get(), holds.get()/seconds, seatsHeld.get()));
+		System.out.println(String.format("  reservations        %d (%.0f reservations/s, %d seats)", reservations.get(), reservations.get()/seconds, seatsReserved.get()));
+		System.out.println(String.format("  abandoned holds     %d", abandoned.get()));
+		System.out.println(String.format("  expired at payment  %d", expiredBeforePayment.get()));
+		System.out.println(String.format("  out of seats        %d (%d false)", outOfSeats.get(), falseOutOfSeats.get()));
+		System.out.println(String.format("  throttled           %d", throttled.get()));
+		System.out.println(String.format("  errors              %d", errors.get()));
+		for(Map.Entry<String, AtomicLong> error: errorTypes.entrySet())
+		{
+			System.out.println(String.format("    %6d x %s", error.getValue().get(), error.getKey()));
+		}
+		printLatency("hold latency", holdLatency);
+		printLatency("reserve latency", reserveLatency);
+		System.out.println(String.format("  occupancy           %.1f%% sold, %.1f%% allocated", 100.0*seatsReserved.get()/totalSeats, 100.0*seatsAllocated/totalSeats));
+	}
+
+	private static LatencySamples merge(List<LatencySamples> samples) {
+		LatencySamples result = new LatencySamples();
+		for(LatencySamples s: samples) result.addAll(s);
+		result.sort();
+		return result;
+	}
+
+	private static void printLatency(String name, LatencySamples latency) {
+		System.out.println(String.format("  %-19s p50=%.0fus p99=%.0fus p999=%.0fus max=%.0fus (%d samples)", name,
+				latency.percentileMicros(50), latency.percentileMicros(99), latency.percentileMicros(99.9), latency.maxMicros(), latency.size()));
+	}
+
+	public static void main(String[] args) throws InterruptedException, IOException {
+		int buyers = 20000;
+		int concurrency = 1000;
+		long seed = 42;
+		String venue = "25x50,20x100,15x100,15x100";
+		CustomerThrottle throttle = CustomerThrottle.unlimited();
+		boolean columnarHolds = false;
+		Writer trace = null;
+		List<String[]> mixSettings = new ArrayList<String[]>();
+		for(String arg: args)
+		{
+			String[] kv = arg.split("=", 2);
+			if(kv.length!=2) throw new IllegalArgumentException("Arguments should be key=value: "+arg);
+			if("buyers".equals(kv[0])) buyers = Integer.parseInt(kv[1]);
+			else if("concurrency".equals(kv[0])) concurrency = Integer.parseInt(kv[1]);
+			else if("seed".equals(kv[0])) seed = Long.parseLong(kv[1]);
+			else if("venue".equals(kv[0])) venue = kv[1];
+			else if("holds".equals(kv[0])) columnarHolds = "columnar".equals(kv[1]);
+			else if("trace".equals(kv[0])) trace = Files.newBufferedWriter(Paths.get(kv[1]), StandardCharsets.UTF_8);
+			else if("throttle".equals(kv[0]))
+			{
+				String[] limits = kv[1].split(":");
+				throttle = new CustomerThrottle(Integer.parseInt(limits[0]), Double.parseDouble(limits[1]), Integer.parseInt(limits[2]), 60000);
+			}
+			else mixSettings.add(kv);
+		}
+		List<Integer> numRows = new ArrayList<Integer>();
+		List<Integer> numSeats = new ArrayList<Integer>();
+		for(String level: venue.split(","))
+		{
+			String[] dims = level.trim().split("x");
+			numRows.add(Integer.parseInt(dims[0]));
+			numSeats.add(Integer.parseInt(dims[1]));
+		}
+		TrafficMix mix = TrafficMix.defaultMix(1, numRows.size());
+		for(String[] kv: mixSettings) mix.set(kv[0], kv[1]);
+
+		ReservationService reservationService = columnarHolds?new ColumnarReservationService(mix.getHoldTimeout()):new ReservationServiceImpl(mix.getHoldTimeout());
+		OnSaleLoadGenerator generator = new OnSaleLoadGenerator(mix, buyers, concurrency, seed, numRows, numSeats, throttle, reservationService, trace);
+		long elapsed = generator.run();
+		generator.report(elapsed);
+		if(generator.recorder!=null) generator.recorder.close();
+	}
+}
@@ -0,0 +1,160 @@
+package com.walmart.techassess.ticketing.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Describes the traffic that the load generator drives against the ticket service
+ *
+ * The party size and the level preference are weighted distributions. After a buyer gets a hold
+ * it either converts it into a reservation, abandons it (lets it expire) or takes too long to pay
+ * and tries to reserve after the hold has timed out
+ *
+ * All values can be set from the command line as key=value pairs. See {@link #set(String, String)}
+ *
+ */
+public class TrafficMix {
+
+	// weighted distribution of party sizes, each entry is {size, weight}
+	final List<int[]> partySizes = new ArrayList<int[]>();
+	// weighted distribution of level ranges, each entry is {minLevel, maxLevel, weight}
+	final List<int[]> levelPreferences = new ArrayList<int[]>();
+	// fraction of holds that are reserved
+	double conversionRate = 0.8;
+	// fraction of holds that are abandoned. The rest try to pay after the hold expires
+	double abandonmentRate = 0.15;
+	// hold timeout in milliseconds
+	int holdTimeout = 2000;
+	// time a buyer takes between hold and reserve, in milliseconds
+	int thinkTime = 5;
+
+	/**
+	 * The default mix: mostly couples and small families. Most buyers
+	 * want the best level they can get
+	 * @param minLevel
+	 * @param maxLevel
+	 * @return
+	 */
+	public static TrafficMix defaultMix(int minLevel, int maxLevel) {
+		TrafficMix mix = new TrafficMix();
+		mix.parsePartySizes("1:10,2:40,3:15,4:20,5:5,6:5,8:3,10:2");
+		mix.levelPreferences.add(new int[]{minLevel, minLevel, 40});
+		mix.levelPreferences.add(new int[]{minLevel, maxLevel, 40});
+		mix.levelPreferences.add(new int[]{maxLevel, maxLevel, 20});
+		return mix;
+	}
+
+	/**
+	 * sets a property from a key value pair
+	 * @param key - one of partySizes, levels, conversion, abandonment, holdTimeout, thinkTime
+	 * @param value
+	 */
+	public void set(String key, String value) {
+		if("partySizes".equals(key)) parsePartySizes(value);
+		else if("levels".equals(key)) parseLevelPreferences(value);
+		else if("conversion".equals(key)) conversionRate = Double.parseDouble(value);
+		else if("abandonment".equals(key)) abandonmentRate = Double.parseDouble(value);
+		else if("holdTimeout".equals(key)) holdTimeout = Integer.parseInt(value);
+		else if("thinkTime".equals(key)) thinkTime = Integer.parseInt(value);
+		else throw new IllegalArgumentException("Unknown traffic mix property "+key);
+		if(conversionRate+abandonmentRate>1.0) throw new IllegalArgumentException("Conversion and abandonment rates cannot add up to more than 1");
+	}
+
+	/**
+	 * parses a party size distribution in the form size:weight,size:weight
+	 * @param value
+	 */
+	void parsePartySizes(String value) {
+		partySizes.clear();
+		for(String entry: value.split(","))
+		{
+			String[] parts = entry.trim().split(":");
+			partySizes.add(new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])});
+		}
+	}
+
+	/**
+	 * parses a level preference distribution in the form min-max:weight,min-max:weight
+	 * @param value
+	 */
+	void parseLevelPreferences(String value) {
+		levelPreferences.clear();
+		for(String entry: value.split(","))
+		{
+			String[] parts = entry.trim().split(":");
+			String[] levels = parts[0].split("-");
+			int minLevel = Integer.parseInt(levels[0]);
+			int maxLevel = (levels.length>1)?Integer.parseInt(levels[1]):minLevel;
+			levelPreferences.add(new int[]{minLevel, maxLevel, Integer.parseInt(parts[1])});
+		}
+	}
+
+	/**
+	 * picks a party size
+	 * @param rand
+	 * @return
+	 */
+	public int nextPartySize(Random rand) {
+		return pick(partySizes, 1, rand)[0];
+	}
+
+	/**
+	 * picks a level range
+	 * @param rand
+	 * @return {minLevel, maxLevel}
+	 */
+	public int[] nextLevels(Random rand) {
+		int[] pref = pick(levelPreferences, 2, rand);
+		return new int[]{pref[0], pref[1]};
+	}
+
+	/**
+	 * decides what the buyer does with the hold
+	 * @param rand
+	 * @return
+	 */
+	public Outcome nextOutcome(Random rand) {
+		double d = rand.nextDouble();
+		if(d<conversionRate) return Outcome.RESERVE;
+		if(d<conversionRate+abandonmentRate) return Outcome.ABANDON;
+		return Outcome.PAY_LATE;
+	}
+
+	private static int[] pick(List<int[]> weighted, int weightIndex, Random rand) {
+		int total = 0;
+		for(int[] entry: weighted) total+=entry[weightIndex];
+		int r = rand.nextInt(total);
+		for(int[] entry: weighted)
+		{
+			r-=entry[weightIndex];
+			if(r<0) return entry;
+		}
+		return weighted.get(weighted.size()-1);
+	}
+
+	public int getHoldTimeout() {
+		return holdTimeout;
+	}
+
+	public int getThinkTime() {
+		return thinkTime;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder("partySizes=");
+		for(int[] entry: partySizes) str.append(entry[0]).append(':').append(entry[1]).append(' ');
+		str.append("levels=");
+		for(int[] entry: levelPreferences) str.append(entry[0]).append('-').append(entry[1]).append(':').append(entry[2]).append(' ');
+		str.append(String.format("conversion=%.2f abandonment=%.2f holdTimeout=%dms thinkTime=%dms", conversionRate, abandonmentRate, holdTimeout, thinkTime));
+		return str.toString();
+	}
+
+	/**
+	 * what a buyer does after getting a hold
+	 */
+	public enum Outcome {
+		RESERVE, ABANDON, PAY_LATE
+	}
+}
@@ -296,4 +296,443 @@ Feature: Reservation system
 		And User "lalwani.jayesh4@gmail.com" reserves seats
 		Then User "lalwani.jayesh3@gmail.com" gets "1#A{11-30}" seats 
 		And User "lalwani.jayesh4@gmail.com" gets "1#A{31-40}" seats 
-		
\ No newline at end of file
+		
+
+	Scenario: Customer looks up holds and reservations
+		Given a performance with the following levels
+			|id	|name		|price	|seats	|
+			|1	|Orchestra	|100	|EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE,EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE|
+		When User "lalwani.jayesh@gmail.com" holds 10 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And User "lalwani.jayesh@gmail.com" holds 2 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" holds 5 seats for level 1 - 1
+		Then User "lalwani.jayesh@gmail.com" has 1 holds and 1 reservations
+		And User "lalwani.jayesh2@gmail.com" has 1 holds and 0 reservations
+		When User "lalwani.jayesh2@gmail.com" waits for 2 sec
+		Then User "lalwani.jayesh2@gmail.com" has 0 holds and 0 reservations
+		And User "lalwani.jayesh@gmail.com" has 0 holds and 1 reservations
+
+	Scenario: Customer cannot hold more seats than the quota
+		Given a hold quota of 12 seats per customer
+		And a performance with the following levels
+			|id	|name		|price	|seats	|
+			|1	|Orchestra	|100	|EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE,EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE|
+		When User "lalwani.jayesh@gmail.com" holds 10 seats for level 1 - 1
+		Then User "lalwani.jayesh@gmail.com" is throttled holding 3 seats for level 1 - 1
+		When User "lalwani.jayesh2@gmail.com" holds 3 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And User "lalwani.jayesh@gmail.com" holds 12 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		Then User "lalwani.jayesh@gmail.com" gets "1#A{14-25}" seats
+
+	Scenario: Extended hold keeps the seats
+		Given a maximum hold extension of 5 sec
+		And a performance with the following levels
+			|id	|name		|price	|seats	|
+			|1	|Orchestra	|100	|EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE,EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE|
+		When User "lalwani.jayesh@gmail.com" holds 10 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" holds 20 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" extends the hold by 3 sec
+		And User "lalwani.jayesh2@gmail.com" waits for 2 sec
+		And User "lalwani.jayesh3@gmail.com" holds 5 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" reserves seats
+		And User "lalwani.jayesh3@gmail.com" reserves seats
+		Then User "lalwani.jayesh2@gmail.com" gets "1#A{1-20}" seats
+		And User "lalwani.jayesh3@gmail.com" gets "1#A{21-25}" seats
+
+	Scenario: Released seats go back to the row
+		Given a performance with the following levels
+			|id	|name		|price	|seats	|
+			|1	|Orchestra	|100	|EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE,EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE|
+		When User "lalwani.jayesh@gmail.com" holds 10 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" holds 6 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" releases 2 seats
+		And User "lalwani.jayesh3@gmail.com" holds 5 seats for level 1 - 1
+		And User "lalwani.jayesh4@gmail.com" holds 52 seats for level 1 - 1
+		And User "lalwani.jayesh4@gmail.com" releases 3 seats
+		And User "lalwani.jayesh2@gmail.com" reserves seats
+		And User "lalwani.jayesh3@gmail.com" reserves seats
+		And User "lalwani.jayesh4@gmail.com" reserves seats
+		Then User "lalwani.jayesh2@gmail.com" gets "1#A{11-14}" seats
+		And User "lalwani.jayesh3@gmail.com" gets "1#A{15-19}" seats
+		And User "lalwani.jayesh4@gmail.com" gets "1#A{20-21}, 1#B{1-47}" seats
+
+	Scenario: Party sits together
+		Given a performance with the following levels
+			|id	|name		|price	|seats	|
+			|1	|Orchestra	|100	|RRRRRRRREE,RRRREEEEEE,EEEEEEEEEE,EEEEEEEEEE|
+		When User "lalwani.jayesh@gmail.com" holds 5 seats together for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" holds 12 seats together for level 1 - 1
+		And User "lalwani.jayesh3@gmail.com" holds 9 seats together for level 1 - 1
+		And User "lalwani.jayesh4@gmail.com" holds 9 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And User "lalwani.jayesh2@gmail.com" reserves seats
+		And User "lalwani.jayesh4@gmail.com" reserves seats
+		Then User "lalwani.jayesh@gmail.com" gets "1#B{5-9}" seats
+		And User "lalwani.jayesh2@gmail.com" gets "1#C{1-10}, 1#D{1-2}" seats
+		And User "lalwani.jayesh3@gmail.com" gets error
+		And User "lalwani.jayesh4@gmail.com" gets "1#A{9-10}, 1#B{10-10}, 1#D{3-8}" seats
+
+	Scenario: Best scoring rows go first
+		Given a performance with the following levels
+			|id	|name		|price	|seats	|scores	|
+			|1	|Orchestra	|100	|EEEEEEEEEE,EEEEEEEEEE,EEEEEEEEEE,EEEEEEEEEE|1,5,9,7|
+		When User "lalwani.jayesh@gmail.com" holds 4 best seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" holds 8 best seats for level 1 - 1
+		And User "lalwani.jayesh3@gmail.com" holds 12 best seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And User "lalwani.jayesh2@gmail.com" reserves seats
+		And User "lalwani.jayesh3@gmail.com" reserves seats
+		Then User "lalwani.jayesh@gmail.com" gets "1#C{1-4}" seats
+		And User "lalwani.jayesh2@gmail.com" gets "1#D{1-8}" seats
+		And User "lalwani.jayesh3@gmail.com" gets "1#B{1-10}, 1#C{5-6}" seats
+
+	Scenario: Best seats under a price
+		Given a price tier "Front" at 150 for rows A - A of level 1
+		And a performance with the following levels
+			|id	|name		|price	|seats	|
+			|1	|Orchestra	|100	|EEEEEEEEEE,EEEEEEEEEE,EEEEEEEEEE|
+			|2	|Balcony	|50		|EEEEEEEEEE,EEEEEEEEEE|
+		When User "lalwani.jayesh@gmail.com" holds 5 seats up to 120
+		And User "lalwani.jayesh2@gmail.com" holds 5 seats up to 200
+		And User "lalwani.jayesh3@gmail.com" holds 25 seats up to 100
+		And User "lalwani.jayesh4@gmail.com" holds 5 seats up to 40
+		And User "lalwani.jayesh5@gmail.com" holds 15 seats up to 60
+		And User "lalwani.jayesh6@gmail.com" holds 10 seats up to 60
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And User "lalwani.jayesh2@gmail.com" reserves seats
+		And User "lalwani.jayesh3@gmail.com" reserves seats
+		And User "lalwani.jayesh6@gmail.com" reserves seats
+		Then User "lalwani.jayesh@gmail.com" gets "1#B{1-5}" seats
+		And User "lalwani.jayesh2@gmail.com" gets "1#A{1-5}" seats
+		And User "lalwani.jayesh3@gmail.com" gets "1#B{6-10}, 1#C{1-10}, 2#A{1-10}" seats
+		And User "lalwani.jayesh4@gmail.com" gets error
+		And User "lalwani.jayesh5@gmail.com" gets error
+		And User "lalwani.jayesh6@gmail.com" gets "2#B{1-10}" seats
+
+	Scenario: Settled reservations move to the archive
+		Given reservations are archived after 0 sec
+		And a performance with the following levels
+			|id	|name		|price	|seats	|
+			|1	|Orchestra	|100	|EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE,EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE|
+		When User "lalwani.jayesh@gmail.com" holds 10 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And User "lalwani.jayesh2@gmail.com" holds 5 seats for level 1 - 1
+		Then 1 reservations are archived
+		And User "lalwani.jayesh@gmail.com" gets "1#A{1-10}" seats
+		And User "lalwani.jayesh@gmail.com" has 0 holds and 1 reservations
+		When User "lalwani.jayesh2@gmail.com" reserves seats
+		And User "lalwani.jayesh@gmail.com" holds 2 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		Then User "lalwani.jayesh2@gmail.com" gets "1#A{11-15}" seats
+		And User "lalwani.jayesh@gmail.com" gets "1#A{16-17}" seats
+		And User "lalwani.jayesh@gmail.com" has 0 holds and 2 reservations
+		And User "lalwani.jayesh2@gmail.com" has 0 holds and 1 reservations
+		And 3 reservations are archived
+
+	Scenario: Archived reservations move up with the seats given back before them
+		Given reservations are archived after 0 sec
+		And a performance with the following levels
+			|id	|name		|price	|seats		|
+			|1	|Orchestra	|100	|EEEEEEEEEE	|
+		When User "lalwani.jayesh2@gmail.com" holds 3 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" holds 4 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And User "lalwani.jayesh3@gmail.com" holds 1 seats for level 1 - 1
+		Then 1 reservations are archived
+		And User "lalwani.jayesh@gmail.com" gets "1#A{4-7}" seats
+		When User "lalwani.jayesh2@gmail.com" releases 2 seats
+		And User "lalwani.jayesh4@gmail.com" holds 4 seats for level 1 - 1
+		And User "lalwani.jayesh4@gmail.com" reserves seats
+		Then User "lalwani.jayesh@gmail.com" gets "1#A{2-5}" seats
+		And User "lalwani.jayesh4@gmail.com" gets "1#A{7-10}" seats
+		When the reservations are exported
+		Then the export has 2 reservations
+		And the export seats User "lalwani.jayesh@gmail.com" in "1#A{2-5}"
+		And the export seats User "lalwani.jayesh4@gmail.com" in "1#A{7-10}"
+
+	Scenario: A reservation too big for the archive stays on the heap
+		Given reservations are archived after 0 sec in segments of 128 bytes
+		And a performance with the following levels
+			|id	|name		|price	|seats	|
+			|1	|Orchestra	|100	|EEEEEEEEEE,EEEEEEEEEE,EEEEEEEEEE,EEEEEEEEEE,EEEEEEEEEE|
+		When User "lalwani.jayesh2@gmail.com" holds 35 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" reserves seats
+		And User "lalwani.jayesh@gmail.com" holds 10 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And User "lalwani.jayesh3@gmail.com" holds 1 seats for level 1 - 1
+		Then 1 reservations are archived
+		And User "lalwani.jayesh2@gmail.com" gets "1#A{1-10}, 1#B{1-10}, 1#C{1-10}, 1#D{1-5}" seats
+		And User "lalwani.jayesh@gmail.com" gets "1#E{1-10}" seats
+		And User "lalwani.jayesh2@gmail.com" has 0 holds and 1 reservations
+		And User "lalwani.jayesh@gmail.com" has 0 holds and 1 reservations
+
+	Scenario: Holds kept in columns
+		Given holds are kept in columns
+		And a performance with the following levels
+			|id	|name		|price	|seats	|
+			|1	|Orchestra	|100	|EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE,EEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE|
+		When User "lalwani.jayesh@gmail.com" holds 10 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" holds 6 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" releases 2 seats
+		And User "lalwani.jayesh3@gmail.com" holds 5 seats for level 1 - 1
+		And User "lalwani.jayesh3@gmail.com" holds 2 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" reserves seats
+		Then User "lalwani.jayesh3@gmail.com" has 2 holds and 0 reservations
+		And User "lalwani.jayesh2@gmail.com" has 0 holds and 1 reservations
+		When User "lalwani.jayesh3@gmail.com" reserves seats
+		And User "lalwani.jayesh@gmail.com" waits for 2 sec
+		And User "lalwani.jayesh4@gmail.com" holds 10 seats for level 1 - 1
+		And User "lalwani.jayesh4@gmail.com" reserves seats
+		Then User "lalwani.jayesh2@gmail.com" gets "1#A{1-4}" seats
+		And User "lalwani.jayesh3@gmail.com" gets "1#A{5-6}" seats
+		And User "lalwani.jayesh4@gmail.com" gets "1#A{7-16}" seats
+		And User "lalwani.jayesh@gmail.com" has 0 holds and 0 reservations
+		And User "lalwani.jayesh3@gmail.com" has 0 holds and 1 reservations
+
+	Scenario: Performance of a venue template
+		Given a performance in the venue "arena.layout"
+		When User "lalwani.jayesh@gmail.com" holds 12 seats for level 1 - 2
+		And User "lalwani.jayesh2@gmail.com" holds 5 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		Then User "lalwani.jayesh@gmail.com" gets "1#A{6-7}, 1#B{1-10}" seats
+		And User "lalwani.jayesh2@gmail.com" gets error
+
+	Scenario: Performances of a venue template start from the template
+		Given a performance in the venue "arena.layout"
+		When User "lalwani.jayesh@gmail.com" holds 5 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" holds 30 seats for level 1 - 2
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And User "lalwani.jayesh2@gmail.com" reserves seats
+		Then User "lalwani.jayesh@gmail.com" gets "1#A{6-10}" seats
+		And User "lalwani.jayesh2@gmail.com" gets "1#B{1-10}, 2#A{1-10}, 2#B{1-10}" seats
+
+	Scenario: Hold requests are recorded phase by phase
+		Given the hold pipeline is recorded
+		And a performance with the following levels
+			|id	|name		|price	|seats		|
+			|1	|Orchestra	|100	|EEEEEEEEEE	|
+			|2	|Balcony	|50		|EEEEEEEEEE	|
+		When User "lalwani.jayesh@gmail.com" holds 15 seats for level 1 - 2
+		And User "lalwani.jayesh2@gmail.com" holds 6 seats together for level 1 - 2
+		And User "lalwani.jayesh3@gmail.com" holds 5 seats for level 2 - 2
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		Then User "lalwani.jayesh@gmail.com" gets "1#A{1-10}, 2#A{1-5}" seats
+		And User "lalwani.jayesh2@gmail.com" gets error
+		And the recording has 3 hold requests
+		And the recording has 3 "HoldValidation" events
+		And the recording has 5 "LevelAllocation" events
+		And the recording has 2 "AddHold" events
+
+	Scenario: A retried request gets the result of the first try
+		Given a performance with the following levels
+			|id	|name		|price	|seats		|
+			|1	|Orchestra	|100	|EEEEEEEEEE	|
+		When User "lalwani.jayesh@gmail.com" holds 4 seats for level 1 - 1 with key "hold-1"
+		And User "lalwani.jayesh@gmail.com" retries holding 4 seats for level 1 - 1 with key "hold-1"
+		And User "lalwani.jayesh2@gmail.com" holds 6 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats with key "reserve-1"
+		And User "lalwani.jayesh@gmail.com" retries reserving seats with key "reserve-1"
+		And User "lalwani.jayesh2@gmail.com" reserves seats
+		Then User "lalwani.jayesh@gmail.com" gets "1#A{1-4}" seats
+		And User "lalwani.jayesh2@gmail.com" gets "1#A{5-10}" seats
+		And User "lalwani.jayesh@gmail.com" has 0 holds and 1 reservations
+
+	Scenario: An idempotency key is good for one request of one customer
+		Given a performance with the following levels
+			|id	|name		|price	|seats		|
+			|1	|Orchestra	|100	|EEEEEEEEEE	|
+		When User "lalwani.jayesh@gmail.com" holds 4 seats for level 1 - 1 with key "hold-1"
+		Then User "lalwani.jayesh@gmail.com" is refused holding 5 seats for level 1 - 1 with key "hold-1"
+		And User "lalwani.jayesh@gmail.com" has 1 holds and 0 reservations
+		When User "lalwani.jayesh2@gmail.com" holds 4 seats for level 1 - 1 with key "hold-1"
+		And User "lalwani.jayesh2@gmail.com" reserves seats
+		Then User "lalwani.jayesh2@gmail.com" gets "1#A{5-8}" seats
+
+	Scenario: Idempotency keys are forgotten after a while
+		Given a timeout of 10 sec
+		And idempotency keys are kept for 1 sec
+		And a performance with the following levels
+			|id	|name		|price	|seats		|
+			|1	|Orchestra	|100	|EEEEEEEEEE	|
+		When User "lalwani.jayesh@gmail.com" holds 4 seats for level 1 - 1 with key "hold-1"
+		And User "lalwani.jayesh@gmail.com" waits for 2 sec
+		And User "lalwani.jayesh@gmail.com" holds 4 seats for level 1 - 1 with key "hold-1"
+		Then User "lalwani.jayesh@gmail.com" has 2 holds and 0 reservations
+
+	Scenario: Released seats go to the waitlist
+		Given a performance with the following levels
+			|id	|name		|price	|seats		|
+			|1	|Orchestra	|100	|EEEEEEEEEE	|
+		When User "lalwani.jayesh@gmail.com" holds 10 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" waits for 4 seats for level 1 - 1
+		And User "lalwani.jayesh3@gmail.com" waits for 8 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" releases 3 seats
+		Then User "lalwani.jayesh2@gmail.com" is still waiting
+		When User "lalwani.jayesh@gmail.com" releases 2 seats
+		Then User "lalwani.jayesh2@gmail.com" is given a hold
+		And User "lalwani.jayesh3@gmail.com" is still waiting
+		When User "lalwani.jayesh2@gmail.com" reserves seats
+		Then User "lalwani.jayesh2@gmail.com" gets "1#A{6-9}" seats
+
+	Scenario: Expired holds go to the waitlist
+		Given a timeout of 1 sec
+		And a performance with the following levels
+			|id	|name		|price	|seats		|
+			|1	|Orchestra	|100	|EEEEEEEEEE	|
+		When User "lalwani.jayesh@gmail.com" holds 10 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" waits for 6 seats for level 1 - 1
+		And User "lalwani.jayesh3@gmail.com" waits for 6 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" leaves the waitlist
+		And User "lalwani.jayesh@gmail.com" waits for 2 sec
+		Then User "lalwani.jayesh@gmail.com" has 0 holds and 0 reservations
+		And User "lalwani.jayesh3@gmail.com" is given a hold
+		When User "lalwani.jayesh3@gmail.com" reserves seats
+		Then User "lalwani.jayesh3@gmail.com" gets "1#A{1-6}" seats
+
+	Scenario: Seats on the waitlist count against the hold quota
+		Given a hold quota of 12 seats per customer
+		And a performance with the following levels
+			|id	|name		|price	|seats					|
+			|1	|Orchestra	|100	|EEEEEEEEEE,EEEEEEEEEE	|
+		When User "lalwani.jayesh@gmail.com" holds 10 seats for level 1 - 1
+		And User "lalwani.jayesh3@gmail.com" holds 10 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" waits for 8 seats for level 1 - 1
+		Then User "lalwani.jayesh2@gmail.com" is throttled waiting for 5 seats for level 1 - 1
+		When User "lalwani.jayesh2@gmail.com" leaves the waitlist
+		And User "lalwani.jayesh2@gmail.com" waits for 5 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" releases 5 seats
+		Then User "lalwani.jayesh2@gmail.com" is given a hold
+		And User "lalwani.jayesh2@gmail.com" is throttled holding 8 seats for level 1 - 1
+		When User "lalwani.jayesh@gmail.com" releases 4 seats
+		And User "lalwani.jayesh2@gmail.com" holds 4 seats for level 1 - 1
+		Then User "lalwani.jayesh2@gmail.com" has 2 holds and 0 reservations
+
+	Scenario: Box office holds a block of rows for a group
+		Given a performance with the following levels
+			|id	|name		|price	|seats							|
+			|1	|Orchestra	|100	|EEEEE,RREEE,EEEEE,EEEEE		|
+		When User "lalwani.jayesh2@gmail.com" holds 3 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" holds rows B - C of level 1
+		And User "lalwani.jayesh3@gmail.com" holds 7 seats for level 1 - 1
+		And User "lalwani.jayesh4@gmail.com" holds rows B - C of level 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And User "lalwani.jayesh2@gmail.com" reserves seats
+		And User "lalwani.jayesh3@gmail.com" reserves seats
+		Then User "lalwani.jayesh@gmail.com" gets "1#C{1-5}" seats
+		And User "lalwani.jayesh2@gmail.com" gets "1#B{3-5}" seats
+		And User "lalwani.jayesh3@gmail.com" gets "1#A{1-5}, 1#D{1-2}" seats
+		And User "lalwani.jayesh4@gmail.com" gets error
+
+	Scenario: Door manifest of all the reservations
+		Given reservations are archived after 0 sec
+		And a performance with the following levels
+			|id	|name		|price	|seats			|
+			|1	|Orchestra	|100	|EEEEE,EEEEE	|
+		When User "lalwani.jayesh@gmail.com" holds 5 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And User "lalwani.jayesh2@gmail.com" holds 3 seats for level 1 - 1
+		And User "lalwani.jayesh3@gmail.com" holds 2 seats for level 1 - 1
+		And User "lalwani.jayesh3@gmail.com" reserves seats
+		And User "lalwani.jayesh2@gmail.com" releases 2 seats
+		And the reservations are exported
+		Then 1 reservations are archived
+		And the export has 2 reservations
+		And the export seats User "lalwani.jayesh@gmail.com" in "1#A{1-5}"
+		And the export seats User "lalwani.jayesh3@gmail.com" in "1#B{2-3}"
+
+	Scenario: Door manifest quotes emails and labels rows past Z
+		Given a performance with the following levels
+			|id	|name		|price	|seats	|
+			|1	|Orchestra	|100	|RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,RR,EE	|
+		When User "jayesh,lalwani@gmail.com" holds 2 seats for level 1 - 1
+		And User "jayesh,lalwani@gmail.com" reserves seats
+		And the reservations are exported
+		Then the export has 1 reservations
+		And the export seats User "jayesh,lalwani@gmail.com" in "1#AB{1-2}"
+
+	Scenario: Fragmentation of a level
+		Given a performance with the following levels
+			|id	|name		|price	|seats				|
+			|1	|Orchestra	|100	|EEEEE,EEEEE,EEEEE	|
+		When User "lalwani.jayesh@gmail.com" holds 3 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" holds 4 seats for level 1 - 1
+		And User "lalwani.jayesh3@gmail.com" holds 3 seats for level 1 - 1
+		Then level 1 has 0 empty, 3 half filled and 0 full rows
+		When User "lalwani.jayesh4@gmail.com" holds 4 seats for level 1 - 1
+		Then level 1 has 0 empty, 1 half filled and 2 full rows
+		And level 1 has a split rate of 0.25 and 1.5 rows per allocation
+
+	Scenario: A traced sale replays the same in virtual time
+		Given a timeout of 60 sec
+		And the ticket calls are traced on a virtual clock
+		And a performance with the following levels
+			|id	|name		|price	|seats					|
+			|1	|Orchestra	|100	|EEEEEEEEEE,EEEEEEEEEE	|
+		When User "lalwani.jayesh@gmail.com" holds 4 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" holds 6 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And 61 sec pass on the clock
+		And User "lalwani.jayesh3@gmail.com" holds 6 seats for level 1 - 1
+		Then User "lalwani.jayesh@gmail.com" gets "1#A{1-4}" seats
+		And User "lalwani.jayesh2@gmail.com" has 0 holds and 0 reservations
+		And User "lalwani.jayesh3@gmail.com" has 1 holds and 0 reservations
+		And the trace replays 12 calls with 0 different
+
+	Scenario: Customer service finds who is in a seat
+		Given a timeout of 60 sec
+		And the ticket calls are traced on a virtual clock
+		And a performance with the following levels
+			|id	|name		|price	|seats					|
+			|1	|Orchestra	|100	|EEEEEEEEEE,EEEEEEEEEE	|
+		When User "lalwani.jayesh@gmail.com" holds 4 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" holds 3 seats for level 1 - 1
+		And User "lalwani.jayesh3@gmail.com" holds 2 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		Then seat 1#A{2} is reserved by User "lalwani.jayesh@gmail.com"
+		And seat 1#A{7} is held by User "lalwani.jayesh2@gmail.com"
+		And seat 1#A{9} is held by User "lalwani.jayesh3@gmail.com"
+		And seat 1#A{10} is free
+		When User "lalwani.jayesh2@gmail.com" releases 1 seats
+		Then seat 1#A{6} is held by User "lalwani.jayesh2@gmail.com"
+		And seat 1#A{7} is held by User "lalwani.jayesh3@gmail.com"
+		And seat 1#A{9} is free
+		When 61 sec pass on the clock
+		Then seat 1#A{4} is reserved by User "lalwani.jayesh@gmail.com"
+		And seat 1#A{5} is free
+		And seat 1#B{1} is free
+		And the trace replays 18 calls with 0 different
+
+	Scenario: Seat owners of archived reservations come from the archive
+		Given reservations are archived after 0 sec
+		And a performance with the following levels
+			|id	|name		|price	|seats		|
+			|1	|Orchestra	|100	|EEEEEEEEEE	|
+		When User "lalwani.jayesh3@gmail.com" holds 2 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" holds 4 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And User "lalwani.jayesh2@gmail.com" holds 3 seats for level 1 - 1
+		Then 1 reservations are archived
+		And seat 1#A{4} is reserved by User "lalwani.jayesh@gmail.com"
+		And seat 1#A{8} is held by User "lalwani.jayesh2@gmail.com"
+		And seat 1#A{10} is free
+		When User "lalwani.jayesh3@gmail.com" releases 1 seats
+		Then seat 1#A{2} is reserved by User "lalwani.jayesh@gmail.com"
+		And seat 1#A{5} is reserved by User "lalwani.jayesh@gmail.com"
+		And seat 1#A{6} is held by User "lalwani.jayesh2@gmail.com"
+		And seat 1#A{9} is free
+
+	Scenario: Seat owners of holds kept in columns
+		Given holds are kept in columns
+		And a performance with the following levels
+			|id	|name		|price	|seats					|
+			|1	|Orchestra	|100	|EEEEEEEEEE,EEEEEEEEEE	|
+		When User "lalwani.jayesh@gmail.com" holds 4 seats for level 1 - 1
+		And User "lalwani.jayesh2@gmail.com" holds 3 seats for level 1 - 1
+		And User "lalwani.jayesh3@gmail.com" holds 2 seats for level 1 - 1
+		And User "lalwani.jayesh@gmail.com" reserves seats
+		And User "lalwani.jayesh2@gmail.com" releases 1 seats
+		Then seat 1#A{1} is reserved by User "lalwani.jayesh@gmail.com"
+		And seat 1#A{6} is held by User "lalwani.jayesh2@gmail.com"
+		And seat 1#A{8} is held by User "lalwani.jayesh3@gmail.com"
+		And seat 1#A{9} is free
\ No newline at end of file